@@ -0,0 +1,278 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.counters;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
+import com.sappenin.utils.appengine.data.dao.TransactionMetrics;
+import com.sappenin.utils.appengine.data.dao.TransactionRetryPolicy;
+import com.sappenin.utils.appengine.data.dao.base.AbstractObjectifyStringDao;
+
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+
+/**
+ * An implementation of {@link ShardedCounterDao} using Objectify.  Both {@link ShardedCounter} and {@link
+ * ShardedCounterShard} must be registered with Objectify before use. <br/> <br/> Each increment runs a single-attempt
+ * transaction on a randomly chosen shard.  If that attempt fails with a {@link ConcurrentModificationException}, the
+ * counter's shard count is doubled (up to {@link #getMaxNumShards()}), and the increment is retried on another random
+ * shard according to {@link #getTransactionRetryPolicy()}. <br/> <br/> Reads sum every shard in a single batch get.
+ * If {@link #getCountCacheExpirationSeconds()} is overridden, sums are also cached in memcache, in which case reads
+ * may lag increments by up to that many seconds.
+ *
+ * @author David Fuelling
+ */
+public class ObjectifyShardedCounterDao extends AbstractObjectifyStringDao<ShardedCounter> implements ShardedCounterDao
+{
+	// The number of shards of a counter that has never grown.
+	protected static final int DEFAULT_INITIAL_NUM_SHARDS = 4;
+
+	// The largest number of shards of any counter.  Every shard must fit into a single batch get.
+	protected static final int DEFAULT_MAX_NUM_SHARDS = 256;
+
+	private static final String COUNT_CACHE_KEY_PREFIX = "ShardedCounter:";
+
+	@Override
+	public void increment(final String counterName)
+	{
+		this.increment(counterName, 1L);
+	}
+
+	@Override
+	public void decrement(final String counterName)
+	{
+		this.increment(counterName, -1L);
+	}
+
+	@Override
+	public void increment(final String counterName, final long delta)
+	{
+		Preconditions.checkNotNull(counterName);
+
+		final TransactionRetryPolicy retryPolicy = this.getTransactionRetryPolicy();
+		final TransactionMetrics.Counters counters = this.getTransactionMetrics().getCounters(
+				Key.getKind(ShardedCounterShard.class));
+		int numShards = this.getNumShards(counterName);
+		for (int attempt = 1; ; attempt++)
+		{
+			final int shardIndex = ThreadLocalRandom.current().nextInt(numShards);
+			try
+			{
+				this.incrementShard(counterName, shardIndex, delta);
+				counters.recordCommit();
+				return;
+			}
+			catch (ConcurrentModificationException e)
+			{
+				counters.recordConcurrentModification();
+				numShards = this.growShards(counterName, numShards);
+
+				final long backoffMillis = retryPolicy.computeBackoffMillis(attempt,
+						ThreadLocalRandom.current().nextDouble());
+				if (!retryPolicy.shouldRetry(attempt, backoffMillis, this.getRemainingMillis()))
+				{
+					throw e;
+				}
+				counters.recordRetry();
+				this.logger.log(Level.FINE, String.format("Retrying increment of counter %s across %s shards",
+						counterName, numShards), e);
+				try
+				{
+					Thread.sleep(backoffMillis);
+				}
+				catch (InterruptedException ie)
+				{
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			}
+		}
+	}
+
+	@Override
+	public long getCount(final String counterName)
+	{
+		Preconditions.checkNotNull(counterName);
+
+		final Optional<Integer> optExpirationSeconds = this.getCountCacheExpirationSeconds();
+		if (optExpirationSeconds.isPresent())
+		{
+			final Object cachedCount = this.getMemcacheService().get(this.toCountCacheKey(counterName));
+			if (cachedCount instanceof Long)
+			{
+				return (Long) cachedCount;
+			}
+		}
+
+		long count = 0;
+		for (final ShardedCounterShard shard : ObjectifyService.ofy().load()
+				.keys(this.toShardKeys(counterName, this.getNumShards(counterName))).values())
+		{
+			count += shard.getCount();
+		}
+
+		if (optExpirationSeconds.isPresent())
+		{
+			this.getMemcacheService().put(this.toCountCacheKey(counterName), count,
+					Expiration.byDeltaSeconds(optExpirationSeconds.get()));
+		}
+		return count;
+	}
+
+	@Override
+	public int getNumShards(final String counterName)
+	{
+		final Optional<ShardedCounter> optShardedCounter = this.findByTypedKey(Key.create(ShardedCounter.class,
+				counterName));
+		return optShardedCounter.isPresent() ? optShardedCounter.get().getNumShards() : this.getInitialNumShards();
+	}
+
+	@Override
+	public void delete(final String counterName)
+	{
+		Preconditions.checkNotNull(counterName);
+
+		final Key<ShardedCounter> counterKey = Key.create(ShardedCounter.class, counterName);
+		final int numShards = this.getNumShards(counterName);
+		ObjectifyService.ofy().delete().keys(this.toShardKeys(counterName, numShards)).now();
+		ObjectifyService.ofy().delete().key(counterKey).now();
+		this.invalidateCaches(ImmutableList.of(counterKey));
+		this.getMemcacheService().delete(this.toCountCacheKey(counterName));
+	}
+
+	/**
+	 * @return The number of shards of a counter that has never grown.
+	 */
+	protected int getInitialNumShards()
+	{
+		return DEFAULT_INITIAL_NUM_SHARDS;
+	}
+
+	/**
+	 * @return The largest number of shards of any counter, which may not exceed the number of keys in a single batch
+	 * get.
+	 */
+	protected int getMaxNumShards()
+	{
+		return DEFAULT_MAX_NUM_SHARDS;
+	}
+
+	/**
+	 * Returns the number of seconds for which counter values are cached in memcache.  Counter values are not cached
+	 * by default.
+	 *
+	 * @return An optionally present number of seconds.
+	 */
+	protected Optional<Integer> getCountCacheExpirationSeconds()
+	{
+		return Optional.absent();
+	}
+
+	/**
+	 * Adds {@code delta} to a single shard, creating it if necessary, in a single-attempt transaction.
+	 *
+	 * @throws ConcurrentModificationException if the shard was written concurrently.
+	 */
+	@VisibleForTesting
+	void incrementShard(final String counterName, final int shardIndex, final long delta)
+	{
+		final Key<ShardedCounterShard> shardKey = ShardedCounterShard.key(counterName, shardIndex);
+		ObjectifyService.ofy().transactNew(1, new VoidWork()
+		{
+			@Override
+			public void vrun()
+			{
+				ShardedCounterShard shard = ObjectifyService.ofy().load().key(shardKey).now();
+				if (shard == null)
+				{
+					shard = new ShardedCounterShard(counterName, shardIndex);
+				}
+				shard.setCount(shard.getCount() + delta);
+				ObjectifyService.ofy().save().entity(shard).now();
+			}
+		});
+	}
+
+	/**
+	 * Doubles the number of shards of a counter (up to {@link #getMaxNumShards()}), unless another writer has already
+	 * grown it past {@code observedNumShards}.
+	 *
+	 * @param counterName       The name of the counter.
+	 * @param observedNumShards The number of shards that the caller contended on.
+	 *
+	 * @return The current number of shards.
+	 */
+	@VisibleForTesting
+	int growShards(final String counterName, final int observedNumShards)
+	{
+		final int maxNumShards = Math.min(this.getMaxNumShards(), MAX_KEYS_PER_BATCH_GET);
+		if (observedNumShards >= maxNumShards)
+		{
+			return observedNumShards;
+		}
+
+		final Key<ShardedCounter> counterKey = Key.create(ShardedCounter.class, counterName);
+		final int numShards = this.transactWithRetries(new Work<Integer>()
+		{
+			@Override
+			public Integer run()
+			{
+				final ShardedCounter existing = ObjectifyService.ofy().load().key(counterKey).now();
+				final int currentNumShards = existing == null ? getInitialNumShards() : existing.getNumShards();
+				if (currentNumShards > observedNumShards)
+				{
+					return currentNumShards;
+				}
+
+				final int grownNumShards = Math.min(maxNumShards, currentNumShards * 2);
+				ObjectifyService.ofy().save().entity(new ShardedCounter(counterName, grownNumShards)).now();
+				return grownNumShards;
+			}
+		});
+		this.invalidateCaches(ImmutableList.of(counterKey));
+		return numShards;
+	}
+
+	private List<Key<ShardedCounterShard>> toShardKeys(final String counterName, final int numShards)
+	{
+		final List<Key<ShardedCounterShard>> shardKeys = Lists.newArrayListWithCapacity(numShards);
+		for (int i = 0; i < numShards; i++)
+		{
+			shardKeys.add(ShardedCounterShard.key(counterName, i));
+		}
+		return shardKeys;
+	}
+
+	private String toCountCacheKey(final String counterName)
+	{
+		return COUNT_CACHE_KEY_PREFIX + counterName;
+	}
+
+	private MemcacheService getMemcacheService()
+	{
+		return MemcacheServiceFactory.getMemcacheService();
+	}
+
+}
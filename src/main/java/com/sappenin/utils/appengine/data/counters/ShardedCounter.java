@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.counters;
+
+import com.google.common.base.Preconditions;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.sappenin.utils.appengine.data.model.base.AbstractObjectifyStringEntity;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * The metadata of a sharded counter, identified by the counter's name.  The value of the counter is the sum of its
+ * {@link ShardedCounterShard}s, each of which is in its own entity group so that increments of different shards never
+ * contend.  This entity only records how many shards exist, and is cached by Objectify since it rarely changes.  A
+ * counter that has never grown has no metadata entity at all.
+ *
+ * @author David Fuelling
+ * @see ShardedCounterDao
+ */
+@Entity
+@Cache
+@ToString(callSuper = true)
+public class ShardedCounter extends AbstractObjectifyStringEntity<ShardedCounter>
+{
+	private static final long serialVersionUID = 2480470183564926423L;
+
+	// The number of shards that increments are spread across.  Shards are never removed, so every shard index below
+	// this number may hold part of the count.
+	@Getter
+	@Setter
+	private int numShards;
+
+	/**
+	 * No args constructor.
+	 *
+	 * @deprecated Exists only for objectify. Utilize the Required Args constructor instead.
+	 */
+	@Deprecated
+	public ShardedCounter()
+	{
+	}
+
+	/**
+	 * Required-args constructor.
+	 *
+	 * @param counterName The name of the counter.
+	 * @param numShards   The number of shards that increments are spread across.
+	 */
+	public ShardedCounter(final String counterName, final int numShards)
+	{
+		super(counterName);
+		Preconditions.checkArgument(numShards > 0, "numShards must be positive!");
+		this.numShards = numShards;
+	}
+
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.counters;
+
+import com.sappenin.utils.appengine.data.dao.ObjectifyStringDao;
+
+import java.util.ConcurrentModificationException;
+
+/**
+ * A Dao for counters that are written far more often than the roughly one write per second that a single entity group
+ * sustains.  Each increment updates one randomly chosen {@link ShardedCounterShard}, and the shard count of a counter
+ * grows automatically whenever increments contend.  Reads sum every shard in a single batch get.
+ *
+ * @author David Fuelling
+ */
+public interface ShardedCounterDao extends ObjectifyStringDao<ShardedCounter>
+{
+	/**
+	 * Increments a counter by one, creating it if necessary.
+	 *
+	 * @param counterName The name of the counter.
+	 *
+	 * @throws ConcurrentModificationException if every attempt to increment a shard fails with contention.
+	 */
+	void increment(final String counterName);
+
+	/**
+	 * Decrements a counter by one, creating it if necessary.  Counters may become negative.
+	 *
+	 * @param counterName The name of the counter.
+	 *
+	 * @throws ConcurrentModificationException if every attempt to decrement a shard fails with contention.
+	 */
+	void decrement(final String counterName);
+
+	/**
+	 * Adds {@code delta} to a counter, creating it if necessary.
+	 *
+	 * @param counterName The name of the counter.
+	 * @param delta       The (possibly negative) amount to add.
+	 *
+	 * @throws ConcurrentModificationException if every attempt to update a shard fails with contention.
+	 */
+	void increment(final String counterName, final long delta);
+
+	/**
+	 * Returns the value of a counter, which is zero for a counter that has never been incremented.
+	 *
+	 * @param counterName The name of the counter.
+	 *
+	 * @return The sum of every shard of the counter.
+	 */
+	long getCount(final String counterName);
+
+	/**
+	 * Returns the number of shards that increments of a counter are spread across.
+	 *
+	 * @param counterName The name of the counter.
+	 *
+	 * @return The number of shards.
+	 */
+	int getNumShards(final String counterName);
+
+	/**
+	 * Deletes a counter, along with all of its shards.
+	 *
+	 * @param counterName The name of the counter.
+	 */
+	void delete(final String counterName);
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.counters;
+
+import com.google.common.base.Preconditions;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.sappenin.utils.appengine.data.model.base.AbstractObjectifyStringEntity;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * A single shard of a {@link ShardedCounter}, holding part of the counter's value.  Each shard is the root of its own
+ * entity group, and is identified by the counter's name and the shard's index.
+ *
+ * @author David Fuelling
+ */
+@Entity
+@ToString(callSuper = true)
+public class ShardedCounterShard extends AbstractObjectifyStringEntity<ShardedCounterShard>
+{
+	private static final long serialVersionUID = -2047413838457453140L;
+
+	@Getter
+	@Setter
+	private long count;
+
+	/**
+	 * No args constructor.
+	 *
+	 * @deprecated Exists only for objectify. Utilize the Required Args constructor instead.
+	 */
+	@Deprecated
+	public ShardedCounterShard()
+	{
+	}
+
+	/**
+	 * Required-args constructor.
+	 *
+	 * @param counterName The name of the counter that this shard belongs to.
+	 * @param shardIndex  The index of this shard.
+	 */
+	public ShardedCounterShard(final String counterName, final int shardIndex)
+	{
+		super(toId(counterName, shardIndex));
+	}
+
+	/**
+	 * Assembles the {@link Key} of a shard.
+	 *
+	 * @param counterName The name of the counter that the shard belongs to.
+	 * @param shardIndex  The index of the shard.
+	 *
+	 * @return The {@link Key} of the shard.
+	 */
+	public static Key<ShardedCounterShard> key(final String counterName, final int shardIndex)
+	{
+		return Key.create(ShardedCounterShard.class, toId(counterName, shardIndex));
+	}
+
+	private static String toId(final String counterName, final int shardIndex)
+	{
+		Preconditions.checkNotNull(counterName);
+		Preconditions.checkArgument(shardIndex >= 0, "shardIndex must not be negative!");
+		return counterName + "#" + shardIndex;
+	}
+
+}
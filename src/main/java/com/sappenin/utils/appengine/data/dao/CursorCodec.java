@@ -0,0 +1,261 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.dao;
+
+import com.google.appengine.api.NamespaceManager;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.common.base.Optional;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Preconditions;
+import com.google.common.io.BaseEncoding;
+import com.sappenin.utils.appengine.data.dao.exceptions.InvalidCursorTokenException;
+import com.sappenin.utils.appengine.data.model.ResultWithCursor;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+/**
+ * Converts {@link Cursor}s to and from signed tokens that can be handed to clients in place of {@link
+ * Cursor#toWebSafeString()}. <br/> <br/> A token is a 12 character header, which is the base64url encoding of a
+ * format version byte and a truncated HMAC-SHA256, followed by the cursor's web-safe string (without padding).  This
+ * codec only adds signing; it is not a more compact encoding.  A cursor's bytes are opaque, and its web-safe string
+ * already packs them as tightly as base64url allows, so every token is exactly 12 characters longer than that
+ * string. <br/> <br/> The HMAC covers the cursor's web-safe string, a caller-supplied signature of the query that the
+ * cursor belongs to (e.g., {@code "inbox:ownerId=123:order=-creationDateTime"}), and a namespace, so a token that was
+ * tampered with, or that was issued for another query or namespace, is rejected with an {@link
+ * InvalidCursorTokenException} before any Datastore call is made.  A query signature must therefore capture every
+ * parameter of the query that a client could vary.
+ *
+ * @author David Fuelling
+ */
+public class CursorCodec
+{
+	private static final byte FORMAT_VERSION = 1;
+
+	// The number of HMAC bytes kept in each token, which is ample for tokens that can only be checked online.
+	private static final int MAC_LENGTH = 8;
+
+	// The header is a multiple of 3 bytes long, so its base64url encoding needs no padding.
+	private static final int HEADER_LENGTH = 1 + MAC_LENGTH;
+
+	private static final int ENCODED_HEADER_LENGTH = 4 * HEADER_LENGTH / 3;
+
+	private static final int MIN_SECRET_KEY_LENGTH = 16;
+
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+
+	private static final BaseEncoding HEADER_ENCODING = BaseEncoding.base64Url();
+
+	private static final CharMatcher PADDING = CharMatcher.is('=');
+
+	// A Mac is not thread-safe, and creating one is comparatively expensive, so each thread reuses its own.
+	private final ThreadLocal<Mac> macs;
+
+	/**
+	 * Required-args Constructor.
+	 *
+	 * @param secretKey The key that tokens are signed with, which must be at least 16 bytes long.  Tokens can only be
+	 *                  decoded by a codec with the same key.
+	 */
+	public CursorCodec(final byte[] secretKey)
+	{
+		Preconditions.checkNotNull(secretKey);
+		Preconditions.checkArgument(secretKey.length >= MIN_SECRET_KEY_LENGTH,
+				"secretKey must be at least %s bytes long!", MIN_SECRET_KEY_LENGTH);
+
+		final SecretKeySpec secretKeySpec = new SecretKeySpec(secretKey.clone(), MAC_ALGORITHM);
+		this.macs = new ThreadLocal<Mac>()
+		{
+			@Override
+			protected Mac initialValue()
+			{
+				try
+				{
+					final Mac mac = Mac.getInstance(MAC_ALGORITHM);
+					mac.init(secretKeySpec);
+					return mac;
+				}
+				catch (GeneralSecurityException e)
+				{
+					throw new IllegalStateException("Unable to initialize " + MAC_ALGORITHM + "!", e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Encodes {@code cursor} as a token that is bound to {@code querySignature} and the current namespace.
+	 *
+	 * @param cursor         The {@link Cursor} to encode.
+	 * @param querySignature A {@link String} that identifies the query that {@code cursor} belongs to.
+	 *
+	 * @return A URL-safe token.
+	 */
+	public String encode(final Cursor cursor, final String querySignature)
+	{
+		return this.encode(cursor, querySignature, currentNamespace());
+	}
+
+	/**
+	 * Encodes {@code cursor} as a token that is bound to {@code querySignature} and {@code namespace}.
+	 *
+	 * @param cursor         The {@link Cursor} to encode.
+	 * @param querySignature A {@link String} that identifies the query that {@code cursor} belongs to.
+	 * @param namespace      The namespace that the query is run in, where the empty {@link String} is the default
+	 *                       namespace.
+	 *
+	 * @return A URL-safe token.
+	 */
+	public String encode(final Cursor cursor, final String querySignature, final String namespace)
+	{
+		Preconditions.checkNotNull(cursor);
+		Preconditions.checkNotNull(querySignature);
+		Preconditions.checkNotNull(namespace);
+
+		final String webSafeCursor = PADDING.trimTrailingFrom(cursor.toWebSafeString());
+		final byte[] header = new byte[HEADER_LENGTH];
+		header[0] = FORMAT_VERSION;
+		System.arraycopy(this.computeMac(webSafeCursor, querySignature, namespace), 0, header, 1, MAC_LENGTH);
+		return HEADER_ENCODING.encode(header) + webSafeCursor;
+	}
+
+	/**
+	 * Encodes the {@link Cursor} of {@code resultWithCursor}, if any, as a token that is bound to {@code
+	 * querySignature} and the current namespace.
+	 *
+	 * @param resultWithCursor A page of results.
+	 * @param querySignature   A {@link String} that identifies the query that produced {@code resultWithCursor}.
+	 *
+	 * @return An optionally present token for the next page, which is absent if {@code resultWithCursor} is the last
+	 * page.
+	 */
+	public Optional<String> encodeNext(final ResultWithCursor<?> resultWithCursor, final String querySignature)
+	{
+		Preconditions.checkNotNull(resultWithCursor);
+		if (!resultWithCursor.getOptCursor().isPresent())
+		{
+			return Optional.absent();
+		}
+		return Optional.of(this.encode(resultWithCursor.getOptCursor().get(), querySignature));
+	}
+
+	/**
+	 * Decodes a token that was issued by {@link #encode(Cursor, String)} for {@code querySignature} in the current
+	 * namespace.
+	 *
+	 * @param token          A token that was supplied by a client.
+	 * @param querySignature A {@link String} that identifies the query that the token will be used with.
+	 *
+	 * @return The {@link Cursor} that the token was issued for.
+	 *
+	 * @throws InvalidCursorTokenException if the token is malformed, or was not issued by this codec for {@code
+	 *                                     querySignature} in the current namespace.
+	 */
+	public Cursor decode(final String token, final String querySignature) throws InvalidCursorTokenException
+	{
+		return this.decode(token, querySignature, currentNamespace());
+	}
+
+	/**
+	 * Decodes a token that was issued by {@link #encode(Cursor, String, String)} for {@code querySignature} in {@code
+	 * namespace}.
+	 *
+	 * @param token          A token that was supplied by a client.
+	 * @param querySignature A {@link String} that identifies the query that the token will be used with.
+	 * @param namespace      The namespace that the query will be run in.
+	 *
+	 * @return The {@link Cursor} that the token was issued for.
+	 *
+	 * @throws InvalidCursorTokenException if the token is malformed, or was not issued by this codec for {@code
+	 *                                     querySignature} in {@code namespace}.
+	 */
+	public Cursor decode(final String token, final String querySignature, final String namespace)
+			throws InvalidCursorTokenException
+	{
+		Preconditions.checkNotNull(token);
+		Preconditions.checkNotNull(querySignature);
+		Preconditions.checkNotNull(namespace);
+
+		if (token.length() <= ENCODED_HEADER_LENGTH)
+		{
+			throw new InvalidCursorTokenException("Cursor token has an unsupported format!");
+		}
+		final byte[] header;
+		try
+		{
+			header = HEADER_ENCODING.decode(token.substring(0, ENCODED_HEADER_LENGTH));
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new InvalidCursorTokenException("Cursor token is not base64url-encoded!", e);
+		}
+		if (header[0] != FORMAT_VERSION)
+		{
+			throw new InvalidCursorTokenException("Cursor token has an unsupported format!");
+		}
+
+		// Compare every byte, so that the time taken does not reveal how much of a forged MAC was correct.
+		final String webSafeCursor = token.substring(ENCODED_HEADER_LENGTH);
+		final byte[] expectedMac = this.computeMac(webSafeCursor, querySignature, namespace);
+		int difference = 0;
+		for (int i = 0; i < MAC_LENGTH; i++)
+		{
+			difference |= expectedMac[i] ^ header[1 + i];
+		}
+		if (difference != 0)
+		{
+			throw new InvalidCursorTokenException("Cursor token was not issued for this query and namespace!");
+		}
+
+		// The cursor was issued by this codec, so it is passed to the Datastore exactly as it was encoded.
+		return Cursor.fromWebSafeString(webSafeCursor);
+	}
+
+	//////////////////
+	// Private Helpers
+	//////////////////
+
+	/**
+	 * Computes the HMAC of {@code webSafeCursor}, bound to {@code querySignature} and {@code namespace}.  Each string
+	 * is length-prefixed so that no two (signature, namespace) pairs sign the same bytes.
+	 */
+	private byte[] computeMac(final String webSafeCursor, final String querySignature, final String namespace)
+	{
+		final Mac mac = this.macs.get();
+		mac.update(FORMAT_VERSION);
+		updateWithString(mac, namespace);
+		updateWithString(mac, querySignature);
+		mac.update(webSafeCursor.getBytes(StandardCharsets.UTF_8));
+		return mac.doFinal();
+	}
+
+	private static void updateWithString(final Mac mac, final String value)
+	{
+		final byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+		final int length = valueBytes.length;
+		mac.update((byte) (length >>> 24));
+		mac.update((byte) (length >>> 16));
+		mac.update((byte) (length >>> 8));
+		mac.update((byte) length);
+		mac.update(valueBytes);
+	}
+
+	private static String currentNamespace()
+	{
+		final String namespace = NamespaceManager.get();
+		return namespace == null ? "" : namespace;
+	}
+
+}
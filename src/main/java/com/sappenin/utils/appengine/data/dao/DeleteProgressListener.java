@@ -0,0 +1,29 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.dao;
+
+/**
+ * Notified as a bulk delete (see {@link ObjectifyDao#deleteAll}) makes progress, e.g., so that a long-running task can
+ * report or persist how far it has gotten.
+ *
+ * @author David Fuelling
+ */
+public interface DeleteProgressListener
+{
+	/**
+	 * Called each time a batch delete completes.
+	 *
+	 * @param numDeleted The total number of keys deleted so far.
+	 */
+	void onProgress(final long numDeleted);
+}
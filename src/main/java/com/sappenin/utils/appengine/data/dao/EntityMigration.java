@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.dao;
+
+/**
+ * A single step of an {@link EntityMigrationRegistry}, which upgrades an entity from one schema version to the next.
+ * Migrations are applied to entities as they are loaded, so they must only depend on the entity itself, and must
+ * tolerate entities that were already partially upgraded by hand.
+ *
+ * @param <T> The type of entity to migrate.
+ *
+ * @author David Fuelling
+ */
+public interface EntityMigration<T>
+{
+	/**
+	 * Upgrades {@code entity} in place.  The entity's schema version is updated by the caller.
+	 *
+	 * @param entity An entity whose schema version is the one that precedes this migration.
+	 */
+	void migrate(final T entity);
+}
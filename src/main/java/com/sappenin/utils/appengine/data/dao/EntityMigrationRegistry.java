@@ -0,0 +1,291 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.dao;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import com.sappenin.utils.appengine.data.model.base.AbstractObjectifyEntity;
+
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An ordered list of {@link EntityMigration}s for a single kind, which lets a Dao upgrade entities lazily as they are
+ * loaded instead of rewriting the entire kind whenever its schema changes.  The migration at index {@code i} upgrades
+ * an entity from schema version {@code i} to {@code i + 1}, so the current schema version is the number of registered
+ * migrations, and new migrations must only ever be appended. <br/> <br/> A Dao queues the keys of the entities that
+ * it upgrades while a {@link WriteBehindBuffer} is active, and writes back whatever is queued (even a partial batch)
+ * when that buffer closes, so that a schema change is persisted gradually with normal traffic.  Write-back therefore
+ * requires requests to be scoped by a {@link WriteBehindBuffer}: entities upgraded outside of one are not queued.
+ * Each write-back re-reads, upgrades, and puts its entities inside of transactions, so it never overwrites a
+ * concurrent write with a loading request's copy.  At most {@code writeBackBatchSize} keys are queued at once; further
+ * keys are dropped (see {@link #getNumDropped()}), and keys that are still queued when an instance shuts down are not
+ * written back.  Those entities are simply migrated again the next time they are loaded.
+ *
+ * @param <T> The type of entity to migrate.
+ *
+ * @author David Fuelling
+ */
+public class EntityMigrationRegistry<T extends AbstractObjectifyEntity<T>>
+{
+	// The maximum number of upgraded entities that are queued to be written back together.
+	public static final int DEFAULT_WRITE_BACK_BATCH_SIZE = 100;
+
+	// The maximum number of entity groups that may participate in a single cross-group (XG) transaction.
+	private static final int MAX_ENTITY_GROUPS_PER_TRANSACTION = 25;
+
+	private final List<EntityMigration<T>> migrations;
+
+	private final int writeBackBatchSize;
+
+	private final Queue<Key<T>> queuedKeys = new ConcurrentLinkedQueue<>();
+
+	private final AtomicInteger numQueuedKeys = new AtomicInteger();
+
+	private final AtomicLong numMigrated = new AtomicLong();
+
+	private final AtomicLong numWrittenBack = new AtomicLong();
+
+	private final AtomicLong numDropped = new AtomicLong();
+
+	/**
+	 * Required-args Constructor, using {@link #DEFAULT_WRITE_BACK_BATCH_SIZE}.
+	 *
+	 * @param migrations The {@link EntityMigration}s of this kind, ordered from oldest to newest.
+	 */
+	public EntityMigrationRegistry(final List<? extends EntityMigration<T>> migrations)
+	{
+		this(migrations, DEFAULT_WRITE_BACK_BATCH_SIZE);
+	}
+
+	/**
+	 * Required-args Constructor.
+	 *
+	 * @param migrations         The {@link EntityMigration}s of this kind, ordered from oldest to newest.
+	 * @param writeBackBatchSize The maximum number of upgraded entities that are queued to be written back together.
+	 */
+	public EntityMigrationRegistry(final List<? extends EntityMigration<T>> migrations,
+			final int writeBackBatchSize)
+	{
+		Preconditions.checkNotNull(migrations);
+		Preconditions.checkArgument(writeBackBatchSize > 0, "writeBackBatchSize must be positive!");
+
+		this.migrations = ImmutableList.copyOf(migrations);
+		this.writeBackBatchSize = writeBackBatchSize;
+	}
+
+	/**
+	 * @return The schema version that entities are upgraded to, which is the number of registered migrations.
+	 */
+	public int getCurrentSchemaVersion()
+	{
+		return this.migrations.size();
+	}
+
+	/**
+	 * Upgrades {@code entity} to the current schema version by applying every migration that it has not yet had.
+	 * Entities with a newer schema version (e.g., written by a newer version of the application during a rolling
+	 * deploy) are left unchanged.
+	 *
+	 * @param entity An entity that was loaded from the Datastore.
+	 *
+	 * @return {@code true} if {@code entity} was upgraded, and therefore differs from its stored copy.
+	 */
+	public boolean migrate(final T entity)
+	{
+		final boolean migrated = this.applyMigrations(entity);
+		if (migrated)
+		{
+			this.numMigrated.incrementAndGet();
+		}
+		return migrated;
+	}
+
+	/**
+	 * Queues the entity identified by {@code key} to be written back by the next call to {@link #flushWriteBack()},
+	 * unless a full batch is already queued, in which case the key is dropped and counted in {@link #getNumDropped()}.
+	 *
+	 * @param key The {@link Key} of an entity that has been upgraded by {@link #migrate}.
+	 *
+	 * @return {@code true} if the key was queued; {@code false} if it was dropped.
+	 */
+	public boolean enqueueWriteBack(final Key<T> key)
+	{
+		Preconditions.checkNotNull(key);
+		// Bound the queue in case write-backs fall behind the rate at which entities are upgraded.
+		if (this.numQueuedKeys.get() >= this.writeBackBatchSize)
+		{
+			this.numDropped.incrementAndGet();
+			return false;
+		}
+		this.queuedKeys.add(key);
+		this.numQueuedKeys.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Writes back every queued entity that is still outdated.  Entities are re-read, upgraded, and put inside of a
+	 * cross-group transaction per {@value #MAX_ENTITY_GROUPS_PER_TRANSACTION} entity groups, so a write-back neither
+	 * loses a concurrent write nor changes an entity's version.  Entities whose transaction fails with contention are
+	 * skipped, since they are being written by someone else anyway.  This blocks, and must not be called inside of a
+	 * transaction.
+	 *
+	 * @return A {@link List} of the {@link Key}s of the entities that were written back.
+	 */
+	public List<Key<T>> flushWriteBack()
+	{
+		Preconditions.checkState(ObjectifyService.ofy().getTransaction() == null,
+				"Cannot #flushWriteBack inside of a transaction!");
+
+		final Set<Key<T>> keys = Sets.newLinkedHashSet();
+		Key<T> queuedKey;
+		while ((queuedKey = this.queuedKeys.poll()) != null)
+		{
+			this.numQueuedKeys.decrementAndGet();
+			keys.add(queuedKey);
+		}
+
+		final List<Key<T>> writtenKeys = Lists.newArrayList();
+		for (final List<Key<T>> chunk : this.partitionByEntityGroups(keys))
+		{
+			try
+			{
+				// A fresh session ensures that the entities are read from the Datastore rather than from a loading
+				// request's session (whose copies may have been modified since they were upgraded), and that the
+				// loading request's session is not populated with the written copies.
+				writtenKeys.addAll(ObjectifyService.factory().begin().transactNew(1, new Work<List<Key<T>>>()
+				{
+					@Override
+					public List<Key<T>> run()
+					{
+						return writeBackChunk(chunk);
+					}
+				}));
+			}
+			catch (ConcurrentModificationException e)
+			{
+				// Leave these entities to be migrated again the next time they are loaded.
+			}
+		}
+		this.numWrittenBack.addAndGet(writtenKeys.size());
+		return writtenKeys;
+	}
+
+	/**
+	 * @return The number of entities that have been upgraded as they were loaded.
+	 */
+	public long getNumMigrated()
+	{
+		return this.numMigrated.get();
+	}
+
+	/**
+	 * @return The number of upgraded entities that have been written back.
+	 */
+	public long getNumWrittenBack()
+	{
+		return this.numWrittenBack.get();
+	}
+
+	/**
+	 * @return The number of upgraded entities that were not queued for write-back because a full batch was already
+	 * queued.  A steadily growing count suggests that {@code writeBackBatchSize} is too small.
+	 */
+	public long getNumDropped()
+	{
+		return this.numDropped.get();
+	}
+
+	//////////////////
+	// Private Helpers
+	//////////////////
+
+	/**
+	 * Upgrades and puts every entity in {@code chunk} that is still outdated, inside of the current transaction.
+	 *
+	 * @return A {@link List} of the {@link Key}s of the entities that were put.
+	 */
+	private List<Key<T>> writeBackChunk(final List<Key<T>> chunk)
+	{
+		final List<T> outdatedEntities = Lists.newArrayList();
+		final List<Key<T>> outdatedKeys = Lists.newArrayList();
+		for (final T entity : ObjectifyService.ofy().load().keys(chunk).values())
+		{
+			if (this.applyMigrations(entity))
+			{
+				outdatedEntities.add(entity);
+				outdatedKeys.add(entity.getTypedKey());
+			}
+		}
+		if (!outdatedEntities.isEmpty())
+		{
+			ObjectifyService.ofy().save().entities(outdatedEntities).now();
+		}
+		return outdatedKeys;
+	}
+
+	/**
+	 * Divides {@code keys} into chunks, in iteration order, that each span at most {@link
+	 * #MAX_ENTITY_GROUPS_PER_TRANSACTION} entity groups.
+	 */
+	private List<List<Key<T>>> partitionByEntityGroups(final Iterable<Key<T>> keys)
+	{
+		final List<List<Key<T>>> chunks = Lists.newArrayList();
+		List<Key<T>> chunk = Lists.newArrayList();
+		final Set<Key<?>> rootKeys = Sets.newHashSet();
+		for (final Key<T> key : keys)
+		{
+			if (!rootKeys.contains(key.getRoot()) && rootKeys.size() == MAX_ENTITY_GROUPS_PER_TRANSACTION)
+			{
+				chunks.add(chunk);
+				chunk = Lists.newArrayList();
+				rootKeys.clear();
+			}
+			rootKeys.add(key.getRoot());
+			chunk.add(key);
+		}
+		if (!chunk.isEmpty())
+		{
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+
+	private boolean applyMigrations(final T entity)
+	{
+		Preconditions.checkNotNull(entity);
+
+		final int schemaVersion = entity.getSchemaVersion() == null ? 0 : entity.getSchemaVersion();
+		if (schemaVersion >= this.migrations.size())
+		{
+			return false;
+		}
+		for (final EntityMigration<T> migration : this.migrations.subList(schemaVersion, this.migrations.size()))
+		{
+			migration.migrate(entity);
+		}
+		entity.setSchemaVersion(this.migrations.size());
+		return true;
+	}
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.dao;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityTranslator;
+import com.google.common.base.Preconditions;
+import com.googlecode.objectify.Key;
+import com.sappenin.utils.appengine.data.dao.exceptions.EntityTooLargeException;
+import com.sappenin.utils.appengine.data.translate.LifecycleSkippingSaveContext;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Estimates the size of entities before they are written, so that an oversized entity fails fast with an {@link
+ * EntityTooLargeException} instead of failing in the Datastore (after any preceding work in its transaction).  The
+ * estimate is the size of the protocol buffer that the Datastore would be sent for the entity, which is what its limit
+ * applies to, and so costs about as much as preparing the entity for a put.
+ *
+ * @author David Fuelling
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+public class EntitySizeEstimator
+{
+	/**
+	 * The largest entity, in bytes, that the Datastore will store.
+	 */
+	public static final int MAX_ENTITY_BYTES = 1048572;
+
+	/**
+	 * The estimator used by default, which allows entities up to {@link #MAX_ENTITY_BYTES}.
+	 */
+	public static final EntitySizeEstimator DEFAULT = new EntitySizeEstimator(MAX_ENTITY_BYTES);
+
+	private final int maxBytes;
+
+	/**
+	 * Required-args Constructor.
+	 *
+	 * @param maxBytes The largest allowed size of an entity, in bytes.  A limit below {@link #MAX_ENTITY_BYTES} leaves
+	 *                 headroom for entities that grow over time.
+	 */
+	public EntitySizeEstimator(final int maxBytes)
+	{
+		Preconditions.checkArgument(maxBytes > 0, "maxBytes must be positive!");
+		Preconditions.checkArgument(maxBytes <= MAX_ENTITY_BYTES, "maxBytes must not exceed %s!", MAX_ENTITY_BYTES);
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @param entity A low-level {@link Entity}.
+	 *
+	 * @return The size of {@code entity} as it would be sent to the Datastore, in bytes.
+	 */
+	public int estimateBytes(final Entity entity)
+	{
+		Preconditions.checkNotNull(entity);
+		return EntityTranslator.convertToPb(entity).getSerializedSize();
+	}
+
+	/**
+	 * @param pojo An entity that is registered with Objectify.
+	 *
+	 * @return The size of {@code pojo} as Objectify would send it to the Datastore, in bytes.  The entity's {@link
+	 * com.googlecode.objectify.annotation.OnSave} methods are not run, so that they only run when it is saved.
+	 */
+	public int estimateBytes(final Object pojo)
+	{
+		Preconditions.checkNotNull(pojo);
+		return this.estimateBytes(LifecycleSkippingSaveContext.toEntity(pojo));
+	}
+
+	/**
+	 * Verifies that {@code pojo} is small enough to be written, without running its {@link
+	 * com.googlecode.objectify.annotation.OnSave} methods.
+	 *
+	 * @param pojo An entity that is registered with Objectify, and that is about to be written.
+	 *
+	 * @throws EntityTooLargeException if the estimated size of {@code pojo} exceeds {@link #getMaxBytes()}.
+	 */
+	public void checkSize(final Object pojo) throws EntityTooLargeException
+	{
+		Preconditions.checkNotNull(pojo);
+
+		final Entity entity = LifecycleSkippingSaveContext.toEntity(pojo);
+		final int estimatedBytes = this.estimateBytes(entity);
+		if (estimatedBytes > this.maxBytes)
+		{
+			final Key<?> key = entity.getKey().isComplete() ? Key.create(entity.getKey()) : null;
+			throw new EntityTooLargeException(
+					"Unable to write " + (key == null ? "a new " + entity.getKind() : key) + " because its estimated "
+							+ "size of " + estimatedBytes + " bytes exceeds the limit of " + this.maxBytes + " bytes!",
+					key, estimatedBytes, this.maxBytes);
+		}
+	}
+
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.dao;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Lists;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded, per-instance cache of entities that sits in front of the Datastore (and Objectify's memcache
+ * integration), so that reads of hot entities on a warm instance require no RPC at all. <br/> <br/> Cached entities
+ * are stored as low-level {@link Entity}s, and every read returns a freshly hydrated copy, so callers may freely mutate
+ * what they are given. <br/> <br/> Writers on any instance invalidate an entity by incrementing a per-key version
+ * stamp in memcache.  A cached entity is served without any RPC for {@code revalidateAfterMillis} after it was last
+ * validated; after that, its version stamp is compared to memcache (a single memcache get) before it is served again.
+ * Other instances may therefore serve a stale entity for at most {@code revalidateAfterMillis}, while the instance
+ * that performed a write never does.  An evicted version stamp is treated as a change: a missing stamp is recreated at a
+ * random value, so it cannot repeat a stamp that some instance may still hold.
+ *
+ * @author David Fuelling
+ */
+public class NearCache<T>
+{
+	private static final String VERSION_KEY_PREFIX = "NearCache:";
+
+	private final Cache<Key<T>, CachedEntity> cache;
+
+	private final long revalidateAfterMillis;
+
+	/**
+	 * Required-args Constructor.
+	 *
+	 * @param maximumSize            The maximum number of entities to hold.  The least recently used entities are
+	 *                               evicted first.
+	 * @param expireAfterWriteMillis The number of milliseconds after which a cached entity is evicted, regardless of
+	 *                               whether its version stamp has changed.
+	 * @param revalidateAfterMillis  The number of milliseconds that a cached entity may be served without checking its
+	 *                               version stamp in memcache.
+	 */
+	public NearCache(final long maximumSize, final long expireAfterWriteMillis, final long revalidateAfterMillis)
+	{
+		Preconditions.checkArgument(maximumSize > 0, "maximumSize must be positive!");
+		Preconditions.checkArgument(expireAfterWriteMillis > 0, "expireAfterWriteMillis must be positive!");
+		Preconditions.checkArgument(revalidateAfterMillis >= 0, "revalidateAfterMillis must not be negative!");
+
+		this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize)
+				.expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS).recordStats().build();
+		this.revalidateAfterMillis = revalidateAfterMillis;
+	}
+
+	/**
+	 * Returns a copy of the cached entity identified by {@code key}, revalidating it against its version stamp if
+	 * necessary.
+	 *
+	 * @param key The {@link Key} of the entity to return.
+	 *
+	 * @return An optionally present entity, which is absent if the entity is not cached or is no longer current.
+	 */
+	public Optional<T> getIfPresent(final Key<T> key)
+	{
+		Preconditions.checkNotNull(key);
+
+		final CachedEntity cachedEntity = this.cache.getIfPresent(key);
+		if (cachedEntity == null)
+		{
+			return Optional.absent();
+		}
+
+		final long now = System.currentTimeMillis();
+		if (now - cachedEntity.validatedAtMillis >= this.revalidateAfterMillis)
+		{
+			if (!Long.valueOf(cachedEntity.version).equals(this.getMemcacheService().get(this.toVersionKey(key))))
+			{
+				this.cache.invalidate(key);
+				return Optional.absent();
+			}
+			cachedEntity.validatedAtMillis = now;
+		}
+
+		return Optional.of(ObjectifyService.ofy().load().<T>fromEntity(cachedEntity.entity));
+	}
+
+	/**
+	 * Returns the current version stamp of the entity identified by {@code key}, initializing it if necessary.  This
+	 * should be read before an entity is loaded from the Datastore, so that a write that races with the load is
+	 * detected on revalidation.
+	 *
+	 * @param key The {@link Key} of an entity.
+	 *
+	 * @return The current version stamp, or {@code null} if memcache is unavailable.
+	 */
+	public Long getVersion(final Key<T> key)
+	{
+		Preconditions.checkNotNull(key);
+		return this.getMemcacheService().increment(this.toVersionKey(key), 0L, this.newInitialVersion());
+	}
+
+	/**
+	 * Caches a copy of {@code entity}.
+	 *
+	 * @param key     The {@link Key} of {@code entity}.
+	 * @param entity  The entity to cache, as it was loaded from the Datastore.
+	 * @param version The version stamp that was read (see {@link #getVersion}) before {@code entity} was loaded.  If
+	 *                {@code null}, nothing is cached.
+	 */
+	public void put(final Key<T> key, final T entity, final Long version)
+	{
+		Preconditions.checkNotNull(key);
+		Preconditions.checkNotNull(entity);
+		if (version != null)
+		{
+			this.cache.put(key, new CachedEntity(ObjectifyService.ofy().save().toEntity(entity), version,
+					System.currentTimeMillis()));
+		}
+	}
+
+	/**
+	 * Invalidates the entities identified by {@code keys} on every instance, by incrementing their version stamps in
+	 * memcache and evicting them from this instance.  This must be called after every write to those entities.
+	 *
+	 * @param keys An {@link Iterable} of the {@link Key}s of entities that have been written.
+	 */
+	public void invalidateAll(final Iterable<Key<T>> keys)
+	{
+		Preconditions.checkNotNull(keys);
+
+		final List<String> versionKeys = Lists.newArrayList();
+		for (final Key<T> key : keys)
+		{
+			versionKeys.add(this.toVersionKey(key));
+		}
+		if (!versionKeys.isEmpty())
+		{
+			this.getMemcacheService().incrementAll(versionKeys, 1L, this.newInitialVersion());
+		}
+
+		// Evict after incrementing so that a concurrent read on this instance cannot re-cache the old version stamp.
+		this.cache.invalidateAll(keys);
+	}
+
+	/**
+	 * @return The hit, miss, and eviction statistics of this instance's cache.
+	 */
+	public CacheStats stats()
+	{
+		return this.cache.stats();
+	}
+
+	//////////////////
+	// Private Helpers
+	//////////////////
+
+	private MemcacheService getMemcacheService()
+	{
+		return MemcacheServiceFactory.getMemcacheService();
+	}
+
+	/**
+	 * @return A random, non-negative initial value for a version stamp that is missing from memcache (e.g., because it
+	 * was evicted).  Restarting every stamp at the same value would let an entity that was cached before the eviction
+	 * match the stamp of a later write.
+	 */
+	private long newInitialVersion()
+	{
+		// Leave headroom so that incrementing the stamp never wraps.
+		return ThreadLocalRandom.current().nextLong(Long.MAX_VALUE / 2);
+	}
+
+	private String toVersionKey(final Key<T> key)
+	{
+		return VERSION_KEY_PREFIX + key.toWebSafeString();
+	}
+
+	/**
+	 * A cached low-level {@link Entity}, along with the version stamp it was loaded at.
+	 */
+	private static final class CachedEntity
+	{
+		private final Entity entity;
+
+		private final long version;
+
+		private volatile long validatedAtMillis;
+
+		private CachedEntity(final Entity entity, final long version, final long validatedAtMillis)
+		{
+			this.entity = entity;
+			this.version = version;
+			this.validatedAtMillis = validatedAtMillis;
+		}
+	}
+
+}
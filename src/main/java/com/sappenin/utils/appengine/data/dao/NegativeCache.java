@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.dao;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.googlecode.objectify.Key;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, per-instance cache of {@link Key}s that are known not to exist in the Datastore, so that repeated
+ * lookups of missing entities (e.g., probing for an unused username) do not each require a Datastore RPC. <br/> <br/>
+ * A key is remembered for at most {@code expireAfterWriteMillis}.  The Dao that owns this cache evicts keys whenever
+ * it writes them, but an entity that is created on another instance (or outside of the Dao) may continue to be
+ * reported as missing on this instance until its key expires. <br/> <br/> A miss is only remembered if no write to
+ * its key was invalidated while it was being looked up: callers read the key's generation (see {@link
+ * #getGeneration}) before the lookup, and {@link #putMissing} ignores the miss if {@link #invalidateAll} has since
+ * bumped it.  Generations are striped by key hash, so a write to one key may occasionally cause a concurrent miss of
+ * another key to go uncached, but never the reverse.
+ *
+ * @author David Fuelling
+ */
+public class NegativeCache<T>
+{
+	// The number of generation counters that keys are striped across.
+	private static final int NUM_GENERATION_STRIPES = 64;
+
+	private final Cache<Key<T>, Boolean> cache;
+
+	private final AtomicLongArray generations = new AtomicLongArray(NUM_GENERATION_STRIPES);
+
+	/**
+	 * Required-args Constructor.
+	 *
+	 * @param maximumSize            The maximum number of missing keys to remember.  The least recently used keys are
+	 *                               evicted first.
+	 * @param expireAfterWriteMillis The number of milliseconds for which a missing key is remembered.
+	 */
+	public NegativeCache(final long maximumSize, final long expireAfterWriteMillis)
+	{
+		Preconditions.checkArgument(maximumSize > 0, "maximumSize must be positive!");
+		Preconditions.checkArgument(expireAfterWriteMillis > 0, "expireAfterWriteMillis must be positive!");
+
+		this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize)
+				.expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS).recordStats().build();
+	}
+
+	/**
+	 * Determines if the entity identified by {@code key} is known not to exist.  Every call is counted as either a hit
+	 * or a miss in {@link #stats()}.
+	 *
+	 * @param key The {@link Key} of an entity.
+	 *
+	 * @return {@code true} if the entity was recently found not to exist; {@code false} if it must be looked up.
+	 */
+	public boolean isKnownMissing(final Key<T> key)
+	{
+		Preconditions.checkNotNull(key);
+		return this.cache.getIfPresent(key) != null;
+	}
+
+	/**
+	 * Returns the current generation of {@code key}, which must be read before the entity is looked up in the
+	 * Datastore, so that a write that races with the lookup is detected by {@link #putMissing}.
+	 *
+	 * @param key The {@link Key} of an entity.
+	 *
+	 * @return The current generation of {@code key}.
+	 */
+	public long getGeneration(final Key<T> key)
+	{
+		Preconditions.checkNotNull(key);
+		return this.generations.get(toStripe(key));
+	}
+
+	/**
+	 * Remembers that the entity identified by {@code key} does not exist, unless a write to it has been invalidated
+	 * since {@code generation} was read.
+	 *
+	 * @param key        The {@link Key} of an entity that was not found in the Datastore.
+	 * @param generation The generation of {@code key} (see {@link #getGeneration}) that was read before the lookup.
+	 */
+	public void putMissing(final Key<T> key, final long generation)
+	{
+		Preconditions.checkNotNull(key);
+		final int stripe = toStripe(key);
+		if (this.generations.get(stripe) != generation)
+		{
+			return;
+		}
+
+		this.cache.put(key, Boolean.TRUE);
+		// An invalidation that bumped the generation before the put may have missed it, so undo the put.
+		if (this.generations.get(stripe) != generation)
+		{
+			this.cache.invalidate(key);
+		}
+	}
+
+	/**
+	 * Forgets that the entities identified by {@code keys} do not exist, and prevents misses from lookups that are
+	 * already in progress from being remembered.  This must be called after every write to those entities.
+	 *
+	 * @param keys An {@link Iterable} of the {@link Key}s of entities that have been written.
+	 */
+	public void invalidateAll(final Iterable<Key<T>> keys)
+	{
+		Preconditions.checkNotNull(keys);
+		for (final Key<T> key : keys)
+		{
+			this.generations.incrementAndGet(toStripe(key));
+		}
+		this.cache.invalidateAll(keys);
+	}
+
+	/**
+	 * @return The hit and miss counts of this cache, which can be used to size it.  A hit is a lookup that was
+	 * answered without the Datastore.
+	 */
+	public CacheStats stats()
+	{
+		return this.cache.stats();
+	}
+
+	private static int toStripe(final Key<?> key)
+	{
+		return (key.hashCode() & Integer.MAX_VALUE) % NUM_GENERATION_STRIPES;
+	}
+
+}
@@ -16,11 +16,19 @@ import com.google.appengine.api.datastore.Cursor;
 import com.google.common.base.Optional;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.NotFoundException;
+import com.googlecode.objectify.Result;
 import com.googlecode.objectify.cmd.Query;
+import com.sappenin.utils.annotations.Idempotent;
+import com.sappenin.utils.appengine.data.dao.exceptions.MissingEntitiesException;
+import com.sappenin.utils.appengine.data.dao.exceptions.VersionConflictException;
+import com.sappenin.utils.appengine.data.model.BatchLoadResult;
+import com.sappenin.utils.appengine.data.model.DeleteResult;
 import com.sappenin.utils.appengine.data.model.ResultWithCursor;
 import com.sappenin.utils.appengine.data.model.base.AbstractEntity;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A DAO interface for finding entities by their Objectify Key.
@@ -36,6 +44,88 @@ public interface ObjectifyDao<T extends AbstractEntity> extends Dao<T>
 	 */
 	void create(final T entity);
 
+	/**
+	 * Saves a collection of existing entities of type <T> to the Datastore. By definition, this operation is
+	 * idempotent.
+	 *
+	 * @param entities A {@link Collection} of entities to save in the Datastore.
+	 *
+	 * @see #saveAll(Collection, boolean)
+	 */
+	@Idempotent
+	void saveAll(final Collection<T> entities);
+
+	/**
+	 * Saves a collection of existing entities of type <T> to the Datastore using batch operations.  Every entity must
+	 * already exist in the Datastore; if any do not, then a {@link MissingEntitiesException} is thrown that reports all
+	 * of the missing keys of the offending batch together.  Note that batches are written independently, so this
+	 * operation is not atomic across the entire collection.
+	 *
+	 * @param entities            A {@link Collection} of entities to save in the Datastore.
+	 * @param touchUpdateDateTime A boolean to indicate if the updateDateTime should be incremented to "now".
+	 *
+	 * @throws MissingEntitiesException if any entity does not exist in the Datastore.
+	 */
+	void saveAll(final Collection<T> entities, final boolean touchUpdateDateTime);
+
+	/**
+	 * Saves an existing, versioned entity only if its version in the Datastore still equals the version of {@code
+	 * entity} (i.e., only if nobody else has written it since it was loaded), and increments the version of both.
+	 * Unlike {@link #save}, concurrent writers are detected instead of silently overwriting each other.
+	 *
+	 * @param entity An entity with a non-null version.
+	 *
+	 * @throws VersionConflictException if the version in the Datastore differs from the version of {@code entity}.
+	 * @throws MissingEntitiesException if the entity does not exist in the Datastore.
+	 * @see #saveIfVersion(AbstractEntity, boolean)
+	 */
+	void saveIfVersion(final T entity) throws VersionConflictException;
+
+	/**
+	 * Saves an existing, versioned entity only if its version in the Datastore still equals the version of {@code
+	 * entity}, and increments the version of both.  The Datastore has no conditional put, so the stored version is
+	 * compared inside of a transaction.  If the save fails, the version of {@code entity} is left unchanged.
+	 *
+	 * @param entity              An entity with a non-null version.
+	 * @param touchUpdateDateTime A boolean to indicate if the updateDateTime should be incremented to "now".
+	 *
+	 * @throws VersionConflictException if the version in the Datastore differs from the version of {@code entity}.
+	 * @throws MissingEntitiesException if the entity does not exist in the Datastore.
+	 */
+	void saveIfVersion(final T entity, final boolean touchUpdateDateTime) throws VersionConflictException;
+
+	/**
+	 * Writes an entity to the Datastore whether or not it already exists, without reading it first and without a
+	 * transaction.  This is the cheapest way to write an entity, and is intended for idempotent callers that do not
+	 * care whether they create or overwrite.  The version of a versioned entity is written as-is, and is neither
+	 * checked nor incremented.
+	 *
+	 * @param entity An entity with a non-null Key.
+	 */
+	@Idempotent
+	void upsert(final T entity);
+
+	/**
+	 * Writes a collection of entities to the Datastore whether or not they already exist, using concurrent batch puts
+	 * and no reads.  See {@link #upsert}.
+	 *
+	 * @param entities A {@link Collection} of entities with non-null Keys.
+	 */
+	@Idempotent
+	void upsertAll(final Collection<T> entities);
+
+	/**
+	 * Saves an entity through the {@link WriteBehindBuffer} that is active on the current thread, if any, so that
+	 * repeated saves of the same entity during a request are collapsed into a single batched write when the buffer is
+	 * flushed.  Until then, {@link #findByTypedKey} on the same thread returns the buffered entity, but queries do not
+	 * see it.  Buffered writes have the semantics of {@link #upsert}, and failures are reported when the buffer is
+	 * flushed.  If no buffer is active, or if a transaction is active, then {@code entity} is upserted immediately.
+	 *
+	 * @param entity An entity with a non-null Key.
+	 */
+	@Idempotent
+	void saveBehind(final T entity);
+
 	/**
 	 * Finds an entity from the database using a typed Objectify Key<T>.
 	 *
@@ -43,6 +133,38 @@ public interface ObjectifyDao<T extends AbstractEntity> extends Dao<T>
 	 */
 	Optional<T> findByTypedKey(final Key<T> typedKey);
 
+	/**
+	 * Asynchronously finds an entity from the database using a typed Objectify Key<T>.  The Datastore lookup is
+	 * started immediately, and the returned {@link Result} only blocks when {@link Result#now()} is called.  See {@link
+	 * Results} for composing and joining multiple asynchronous operations.
+	 *
+	 * @return A {@link Result} holding the optionally found entity from the datastore.
+	 */
+	Result<Optional<T>> findByTypedKeyAsync(final Key<T> typedKey);
+
+	/**
+	 * Finds a group of entities from the database using a single logical batch lookup.  Large inputs are split into
+	 * chunks that fit into a single Datastore batch get, and the chunks are fetched concurrently.  Duplicate keys are
+	 * only looked up once.
+	 *
+	 * @param typedKeys A {@link Collection} of typed Objectify Key<T>.
+	 *
+	 * @return A {@link BatchLoadResult} holding the found entities and the missing keys, both in input order.
+	 */
+	BatchLoadResult<T> findByTypedKeys(final Collection<Key<T>> typedKeys);
+
+	/**
+	 * Asynchronously finds a group of entities from the database.  Every batch get is started immediately, and the
+	 * returned {@link Result} only blocks when {@link Result#now()} is called.
+	 *
+	 * @param typedKeys A {@link Collection} of typed Objectify Key<T>.
+	 *
+	 * @return A {@link Result} holding a {@link BatchLoadResult}.
+	 *
+	 * @see #findByTypedKeys(Collection)
+	 */
+	Result<BatchLoadResult<T>> findByTypedKeysAsync(final Collection<Key<T>> typedKeys);
+
 	/**
 	 * Finds an entity from the database using a typed Objectify Key<T>
 	 *
@@ -61,6 +183,19 @@ public interface ObjectifyDao<T extends AbstractEntity> extends Dao<T>
 	 */
 	ResultWithCursor<List<T>> loadFromDatastoreWithCursor(final Query<T> query, final Cursor offset, int limit);
 
+	/**
+	 * Helper method to asynchronously load entities from the Datastore using paging.  The query is started
+	 * immediately, and the returned {@link Result} only blocks when {@link Result#now()} is called.
+	 *
+	 * @param query  A {@link Query} that has not been finalized.
+	 * @param offset A {@link Cursor} for paging.
+	 * @param limit  A limit on the number of query results to return.
+	 *
+	 * @return A {@link Result} holding the page of entities.
+	 */
+	Result<ResultWithCursor<List<T>>> loadFromDatastoreWithCursorAsync(final Query<T> query, final Cursor offset,
+			final int limit);
+
 	/**
 	 * Helper method to load entity Keys from the Datastore using paging.
 	 *
@@ -73,6 +208,113 @@ public interface ObjectifyDao<T extends AbstractEntity> extends Dao<T>
 	ResultWithCursor<List<Key<T>>> loadKeysOnlyFromDatastoreWithCursor(final Query<T> query, final Cursor offset,
 			final int limit);
 
+	/**
+	 * Helper method to asynchronously load entity Keys from the Datastore using paging.  The query is started
+	 * immediately, and the returned {@link Result} only blocks when {@link Result#now()} is called.
+	 *
+	 * @param query  A {@link Query} that has not been finalized.
+	 * @param offset A {@link Cursor} for paging.
+	 * @param limit  A limit on the number of query results to return.
+	 *
+	 * @return A {@link Result} holding the page of entity Keys.
+	 */
+	Result<ResultWithCursor<List<Key<T>>>> loadKeysOnlyFromDatastoreWithCursorAsync(final Query<T> query,
+			final Cursor offset, final int limit);
+
+	/**
+	 * Helper method to load partially populated entities from the Datastore using a projection query, with the same
+	 * paging semantics as {@link #loadFromDatastoreWithCursor}.  Only the Key and the projected properties of each
+	 * returned entity are populated, so the Datastore returns index rows instead of full entities.  Every projected
+	 * property must be indexed, queries that project more than one property (or that combine projections with
+	 * filters or sort orders) require a composite index, and entities with multi-valued projected properties are
+	 * returned once per value. <br/> <br/> Entities returned by this method are incomplete, and must never be saved.
+	 *
+	 * @param query      A {@link Query} that has not been finalized.
+	 * @param offset     A {@link Cursor} for paging.
+	 * @param limit      A limit on the number of query results to return.
+	 * @param properties The names of the properties to populate.
+	 *
+	 * @return A {@link ResultWithCursor} holding the page of partially populated entities.
+	 */
+	ResultWithCursor<List<T>> loadProjectionWithCursor(final Query<T> query, final Cursor offset, final int limit,
+			final String... properties);
+
+	/**
+	 * Helper method to asynchronously load partially populated entities from the Datastore using a projection query.
+	 * The query is started immediately, and the returned {@link Result} only blocks when {@link Result#now()} is
+	 * called.  See {@link #loadProjectionWithCursor} for the restrictions on projection queries.
+	 *
+	 * @param query      A {@link Query} that has not been finalized.
+	 * @param offset     A {@link Cursor} for paging.
+	 * @param limit      A limit on the number of query results to return.
+	 * @param properties The names of the properties to populate.
+	 *
+	 * @return A {@link Result} holding the page of partially populated entities.
+	 */
+	Result<ResultWithCursor<List<T>>> loadProjectionWithCursorAsync(final Query<T> query, final Cursor offset,
+			final int limit, final String... properties);
+
+	/**
+	 * Lazily streams every result of {@code query}, following cursors automatically and prefetching the next page of
+	 * results while the current page is being consumed.  Uses {@link PrefetchingQueryIterator#DEFAULT_CHUNK_SIZE} and
+	 * {@link PrefetchingQueryIterator#DEFAULT_PREFETCH_SIZE}.
+	 *
+	 * @param query A {@link Query} that has no limit, offset, or cursors applied.
+	 *
+	 * @return A {@link PrefetchingQueryIterator}.
+	 */
+	PrefetchingQueryIterator<T> streamAll(final Query<T> query);
+
+	/**
+	 * Lazily streams every result of {@code query}, following cursors automatically and prefetching the next page of
+	 * results while the current page is being consumed.
+	 *
+	 * @param query        A {@link Query} that has no limit, offset, or cursors applied.
+	 * @param startCursor  An optionally present {@link Cursor} to resume from, such as a checkpoint previously obtained
+	 *                     from {@link PrefetchingQueryIterator#getCursor()}.
+	 * @param chunkSize    The number of results to fetch from the Datastore in each batch.
+	 * @param prefetchSize The number of results in each prefetched page.
+	 *
+	 * @return A {@link PrefetchingQueryIterator}.
+	 */
+	PrefetchingQueryIterator<T> streamAll(final Query<T> query, final Optional<Cursor> startCursor,
+			final int chunkSize, final int prefetchSize);
+
+	/**
+	 * Deletes every entity matched by {@code query}.  See {@link #deleteAll(Query, Optional, Optional)}.
+	 *
+	 * @param query A {@link Query} that has no limit, offset, or cursors applied.
+	 *
+	 * @return A {@link DeleteResult}.
+	 */
+	DeleteResult<T> deleteAll(final Query<T> query);
+
+	/**
+	 * Deletes every entity matched by {@code query}, streaming its keys with a keys-only query and deleting them in
+	 * batch deletes that are pipelined with the query.  If the request deadline draws near, the delete stops at a batch
+	 * boundary, and the returned {@link DeleteResult} holds a continuation {@link Cursor} that a follow-up request or
+	 * task can pass back in as {@code startCursor}.  Must not be called inside of a transaction.
+	 *
+	 * @param query            A {@link Query} that has no limit, offset, or cursors applied.
+	 * @param startCursor      An optionally present {@link Cursor} to continue a previous delete from.
+	 * @param progressListener An optionally present {@link DeleteProgressListener} to notify after each batch delete.
+	 *
+	 * @return A {@link DeleteResult}.
+	 */
+	DeleteResult<T> deleteAll(final Query<T> query, final Optional<Cursor> startCursor,
+			final Optional<DeleteProgressListener> progressListener);
+
+	/**
+	 * Deletes the entities identified by {@code typedKeys} using pipelined batch deletes.  If the request deadline
+	 * draws near, the delete stops at a batch boundary, and the returned {@link DeleteResult} holds the keys that
+	 * remain to be deleted.  Must not be called inside of a transaction.
+	 *
+	 * @param typedKeys A {@link Collection} of typed Objectify Key<T>.
+	 *
+	 * @return A {@link DeleteResult}.
+	 */
+	DeleteResult<T> deleteAll(final Collection<Key<T>> typedKeys);
+
 	/**
 	 * Determines if the entity indicated by {@code typedKey} exists in the datastore.  Note that this operation is not
 	 * strongly consistent.  If consistency is desired, then prefer {@link #existsInDatastoreConsistent}.
@@ -83,6 +325,16 @@ public interface ObjectifyDao<T extends AbstractEntity> extends Dao<T>
 	 */
 	boolean existsInDatastore(final Key<T> typedKey);
 
+	/**
+	 * Asynchronously determines if the entity indicated by {@code typedKey} exists in the datastore.  Like {@link
+	 * #existsInDatastore(Key)}, this operation is not strongly consistent.
+	 *
+	 * @param typedKey
+	 *
+	 * @return A {@link Result} holding {@code true} if the entity exists.
+	 */
+	Result<Boolean> existsInDatastoreAsync(final Key<T> typedKey);
+
 	/**
 	 * Determines if the entity indicated by {@code typedKey} exists in the datastore.  Note that this operation is
 	 * strongly consistent, but is slightly slower than {@link #existsInDatastore(Key)}.
@@ -92,4 +344,25 @@ public interface ObjectifyDao<T extends AbstractEntity> extends Dao<T>
 	 * @return
 	 */
 	boolean existsInDatastoreConsistent(final Key<T> typedKey);
+
+	/**
+	 * Determines which of the entities indicated by {@code typedKeys} exist in the datastore, using a handful of batch
+	 * operations regardless of the number of keys.  Note that this operation is not strongly consistent.  If
+	 * consistency is desired, then prefer {@link #existsInDatastoreConsistent(Collection)}.
+	 *
+	 * @param typedKeys A {@link Collection} of typed Objectify Key<T>.
+	 *
+	 * @return A {@link Set} of the keys that exist, in input order.
+	 */
+	Set<Key<T>> existsInDatastore(final Collection<Key<T>> typedKeys);
+
+	/**
+	 * Determines which of the entities indicated by {@code typedKeys} exist in the datastore.  Note that this
+	 * operation is strongly consistent, but is slightly slower than {@link #existsInDatastore(Collection)}.
+	 *
+	 * @param typedKeys A {@link Collection} of typed Objectify Key<T>.
+	 *
+	 * @return A {@link Set} of the keys that exist, in input order.
+	 */
+	Set<Key<T>> existsInDatastoreConsistent(final Collection<Key<T>> typedKeys);
 }
@@ -12,8 +12,12 @@
  */
 package com.sappenin.utils.appengine.data.dao;
 
+import com.googlecode.objectify.Key;
 import com.sappenin.utils.appengine.data.model.base.AbstractEntity;
 
+import java.util.Collection;
+import java.util.List;
+
 /**
  * A DAO interface for finding entities identifiers of type {@link Long} by their Objectify Key.
  *
@@ -32,4 +36,17 @@ public interface ObjectifyLongDao<T extends AbstractEntity> extends ObjectifyDao
 	 * upon the entity's business rules.
 	 */
 	void create(final T entity);
+
+	/**
+	 * Creates a collection of new entities of type <T> in the datastore. Like {@link #create(AbstractEntity)}, this
+	 * function enforces that every entity has a null Key.  Ids are reserved in contiguous blocks (one allocation call
+	 * per kind and parent) and the entities are then written using batch puts that respect the Datastore's per-call
+	 * limits. <br/> <br/> Because the batch puts may span many entity groups, this function should not be called
+	 * inside of a transaction.
+	 *
+	 * @param entities A {@link Collection} of entities to persist into the Datastore.
+	 *
+	 * @return A {@link List} of the assigned {@link Key}s, in the same order as {@code entities}.
+	 */
+	List<Key<T>> createAll(final Collection<T> entities);
 }
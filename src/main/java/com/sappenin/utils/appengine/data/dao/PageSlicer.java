@@ -0,0 +1,231 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.dao;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Maps a window of a large, list-sharded collection (i.e., a collection whose members are stored across a series of
+ * fixed-size list "pages", such as a List property on each of several entities) onto the pages that hold it. <br/>
+ * <br/> Page {@code n} holds the members at indices {@code [n * pageSize, (n + 1) * pageSize)} of the collection, so a
+ * window may span any number of pages.
+ *
+ * @author David Fuelling
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+public class PageSlicer
+{
+	/**
+	 * The slicer used by default, whose pages hold 5000 members each.
+	 */
+	public static final PageSlicer DEFAULT = new PageSlicer(5000);
+
+	private final int pageSize;
+
+	/**
+	 * Required-args Constructor.
+	 *
+	 * @param pageSize The number of members held by each full page.
+	 */
+	public PageSlicer(final int pageSize)
+	{
+		Preconditions.checkArgument(pageSize > 0, "pageSize must be positive!");
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Determines the portion of each page that must be read to assemble a window of a collection.
+	 *
+	 * @param numTotalEntries The number of members in the collection.
+	 * @param firstResult     The index of the first member of the window.
+	 * @param maxResults      The largest number of members in the window.  The window is truncated at the end of the
+	 *                        collection.
+	 *
+	 * @return A {@link List} of non-empty {@link PageSlice}s, in page order, which is empty if the window holds no
+	 * members.
+	 */
+	public List<PageSlice> slice(final int numTotalEntries, final int firstResult, final int maxResults)
+	{
+		Preconditions.checkArgument(numTotalEntries >= 0, "numTotalEntries must not be negative!");
+		Preconditions.checkArgument(firstResult >= 0, "firstResult must not be negative!");
+		Preconditions.checkArgument(maxResults >= 0, "maxResults must not be negative!");
+
+		// Widen to long so that windows that extend past Integer.MAX_VALUE are truncated rather than overflowing.
+		final int end = (int) Math.min((long) firstResult + maxResults, numTotalEntries);
+		if (firstResult >= end)
+		{
+			return ImmutableList.of();
+		}
+
+		final int firstPage = firstResult / this.pageSize;
+		final int lastPage = (end - 1) / this.pageSize;
+
+		final ImmutableList.Builder<PageSlice> slices = ImmutableList.builder();
+		for (int page = firstPage; page <= lastPage; page++)
+		{
+			final int pageStart = page * this.pageSize;
+			final int startIdx = (page == firstPage) ? firstResult - pageStart : 0;
+			final int endIdx = (page == lastPage) ? end - pageStart : this.pageSize;
+			slices.add(new PageSlice(page, startIdx, endIdx));
+		}
+		return slices.build();
+	}
+
+	/**
+	 * Assembles a window of a collection from the pages that hold it, without copying any members.
+	 *
+	 * @param slices      The {@link PageSlice}s of the window, as returned by {@link #slice}.
+	 * @param loadedPages A {@link Map} of page numbers to the contents of those pages, which must hold every page
+	 *                    referenced by {@code slices}.
+	 * @param <E>         The type of member held by each page.
+	 *
+	 * @return A read-only {@link List} view of the window.  Like {@link List#subList}, the view reflects later changes
+	 * to the members of the loaded pages, but is undefined after any page is resized.
+	 */
+	public <E> List<E> view(final List<PageSlice> slices, final Map<Integer, ? extends List<E>> loadedPages)
+	{
+		Preconditions.checkNotNull(slices);
+		Preconditions.checkNotNull(loadedPages);
+
+		final ImmutableList.Builder<List<E>> parts = ImmutableList.builder();
+		for (final PageSlice slice : slices)
+		{
+			parts.add(slice.subList(this.getPage(slice, loadedPages)));
+		}
+		return new ConcatenatedList<>(parts.build());
+	}
+
+	private <E> List<E> getPage(final PageSlice slice, final Map<Integer, ? extends List<E>> loadedPages)
+	{
+		final List<E> page = loadedPages.get(slice.getPage());
+		Preconditions.checkArgument(page != null, "Page %s was not loaded!", slice.getPage());
+		Preconditions.checkArgument(page.size() >= slice.getEndIdx(), "Page %s holds %s members, but %s are required!",
+				slice.getPage(), page.size(), slice.getEndIdx());
+		return page;
+	}
+
+	/**
+	 * The portion of a single page that falls within a window.
+	 */
+	@Getter
+	@ToString
+	@EqualsAndHashCode
+	public static class PageSlice
+	{
+		// The number of the page, starting at zero.
+		private final int page;
+
+		// The index within the page of the first member in the window (inclusive).
+		private final int startIdx;
+
+		// The index within the page of the last member in the window (exclusive).
+		private final int endIdx;
+
+		/**
+		 * Required-args Constructor.
+		 *
+		 * @param page     The number of the page, starting at zero.
+		 * @param startIdx The index within the page of the first member in the window (inclusive).
+		 * @param endIdx   The index within the page of the last member in the window (exclusive).
+		 */
+		public PageSlice(final int page, final int startIdx, final int endIdx)
+		{
+			Preconditions.checkArgument(page >= 0, "page must not be negative!");
+			Preconditions.checkArgument(startIdx >= 0, "startIdx must not be negative!");
+			Preconditions.checkArgument(endIdx >= startIdx, "endIdx must not be less than startIdx!");
+			this.page = page;
+			this.startIdx = startIdx;
+			this.endIdx = endIdx;
+		}
+
+		/**
+		 * @return The number of members of this slice.
+		 */
+		public int size()
+		{
+			return this.endIdx - this.startIdx;
+		}
+
+		/**
+		 * @param page The contents of this slice's page.
+		 * @param <E>  The type of member held by {@code page}.
+		 *
+		 * @return A {@link List#subList} view of the members of {@code page} that fall within this slice.
+		 */
+		public <E> List<E> subList(final List<E> page)
+		{
+			return Preconditions.checkNotNull(page).subList(this.startIdx, this.endIdx);
+		}
+	}
+
+	/**
+	 * A read-only view of a series of Lists, one after another.
+	 */
+	private static final class ConcatenatedList<E> extends AbstractList<E> implements RandomAccess
+	{
+		private final List<List<E>> parts;
+
+		// The index within this List of the first member of each part, followed by the size of this List.
+		private final int[] offsets;
+
+		private ConcatenatedList(final List<List<E>> parts)
+		{
+			this.parts = parts;
+			this.offsets = new int[parts.size() + 1];
+			for (int i = 0; i < parts.size(); i++)
+			{
+				this.offsets[i + 1] = this.offsets[i] + parts.get(i).size();
+			}
+		}
+
+		@Override
+		public E get(final int index)
+		{
+			Preconditions.checkElementIndex(index, this.size());
+
+			// Find the last part that starts at or before index, skipping over any empty parts.
+			int part = Arrays.binarySearch(this.offsets, index);
+			if (part < 0)
+			{
+				part = -part - 2;
+			}
+			else
+			{
+				while (this.offsets[part + 1] == index)
+				{
+					part++;
+				}
+			}
+			return this.parts.get(part).get(index - this.offsets[part]);
+		}
+
+		@Override
+		public int size()
+		{
+			return this.offsets[this.parts.size()];
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.dao;
+
+import com.google.common.base.Preconditions;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Governs how the paging methods of {@link ObjectifyDao} (e.g., {@link ObjectifyDao#loadFromDatastoreWithCursor})
+ * size their pages, and how they detect whether more results exist beyond a page.
+ *
+ * @author David Fuelling
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+public class PagingPolicy
+{
+	/**
+	 * The policy used by default, which returns 10 results per page unless a caller asks for up to 50.
+	 */
+	public static final PagingPolicy DEFAULT = new PagingPolicy(10, 50, LookaheadMode.EXTRA_ENTITY);
+
+	// The number of results per page whenever a caller does not supply a positive limit.
+	private final int defaultLimit;
+
+	// The largest number of results per page.  Larger limits are reduced to this value.
+	private final int maxLimit;
+
+	private final LookaheadMode lookaheadMode;
+
+	/**
+	 * Required-args Constructor.
+	 *
+	 * @param defaultLimit  The number of results per page whenever a caller does not supply a positive limit.
+	 * @param maxLimit      The largest number of results per page.
+	 * @param lookaheadMode The {@link LookaheadMode} used to determine if more results exist beyond a page.
+	 */
+	public PagingPolicy(final int defaultLimit, final int maxLimit, final LookaheadMode lookaheadMode)
+	{
+		Preconditions.checkArgument(defaultLimit > 0, "defaultLimit must be positive!");
+		Preconditions.checkArgument(maxLimit >= defaultLimit, "maxLimit must not be less than defaultLimit!");
+		this.defaultLimit = defaultLimit;
+		this.maxLimit = maxLimit;
+		this.lookaheadMode = Preconditions.checkNotNull(lookaheadMode);
+	}
+
+	/**
+	 * Adjusts a requested limit to be within the bounds of this policy.
+	 *
+	 * @param limit An integer representing the number of results requested by a caller.
+	 *
+	 * @return {@link #getDefaultLimit()} if {@code limit} is not positive, {@link #getMaxLimit()} if {@code limit}
+	 * exceeds it, or else {@code limit}.
+	 */
+	public int adjustLimit(final int limit)
+	{
+		if (limit <= 0)
+		{
+			return this.defaultLimit;
+		}
+		return Math.min(limit, this.maxLimit);
+	}
+
+	/**
+	 * The ways in which a paging query can determine if more results exist beyond the current page.
+	 */
+	public enum LookaheadMode
+	{
+		/**
+		 * Loads one extra result (i.e., {@code limit + 1}) with the page itself.  This requires no additional query,
+		 * but the extra entity is fully loaded and then discarded.
+		 */
+		EXTRA_ENTITY,
+
+		/**
+		 * Loads exactly {@code limit} entities, and concurrently issues a keys-only query for the single result that
+		 * follows the page.  This avoids loading a discarded entity, which is preferable for large entities.
+		 */
+		KEYS_ONLY_PROBE
+	}
+
+}
@@ -0,0 +1,271 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.dao;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.cmd.Query;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A merged {@link Iterator} over several disjoint shard {@link Query}s (see {@link
+ * com.sappenin.utils.appengine.data.dao.base.AbstractObjectifyDao#splitQuery}), each of which is scanned on its own
+ * thread.  Results are handed to the consuming thread through a bounded queue, so results from different shards are
+ * interleaved in no particular order, and a slow consumer applies back-pressure to every shard. <br/> <br/> Objectify
+ * sessions are not thread-safe, so each worker walks its shard keys-only and batch-loads the entities in its own
+ * Objectify session.  Worker threads must be able to make API calls: on App Engine, use {@link
+ * ThreadManager#currentRequestThreadFactory()} (whose threads may not outlive the request) or {@link
+ * ThreadManager#backgroundThreadFactory()}. <br/> <br/> Any exception or {@link Error} thrown by a worker is re-thrown to
+ * the consumer from {@link #hasNext()}.  Callers that stop consuming early should call {@link #close()} to stop the workers.
+ *
+ * @author David Fuelling
+ */
+public class ParallelQueryScan<T> implements Iterator<T>, Closeable
+{
+	// The number of results that may be buffered per shard before workers block.
+	public static final int DEFAULT_QUEUE_CAPACITY_PER_SHARD = 200;
+
+	// How often a worker that is waiting for queue space checks whether the scan was closed.
+	private static final long ENQUEUE_POLL_MILLIS = 100;
+
+	// Marks that a single worker has finished.
+	private static final Object END_OF_SHARD = new Object();
+
+	private final BlockingQueue<Object> queue;
+
+	private final List<Thread> workers;
+
+	private final AtomicReference<Throwable> workerFailure = new AtomicReference<>();
+
+	// Set when the consumer is no longer interested in results.  Checked by workers in addition to interruption,
+	// since an interrupt that arrives during a Datastore RPC may not surface as an InterruptedException.
+	private volatile boolean closed;
+
+	private int numRunningWorkers;
+
+	private T nextResult;
+
+	/**
+	 * Required-args Constructor.  Starts one worker thread per shard.
+	 *
+	 * @param shardQueries  A {@link List} of disjoint {@link Query}s whose combined results should be scanned.
+	 * @param threadFactory The {@link ThreadFactory} used to create one worker thread per shard.
+	 * @param chunkSize     The number of results that each worker fetches from the Datastore per batch.
+	 */
+	public ParallelQueryScan(final List<Query<T>> shardQueries, final ThreadFactory threadFactory,
+			final int chunkSize)
+	{
+		Preconditions.checkNotNull(shardQueries);
+		Preconditions.checkNotNull(threadFactory);
+		Preconditions.checkArgument(chunkSize > 0, "chunkSize must be positive!");
+
+		this.queue = new ArrayBlockingQueue<>(Math.max(1, shardQueries.size()) * DEFAULT_QUEUE_CAPACITY_PER_SHARD);
+
+		final ImmutableList.Builder<Thread> workersBuilder = ImmutableList.builder();
+		for (final Query<T> shardQuery : shardQueries)
+		{
+			final Thread worker = threadFactory.newThread(new ShardWorker(Preconditions.checkNotNull(shardQuery),
+					chunkSize));
+			Preconditions.checkState(worker != null, "ThreadFactory was unable to create a worker thread!");
+			workersBuilder.add(worker);
+		}
+		this.workers = workersBuilder.build();
+		this.numRunningWorkers = this.workers.size();
+
+		for (final Thread worker : this.workers)
+		{
+			worker.start();
+		}
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		while (this.nextResult == null && this.numRunningWorkers > 0)
+		{
+			final Object queued;
+			try
+			{
+				queued = this.queue.take();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				this.close();
+				throw new IllegalStateException("Interrupted while waiting for query results!", e);
+			}
+
+			if (queued == END_OF_SHARD)
+			{
+				this.numRunningWorkers--;
+				final Throwable failure = this.workerFailure.get();
+				if (failure != null)
+				{
+					this.close();
+					throw Throwables.propagate(failure);
+				}
+			}
+			else
+			{
+				@SuppressWarnings("unchecked") final T result = (T) queued;
+				this.nextResult = result;
+			}
+		}
+		return this.nextResult != null;
+	}
+
+	@Override
+	public T next()
+	{
+		if (!this.hasNext())
+		{
+			throw new NoSuchElementException();
+		}
+		final T result = this.nextResult;
+		this.nextResult = null;
+		return result;
+	}
+
+	@Override
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Stops every worker that is still running.  Results that have not yet been consumed are discarded.
+	 */
+	@Override
+	public void close()
+	{
+		this.closed = true;
+		this.numRunningWorkers = 0;
+		this.nextResult = null;
+		for (final Thread worker : this.workers)
+		{
+			worker.interrupt();
+		}
+		this.queue.clear();
+	}
+
+	/**
+	 * Scans a single shard, putting every result onto the shared queue followed by {@link #END_OF_SHARD}, which is
+	 * enqueued however the scan ends so that the consumer never waits for a worker that has died.
+	 */
+	private class ShardWorker implements Runnable
+	{
+		private final Query<T> shardQuery;
+
+		private final int chunkSize;
+
+		private ShardWorker(final Query<T> shardQuery, final int chunkSize)
+		{
+			this.shardQuery = shardQuery;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				final com.googlecode.objectify.util.Closeable session = ObjectifyService.begin();
+				try
+				{
+					this.scan();
+				}
+				finally
+				{
+					session.close();
+				}
+			}
+			catch (InterruptedException e)
+			{
+				// The scan was closed, so nobody is waiting for the remaining results.
+			}
+			catch (Throwable t)
+			{
+				workerFailure.compareAndSet(null, t);
+			}
+			finally
+			{
+				try
+				{
+					this.enqueue(END_OF_SHARD);
+				}
+				catch (InterruptedException e)
+				{
+					// The scan was closed, so nobody is waiting for this marker.
+				}
+			}
+		}
+
+		/**
+		 * Puts {@code queued} onto the shared queue, waiting for space if necessary.
+		 *
+		 * @throws InterruptedException if the scan was closed while waiting.
+		 */
+		private void enqueue(final Object queued) throws InterruptedException
+		{
+			while (!closed)
+			{
+				if (queue.offer(queued, ENQUEUE_POLL_MILLIS, TimeUnit.MILLISECONDS))
+				{
+					return;
+				}
+			}
+			throw new InterruptedException("ParallelQueryScan was closed!");
+		}
+
+		private void scan() throws InterruptedException
+		{
+			final QueryResultIterator<Key<T>> keys = this.shardQuery.chunk(this.chunkSize).keys().iterator();
+			final List<Key<T>> batch = Lists.newArrayListWithCapacity(this.chunkSize);
+			while (keys.hasNext() && !closed)
+			{
+				batch.add(keys.next());
+				if (batch.size() == this.chunkSize || !keys.hasNext())
+				{
+					final Map<Key<T>, T> entities = ObjectifyService.ofy().load().keys(batch);
+					for (final Key<T> key : batch)
+					{
+						// Entities deleted since the key was scanned are skipped.
+						final T entity = entities.get(key);
+						if (entity != null)
+						{
+							this.enqueue(entity);
+						}
+					}
+					batch.clear();
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.dao;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A lazy {@link Iterator} over every result of a {@link Query}, which follows cursors automatically.  Results are
+ * fetched in pages of {@code prefetchSize} entities (each page using Datastore batches of {@code chunkSize}), and the
+ * pages are double-buffered: as soon as one page has been fetched, the query for the following page is started, so
+ * the next page is already in flight while the caller processes the current one. <br/> <br/> {@link #getCursor()}
+ * exposes the position of the last consumed result for checkpointing.  At a page boundary this cursor is free; in the
+ * middle of a page it costs a single keys-only query, which is the same work the Datastore itself performs when a
+ * cursor is requested in the middle of a batch.
+ *
+ * @author David Fuelling
+ */
+public class PrefetchingQueryIterator<T> implements Iterator<T>
+{
+	public static final int DEFAULT_CHUNK_SIZE = 200;
+
+	public static final int DEFAULT_PREFETCH_SIZE = 200;
+
+	private final Query<T> query;
+
+	private final int chunkSize;
+
+	private final int prefetchSize;
+
+	// The page of results that the caller is currently consuming.
+	private List<T> currentPage = Collections.emptyList();
+
+	private Optional<Cursor> currentPageStartCursor;
+
+	private Optional<Cursor> currentPageEndCursor;
+
+	private int numConsumedFromCurrentPage;
+
+	// The iterator of the next page, whose query is already in flight, or null if there are no more pages.
+	private QueryResultIterator<T> nextPageIterator;
+
+	/**
+	 * Required-args Constructor.  The first page is requested immediately.
+	 *
+	 * @param query        A {@link Query} that has no limit, offset, or cursors applied.
+	 * @param startCursor  An optionally present {@link Cursor} to resume from (e.g., a prior {@link #getCursor()}).
+	 * @param chunkSize    The number of results to fetch from the Datastore in each batch.
+	 * @param prefetchSize The number of results to request in each page.
+	 */
+	public PrefetchingQueryIterator(final Query<T> query, final Optional<Cursor> startCursor, final int chunkSize,
+			final int prefetchSize)
+	{
+		this.query = Preconditions.checkNotNull(query);
+		Preconditions.checkNotNull(startCursor);
+		Preconditions.checkArgument(chunkSize > 0, "chunkSize must be positive!");
+		Preconditions.checkArgument(prefetchSize > 0, "prefetchSize must be positive!");
+		this.chunkSize = chunkSize;
+		this.prefetchSize = prefetchSize;
+
+		this.currentPageStartCursor = startCursor;
+		this.currentPageEndCursor = startCursor;
+		this.nextPageIterator = this.pageQuery(startCursor).iterator();
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		if (this.numConsumedFromCurrentPage >= this.currentPage.size())
+		{
+			this.advancePage();
+		}
+		return this.numConsumedFromCurrentPage < this.currentPage.size();
+	}
+
+	@Override
+	public T next()
+	{
+		if (!this.hasNext())
+		{
+			throw new NoSuchElementException();
+		}
+		return this.currentPage.get(this.numConsumedFromCurrentPage++);
+	}
+
+	@Override
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Returns the position immediately after the last result returned by {@link #next()}, which can be used to resume
+	 * iteration later.
+	 *
+	 * @return An optionally present {@link Cursor}, which is absent if nothing has been consumed and no start cursor
+	 * was supplied.
+	 */
+	public Optional<Cursor> getCursor()
+	{
+		if (this.numConsumedFromCurrentPage == 0)
+		{
+			return this.currentPageStartCursor;
+		}
+		else if (this.numConsumedFromCurrentPage == this.currentPage.size())
+		{
+			return this.currentPageEndCursor;
+		}
+		else
+		{
+			// Walk the consumed portion of the current page using a keys-only query.
+			final QueryResultIterator<Key<T>> consumedKeys = this.pageQuery(this.currentPageStartCursor)
+					.limit(this.numConsumedFromCurrentPage).keys().iterator();
+			while (consumedKeys.hasNext())
+			{
+				consumedKeys.next();
+			}
+			return Optional.fromNullable(consumedKeys.getCursor());
+		}
+	}
+
+	//////////////////
+	// Private Helpers
+	//////////////////
+
+	/**
+	 * Makes the in-flight page the current page, and starts the query for the page after it.
+	 */
+	private void advancePage()
+	{
+		while (this.numConsumedFromCurrentPage >= this.currentPage.size() && this.nextPageIterator != null)
+		{
+			final List<T> page = Lists.newArrayListWithCapacity(this.prefetchSize);
+			while (this.nextPageIterator.hasNext())
+			{
+				page.add(this.nextPageIterator.next());
+			}
+
+			this.currentPageStartCursor = this.currentPageEndCursor;
+			this.currentPage = page;
+			this.numConsumedFromCurrentPage = 0;
+			if (!page.isEmpty())
+			{
+				// Every result of the final batch has been consumed, so this cursor does not require another query.
+				this.currentPageEndCursor = Optional.fromNullable(this.nextPageIterator.getCursor());
+			}
+
+			// A short page means the query is exhausted; otherwise, start fetching the following page right away.
+			this.nextPageIterator = page.size() < this.prefetchSize ? null : this.pageQuery(this.currentPageEndCursor)
+					.iterator();
+		}
+	}
+
+	/**
+	 * Assembles the query for a single page of results.
+	 *
+	 * @param startCursor An optionally present {@link Cursor} that the page should start at.
+	 *
+	 * @return A {@link Query}.
+	 */
+	private Query<T> pageQuery(final Optional<Cursor> startCursor)
+	{
+		Query<T> pageQuery = this.query.limit(this.prefetchSize).chunk(Math.min(this.chunkSize, this.prefetchSize));
+		if (startCursor.isPresent())
+		{
+			pageQuery = pageQuery.startAt(startCursor.get());
+		}
+		return pageQuery;
+	}
+
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.dao;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.util.ResultCache;
+import com.googlecode.objectify.util.ResultNow;
+import com.googlecode.objectify.util.ResultTranslator;
+
+import java.util.List;
+
+/**
+ * Static utility methods for composing the asynchronous Objectify {@link Result}s returned by the "Async" methods of
+ * {@link ObjectifyDao}.  The underlying Datastore RPCs are started as soon as each {@link Result} is created, so many
+ * operations can be issued up-front and then joined with {@link #allAsList(Iterable)}.  Nothing blocks until {@link
+ * Result#now()} is called, and every returned {@link Result} caches its value.
+ *
+ * @author David Fuelling
+ */
+public final class Results
+{
+	private Results()
+	{
+	}
+
+	/**
+	 * Returns a {@link Result} that is already complete.
+	 *
+	 * @param value The value of the returned {@link Result}.
+	 * @param <T>   The type of value held by the returned {@link Result}.
+	 *
+	 * @return A completed {@link Result}.
+	 */
+	public static <T> Result<T> immediate(final T value)
+	{
+		return new ResultNow<>(value);
+	}
+
+	/**
+	 * Returns a {@link Result} whose value is obtained by applying {@code function} to the value of {@code result}.
+	 * The function is applied lazily, at most once, the first time {@link Result#now()} is called.
+	 *
+	 * @param result   The {@link Result} to transform.
+	 * @param function A {@link Function} to apply to the value of {@code result}.
+	 * @param <F>      The type of value held by {@code result}.
+	 * @param <T>      The type of value held by the returned {@link Result}.
+	 *
+	 * @return A {@link Result} of type <T>.
+	 */
+	public static <F, T> Result<T> transform(final Result<F> result, final Function<? super F, ? extends T> function)
+	{
+		Preconditions.checkNotNull(result);
+		Preconditions.checkNotNull(function);
+
+		return new ResultTranslator<Result<F>, T>(result)
+		{
+			private static final long serialVersionUID = -3052462919433451237L;
+
+			@Override
+			protected T translate(final Result<F> from)
+			{
+				return function.apply(from.now());
+			}
+		};
+	}
+
+	/**
+	 * Joins a group of {@link Result}s into a single {@link Result} whose value is a {@link List} of each input
+	 * {@link Result}'s value, in input order.
+	 *
+	 * @param results An {@link Iterable} of {@link Result}s that have already been started.
+	 * @param <T>     The type of value held by each input {@link Result}.
+	 *
+	 * @return A {@link Result} holding an immutable {@link List} of values.  Note that {@code null} values are not
+	 * permitted.
+	 */
+	public static <T> Result<List<T>> allAsList(final Iterable<? extends Result<? extends T>> results)
+	{
+		final List<Result<? extends T>> pendingResults = Lists.newArrayList(Preconditions.checkNotNull(results));
+
+		return new ResultCache<List<T>>()
+		{
+			private static final long serialVersionUID = 4283012646003196214L;
+
+			@Override
+			protected List<T> nowUncached()
+			{
+				final ImmutableList.Builder<T> values = ImmutableList.builder();
+				for (final Result<? extends T> pendingResult : pendingResults)
+				{
+					values.add(pendingResult.now());
+				}
+				return values.build();
+			}
+		};
+	}
+
+}
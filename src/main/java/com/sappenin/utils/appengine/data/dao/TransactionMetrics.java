@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.dao;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.ConcurrentModificationException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-kind counters of the transactions run by {@link ObjectifyDao} implementations, which can be used to find
+ * contended entity groups and to tune a {@link TransactionRetryPolicy}.  Counters are per-instance, and are never
+ * reset.
+ *
+ * @author David Fuelling
+ */
+public class TransactionMetrics
+{
+	/**
+	 * The metrics that every Dao records to by default.
+	 */
+	public static final TransactionMetrics GLOBAL = new TransactionMetrics();
+
+	private final ConcurrentMap<String, Counters> countersByKind = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the {@link Counters} of a single kind, creating them if necessary.
+	 *
+	 * @param kind The Datastore kind whose transactions should be counted.
+	 *
+	 * @return The {@link Counters} of {@code kind}.
+	 */
+	public Counters getCounters(final String kind)
+	{
+		Preconditions.checkNotNull(kind);
+
+		final Counters counters = this.countersByKind.get(kind);
+		if (counters != null)
+		{
+			return counters;
+		}
+		final Counters newCounters = new Counters();
+		final Counters existingCounters = this.countersByKind.putIfAbsent(kind, newCounters);
+		return existingCounters == null ? newCounters : existingCounters;
+	}
+
+	/**
+	 * @return The {@link Counters} of every kind that has been counted so far, keyed by kind.
+	 */
+	public Map<String, Counters> getAllCounters()
+	{
+		return ImmutableMap.copyOf(this.countersByKind);
+	}
+
+	/**
+	 * The transaction counters of a single kind.
+	 */
+	public static final class Counters
+	{
+		private final AtomicLong commits = new AtomicLong();
+
+		private final AtomicLong retries = new AtomicLong();
+
+		private final AtomicLong concurrentModifications = new AtomicLong();
+
+		/**
+		 * Records a transaction that committed.
+		 */
+		public void recordCommit()
+		{
+			this.commits.incrementAndGet();
+		}
+
+		/**
+		 * Records a transaction that is about to be attempted again.
+		 */
+		public void recordRetry()
+		{
+			this.retries.incrementAndGet();
+		}
+
+		/**
+		 * Records a transaction attempt that failed with a {@link ConcurrentModificationException}.
+		 */
+		public void recordConcurrentModification()
+		{
+			this.concurrentModifications.incrementAndGet();
+		}
+
+		/**
+		 * @return The number of transactions that committed.
+		 */
+		public long getCommits()
+		{
+			return this.commits.get();
+		}
+
+		/**
+		 * @return The number of transaction attempts that were retried.
+		 */
+		public long getRetries()
+		{
+			return this.retries.get();
+		}
+
+		/**
+		 * @return The number of transaction attempts that failed with a {@link ConcurrentModificationException},
+		 * whether or not they were retried.
+		 */
+		public long getConcurrentModifications()
+		{
+			return this.concurrentModifications.get();
+		}
+
+		@Override
+		public String toString()
+		{
+			return "Counters(commits=" + this.getCommits() + ", retries=" + this.getRetries()
+					+ ", concurrentModifications=" + this.getConcurrentModifications() + ")";
+		}
+	}
+
+}
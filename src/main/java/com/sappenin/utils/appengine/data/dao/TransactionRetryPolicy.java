@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.dao;
+
+import com.google.common.base.Preconditions;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.ConcurrentModificationException;
+
+/**
+ * Governs how the transactional methods of {@link ObjectifyDao} (e.g., {@link ObjectifyDao#save}) retry a transaction
+ * that fails with a {@link ConcurrentModificationException}.  Instead of retrying immediately (which only adds to the
+ * contention on a hot entity group), each retry waits for an exponentially increasing, randomly jittered delay, and no
+ * retry is attempted if it would leave too little time before the request deadline.
+ *
+ * @author David Fuelling
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+public class TransactionRetryPolicy
+{
+	/**
+	 * The policy used by default, which makes up to 10 attempts, backing off from 20ms up to 1s, and which stops
+	 * retrying once fewer than 2s remain in the request.
+	 */
+	public static final TransactionRetryPolicy DEFAULT = new TransactionRetryPolicy(10, 20L, 1000L, 2000L);
+
+	// The maximum number of times that a transaction is attempted, including the first attempt.
+	private final int maxAttempts;
+
+	// The upper bound of the delay before the first retry.  Each later retry doubles this bound.
+	private final long initialBackoffMillis;
+
+	// The largest upper bound of the delay before any retry.
+	private final long maxBackoffMillis;
+
+	// No retry is attempted if fewer than this many milliseconds would remain in the request after backing off.
+	private final long deadlineReserveMillis;
+
+	/**
+	 * Required-args Constructor.
+	 *
+	 * @param maxAttempts           The maximum number of times that a transaction is attempted, including the first
+	 *                              attempt.
+	 * @param initialBackoffMillis  The upper bound of the delay before the first retry.
+	 * @param maxBackoffMillis      The largest upper bound of the delay before any retry.
+	 * @param deadlineReserveMillis The number of milliseconds that must remain in the request after backing off for a
+	 *                              retry to be attempted.
+	 */
+	public TransactionRetryPolicy(final int maxAttempts, final long initialBackoffMillis, final long maxBackoffMillis,
+			final long deadlineReserveMillis)
+	{
+		Preconditions.checkArgument(maxAttempts > 0, "maxAttempts must be positive!");
+		Preconditions.checkArgument(initialBackoffMillis >= 0, "initialBackoffMillis must not be negative!");
+		Preconditions.checkArgument(maxBackoffMillis >= initialBackoffMillis,
+				"maxBackoffMillis must not be less than initialBackoffMillis!");
+		Preconditions.checkArgument(deadlineReserveMillis >= 0, "deadlineReserveMillis must not be negative!");
+		this.maxAttempts = maxAttempts;
+		this.initialBackoffMillis = initialBackoffMillis;
+		this.maxBackoffMillis = maxBackoffMillis;
+		this.deadlineReserveMillis = deadlineReserveMillis;
+	}
+
+	/**
+	 * Computes the delay before the next retry, using "full jitter": the delay is chosen uniformly between zero and an
+	 * exponentially increasing bound, so that contending writers spread their retries out instead of colliding again.
+	 *
+	 * @param failedAttempts The number of attempts that have failed so far.
+	 * @param randomFraction A random number in the range [0, 1).
+	 *
+	 * @return The number of milliseconds to wait before the next attempt.
+	 */
+	public long computeBackoffMillis(final int failedAttempts, final double randomFraction)
+	{
+		Preconditions.checkArgument(failedAttempts > 0, "failedAttempts must be positive!");
+		Preconditions.checkArgument(randomFraction >= 0 && randomFraction < 1,
+				"randomFraction must be in the range [0, 1)!");
+
+		long bound = this.initialBackoffMillis;
+		for (int i = 1; i < failedAttempts && bound < this.maxBackoffMillis; i++)
+		{
+			bound *= 2;
+		}
+		return (long) (Math.min(bound, this.maxBackoffMillis) * randomFraction);
+	}
+
+	/**
+	 * Determines if a transaction should be attempted again.
+	 *
+	 * @param failedAttempts  The number of attempts that have failed so far.
+	 * @param backoffMillis   The delay that would precede the next attempt.
+	 * @param remainingMillis The number of milliseconds that remain before the request deadline.
+	 *
+	 * @return {@code true} if another attempt is allowed, and would leave at least {@link #getDeadlineReserveMillis()}
+	 * before the deadline.
+	 */
+	public boolean shouldRetry(final int failedAttempts, final long backoffMillis, final long remainingMillis)
+	{
+		return failedAttempts < this.maxAttempts && remainingMillis - backoffMillis >= this.deadlineReserveMillis;
+	}
+
+}
@@ -0,0 +1,325 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.dao;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Result;
+import com.sappenin.utils.appengine.data.dao.exceptions.WriteBehindException;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A thread-scoped unit of work that buffers the writes made through {@link ObjectifyDao#saveBehind} during a request
+ * (or task), collapses repeated writes of the same {@link Key} into the last one, and writes everything at once in
+ * concurrent batch puts when it is flushed.  Usually a buffer spans an entire request via {@link WriteBehindFilter},
+ * but one can also be scoped explicitly:
+ * <pre>
+ * final WriteBehindBuffer buffer = WriteBehindBuffer.begin();
+ * try
+ * {
+ *     ...
+ * }
+ * finally
+ * {
+ *     buffer.close();
+ * }
+ * </pre>
+ * Buffered writes are blind puts (see {@link ObjectifyDao#upsert}), and are not visible to queries until they have
+ * been flushed.  A buffer is confined to the thread that began it, and is not thread-safe.
+ *
+ * @author David Fuelling
+ */
+public class WriteBehindBuffer implements Closeable
+{
+	private static final ThreadLocal<WriteBehindBuffer> CURRENT = new ThreadLocal<>();
+
+	// The maximum number of entities that the Datastore will accept in a single batch put.
+	private static final int MAX_ENTITIES_PER_BATCH_PUT = 500;
+
+	private final Map<Key<?>, PendingWrite> pendingWrites = Maps.newLinkedHashMap();
+
+	private final Set<Runnable> closeActions = Sets.newLinkedHashSet();
+
+	private long numCoalescedWrites;
+
+	private boolean closed;
+
+	/**
+	 * Begins a new buffer on the current thread.
+	 *
+	 * @return The new {@link WriteBehindBuffer}, which must be closed by the caller.
+	 *
+	 * @throws IllegalStateException if a buffer is already active on the current thread.
+	 */
+	public static WriteBehindBuffer begin()
+	{
+		Preconditions.checkState(CURRENT.get() == null, "A WriteBehindBuffer is already active on this thread!");
+		final WriteBehindBuffer buffer = new WriteBehindBuffer();
+		CURRENT.set(buffer);
+		return buffer;
+	}
+
+	/**
+	 * @return The {@link WriteBehindBuffer} that is active on the current thread, if any.
+	 */
+	public static Optional<WriteBehindBuffer> current()
+	{
+		return Optional.fromNullable(CURRENT.get());
+	}
+
+	/**
+	 * Buffers a write of {@code entity}, replacing any write of the same {@link Key} that is already buffered.
+	 *
+	 * @param key           The {@link Key} of {@code entity}.
+	 * @param entity        The entity to write.
+	 * @param flushListener A {@link FlushListener} that is notified once {@code entity} has been flushed.
+	 */
+	public <T> void enqueue(final Key<T> key, final T entity, final FlushListener flushListener)
+	{
+		Preconditions.checkNotNull(key);
+		Preconditions.checkNotNull(entity);
+		Preconditions.checkNotNull(flushListener);
+		Preconditions.checkState(!this.closed, "This WriteBehindBuffer has been closed!");
+
+		if (this.pendingWrites.put(key, new PendingWrite(key, entity, flushListener)) != null)
+		{
+			this.numCoalescedWrites++;
+		}
+	}
+
+	/**
+	 * Defers {@code action} until this buffer is closed (see {@link #close()}), so that work which need not delay the
+	 * caller, such as a write-back, runs at the end of the request instead.  Registering an action that is already
+	 * registered has no effect.
+	 *
+	 * @param action A {@link Runnable} to run once this buffer has been flushed, whether or not the flush succeeded.  It
+	 *               should not throw, since doing so would mask any failure of the flush.
+	 */
+	public void runOnClose(final Runnable action)
+	{
+		Preconditions.checkNotNull(action);
+		Preconditions.checkState(!this.closed, "This WriteBehindBuffer has been closed!");
+		this.closeActions.add(action);
+	}
+
+	/**
+	 * Returns the buffered write of the entity identified by {@code key}, so that a request can read its own writes
+	 * before they are flushed.
+	 *
+	 * @param key The {@link Key} of an entity.
+	 *
+	 * @return The entity that will be written for {@code key}, if a write is buffered.
+	 */
+	public <T> Optional<T> getPending(final Key<T> key)
+	{
+		Preconditions.checkNotNull(key);
+
+		final PendingWrite pendingWrite = this.pendingWrites.get(key);
+		@SuppressWarnings("unchecked") final T entity = pendingWrite == null ? null : (T) pendingWrite.entity;
+		return Optional.fromNullable(entity);
+	}
+
+	/**
+	 * @return The number of distinct entities whose writes are buffered.
+	 */
+	public int size()
+	{
+		return this.pendingWrites.size();
+	}
+
+	/**
+	 * @return The number of buffered writes that were replaced by a later write of the same {@link Key}, and therefore
+	 * never reached the Datastore.
+	 */
+	public long getNumCoalescedWrites()
+	{
+		return this.numCoalescedWrites;
+	}
+
+	/**
+	 * Writes every buffered entity to the Datastore using concurrent batch puts, and empties the buffer.  Every batch
+	 * is attempted even if another fails, and every {@link FlushListener} is notified whether or not its writes
+	 * succeeded.  Failed writes are not retried.
+	 *
+	 * @throws WriteBehindException if any buffered entity could not be written.
+	 */
+	public void flush() throws WriteBehindException
+	{
+		if (this.pendingWrites.isEmpty())
+		{
+			return;
+		}
+		final List<PendingWrite> writes = ImmutableList.copyOf(this.pendingWrites.values());
+		this.pendingWrites.clear();
+
+		final Set<Key<?>> failedKeys = Sets.newLinkedHashSet();
+		final List<RuntimeException> failures = Lists.newArrayList();
+		try
+		{
+			// Start every batch put before waiting for any of them.
+			final List<List<PendingWrite>> chunks = Lists.partition(writes, MAX_ENTITIES_PER_BATCH_PUT);
+			final List<Result<?>> pendingSaves = Lists.newArrayListWithCapacity(chunks.size());
+			for (final List<PendingWrite> chunk : chunks)
+			{
+				final List<Object> entities = Lists.newArrayListWithCapacity(chunk.size());
+				for (final PendingWrite pendingWrite : chunk)
+				{
+					entities.add(pendingWrite.entity);
+				}
+				try
+				{
+					pendingSaves.add(ObjectifyService.ofy().save().entities(entities));
+				}
+				catch (RuntimeException e)
+				{
+					// E.g., an entity could not be translated.  The other batches are still written.
+					pendingSaves.add(null);
+					this.recordFailure(e, chunk, failures, failedKeys);
+				}
+			}
+
+			for (int i = 0; i < chunks.size(); i++)
+			{
+				try
+				{
+					if (pendingSaves.get(i) != null)
+					{
+						pendingSaves.get(i).now();
+					}
+				}
+				catch (RuntimeException e)
+				{
+					this.recordFailure(e, chunks.get(i), failures, failedKeys);
+				}
+			}
+		}
+		finally
+		{
+			this.notifyFlushListeners(writes);
+		}
+
+		if (!failures.isEmpty())
+		{
+			final WriteBehindException writeBehindException = new WriteBehindException(
+					"Unable to write " + failedKeys.size() + " buffered entities: " + failedKeys, failedKeys,
+					failures.get(0));
+			for (final RuntimeException failure : failures.subList(1, failures.size()))
+			{
+				writeBehindException.addSuppressed(failure);
+			}
+			throw writeBehindException;
+		}
+	}
+
+	/**
+	 * Flushes this buffer (see {@link #flush()}), ends it on the current thread, and then runs every action that was
+	 * deferred with {@link #runOnClose}.
+	 *
+	 * @throws WriteBehindException if any buffered entity could not be written.
+	 */
+	@Override
+	public void close() throws WriteBehindException
+	{
+		try
+		{
+			this.flush();
+		}
+		finally
+		{
+			this.closed = true;
+			if (CURRENT.get() == this)
+			{
+				CURRENT.remove();
+			}
+			for (final Runnable closeAction : this.closeActions)
+			{
+				closeAction.run();
+			}
+			this.closeActions.clear();
+		}
+	}
+
+	private void recordFailure(final RuntimeException failure, final List<PendingWrite> chunk,
+			final List<RuntimeException> failures, final Set<Key<?>> failedKeys)
+	{
+		failures.add(failure);
+		for (final PendingWrite pendingWrite : chunk)
+		{
+			failedKeys.add(pendingWrite.key);
+		}
+	}
+
+	/**
+	 * Notifies each distinct {@link FlushListener} once, with all of the {@link Key}s that it enqueued.
+	 */
+	private void notifyFlushListeners(final List<PendingWrite> writes)
+	{
+		final Map<FlushListener, List<Key<?>>> keysByListener = Maps.newLinkedHashMap();
+		for (final PendingWrite pendingWrite : writes)
+		{
+			List<Key<?>> keys = keysByListener.get(pendingWrite.flushListener);
+			if (keys == null)
+			{
+				keys = Lists.newArrayList();
+				keysByListener.put(pendingWrite.flushListener, keys);
+			}
+			keys.add(pendingWrite.key);
+		}
+		for (final Map.Entry<FlushListener, List<Key<?>>> entry : keysByListener.entrySet())
+		{
+			entry.getKey().onFlushed(entry.getValue());
+		}
+	}
+
+	/**
+	 * Notified whenever buffered writes have been flushed (successfully or not), so that any state derived from the
+	 * written entities, such as a cache, can be invalidated.
+	 */
+	public interface FlushListener
+	{
+		/**
+		 * @param keys A {@link List} of the {@link Key}s of the entities that were flushed.
+		 */
+		void onFlushed(final List<Key<?>> keys);
+	}
+
+	/**
+	 * A single buffered write.
+	 */
+	private static final class PendingWrite
+	{
+		private final Key<?> key;
+
+		private final Object entity;
+
+		private final FlushListener flushListener;
+
+		private PendingWrite(final Key<?> key, final Object entity, final FlushListener flushListener)
+		{
+			this.key = key;
+			this.entity = entity;
+			this.flushListener = flushListener;
+		}
+	}
+
+}
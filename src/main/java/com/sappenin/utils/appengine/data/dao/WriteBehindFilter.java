@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.dao;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.io.IOException;
+
+/**
+ * A servlet {@link Filter} that scopes a {@link WriteBehindBuffer} to each request, and flushes it once the request
+ * has been handled (even if handling failed, since the buffered writes were already accepted by the Dao).  If the
+ * flush fails, the resulting {@link com.sappenin.utils.appengine.data.dao.exceptions.WriteBehindException} propagates
+ * to the container, so the request fails (and a task is retried) instead of silently losing writes. <br/> <br/>
+ * Flushing requires an Objectify session, so this filter must be mapped after {@link
+ * com.googlecode.objectify.ObjectifyFilter}.
+ *
+ * @author David Fuelling
+ */
+public class WriteBehindFilter implements Filter
+{
+	@Override
+	public void init(final FilterConfig filterConfig) throws ServletException
+	{
+	}
+
+	@Override
+	public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain)
+			throws IOException, ServletException
+	{
+		final WriteBehindBuffer buffer = WriteBehindBuffer.begin();
+		try
+		{
+			chain.doFilter(request, response);
+		}
+		catch (IOException | ServletException | RuntimeException | Error e)
+		{
+			// Don't let a failed flush mask the original failure.
+			try
+			{
+				buffer.close();
+			}
+			catch (RuntimeException flushFailure)
+			{
+				e.addSuppressed(flushFailure);
+			}
+			throw e;
+		}
+		buffer.close();
+	}
+
+	@Override
+	public void destroy()
+	{
+	}
+
+}
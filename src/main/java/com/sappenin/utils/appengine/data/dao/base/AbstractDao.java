@@ -18,6 +18,7 @@ package com.sappenin.utils.appengine.data.dao.base;
 import java.util.logging.Logger;
 
 import com.sappenin.utils.appengine.data.dao.Dao;
+import com.sappenin.utils.appengine.data.dao.PageSlicer;
 import com.sappenin.utils.appengine.data.model.base.AbstractEntity;
 
 /**
@@ -42,6 +43,17 @@ public abstract class AbstractDao<T extends AbstractEntity> implements Dao<T>
 	// Helper code to load RIE list-based Entities (e.g., UserDaoObjectify).
 	// //////////////////////////////////////////////
 
+	/**
+	 * The {@link PageSlicer} used to determine which pages of a list-based
+	 * Entity to load. Override this to change the number of members per page.
+	 * 
+	 * @return {@link PageSlicer#DEFAULT} by default.
+	 */
+	protected PageSlicer getPageSlicer()
+	{
+		return PageSlicer.DEFAULT;
+	}
+
 	/**
 	 * A utility function that determines the pages to load. It takes a List of
 	 * keys and, based upon the starting and ending page number, returns back a
@@ -50,7 +62,12 @@ public abstract class AbstractDao<T extends AbstractEntity> implements Dao<T>
 	 * @param iNumTotalEntries
 	 * @param iFirstResult
 	 * @param iMaxResults
+	 * @deprecated This only supports windows of up to 5000 entries that span at
+	 *             most two pages. Use {@link PageSlicer#slice} (via
+	 *             {@link #getPageSlicer()}) instead, which supports windows that
+	 *             span any number of pages.
 	 */
+	@Deprecated
 	protected PageIndices determinePageIndices(final int iNumTotalEntries, final int iFirstResult, int iMaxResults)
 	{
 		// List 0 ==> [0]...[4999]
@@ -192,7 +209,10 @@ public abstract class AbstractDao<T extends AbstractEntity> implements Dao<T>
 	/**
 	 * An internal data structure that holds an index number for a series of two
 	 * data pages to utilize.
+	 * 
+	 * @deprecated Use {@link PageSlicer.PageSlice} instead.
 	 */
+	@Deprecated
 	@lombok.Getter
 	@lombok.Setter
 	public class PageIndices
@@ -14,24 +14,70 @@ package com.sappenin.utils.appengine.data.dao.base;
 
 import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.datastore.ReadPolicy;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.apphosting.api.ApiProxy;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.reflect.TypeToken;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.NotFoundException;
+import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Result;
 import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
 import com.googlecode.objectify.cmd.Query;
+import com.googlecode.objectify.impl.TransactionImpl;
+import com.googlecode.objectify.util.ResultCache;
 import com.sappenin.utils.annotations.Idempotent;
+import com.sappenin.utils.appengine.data.dao.DeleteProgressListener;
+import com.sappenin.utils.appengine.data.dao.EntityMigrationRegistry;
+import com.sappenin.utils.appengine.data.dao.EntitySizeEstimator;
+import com.sappenin.utils.appengine.data.dao.NearCache;
+import com.sappenin.utils.appengine.data.dao.NegativeCache;
 import com.sappenin.utils.appengine.data.dao.ObjectifyDao;
+import com.sappenin.utils.appengine.data.dao.PagingPolicy;
+import com.sappenin.utils.appengine.data.dao.ParallelQueryScan;
+import com.sappenin.utils.appengine.data.dao.PagingPolicy.LookaheadMode;
+import com.sappenin.utils.appengine.data.dao.PrefetchingQueryIterator;
+import com.sappenin.utils.appengine.data.dao.Results;
+import com.sappenin.utils.appengine.data.dao.TransactionMetrics;
+import com.sappenin.utils.appengine.data.dao.TransactionRetryPolicy;
+import com.sappenin.utils.appengine.data.dao.WriteBehindBuffer;
+import com.sappenin.utils.appengine.data.dao.exceptions.EntityTooLargeException;
+import com.sappenin.utils.appengine.data.dao.exceptions.MissingEntitiesException;
+import com.sappenin.utils.appengine.data.dao.exceptions.VersionConflictException;
+import com.sappenin.utils.appengine.data.model.BatchLoadResult;
+import com.sappenin.utils.appengine.data.model.DeleteResult;
 import com.sappenin.utils.appengine.data.model.ResultWithCursor;
 import com.sappenin.utils.appengine.data.model.base.AbstractObjectifyEntity;
 import com.sappenin.utils.exceptions.data.DuplicateEntityException;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeUtils.MillisProvider;
 import org.joda.time.DateTimeZone;
 
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.ConcurrentModificationException;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 
 /**
  * An abstract implementation of {@link ObjectifyDao}.
@@ -41,6 +87,82 @@ import java.util.List;
 public abstract class AbstractObjectifyDao<T extends AbstractObjectifyEntity<T>> extends AbstractDao<T>
 		implements ObjectifyDao<T>
 {
+	// The maximum number of entities that the Datastore will accept in a single batch put.
+	protected static final int MAX_ENTITIES_PER_BATCH_PUT = 500;
+
+	// The maximum number of keys that the Datastore will accept in a single batch get.
+	protected static final int MAX_KEYS_PER_BATCH_GET = 1000;
+
+	// The maximum number of entity groups that may participate in a single cross-group (XG) transaction.
+	protected static final int MAX_ENTITY_GROUPS_PER_TRANSACTION = 25;
+
+	// The maximum number of keys that the Datastore will accept in a single batch delete.
+	protected static final int MAX_KEYS_PER_BATCH_DELETE = 500;
+
+	// The maximum number of batch deletes that #deleteAll leaves in flight at once.
+	private static final int MAX_PENDING_BATCH_DELETES = 5;
+
+	// The number of milliseconds before the request deadline at which #deleteAll stops.
+	private static final long DEFAULT_DELETE_DEADLINE_RESERVE_MILLIS = 5000L;
+
+	// The Datastore property that is populated on a random sample of entities, for use in choosing split points.
+	private static final String SCATTER_PROPERTY = "__scatter__";
+
+	// The number of __scatter__ keys sampled for each desired shard.
+	private static final int SCATTER_OVERSAMPLING_FACTOR = 32;
+
+	// The default clock, which defers to Joda's (and so honors DateTimeUtils#setCurrentMillisFixed in tests).
+	private static final MillisProvider JODA_MILLIS_PROVIDER = new MillisProvider()
+	{
+		@Override
+		public long getMillis()
+		{
+			return DateTimeUtils.currentTimeMillis();
+		}
+	};
+
+	// The number of unchanged entities that #save and #saveAll did not write.
+	private final AtomicLong numSkippedSaves = new AtomicLong();
+
+	// Invalidates this Dao's caches once writes made outside of the Dao (e.g., buffered writes) have been flushed.
+	private final WriteBehindBuffer.FlushListener cacheInvalidationListener = new WriteBehindBuffer.FlushListener()
+	{
+		@Override
+		public void onFlushed(final List<Key<?>> keys)
+		{
+			final String kind = Key.getKind(getEntityClass());
+			final List<Key<T>> typedKeys = Lists.newArrayList();
+			for (final Key<?> key : keys)
+			{
+				if (kind.equals(key.getKind()))
+				{
+					@SuppressWarnings("unchecked") final Key<T> typedKey = (Key<T>) key;
+					typedKeys.add(typedKey);
+				}
+			}
+			invalidateCaches(typedKeys);
+		}
+	};
+
+	// Writes back the entities upgraded by this Dao's EntityMigrationRegistry once a request's WriteBehindBuffer closes.
+	private final Runnable migrationWriteBack = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			// Caches are not invalidated after a write-back, because an upgraded entity only differs from its stored
+			// copy in what every reader upgrades on load anyway.
+			try
+			{
+				getMigrationRegistry().get().flushWriteBack();
+			}
+			catch (RuntimeException e)
+			{
+				// The entities are simply migrated again the next time they are loaded.
+				logger.log(Level.WARNING, "Unable to write back migrated " + Key.getKind(getEntityClass()), e);
+			}
+		}
+	};
 
 	// ////////////////////////////////////////
 	// Abstract Overides
@@ -67,7 +189,14 @@ public abstract class AbstractObjectifyDao<T extends AbstractObjectifyEntity<T>>
 		Preconditions.checkArgument(entity.getKey() != null,
 				"Cannot #save an Entity that has no Key.  Call the Dao's #createNew function instead.");
 
-		ObjectifyService.ofy().transact(new VoidWork()
+		if (!touchUpdateDateTime && this.isSkippingUnchangedSaves() && !entity.isDirty())
+		{
+			this.numSkippedSaves.incrementAndGet();
+			return;
+		}
+		this.checkEntitySizes(ImmutableList.of(entity));
+
+		this.transactWithRetries(new VoidWork()
 		{
 			@Override
 			public void vrun()
@@ -82,13 +211,207 @@ public abstract class AbstractObjectifyDao<T extends AbstractObjectifyEntity<T>>
 
 				if (touchUpdateDateTime)
 				{
-					entity.setUpdateDateTime(DateTime.now(DateTimeZone.UTC));
+					entity.setUpdateDateTime(currentDateTime());
 				}
+				incrementVersion(entity, optExisting.get());
 
 				ObjectifyService.ofy().save().entity(entity).now();
 			}
 		});
+		this.invalidateCaches(ImmutableList.of(entity.getTypedKey()));
+		this.markClean(ImmutableList.of(entity));
+	}
+
+	@Override
+	public void saveIfVersion(final T entity) throws VersionConflictException
+	{
+		this.saveIfVersion(entity, false);
+	}
+
+	@Override
+	public void saveIfVersion(final T entity, final boolean touchUpdateDateTime) throws VersionConflictException
+	{
+		Preconditions.checkNotNull(entity);
+		Preconditions.checkArgument(entity.getKey() != null,
+				"Cannot #saveIfVersion an Entity that has no Key.  Call the Dao's #createNew function instead.");
+		Preconditions.checkArgument(entity.getVersion() != null,
+				"Cannot #saveIfVersion an Entity that has no version.  Call the Dao's #save function instead.");
+		this.checkEntitySizes(ImmutableList.of(entity));
+
+		final long expectedVersion = entity.getVersion();
+		try
+		{
+			this.transactWithRetries(new VoidWork()
+			{
+				@Override
+				public void vrun()
+				{
+					final T existing = ObjectifyService.ofy().load().key(entity.getTypedKey()).now();
+					if (existing == null)
+					{
+						throw new MissingEntitiesException("Unable to save " + entity.getTypedKey()
+								+ " because it does not exist in the Datastore!", ImmutableSet.of(entity.getTypedKey()));
+					}
+					if (!Long.valueOf(expectedVersion).equals(existing.getVersion()))
+					{
+						throw new VersionConflictException(
+								"Unable to save " + entity.getTypedKey() + " because its version is " + existing
+										.getVersion() + " instead of " + expectedVersion + "!", entity.getTypedKey(),
+								expectedVersion, existing.getVersion());
+					}
+
+					if (touchUpdateDateTime)
+					{
+						entity.setUpdateDateTime(currentDateTime());
+					}
+					entity.setVersion(expectedVersion + 1);
+
+					ObjectifyService.ofy().save().entity(entity).now();
+				}
+			});
+		}
+		catch (RuntimeException e)
+		{
+			entity.setVersion(expectedVersion);
+			throw e;
+		}
+		this.invalidateCaches(ImmutableList.of(entity.getTypedKey()));
+		this.markClean(ImmutableList.of(entity));
+	}
+
+	@Override
+	@Idempotent
+	public void upsert(final T entity)
+	{
+		Preconditions.checkNotNull(entity);
+		this.upsertAll(ImmutableList.of(entity));
+	}
+
+	@Override
+	@Idempotent
+	public void upsertAll(final Collection<T> entities)
+	{
+		Preconditions.checkNotNull(entities);
+		for (final T entity : entities)
+		{
+			Preconditions.checkNotNull(entity);
+			Preconditions.checkArgument(entity.getKey() != null,
+					"Cannot #upsert an Entity that has no Key.  Call the Dao's #createNew function instead.");
+		}
+		this.checkEntitySizes(entities);
 
+		final List<Result<?>> pendingSaves = Lists.newArrayList();
+		try
+		{
+			for (final List<T> chunk : Lists.partition(Lists.newArrayList(entities), MAX_ENTITIES_PER_BATCH_PUT))
+			{
+				pendingSaves.add(ObjectifyService.ofy().save().entities(chunk));
+			}
+			for (final Result<?> pendingSave : pendingSaves)
+			{
+				pendingSave.now();
+			}
+		}
+		finally
+		{
+			this.invalidateCaches(this.toTypedKeys(entities));
+		}
+	}
+
+	@Override
+	@Idempotent
+	public void saveAll(final Collection<T> entities)
+	{
+		this.saveAll(entities, false);
+	}
+
+	/**
+	 * Saves {@code entities} in chunks that fit into a single batch put.  The existence of every entity in a chunk is
+	 * verified with a single batch lookup, and the chunk is then written with a single batch put.  Chunks that span
+	 * {@link #MAX_ENTITY_GROUPS_PER_TRANSACTION} or fewer entity groups are checked and written inside of a
+	 * cross-group transaction; larger chunks are checked and written outside of a transaction, and are therefore only
+	 * eventually consistent with concurrent writers.
+	 */
+	@Override
+	public void saveAll(final Collection<T> entities, final boolean touchUpdateDateTime)
+	{
+		Preconditions.checkNotNull(entities);
+		for (final T entity : entities)
+		{
+			Preconditions.checkNotNull(entity);
+			Preconditions.checkArgument(entity.getKey() != null,
+					"Cannot #saveAll an Entity that has no Key.  Call the Dao's #createNew function instead.");
+		}
+
+		final List<T> dirtyEntities = Lists.newArrayList();
+		for (final T entity : entities)
+		{
+			if (!touchUpdateDateTime && this.isSkippingUnchangedSaves() && !entity.isDirty())
+			{
+				this.numSkippedSaves.incrementAndGet();
+			}
+			else
+			{
+				dirtyEntities.add(entity);
+			}
+		}
+		this.checkEntitySizes(dirtyEntities);
+
+		final List<Result<?>> pendingSaves = Lists.newArrayList();
+		try
+		{
+			for (final List<T> chunk : Lists.partition(dirtyEntities, MAX_ENTITIES_PER_BATCH_PUT))
+			{
+				if (this.countEntityGroups(chunk) <= MAX_ENTITY_GROUPS_PER_TRANSACTION)
+				{
+					this.transactWithRetries(new VoidWork()
+					{
+						@Override
+						public void vrun()
+						{
+							saveExistingChunk(chunk, touchUpdateDateTime).now();
+						}
+					});
+				}
+				else
+				{
+					// Too many entity groups for a single transaction, so let this put proceed while the next chunk
+					// is checked.
+					pendingSaves.add(this.saveExistingChunk(chunk, touchUpdateDateTime));
+				}
+			}
+
+			for (final Result<?> pendingSave : pendingSaves)
+			{
+				pendingSave.now();
+			}
+		}
+		finally
+		{
+			// Some chunks may have been written even if a later chunk failed.
+			this.invalidateCaches(this.toTypedKeys(dirtyEntities));
+		}
+		this.markClean(dirtyEntities);
+	}
+
+	@Override
+	@Idempotent
+	public void saveBehind(final T entity)
+	{
+		Preconditions.checkNotNull(entity);
+		Preconditions.checkArgument(entity.getKey() != null,
+				"Cannot #saveBehind an Entity that has no Key.  Call the Dao's #createNew function instead.");
+		this.checkEntitySizes(ImmutableList.of(entity));
+
+		final Optional<WriteBehindBuffer> optBuffer = WriteBehindBuffer.current();
+		if (optBuffer.isPresent() && ObjectifyService.ofy().getTransaction() == null)
+		{
+			optBuffer.get().enqueue(entity.getTypedKey(), entity, this.cacheInvalidationListener);
+		}
+		else
+		{
+			this.upsert(entity);
+		}
 	}
 
 	// ////////////////////////////
@@ -97,14 +420,36 @@ public abstract class AbstractObjectifyDao<T extends AbstractObjectifyEntity<T>>
 
 	@Override
 	public boolean existsInDatastore(final Key<T> typedKey)
+	{
+		return this.existsInDatastoreAsync(typedKey).now();
+	}
+
+	@Override
+	public Result<Boolean> existsInDatastoreAsync(final Key<T> typedKey)
 	{
 		Preconditions.checkNotNull(typedKey);
 
+		final Optional<NegativeCache<T>> optNegativeCache = this.getNegativeCacheOutsideTransaction();
+		if (optNegativeCache.isPresent() && optNegativeCache.get().isKnownMissing(typedKey))
+		{
+			return Results.immediate(Boolean.FALSE);
+		}
+
 		// See "https://groups.google.com/forum/#!searchin/objectify-appengine/exist/objectify-appengine/zFI2YWP5DTI
 		// /BpwFNlVQo1UJ".  This methodolody will be faster than a get-by-key because the Datastore merely does an
 		// index-walk, and has minimal protobuf overhead.  However, this will be slightly costlier in the case where
-		// an entity exists (but equivalent when an entity doesn't exist).
-		return ObjectifyService.ofy().load().filterKey(typedKey).limit(1).count() == 1;
+		// an entity exists (but equivalent when an entity doesn't exist).  Because the query is only eventually
+		// consistent, a miss is not added to the negative cache, which strongly consistent lookups also trust.
+		final Result<Key<Object>> firstKey = ObjectifyService.ofy().load().filterKey(typedKey).limit(1).keys()
+				.first();
+		return Results.transform(firstKey, new Function<Key<Object>, Boolean>()
+		{
+			@Override
+			public Boolean apply(final Key<Object> key)
+			{
+				return key != null;
+			}
+		});
 	}
 
 	@Override
@@ -118,13 +463,130 @@ public abstract class AbstractObjectifyDao<T extends AbstractObjectifyEntity<T>>
 		return ObjectifyService.ofy().load().key(typedKey).now() != null;
 	}
 
+	/**
+	 * Uses eventually-consistent batch gets, which are not blocked by pending writes and therefore return faster than
+	 * {@link #existsInDatastoreConsistent(Collection)}.  The Datastore has no keys-only lookup, so this costs one
+	 * batch get per {@link #MAX_KEYS_PER_BATCH_GET} keys rather than one query per key.
+	 */
+	@Override
+	public Set<Key<T>> existsInDatastore(final Collection<Key<T>> typedKeys)
+	{
+		final Objectify eventualOfy = ObjectifyService.ofy().consistency(ReadPolicy.Consistency.EVENTUAL);
+		final Map<Key<T>, T> pendingEntities = this.getPendingOutsideTransaction(typedKeys);
+		return Sets.newLinkedHashSet(this.findByTypedKeysAsync(eventualOfy, typedKeys, pendingEntities).now()
+				.getFound().keySet());
+	}
+
+	@Override
+	public Set<Key<T>> existsInDatastoreConsistent(final Collection<Key<T>> typedKeys)
+	{
+		return Sets.newLinkedHashSet(this.findByTypedKeys(typedKeys).getFound().keySet());
+	}
+
 	@Override
 	public Optional<T> findByTypedKey(final Key<T> typedKey)
+	{
+		return this.findByTypedKeyAsync(typedKey).now();
+	}
+
+	@Override
+	public Result<Optional<T>> findByTypedKeyAsync(final Key<T> typedKey)
 	{
 		Preconditions.checkNotNull(typedKey);
+
+		// Outside of a transaction, a buffered write is the freshest version of an entity.
+		final Optional<WriteBehindBuffer> optBuffer = WriteBehindBuffer.current();
+		if (optBuffer.isPresent() && ObjectifyService.ofy().getTransaction() == null)
+		{
+			final Optional<T> optPendingEntity = optBuffer.get().getPending(typedKey);
+			if (optPendingEntity.isPresent())
+			{
+				return Results.immediate(optPendingEntity);
+			}
+		}
+
+		final Optional<NegativeCache<T>> optNegativeCache = this.getNegativeCacheOutsideTransaction();
+		if (optNegativeCache.isPresent() && optNegativeCache.get().isKnownMissing(typedKey))
+		{
+			return Results.immediate(Optional.<T>absent());
+		}
+		// Read before the load, so that a miss which races with a write is not cached.
+		final long negativeCacheGeneration = optNegativeCache.isPresent() ? optNegativeCache.get()
+				.getGeneration(typedKey) : 0L;
+
+		// Transactional reads must always come from the Datastore, and must not populate the near cache.
+		final Optional<NearCache<T>> optNearCache = ObjectifyService.ofy().getTransaction() == null ? this
+				.getNearCache() : Optional.<NearCache<T>>absent();
+		final Long nearCacheVersion;
+		if (optNearCache.isPresent())
+		{
+			final Optional<T> optCachedEntity = optNearCache.get().getIfPresent(typedKey);
+			if (optCachedEntity.isPresent())
+			{
+				this.trackChanges(ImmutableList.of(optCachedEntity.get()));
+				return Results.immediate(optCachedEntity);
+			}
+			nearCacheVersion = optNearCache.get().getVersion(typedKey);
+		}
+		else
+		{
+			nearCacheVersion = null;
+		}
+
 		// #now will return null if the entity isn't found, which Optional can
 		// handle.
-		return Optional.fromNullable(ObjectifyService.ofy().load().key(typedKey).now());
+		return Results.transform(ObjectifyService.ofy().load().key(typedKey), new Function<T, Optional<T>>()
+		{
+			@Override
+			public Optional<T> apply(final T entity)
+			{
+				// Entities are upgraded before they are cached, so that cache hits never need to be upgraded.
+				if (entity != null)
+				{
+					prepareLoadedEntities(ImmutableList.of(entity));
+				}
+				if (entity != null && optNearCache.isPresent())
+				{
+					optNearCache.get().put(typedKey, entity, nearCacheVersion);
+				}
+				else if (entity == null && optNegativeCache.isPresent())
+				{
+					optNegativeCache.get().putMissing(typedKey, negativeCacheGeneration);
+				}
+				return Optional.fromNullable(entity);
+			}
+		});
+	}
+
+	@Override
+	public BatchLoadResult<T> findByTypedKeys(final Collection<Key<T>> typedKeys)
+	{
+		return this.findByTypedKeysAsync(typedKeys).now();
+	}
+
+	@Override
+	public Result<BatchLoadResult<T>> findByTypedKeysAsync(final Collection<Key<T>> typedKeys)
+	{
+		final Map<Key<T>, T> pendingEntities = this.getPendingOutsideTransaction(typedKeys);
+		return Results.transform(this.findByTypedKeysAsync(ObjectifyService.ofy(), typedKeys, pendingEntities),
+				new Function<BatchLoadResult<T>, BatchLoadResult<T>>()
+				{
+					@Override
+					public BatchLoadResult<T> apply(final BatchLoadResult<T> batchLoadResult)
+					{
+						// Buffered writes were never loaded, so only the entities read from the Datastore are prepared.
+						final List<T> loadedEntities = Lists.newArrayList();
+						for (final Map.Entry<Key<T>, T> foundEntry : batchLoadResult.getFound().entrySet())
+						{
+							if (!pendingEntities.containsKey(foundEntry.getKey()))
+							{
+								loadedEntities.add(foundEntry.getValue());
+							}
+						}
+						prepareLoadedEntities(loadedEntities);
+						return batchLoadResult;
+					}
+				});
 	}
 
 	@Override
@@ -133,81 +595,1117 @@ public abstract class AbstractObjectifyDao<T extends AbstractObjectifyEntity<T>>
 		Preconditions.checkNotNull(typedKey);
 		// Prefer #safe over #now because it will throw a NotFoundException if
 		// the entity is not found.
-		return ObjectifyService.ofy().load().key(typedKey).safe();
+		final T entity = ObjectifyService.ofy().load().key(typedKey).safe();
+		this.prepareLoadedEntities(ImmutableList.of(entity));
+		return entity;
 	}
 
 	@Override
 	public ResultWithCursor<List<T>> loadFromDatastoreWithCursor(final Query<T> query, final Cursor offset, int limit)
+	{
+		return this.loadFromDatastoreWithCursorAsync(query, offset, limit).now();
+	}
+
+	@Override
+	public Result<ResultWithCursor<List<T>>> loadFromDatastoreWithCursorAsync(final Query<T> query,
+			final Cursor offset, final int limit)
 	{
 		final int adjustedLimit = adjustLimit(limit);
-		final Query<T> actualQuery = this.massageQuery(query, offset, adjustedLimit);
+		final LookaheadMode lookaheadMode = this.getPagingPolicy().getLookaheadMode();
+		final Query<T> actualQuery = this.massageQuery(query, offset, adjustedLimit, lookaheadMode);
+		// Creating the iterator starts the query, but no results are consumed until the Result is resolved.
 		final QueryResultIterator<T> iterator = actualQuery.iterator();
-		return this.assembleResultWithCursor(iterator, adjustedLimit);
+
+		if (lookaheadMode == LookaheadMode.KEYS_ONLY_PROBE)
+		{
+			// Look for the first result beyond this page concurrently with the page itself.  Skipped results are only
+			// walked in the index, so this is far cheaper than loading an extra entity.
+			final QueryResultIterator<Key<T>> probe = Preconditions.checkNotNull(query).startAt(offset)
+					.offset(adjustedLimit).limit(1).keys().iterator();
+			return new ResultCache<ResultWithCursor<List<T>>>()
+			{
+				private static final long serialVersionUID = -8018512523301257492L;
+
+				@Override
+				protected ResultWithCursor<List<T>> nowUncached()
+				{
+					final ResultWithCursor<List<T>> resultWithCursor = assembleResultWithCursor(iterator,
+							adjustedLimit);
+					if (resultWithCursor.getResult().size() == adjustedLimit && probe.hasNext())
+					{
+						// The page has been fully consumed, so this cursor does not require another query.
+						resultWithCursor.setCursor(iterator.getCursor());
+					}
+					prepareLoadedEntities(resultWithCursor.getResult());
+					return resultWithCursor;
+				}
+			};
+		}
+
+		return new ResultCache<ResultWithCursor<List<T>>>()
+		{
+			private static final long serialVersionUID = -1270520347055445357L;
+
+			@Override
+			protected ResultWithCursor<List<T>> nowUncached()
+			{
+				final ResultWithCursor<List<T>> resultWithCursor = assembleResultWithCursor(iterator, adjustedLimit);
+				prepareLoadedEntities(resultWithCursor.getResult());
+				return resultWithCursor;
+			}
+		};
 	}
 
 	@Override
 	public ResultWithCursor<List<Key<T>>> loadKeysOnlyFromDatastoreWithCursor(final Query<T> query, final Cursor
 			offset,
 			final int limit)
+	{
+		return this.loadKeysOnlyFromDatastoreWithCursorAsync(query, offset, limit).now();
+	}
+
+	@Override
+	public Result<ResultWithCursor<List<Key<T>>>> loadKeysOnlyFromDatastoreWithCursorAsync(final Query<T> query,
+			final Cursor offset, final int limit)
 	{
 		final int adjustedLimit = adjustLimit(limit);
-		final Query<T> actualQuery = this.massageQuery(query, offset, adjustedLimit);
+		// An extra key is already as cheap as a probe, so keys-only pages always use LookaheadMode.EXTRA_ENTITY.
+		final Query<T> actualQuery = this.massageQuery(query, offset, adjustedLimit, LookaheadMode.EXTRA_ENTITY);
+		// Creating the iterator starts the query, but no results are consumed until the Result is resolved.
 		final QueryResultIterator<Key<T>> iterator = actualQuery.keys().iterator();
-		return this.assembleResultWithCursor(iterator, adjustedLimit);
-	}
+		return new ResultCache<ResultWithCursor<List<Key<T>>>>()
+		{
+			private static final long serialVersionUID = 6255577035348233678L;
 
-	//////////////////
-	// Private Helpers
-	//////////////////
+			@Override
+			protected ResultWithCursor<List<Key<T>>> nowUncached()
+			{
+				return assembleResultWithCursor(iterator, adjustedLimit);
+			}
+		};
+	}
 
-	/**
-	 * Adjusts a limit value to be within the parameters of this class.<br/> <br/>TODO: See appengine-utils #1.
-	 *
-	 * @param limit An integer representing the number of items to return via this query.
-	 *
-	 * @return the adjusted limit
-	 * @see "https://github.com/sappenin/appengine-utils/issues/1"
-	 */
-	@VisibleForTesting
-	int adjustLimit(int limit)
+	@Override
+	public ResultWithCursor<List<T>> loadProjectionWithCursor(final Query<T> query, final Cursor offset,
+			final int limit, final String... properties)
 	{
-		if ((limit <= 0) || (limit > 50))
-		{
-			limit = 10;
-		}
-		return limit;
+		return this.loadProjectionWithCursorAsync(query, offset, limit, properties).now();
 	}
 
-	/**
-	 * Helper method to massage a {@link Query} object to have the proper limit and offset values.
-	 *
-	 * @param finalizedQuery An instance of {@link Query} of type {@link T}.
-	 * @param offset         An instance of {@link Cursor} that represents the offset to begin this query at.
-	 * @param limit          An integer representing the number of items to return via this query.
-	 *
-	 * @return A massaged query.
-	 */
-	@VisibleForTesting
-	Query<T> massageQuery(Query<T> finalizedQuery, final Cursor offset, int limit)
+	@Override
+	public Result<ResultWithCursor<List<T>>> loadProjectionWithCursorAsync(final Query<T> query, final Cursor offset,
+			final int limit, final String... properties)
 	{
-		Preconditions.checkNotNull(finalizedQuery);
-		if ((limit <= 0) || (limit > 50))
-		{
-			limit = 10;
-		}
+		Preconditions.checkNotNull(properties);
+		Preconditions.checkArgument(properties.length > 0, "At least one property must be projected!");
 
-		// See
-		// http://stackoverflow.com/questions/14088808/query-cursor-with-app-engine-java-jdo
-		// This will load 11 InboxEntry objects, if applicable. If there are
-		// more than 10, we need to store the cursor
-		// as it was at the 10th item. Otherwise, we need to omit the cursor
-		// (the cursor updates on every iterator bump)
+		final int adjustedLimit = adjustLimit(limit);
+		// An extra projected row is already as cheap as a probe, so projections always use LookaheadMode.EXTRA_ENTITY.
+		final Query<T> actualQuery = this.massageQuery(query, offset, adjustedLimit, LookaheadMode.EXTRA_ENTITY)
+				.project(properties);
+		// Creating the iterator starts the query, but no results are consumed until the Result is resolved.
+		final QueryResultIterator<T> iterator = actualQuery.iterator();
+		return new ResultCache<ResultWithCursor<List<T>>>()
+		{
+			private static final long serialVersionUID = 6938615132858668089L;
 
-		// Load limit + 1 to get a Cursor to more results, if any
-		Query<T> returnableUpdatedQuery = finalizedQuery.limit(limit + 1);
-		returnableUpdatedQuery = returnableUpdatedQuery.startAt(offset);
+			@Override
+			protected ResultWithCursor<List<T>> nowUncached()
+			{
+				return assembleResultWithCursor(iterator, adjustedLimit);
+			}
+		};
+	}
 
-		return returnableUpdatedQuery;
+	@Override
+	public PrefetchingQueryIterator<T> streamAll(final Query<T> query)
+	{
+		return this.streamAll(query, Optional.<Cursor>absent(), PrefetchingQueryIterator.DEFAULT_CHUNK_SIZE,
+				PrefetchingQueryIterator.DEFAULT_PREFETCH_SIZE);
+	}
+
+	@Override
+	public PrefetchingQueryIterator<T> streamAll(final Query<T> query, final Optional<Cursor> startCursor,
+			final int chunkSize, final int prefetchSize)
+	{
+		return new PrefetchingQueryIterator<>(query, startCursor, chunkSize, prefetchSize);
+	}
+
+	@Override
+	public DeleteResult<T> deleteAll(final Query<T> query)
+	{
+		return this.deleteAll(query, Optional.<Cursor>absent(), Optional.<DeleteProgressListener>absent());
+	}
+
+	/**
+	 * Keys are fetched in chunks of {@link #MAX_KEYS_PER_BATCH_DELETE}, so that the continuation cursor always falls
+	 * on a chunk boundary and is free to obtain.  Up to {@link #MAX_PENDING_BATCH_DELETES} batch deletes may be in
+	 * flight while the next chunk of keys is fetched.
+	 */
+	@Override
+	public DeleteResult<T> deleteAll(final Query<T> query, final Optional<Cursor> startCursor,
+			final Optional<DeleteProgressListener> progressListener)
+	{
+		Preconditions.checkNotNull(query);
+		Preconditions.checkNotNull(startCursor);
+		Preconditions.checkNotNull(progressListener);
+		Preconditions.checkState(ObjectifyService.ofy().getTransaction() == null,
+				"Cannot #deleteAll inside of a transaction!");
+
+		final Query<T> startQuery = startCursor.isPresent() ? query.startAt(startCursor.get()) : query;
+		final QueryResultIterator<Key<T>> keys = startQuery.chunk(MAX_KEYS_PER_BATCH_DELETE).keys().iterator();
+		final DeletePipeline pipeline = new DeletePipeline(progressListener);
+		List<Key<T>> batch = Lists.newArrayListWithCapacity(MAX_KEYS_PER_BATCH_DELETE);
+		while (keys.hasNext())
+		{
+			if (batch.isEmpty() && this.isDeleteDeadlineNear())
+			{
+				final long numDeleted = pipeline.awaitAll();
+				return new DeleteResult<>(numDeleted, Optional.of(keys.getCursor()), ImmutableList.<Key<T>>of());
+			}
+
+			batch.add(keys.next());
+			if (batch.size() == MAX_KEYS_PER_BATCH_DELETE)
+			{
+				pipeline.submit(batch);
+				batch = Lists.newArrayListWithCapacity(MAX_KEYS_PER_BATCH_DELETE);
+			}
+		}
+		if (!batch.isEmpty())
+		{
+			pipeline.submit(batch);
+		}
+		return new DeleteResult<>(pipeline.awaitAll(), Optional.<Cursor>absent(), ImmutableList.<Key<T>>of());
+	}
+
+	@Override
+	public DeleteResult<T> deleteAll(final Collection<Key<T>> typedKeys)
+	{
+		Preconditions.checkNotNull(typedKeys);
+		Preconditions.checkState(ObjectifyService.ofy().getTransaction() == null,
+				"Cannot #deleteAll inside of a transaction!");
+
+		final List<Key<T>> keyList = ImmutableList.copyOf(typedKeys);
+		final DeletePipeline pipeline = new DeletePipeline(Optional.<DeleteProgressListener>absent());
+		for (int fromIndex = 0; fromIndex < keyList.size(); fromIndex += MAX_KEYS_PER_BATCH_DELETE)
+		{
+			if (this.isDeleteDeadlineNear())
+			{
+				final long numDeleted = pipeline.awaitAll();
+				return new DeleteResult<>(numDeleted, Optional.<Cursor>absent(),
+						keyList.subList(fromIndex, keyList.size()));
+			}
+			pipeline.submit(keyList.subList(fromIndex, Math.min(fromIndex + MAX_KEYS_PER_BATCH_DELETE,
+					keyList.size())));
+		}
+		return new DeleteResult<>(pipeline.awaitAll(), Optional.<Cursor>absent(), ImmutableList.<Key<T>>of());
+	}
+
+	/**
+	 * Divides {@code query} into at most {@code numShards} queries over disjoint, contiguous ranges of {@link Key}s,
+	 * whose combined results are the results of {@code query}.  Split points are chosen by sampling the Datastore's
+	 * {@code __scatter__} property, which is present on a small random subset of entities, so shards are roughly (but
+	 * not exactly) equal in size.  Fewer shards are returned if the kind has too few scatter entities to split on.
+	 * <br/> <br/> Because each shard adds inequality filters on {@code __key__}, {@code query} must not contain
+	 * inequality filters on other properties or sort orders other than {@code __key__}, and should not have a limit,
+	 * offset, or cursor.
+	 *
+	 * @param query     A {@link Query} over this Dao's entity kind.
+	 * @param numShards The desired number of shards.
+	 *
+	 * @return A {@link List} of shard {@link Query}s, ordered by {@link Key} range.
+	 */
+	public List<Query<T>> splitQuery(final Query<T> query, final int numShards)
+	{
+		Preconditions.checkNotNull(query);
+
+		final ImmutableList.Builder<Query<T>> shardQueries = ImmutableList.builder();
+		Optional<Key<Object>> lowerBound = Optional.absent();
+		for (final Key<Object> splitPoint : this.findSplitPoints(numShards))
+		{
+			shardQueries.add(this.keyRangeQuery(query, lowerBound, Optional.of(splitPoint)));
+			lowerBound = Optional.of(splitPoint);
+		}
+		shardQueries.add(this.keyRangeQuery(query, lowerBound, Optional.<Key<Object>>absent()));
+		return shardQueries.build();
+	}
+
+	/**
+	 * Chooses the {@link Key}s at which {@link #splitQuery} divides this Dao's entity kind, by sampling the
+	 * Datastore's {@code __scatter__} property.  Callers that need to hand shards to other requests (e.g., in task
+	 * payloads) can use these keys as the bounds of each shard: shard {@code i} covers the keys that are greater than
+	 * or equal to split point {@code i - 1} and less than split point {@code i}, and the first and last shards are
+	 * unbounded below and above, respectively.
+	 *
+	 * @param numShards The desired number of shards.
+	 *
+	 * @return An ordered {@link List} of at most {@code numShards - 1} distinct split points.
+	 */
+	public List<Key<Object>> findSplitPoints(final int numShards)
+	{
+		Preconditions.checkArgument(numShards > 0, "numShards must be positive!");
+		if (numShards == 1)
+		{
+			return ImmutableList.of();
+		}
+
+		// Oversample so that the split points are evenly spaced even though scatter entities are randomly placed.
+		final List<Key<Object>> scatterKeys = Lists.newArrayList(ObjectifyService.ofy().load()
+				.kind(Key.getKind(this.getEntityClass())).order(SCATTER_PROPERTY)
+				.limit(numShards * SCATTER_OVERSAMPLING_FACTOR).keys().list());
+		Collections.sort(scatterKeys);
+
+		final List<Key<Object>> splitPoints = Lists.newArrayList();
+		for (int i = 1; i < numShards; i++)
+		{
+			final int scatterKeyIndex = (i * scatterKeys.size()) / numShards;
+			if (scatterKeyIndex > 0 && (splitPoints.isEmpty() || !Iterables.getLast(splitPoints)
+					.equals(scatterKeys.get(scatterKeyIndex))))
+			{
+				splitPoints.add(scatterKeys.get(scatterKeyIndex));
+			}
+		}
+		return splitPoints;
+	}
+
+	/**
+	 * Divides {@code query} using {@link #splitQuery}, and returns a lazy {@link PrefetchingQueryIterator} over each
+	 * shard.  Each iterator may be consumed independently (e.g., on separate threads, each with its own Objectify
+	 * session), and in the order the shards are returned, the iterators yield the results of {@code query} in {@link
+	 * Key} order.
+	 *
+	 * @param query     A {@link Query} over this Dao's entity kind.
+	 * @param numShards The desired number of shards.
+	 *
+	 * @return A {@link List} of {@link PrefetchingQueryIterator}s, ordered by {@link Key} range.
+	 */
+	public List<PrefetchingQueryIterator<T>> streamShards(final Query<T> query, final int numShards)
+	{
+		final ImmutableList.Builder<PrefetchingQueryIterator<T>> shardIterators = ImmutableList.builder();
+		for (final Query<T> shardQuery : this.splitQuery(query, numShards))
+		{
+			shardIterators.add(this.streamAll(shardQuery));
+		}
+		return shardIterators.build();
+	}
+
+	/**
+	 * Divides {@code query} using {@link #splitQuery}, and scans every shard concurrently on a thread created by
+	 * {@code threadFactory}.  The results of all shards are merged, in no particular order, into the returned {@link
+	 * ParallelQueryScan}.
+	 *
+	 * @param query         A {@link Query} over this Dao's entity kind.
+	 * @param numShards     The desired number of shards, and therefore the number of worker threads.
+	 * @param threadFactory A {@link ThreadFactory} whose threads are able to make App Engine API calls, such as
+	 *                      {@link com.google.appengine.api.ThreadManager#currentRequestThreadFactory()}.
+	 *
+	 * @return A {@link ParallelQueryScan}, which should be closed if it is not fully consumed.
+	 */
+	public ParallelQueryScan<T> scanInParallel(final Query<T> query, final int numShards,
+			final ThreadFactory threadFactory)
+	{
+		return new ParallelQueryScan<>(this.splitQuery(query, numShards), threadFactory,
+				PrefetchingQueryIterator.DEFAULT_CHUNK_SIZE);
+	}
+
+	//////////////////
+	// Private Helpers
+	//////////////////
+
+	/**
+	 * Restricts {@code query} to the range of {@link Key}s from {@code lowerBound} (inclusive) to {@code upperBound}
+	 * (exclusive).
+	 */
+	private Query<T> keyRangeQuery(final Query<T> query, final Optional<Key<Object>> lowerBound,
+			final Optional<Key<Object>> upperBound)
+	{
+		Query<T> keyRangeQuery = query;
+		if (lowerBound.isPresent())
+		{
+			keyRangeQuery = keyRangeQuery.filterKey(">=", lowerBound.get());
+		}
+		if (upperBound.isPresent())
+		{
+			keyRangeQuery = keyRangeQuery.filterKey("<", upperBound.get());
+		}
+		return keyRangeQuery;
+	}
+
+
+	/**
+	 * Returns the entities in {@code typedKeys} whose writes are held by the current {@link WriteBehindBuffer}.  Inside
+	 * a transaction, or when no buffer is active, no entities are returned.
+	 *
+	 * @param typedKeys A {@link Collection} of typed Objectify Key<T>.
+	 *
+	 * @return A {@link Map} of buffered entities, keyed by their typed Key.
+	 */
+	private Map<Key<T>, T> getPendingOutsideTransaction(final Collection<Key<T>> typedKeys)
+	{
+		Preconditions.checkNotNull(typedKeys);
+
+		final Optional<WriteBehindBuffer> optBuffer = WriteBehindBuffer.current();
+		if (!optBuffer.isPresent() || ObjectifyService.ofy().getTransaction() != null)
+		{
+			return Collections.emptyMap();
+		}
+
+		final Map<Key<T>, T> pendingEntities = Maps.newHashMap();
+		for (final Key<T> typedKey : typedKeys)
+		{
+			final Optional<T> optPendingEntity = optBuffer.get().getPending(Preconditions.checkNotNull(typedKey));
+			if (optPendingEntity.isPresent())
+			{
+				pendingEntities.put(typedKey, optPendingEntity.get());
+			}
+		}
+		return pendingEntities;
+	}
+
+	/**
+	 * Starts a batch get for every chunk of {@code typedKeys} that is not in {@code pendingEntities} using {@code ofy},
+	 * and returns a {@link Result} that assembles the chunks and the pending entities into a single {@link
+	 * BatchLoadResult}.
+	 *
+	 * @param ofy             The {@link Objectify} to load with, which determines the read consistency of the lookup.
+	 * @param typedKeys       A {@link Collection} of typed Objectify Key<T>.
+	 * @param pendingEntities The buffered entities (see {@link #getPendingOutsideTransaction}), which are returned in
+	 *                        place of the Datastore's version.
+	 *
+	 * @return A {@link Result} holding a {@link BatchLoadResult}.
+	 */
+	private Result<BatchLoadResult<T>> findByTypedKeysAsync(final Objectify ofy, final Collection<Key<T>> typedKeys,
+			final Map<Key<T>, T> pendingEntities)
+	{
+		Preconditions.checkNotNull(typedKeys);
+		Preconditions.checkNotNull(pendingEntities);
+		final Set<Key<T>> distinctKeys = Sets.newLinkedHashSet();
+		final Set<Key<T>> keysToLoad = Sets.newLinkedHashSet();
+		for (final Key<T> typedKey : typedKeys)
+		{
+			distinctKeys.add(Preconditions.checkNotNull(typedKey));
+			if (!pendingEntities.containsKey(typedKey))
+			{
+				keysToLoad.add(typedKey);
+			}
+		}
+
+		// Start a batch get for every chunk before reading any of them so that the chunks are fetched concurrently.
+		final List<Map<Key<T>, T>> pendingChunks = Lists.newArrayList();
+		for (final List<Key<T>> chunk : Iterables.partition(keysToLoad, MAX_KEYS_PER_BATCH_GET))
+		{
+			pendingChunks.add(ofy.load().keys(chunk));
+		}
+
+		return new ResultCache<BatchLoadResult<T>>()
+		{
+			private static final long serialVersionUID = 8663288343249238116L;
+
+			@Override
+			protected BatchLoadResult<T> nowUncached()
+			{
+				final Map<Key<T>, T> loaded = Maps.newHashMap();
+				for (final Map<Key<T>, T> pendingChunk : pendingChunks)
+				{
+					loaded.putAll(pendingChunk);
+				}
+
+				final Map<Key<T>, T> found = Maps.newLinkedHashMap();
+				final Set<Key<T>> missingKeys = Sets.newLinkedHashSet();
+				for (final Key<T> typedKey : distinctKeys)
+				{
+					final T entity = pendingEntities.containsKey(typedKey) ? pendingEntities.get(typedKey) : loaded
+							.get(typedKey);
+					if (entity == null)
+					{
+						missingKeys.add(typedKey);
+					}
+					else
+					{
+						found.put(typedKey, entity);
+					}
+				}
+
+				return new BatchLoadResult<>(found, missingKeys);
+			}
+		};
+	}
+
+	/**
+	 * Verifies that every entity in {@code chunk} exists in the Datastore using a single batch lookup, and then starts
+	 * a single batch put for the entire chunk.
+	 *
+	 * @param chunk               A {@link List} of entities that fits into a single batch put.
+	 * @param touchUpdateDateTime A boolean to indicate if the updateDateTime should be incremented to "now".
+	 *
+	 * @return A {@link Result} for the pending batch put.
+	 *
+	 * @throws MissingEntitiesException if any entity in {@code chunk} does not exist in the Datastore.
+	 */
+	private Result<?> saveExistingChunk(final List<T> chunk, final boolean touchUpdateDateTime)
+	{
+		final List<Key<T>> typedKeys = Lists.newArrayListWithCapacity(chunk.size());
+		for (final T entity : chunk)
+		{
+			typedKeys.add(entity.getTypedKey());
+		}
+
+		final Map<Key<T>, T> existingEntities = ObjectifyService.ofy().load().keys(typedKeys);
+		final Set<Key<T>> missingKeys = Sets.newLinkedHashSet();
+		for (final Key<T> typedKey : typedKeys)
+		{
+			if (!existingEntities.containsKey(typedKey))
+			{
+				missingKeys.add(typedKey);
+			}
+		}
+		if (!missingKeys.isEmpty())
+		{
+			throw new MissingEntitiesException(
+					"Unable to save " + missingKeys.size() + " entities because they do not exist in the Datastore: "
+							+ missingKeys, missingKeys);
+		}
+
+		if (touchUpdateDateTime)
+		{
+			final DateTime now = this.currentDateTime();
+			for (final T entity : chunk)
+			{
+				entity.setUpdateDateTime(now);
+			}
+		}
+		for (final T entity : chunk)
+		{
+			incrementVersion(entity, existingEntities.get(entity.getTypedKey()));
+		}
+
+		return ObjectifyService.ofy().save().entities(chunk);
+	}
+
+	/**
+	 * @return The current time of this Dao's clock, in UTC.
+	 */
+	private DateTime currentDateTime()
+	{
+		return new DateTime(this.getMillisProvider().getMillis(), DateTimeZone.UTC);
+	}
+
+	/**
+	 * Sets the version of {@code entity} to one more than the version of {@code existing}, its counterpart in the
+	 * Datastore, if either of them is versioned.  Unversioned entities are left unversioned.
+	 *
+	 * @param entity   An entity that is about to be written.
+	 * @param existing The currently stored version of {@code entity}.
+	 */
+	private void incrementVersion(final T entity, final T existing)
+	{
+		if (entity.getVersion() != null || existing.getVersion() != null)
+		{
+			entity.setVersion(existing.getVersion() == null ? 1L : existing.getVersion() + 1);
+		}
+	}
+
+	/**
+	 * Counts the number of distinct entity groups (i.e., root keys) that {@code entities} belong to.
+	 *
+	 * @param entities A {@link Collection} of entities with non-null keys.
+	 *
+	 * @return The number of distinct entity groups.
+	 */
+	@VisibleForTesting
+	int countEntityGroups(final Collection<T> entities)
+	{
+		final Set<com.google.appengine.api.datastore.Key> rootKeys = Sets.newHashSet();
+		for (final T entity : entities)
+		{
+			com.google.appengine.api.datastore.Key rootKey = entity.getKey();
+			while (rootKey.getParent() != null)
+			{
+				rootKey = rootKey.getParent();
+			}
+			rootKeys.add(rootKey);
+		}
+		return rootKeys.size();
+	}
+
+	/**
+	 * Returns the optional per-instance {@link NearCache} consulted by {@link #findByTypedKey} before the Datastore.
+	 * No near cache is used by default.  Subclasses that enable one should return the same long-lived instance from
+	 * every call, and must route every write to the cached entities through this Dao (or else call {@link
+	 * NearCache#invalidateAll}).
+	 *
+	 * @return An optionally present {@link NearCache}.
+	 */
+	protected Optional<NearCache<T>> getNearCache()
+	{
+		return Optional.absent();
+	}
+
+	/**
+	 * Returns the optional per-instance {@link NegativeCache} consulted by {@link #findByTypedKey} and {@link
+	 * #existsInDatastore(Key)} before the Datastore, so that repeated lookups of missing entities are answered locally.
+	 * Only the misses of {@link #findByTypedKey} (a strongly consistent get) are cached.  No negative cache is used by
+	 * default.  Subclasses that enable one should return the same long-lived instance from
+	 * every call.  Writes made through this Dao evict the written keys, but entities created elsewhere may be reported
+	 * as missing on this instance until their keys expire from the cache.
+	 *
+	 * @return An optionally present {@link NegativeCache}.
+	 */
+	protected Optional<NegativeCache<T>> getNegativeCache()
+	{
+		return Optional.absent();
+	}
+
+	/**
+	 * Returns the optional {@link EntityMigrationRegistry} that upgrades entities as they are loaded by {@link
+	 * #findByTypedKey}, {@link #findByTypedKeys}, {@link #findByTypedKeySafe}, and {@link
+	 * #loadFromDatastoreWithCursor}, and that writes upgraded entities back in batches when a request's {@link
+	 * WriteBehindBuffer} is closed (e.g., by {@link com.sappenin.utils.appengine.data.dao.WriteBehindFilter}).
+	 * Entities that are upgraded while no {@link WriteBehindBuffer} is active are never written back, so requests
+	 * should be scoped by one.  No migrations are applied by default.  Subclasses that register migrations should
+	 * return the same long-lived instance from every call, and entities created by {@link
+	 * com.sappenin.utils.appengine.data.dao.ObjectifyLongDao#create} and the like are stamped with its current schema
+	 * version.
+	 *
+	 * @return An optionally present {@link EntityMigrationRegistry}.
+	 */
+	protected Optional<EntityMigrationRegistry<T>> getMigrationRegistry()
+	{
+		return Optional.absent();
+	}
+
+	/**
+	 * Returns the clock that supplies the current time whenever this Dao stamps the creation time of a new entity or
+	 * touches the update time of a saved one.
+	 *
+	 * @return A {@link MillisProvider} that defers to {@link DateTimeUtils#currentTimeMillis()} (and so to any clock
+	 * installed via {@link DateTimeUtils#setCurrentMillisProvider}) by default.
+	 */
+	protected MillisProvider getMillisProvider()
+	{
+		return JODA_MILLIS_PROVIDER;
+	}
+
+	/**
+	 * Determines if {@link #save} and {@link #saveAll} skip entities that have not changed since this Dao loaded (or
+	 * last wrote) them, which saves a transaction and a put (with all of its index writes) per unchanged entity.  This
+	 * is disabled by default, because it costs a hash of every entity's persistent state whenever it is loaded or
+	 * saved, and because a skipped save neither checks that the entity still exists nor overwrites changes that other
+	 * writers have made since it was loaded.  Saves that touch the update time are never skipped.  {@link
+	 * com.googlecode.objectify.annotation.OnSave} methods are not run to detect changes, so an entity whose only change
+	 * would be made by one of them is skipped.  Entities that were not loaded or written through this Dao are always
+	 * saved.
+	 *
+	 * @return {@code false} by default.
+	 */
+	protected boolean isSkippingUnchangedSaves()
+	{
+		return false;
+	}
+
+	/**
+	 * Returns the optional {@link EntitySizeEstimator} that verifies the size of every entity before this Dao writes
+	 * it, so that an oversized entity fails fast with an {@link EntityTooLargeException} instead of failing in the
+	 * Datastore.  No sizes are checked by default, because checking costs about as much as preparing each entity for
+	 * its put a second time.
+	 *
+	 * @return An optionally present {@link EntitySizeEstimator}.
+	 */
+	protected Optional<EntitySizeEstimator> getEntitySizeEstimator()
+	{
+		return Optional.absent();
+	}
+
+	/**
+	 * Returns a {@link WriteBehindBuffer.FlushListener} that invalidates this Dao's caches (see {@link
+	 * #invalidateCaches}) for the flushed keys of this Dao's kind, so that writes made outside of this Dao (e.g., by a
+	 * {@link com.sappenin.utils.appengine.tasks.mapper.MapperOutput}) do not leave its caches stale.  Keys of other
+	 * kinds are ignored.
+	 *
+	 * @return A {@link WriteBehindBuffer.FlushListener}.
+	 */
+	public WriteBehindBuffer.FlushListener getCacheInvalidationListener()
+	{
+		return this.cacheInvalidationListener;
+	}
+
+	/**
+	 * @return The number of entities that {@link #save} and {@link #saveAll} have skipped because they had not changed
+	 * (see {@link #isSkippingUnchangedSaves()}).
+	 */
+	public long getNumSkippedSaves()
+	{
+		return this.numSkippedSaves.get();
+	}
+
+	/**
+	 * Invalidates the entities identified by {@code typedKeys} in this Dao's {@link NearCache} (on every instance) and
+	 * {@link NegativeCache} (on this instance), if any.  Called after every write.  If a transaction is active, the
+	 * caches are not invalidated until it commits, since a reader that saw a new version stamp before then could still
+	 * load (and cache) the entity as it was before the write.
+	 *
+	 * @param typedKeys An {@link Iterable} of the {@link Key}s of entities that have been written.
+	 */
+	protected void invalidateCaches(final Iterable<Key<T>> typedKeys)
+	{
+		if (!this.getNearCache().isPresent() && !this.getNegativeCache().isPresent())
+		{
+			return;
+		}
+
+		final Transaction transaction = ObjectifyService.ofy().getTransaction();
+		if (transaction instanceof TransactionImpl)
+		{
+			final List<Key<T>> deferredKeys = ImmutableList.copyOf(typedKeys);
+			// Objectify runs commit listeners only once the outermost transaction has committed.
+			((TransactionImpl) transaction).listenForCommit(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					invalidateCachesNow(deferredKeys);
+				}
+			});
+		}
+		else
+		{
+			this.invalidateCachesNow(typedKeys);
+		}
+	}
+
+	private void invalidateCachesNow(final Iterable<Key<T>> typedKeys)
+	{
+		final Optional<NearCache<T>> optNearCache = this.getNearCache();
+		if (optNearCache.isPresent())
+		{
+			optNearCache.get().invalidateAll(typedKeys);
+		}
+		final Optional<NegativeCache<T>> optNegativeCache = this.getNegativeCache();
+		if (optNegativeCache.isPresent())
+		{
+			optNegativeCache.get().invalidateAll(typedKeys);
+		}
+	}
+
+	private boolean isDeleteDeadlineNear()
+	{
+		return this.getRemainingMillis() < this.getDeleteDeadlineReserveMillis();
+	}
+
+	/**
+	 * Issues asynchronous batch deletes, waiting for the oldest one whenever too many are in flight.
+	 */
+	private final class DeletePipeline
+	{
+		private final Deque<PendingDelete> pendingDeletes = new ArrayDeque<>();
+
+		private final Optional<DeleteProgressListener> progressListener;
+
+		private long numDeleted;
+
+		private DeletePipeline(final Optional<DeleteProgressListener> progressListener)
+		{
+			this.progressListener = progressListener;
+		}
+
+		private void submit(final List<Key<T>> batch)
+		{
+			this.pendingDeletes.add(new PendingDelete(batch, ObjectifyService.ofy().delete().keys(batch)));
+			if (this.pendingDeletes.size() > MAX_PENDING_BATCH_DELETES)
+			{
+				this.awaitOldest();
+			}
+		}
+
+		/**
+		 * @return The total number of keys deleted.
+		 */
+		private long awaitAll()
+		{
+			while (!this.pendingDeletes.isEmpty())
+			{
+				this.awaitOldest();
+			}
+			return this.numDeleted;
+		}
+
+		private void awaitOldest()
+		{
+			final PendingDelete pendingDelete = this.pendingDeletes.removeFirst();
+			try
+			{
+				pendingDelete.result.now();
+			}
+			finally
+			{
+				invalidateCaches(pendingDelete.keys);
+			}
+
+			this.numDeleted += pendingDelete.keys.size();
+			if (this.progressListener.isPresent())
+			{
+				this.progressListener.get().onProgress(this.numDeleted);
+			}
+		}
+	}
+
+	/**
+	 * A batch delete that may still be in flight.
+	 */
+	private final class PendingDelete
+	{
+		private final List<Key<T>> keys;
+
+		private final Result<Void> result;
+
+		private PendingDelete(final List<Key<T>> keys, final Result<Void> result)
+		{
+			this.keys = keys;
+			this.result = result;
+		}
+	}
+
+	/**
+	 * @return This Dao's {@link NegativeCache}, unless a transaction is active.  Transactional reads must always come
+	 * from the Datastore, and must not populate the negative cache.
+	 */
+	private Optional<NegativeCache<T>> getNegativeCacheOutsideTransaction()
+	{
+		return ObjectifyService.ofy().getTransaction() == null ? this.getNegativeCache() : Optional
+				.<NegativeCache<T>>absent();
+	}
+
+	/**
+	 * Upgrades (see {@link #migrateLoadedEntities}) and then starts tracking the changes of (see {@link #trackChanges})
+	 * every entity in {@code entities}.
+	 *
+	 * @param entities An {@link Iterable} of entities that were just loaded from the Datastore.
+	 */
+	private void prepareLoadedEntities(final Iterable<T> entities)
+	{
+		this.migrateLoadedEntities(entities);
+		this.trackChanges(entities);
+	}
+
+	/**
+	 * Marks every entity in {@code entities} whose changes are not yet tracked as clean, if this Dao skips unchanged
+	 * saves.  Entities that are already tracked are left alone, because a session-cached entity that is loaded again
+	 * may have been changed since it was first loaded.
+	 *
+	 * @param entities An {@link Iterable} of entities that were just loaded from the Datastore.
+	 */
+	private void trackChanges(final Iterable<T> entities)
+	{
+		if (this.isSkippingUnchangedSaves())
+		{
+			for (final T entity : entities)
+			{
+				if (!entity.isTrackingChanges())
+				{
+					entity.markClean();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Verifies the size of every entity in {@code entities} using this Dao's {@link EntitySizeEstimator}, if any.
+	 *
+	 * @param entities An {@link Iterable} of entities that are about to be written.
+	 *
+	 * @throws EntityTooLargeException if any entity is too large to be written.
+	 */
+	void checkEntitySizes(final Iterable<T> entities) throws EntityTooLargeException
+	{
+		final Optional<EntitySizeEstimator> optEstimator = this.getEntitySizeEstimator();
+		if (optEstimator.isPresent())
+		{
+			for (final T entity : entities)
+			{
+				optEstimator.get().checkSize(entity);
+			}
+		}
+	}
+
+	/**
+	 * Marks every entity in {@code entities} as clean, if this Dao skips unchanged saves.
+	 *
+	 * @param entities An {@link Iterable} of entities that were just written to the Datastore.
+	 */
+	void markClean(final Iterable<T> entities)
+	{
+		if (this.isSkippingUnchangedSaves())
+		{
+			for (final T entity : entities)
+			{
+				entity.markClean();
+			}
+		}
+	}
+
+	/**
+	 * Upgrades every loaded entity in {@code entities} using this Dao's {@link EntityMigrationRegistry}, if any, and
+	 * queues the upgraded entities to be written back.
+	 *
+	 * @param entities An {@link Iterable} of entities that were just loaded from the Datastore.
+	 */
+	private void migrateLoadedEntities(final Iterable<T> entities)
+	{
+		final Optional<EntityMigrationRegistry<T>> optRegistry = this.getMigrationRegistry();
+		if (!optRegistry.isPresent())
+		{
+			return;
+		}
+
+		// The write-back is deferred to the end of the request, so that this load does not wait for it.  Without a
+		// WriteBehindBuffer, there is no end of the request to defer it to, so nothing is queued.
+		final Optional<WriteBehindBuffer> optBuffer = WriteBehindBuffer.current();
+		int numUnqueued = 0;
+		boolean queued = false;
+		for (final T entity : entities)
+		{
+			if (optRegistry.get().migrate(entity))
+			{
+				if (optBuffer.isPresent() && optRegistry.get().enqueueWriteBack(entity.getTypedKey()))
+				{
+					queued = true;
+				}
+				else
+				{
+					numUnqueued++;
+				}
+			}
+		}
+
+		if (queued)
+		{
+			optBuffer.get().runOnClose(this.migrationWriteBack);
+		}
+		if (numUnqueued > 0)
+		{
+			logger.log(Level.FINE, String.format("%s migrated %s(s) will not be written back (%s)", numUnqueued,
+					Key.getKind(getEntityClass()), optBuffer.isPresent() ? "write-back queue is full"
+							: "no WriteBehindBuffer is active"));
+		}
+	}
+
+	/**
+	 * Stamps {@code entity} with the current time of this Dao's clock (unless its creation and update times were set by
+	 * the caller), and with the current schema version of this Dao's {@link EntityMigrationRegistry}, if any, so that a
+	 * newly created entity is not migrated when it is loaded.
+	 *
+	 * @param entity An entity that is about to be created.
+	 */
+	void stampNewEntity(final T entity)
+	{
+		entity.initializeDateTimes(this.getMillisProvider().getMillis());
+
+		final Optional<EntityMigrationRegistry<T>> optRegistry = this.getMigrationRegistry();
+		if (optRegistry.isPresent() && entity.getSchemaVersion() == null)
+		{
+			entity.setSchemaVersion(optRegistry.get().getCurrentSchemaVersion());
+		}
+	}
+
+	/**
+	 * @return The typed {@link Key} of each entity in {@code entities}, in iteration order.
+	 */
+	protected List<Key<T>> toTypedKeys(final Collection<T> entities)
+	{
+		final List<Key<T>> typedKeys = Lists.newArrayListWithCapacity(entities.size());
+		for (final T entity : entities)
+		{
+			typedKeys.add(entity.getTypedKey());
+		}
+		return typedKeys;
+	}
+
+	/**
+	 * Returns the entity class managed by this Dao, as resolved from the type argument of its concrete subclass.
+	 * Subclasses that are themselves generic must override this.
+	 *
+	 * @return The {@link Class} of {@link T}.
+	 */
+	@SuppressWarnings("unchecked")
+	protected Class<T> getEntityClass()
+	{
+		return (Class<T>) new TypeToken<T>(this.getClass())
+		{
+			private static final long serialVersionUID = -7366364442734437373L;
+		}.getRawType();
+	}
+
+	/**
+	 * Returns the {@link PagingPolicy} that governs the paging methods of this Dao.  Subclasses may override this to
+	 * allow larger pages (e.g., for exports or task-driven scans) or to change how additional results are detected.
+	 *
+	 * @return A {@link PagingPolicy}.
+	 */
+	protected PagingPolicy getPagingPolicy()
+	{
+		return PagingPolicy.DEFAULT;
+	}
+
+	/**
+	 * Returns the number of milliseconds before the request deadline at which {@link #deleteAll} stops deleting and
+	 * returns a continuation.  Subclasses may override this if their batch deletes are unusually slow (e.g., because of
+	 * many indexes).
+	 *
+	 * @return A number of milliseconds.
+	 */
+	protected long getDeleteDeadlineReserveMillis()
+	{
+		return DEFAULT_DELETE_DEADLINE_RESERVE_MILLIS;
+	}
+
+	/**
+	 * Returns the {@link TransactionRetryPolicy} that governs how the transactions of this Dao are retried.
+	 * Subclasses may override this for entity groups that are more or less contended than usual.
+	 *
+	 * @return A {@link TransactionRetryPolicy}.
+	 */
+	protected TransactionRetryPolicy getTransactionRetryPolicy()
+	{
+		return TransactionRetryPolicy.DEFAULT;
+	}
+
+	/**
+	 * Returns the {@link TransactionMetrics} that the transactions of this Dao are counted in.
+	 *
+	 * @return {@link TransactionMetrics#GLOBAL} by default.
+	 */
+	protected TransactionMetrics getTransactionMetrics()
+	{
+		return TransactionMetrics.GLOBAL;
+	}
+
+	/**
+	 * Runs {@code work} in a new transaction, retrying it according to {@link #getTransactionRetryPolicy()} whenever
+	 * it fails with a {@link ConcurrentModificationException}, and counting every attempt in {@link
+	 * #getTransactionMetrics()}.  If a transaction is already active, {@code work} simply joins it, and retries are left
+	 * to whoever started the outer transaction.
+	 *
+	 * @param work The {@link Work} to run.  It may be run more than once, so it must be idempotent.
+	 *
+	 * @return The result of {@code work}.
+	 *
+	 * @throws ConcurrentModificationException if the final attempt fails with contention.
+	 */
+	protected <R> R transactWithRetries(final Work<R> work)
+	{
+		Preconditions.checkNotNull(work);
+		if (ObjectifyService.ofy().getTransaction() != null)
+		{
+			return ObjectifyService.ofy().transact(work);
+		}
+
+		final TransactionRetryPolicy retryPolicy = this.getTransactionRetryPolicy();
+		final TransactionMetrics.Counters counters = this.getTransactionMetrics().getCounters(
+				Key.getKind(this.getEntityClass()));
+		for (int attempt = 1; ; attempt++)
+		{
+			try
+			{
+				final R result = ObjectifyService.ofy().transactNew(1, work);
+				counters.recordCommit();
+				return result;
+			}
+			catch (ConcurrentModificationException e)
+			{
+				counters.recordConcurrentModification();
+
+				final long backoffMillis = retryPolicy.computeBackoffMillis(attempt,
+						ThreadLocalRandom.current().nextDouble());
+				if (!retryPolicy.shouldRetry(attempt, backoffMillis, this.getRemainingMillis()))
+				{
+					throw e;
+				}
+
+				this.logger.log(Level.FINE, String.format("Retrying %s transaction after %s failed attempt(s) in %sms",
+						Key.getKind(this.getEntityClass()), attempt, backoffMillis), e);
+				counters.recordRetry();
+				try
+				{
+					Thread.sleep(backoffMillis);
+				}
+				catch (InterruptedException ie)
+				{
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The number of milliseconds remaining before the current request's deadline, or {@link Long#MAX_VALUE} if
+	 * there is no current request.
+	 */
+	protected long getRemainingMillis()
+	{
+		final ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+		return environment == null ? Long.MAX_VALUE : environment.getRemainingMillis();
+	}
+
+	/**
+	 * Adjusts a limit value to be within the parameters of this Dao's {@link PagingPolicy}.
+	 *
+	 * @param limit An integer representing the number of items to return via this query.
+	 *
+	 * @return the adjusted limit
+	 * @see "https://github.com/sappenin/appengine-utils/issues/1"
+	 */
+	@VisibleForTesting
+	int adjustLimit(final int limit)
+	{
+		return this.getPagingPolicy().adjustLimit(limit);
+	}
+
+	/**
+	 * Helper method to massage a {@link Query} object to have the proper limit and offset values, using the {@link
+	 * LookaheadMode} of this Dao's {@link PagingPolicy}.
+	 *
+	 * @param finalizedQuery An instance of {@link Query} of type {@link T}.
+	 * @param offset         An instance of {@link Cursor} that represents the offset to begin this query at.
+	 * @param limit          An integer representing the number of items to return via this query.
+	 *
+	 * @return A massaged query.
+	 */
+	@VisibleForTesting
+	Query<T> massageQuery(final Query<T> finalizedQuery, final Cursor offset, final int limit)
+	{
+		return this.massageQuery(finalizedQuery, offset, limit, this.getPagingPolicy().getLookaheadMode());
+	}
+
+	/**
+	 * Helper method to massage a {@link Query} object to have the proper limit and offset values.
+	 *
+	 * @param finalizedQuery An instance of {@link Query} of type {@link T}.
+	 * @param offset         An instance of {@link Cursor} that represents the offset to begin this query at.
+	 * @param limit          An integer representing the number of items to return via this query.
+	 * @param lookaheadMode  The {@link LookaheadMode} that will be used to detect more results beyond this page.
+	 *
+	 * @return A massaged query.
+	 */
+	private Query<T> massageQuery(final Query<T> finalizedQuery, final Cursor offset, final int limit,
+			final LookaheadMode lookaheadMode)
+	{
+		Preconditions.checkNotNull(finalizedQuery);
+		final int adjustedLimit = this.adjustLimit(limit);
+
+		// See
+		// http://stackoverflow.com/questions/14088808/query-cursor-with-app-engine-java-jdo
+		// This will load 11 InboxEntry objects, if applicable. If there are
+		// more than 10, we need to store the cursor
+		// as it was at the 10th item. Otherwise, we need to omit the cursor
+		// (the cursor updates on every iterator bump)
+
+		// Load limit + 1 to get a Cursor to more results, if any.  A keys-only probe determines this separately.
+		final int queryLimit = lookaheadMode == LookaheadMode.EXTRA_ENTITY ? adjustedLimit + 1 : adjustedLimit;
+		Query<T> returnableUpdatedQuery = finalizedQuery.limit(queryLimit);
+		returnableUpdatedQuery = returnableUpdatedQuery.startAt(offset);
+
+		return returnableUpdatedQuery;
 
 	}
 
@@ -225,53 +1723,22 @@ public abstract class AbstractObjectifyDao<T extends AbstractObjectifyEntity<T>>
 	<Z> ResultWithCursor<List<Z>> assembleResultWithCursor(
 			final com.google.appengine.api.datastore.QueryResultIterator<Z> entitiesIterator, final int limit)
 	{
-		// The thing to return...
-		Cursor lastRetrievedResultCursor = null;
-
-		final List<Z> resultCollection = Lists.newLinkedList();
+		final List<Z> resultCollection = Lists.newArrayListWithCapacity(Math.max(limit, 0));
 		final ResultWithCursor<List<Z>> resultWithCursor = new ResultWithCursor<>(resultCollection);
 
-		// Set to true to populate the cursor, indicating there are more
-		// results. This can be gleaned from teh value of
-		// numProcessedInboxEntries, but this variable is used to be more overt.
-		boolean returnCursor = false;
-		int numProcessedEntities = 0;
-		while (entitiesIterator.hasNext())
+		// We load up to limit + 1 items, but only want to return a maximum of limit (generally 10).
+		while (resultCollection.size() < limit && entitiesIterator.hasNext())
 		{
-			final Z entity = entitiesIterator.next();
-
-			// We load up to 11 items, but only want to return a maximum of
-			// limit (generally 10).
-			if (numProcessedEntities < limit)
-			{
-				// Only assign the cursor if we're going to display the Idea.
-				// Otherwise, the cursor will remain
-				// at the position of the last entity that was displayed to the
-				// UI. Since the Cursor is
-				// start_inclusive=false, the next item will be loaded properly.
-				lastRetrievedResultCursor = entitiesIterator.getCursor();
-				// Add the Entity to the Return Set.
-				resultWithCursor.getResult().add(entity);
-			}
-			else
-			{
-				returnCursor = true;
-				break;
-			}
-
-			// Even if the Entity isn't added to the return list, increment this
-			// number. Occasionally, for deleted
-			// entries, only 9 or 8 will come back to the UI, and the more
-			// button will display, but this is ok.
-			numProcessedEntities++;
+			resultCollection.add(entitiesIterator.next());
 		}
 
-		// Capture the cursor position for future calls.
-		if (returnCursor)
+		// The extra item only signals that there are more results to be loaded, so it is never consumed.  In that case,
+		// capture the cursor position of the last returned item for future calls.  Materializing a cursor in the middle
+		// of a batch can cost the Datastore an additional query, so this is done exactly once per page.  Since the
+		// Cursor is start_inclusive=false, the next item will be loaded properly.
+		if (entitiesIterator.hasNext())
 		{
-			// Add the cursor - there are more entries to be loaded and
-			// displayed on the UI.
-			resultWithCursor.setCursor(lastRetrievedResultCursor);
+			resultWithCursor.setCursor(entitiesIterator.getCursor());
 		}
 
 		return resultWithCursor;
@@ -13,11 +13,22 @@
 package com.sappenin.utils.appengine.data.dao.base;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.googlecode.objectify.Key;
+import com.googlecode.objectify.KeyRange;
 import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Result;
 import com.sappenin.utils.appengine.data.dao.ObjectifyLongDao;
 import com.sappenin.utils.appengine.data.model.base.AbstractObjectifyLongEntity;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
 /**
  * An abstract implementation of {@link ObjectifyLongDao}.
  *
@@ -34,13 +45,126 @@ public abstract class AbstractObjectifyLongDao<T extends AbstractObjectifyLongEn
 		Preconditions.checkNotNull(entity);
 		Preconditions.checkArgument(entity.getKey() == null,
 				"Cannot #createNew an Entity that has an existing Key.  Call the Dao's #save function instead.");
+		// Checked before an id is assigned, so that a rejected entity can be passed to #create again.
+		this.checkEntitySizes(ImmutableList.of(entity));
 
 		// Set the id here so that the call to #save below is idempotent
 		@SuppressWarnings("rawtypes") Key<? extends AbstractObjectifyLongEntity> allocatedId = ObjectifyService.ofy()
 				.factory().allocateId(entity.getClass());
 		entity.setId(allocatedId.getId());
+		this.stampNewEntity(entity);
+
+		try
+		{
+			ObjectifyService.ofy().save().entity(entity).now();
+		}
+		catch (RuntimeException e)
+		{
+			this.invalidateCaches(ImmutableList.of(entity.getTypedKey()));
+			entity.clearId();
+			throw e;
+		}
+		this.invalidateCaches(ImmutableList.of(entity.getTypedKey()));
+		this.markClean(ImmutableList.of(entity));
+	}
+
+	@Override
+	public List<Key<T>> createAll(final Collection<T> entities)
+	{
+		Preconditions.checkNotNull(entities);
+		for (final T entity : entities)
+		{
+			Preconditions.checkNotNull(entity);
+			Preconditions.checkArgument(entity.getKey() == null,
+					"Cannot #createAll an Entity that has an existing Key.  Call the Dao's #save function instead.");
+		}
+		// Every entity is checked before any of them is changed, so that a rejected collection can be passed to
+		// #createAll again.
+		this.checkEntitySizes(entities);
+
+		// Ids are allocated per kind and parent, so group the entities accordingly.  In the common case (a single kind
+		// with no parent) this means a single allocation call for the entire collection.
+		final Map<List<Object>, List<T>> allocationGroups = Maps.newLinkedHashMap();
+		for (final T entity : entities)
+		{
+			this.stampNewEntity(entity);
+
+			final List<Object> allocationGroupKey = Arrays.<Object>asList(entity.getClass(), entity.getParentKey());
+			List<T> allocationGroup = allocationGroups.get(allocationGroupKey);
+			if (allocationGroup == null)
+			{
+				allocationGroup = Lists.newArrayList();
+				allocationGroups.put(allocationGroupKey, allocationGroup);
+			}
+			allocationGroup.add(entity);
+		}
+
+		for (final List<T> allocationGroup : allocationGroups.values())
+		{
+			this.assignAllocatedIds(allocationGroup);
+		}
+
+		final List<Key<T>> typedKeys = this.toTypedKeys(entities);
+		try
+		{
+			// Start every batch put before blocking on any of them so that the chunks are written concurrently.
+			final List<Result<?>> pendingSaves = Lists.newArrayList();
+			for (final List<T> chunk : Lists.partition(Lists.newArrayList(entities), MAX_ENTITIES_PER_BATCH_PUT))
+			{
+				pendingSaves.add(ObjectifyService.ofy().save().entities(chunk));
+			}
+			for (final Result<?> pendingSave : pendingSaves)
+			{
+				pendingSave.now();
+			}
+		}
+		catch (RuntimeException e)
+		{
+			// Some chunks may have been written, but the caller can only tell which ones by retrying all of them.
+			this.invalidateCaches(typedKeys);
+			for (final T entity : entities)
+			{
+				entity.clearId();
+			}
+			throw e;
+		}
+		this.invalidateCaches(typedKeys);
+		this.markClean(entities);
+		return typedKeys;
+	}
+
+	//////////////////
+	// Private Helpers
+	//////////////////
+
+	/**
+	 * Reserves a contiguous block of ids for {@code allocationGroup} using a single allocation call, and assigns those
+	 * ids to each entity in iteration order.
+	 *
+	 * @param allocationGroup A {@link List} of entities that all share the same kind and parent {@link Key}.
+	 */
+	private void assignAllocatedIds(final List<T> allocationGroup)
+	{
+		final T firstEntity = allocationGroup.get(0);
+		final Key<?> parentKey = firstEntity.getParentKey();
+
+		@SuppressWarnings("rawtypes") final KeyRange<? extends AbstractObjectifyLongEntity> keyRange;
+		if (parentKey == null)
+		{
+			keyRange = ObjectifyService.ofy().factory().allocateIds(firstEntity.getClass(), allocationGroup.size());
+		}
+		else
+		{
+			keyRange = ObjectifyService.ofy().factory()
+					.allocateIds(parentKey, firstEntity.getClass(), allocationGroup.size());
+		}
 
-		ObjectifyService.ofy().save().entity(entity).now();
+		@SuppressWarnings("rawtypes") final Iterator<? extends Key<? extends AbstractObjectifyLongEntity>> allocatedKeys =
+				keyRange.iterator();
+		for (final T entity : allocationGroup)
+		{
+			entity.setId(allocatedKeys.next().getId());
+		}
 	}
 
 }
@@ -14,6 +14,7 @@ package com.sappenin.utils.appengine.data.dao.base;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.VoidWork;
 import com.sappenin.utils.appengine.data.dao.ObjectifyStringDao;
@@ -34,10 +35,12 @@ public abstract class AbstractObjectifyStringDao<T extends AbstractObjectifyStri
 	{
 		Preconditions.checkNotNull(entity);
 		Preconditions.checkArgument(entity.getKey() != null, "Cannot #createNew an Entity that has no Key.");
+		this.stampNewEntity(entity);
+		this.checkEntitySizes(ImmutableList.of(entity));
 
 		// First check to see if the Entity exists. If it does, throw a DuplicateEntity exception. Otherwise, create a
 		// new User in the Datastore.
-		ObjectifyService.ofy().transact(new VoidWork()
+		this.transactWithRetries(new VoidWork()
 		{
 			@Override
 			public void vrun()
@@ -53,6 +56,8 @@ public abstract class AbstractObjectifyStringDao<T extends AbstractObjectifyStri
 				ObjectifyService.ofy().save().entity(entity).now();
 			}
 		});
+		this.invalidateCaches(ImmutableList.of(entity.getTypedKey()));
+		this.markClean(ImmutableList.of(entity));
 	}
 
 }
@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.dao.exceptions;
+
+import com.googlecode.objectify.Key;
+
+/**
+ * Thrown by {@link com.sappenin.utils.appengine.data.dao.EntitySizeEstimator} before an entity that exceeds the
+ * Datastore's size limit is written, instead of the error that the Datastore would report for the write.
+ *
+ * @author David Fuelling
+ */
+public class EntityTooLargeException extends IllegalArgumentException
+{
+	private static final long serialVersionUID = -3019523574463113598L;
+
+	private final Key<?> key;
+
+	private final int estimatedBytes;
+
+	private final int maxBytes;
+
+	/**
+	 * @param msg
+	 * @param key            The {@link Key} of the oversized entity, or {@code null} if it has not been assigned one.
+	 * @param estimatedBytes The estimated size of the entity, in bytes.
+	 * @param maxBytes       The largest allowed size of the entity, in bytes.
+	 */
+	public EntityTooLargeException(final String msg, final Key<?> key, final int estimatedBytes, final int maxBytes)
+	{
+		super(msg);
+		this.key = key;
+		this.estimatedBytes = estimatedBytes;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return The {@link Key} of the oversized entity, or {@code null} if it has not been assigned one.
+	 */
+	public Key<?> getKey()
+	{
+		return this.key;
+	}
+
+	/**
+	 * @return The estimated size of the entity, in bytes.
+	 */
+	public int getEstimatedBytes()
+	{
+		return this.estimatedBytes;
+	}
+
+	/**
+	 * @return The largest allowed size of the entity, in bytes.
+	 */
+	public int getMaxBytes()
+	{
+		return this.maxBytes;
+	}
+
+}
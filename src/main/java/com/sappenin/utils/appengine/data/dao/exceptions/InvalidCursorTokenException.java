@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.dao.exceptions;
+
+/**
+ * Thrown by {@link com.sappenin.utils.appengine.data.dao.CursorCodec} whenever a cursor token is malformed, was not
+ * issued with the codec's secret key, or was issued for a different query or namespace.  Since tokens are usually
+ * supplied by clients, this is an {@link IllegalArgumentException}.
+ *
+ * @author David Fuelling
+ */
+public class InvalidCursorTokenException extends IllegalArgumentException
+{
+	private static final long serialVersionUID = 6619205521763458820L;
+
+	/**
+	 * @param msg
+	 */
+	public InvalidCursorTokenException(final String msg)
+	{
+		super(msg);
+	}
+
+	/**
+	 * @param msg
+	 * @param cause
+	 */
+	public InvalidCursorTokenException(final String msg, final Throwable cause)
+	{
+		super(msg, cause);
+	}
+}
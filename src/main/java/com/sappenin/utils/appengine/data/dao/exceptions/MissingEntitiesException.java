@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.dao.exceptions;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
+
+import java.util.Set;
+
+/**
+ * Thrown by batch Dao operations whenever one or more entities that were expected to exist in the Datastore could not
+ * be found.  All of the missing {@link Key}s are reported together.
+ *
+ * @author David Fuelling
+ */
+public class MissingEntitiesException extends RuntimeException
+{
+	private static final long serialVersionUID = 3590157394866342807L;
+
+	private final ImmutableSet<Key<?>> missingKeys;
+
+	/**
+	 * @param msg
+	 * @param missingKeys A {@link Set} of the {@link Key}s that do not exist in the Datastore.
+	 */
+	public MissingEntitiesException(final String msg, final Set<? extends Key<?>> missingKeys)
+	{
+		super(msg);
+		this.missingKeys = ImmutableSet.copyOf(Preconditions.checkNotNull(missingKeys));
+	}
+
+	/**
+	 * @return A {@link Set} of the {@link Key}s that do not exist in the Datastore.
+	 */
+	public Set<Key<?>> getMissingKeys()
+	{
+		return this.missingKeys;
+	}
+
+}
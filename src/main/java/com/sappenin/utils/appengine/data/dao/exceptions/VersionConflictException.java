@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.dao.exceptions;
+
+import com.google.common.base.Preconditions;
+import com.googlecode.objectify.Key;
+
+/**
+ * Thrown by a compare-and-set save whenever the version of an entity in the Datastore differs from the version that
+ * the caller expected, meaning that the entity was written by someone else after the caller loaded it.
+ *
+ * @author David Fuelling
+ */
+public class VersionConflictException extends RuntimeException
+{
+	private static final long serialVersionUID = -4188392507722860162L;
+
+	private final Key<?> key;
+
+	private final long expectedVersion;
+
+	private final Long actualVersion;
+
+	/**
+	 * @param msg
+	 * @param key             The {@link Key} of the conflicting entity.
+	 * @param expectedVersion The version that the caller expected the entity to have.
+	 * @param actualVersion   The version that the entity has in the Datastore, or {@code null} if it is unversioned.
+	 */
+	public VersionConflictException(final String msg, final Key<?> key, final long expectedVersion,
+			final Long actualVersion)
+	{
+		super(msg);
+		this.key = Preconditions.checkNotNull(key);
+		this.expectedVersion = expectedVersion;
+		this.actualVersion = actualVersion;
+	}
+
+	/**
+	 * @return The {@link Key} of the conflicting entity.
+	 */
+	public Key<?> getKey()
+	{
+		return this.key;
+	}
+
+	/**
+	 * @return The version that the caller expected the entity to have.
+	 */
+	public long getExpectedVersion()
+	{
+		return this.expectedVersion;
+	}
+
+	/**
+	 * @return The version that the entity has in the Datastore, or {@code null} if it is unversioned.
+	 */
+	public Long getActualVersion()
+	{
+		return this.actualVersion;
+	}
+
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.dao.exceptions;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
+
+import java.util.Set;
+
+/**
+ * Thrown when a {@link com.sappenin.utils.appengine.data.dao.WriteBehindBuffer} is flushed and one or more of its
+ * buffered writes could not be written to the Datastore.  All of the unwritten {@link Key}s are reported together; the
+ * cause is the first failure, and any further failures are attached as suppressed exceptions.
+ *
+ * @author David Fuelling
+ */
+public class WriteBehindException extends RuntimeException
+{
+	private static final long serialVersionUID = 6061726391862213877L;
+
+	private final ImmutableSet<Key<?>> failedKeys;
+
+	/**
+	 * @param msg
+	 * @param failedKeys A {@link Set} of the {@link Key}s that were not written to the Datastore.
+	 * @param cause      The first failure.
+	 */
+	public WriteBehindException(final String msg, final Set<? extends Key<?>> failedKeys, final Throwable cause)
+	{
+		super(msg, cause);
+		this.failedKeys = ImmutableSet.copyOf(Preconditions.checkNotNull(failedKeys));
+	}
+
+	/**
+	 * @return A {@link Set} of the {@link Key}s that were not written to the Datastore.
+	 */
+	public Set<Key<?>> getFailedKeys()
+	{
+		return this.failedKeys;
+	}
+
+}
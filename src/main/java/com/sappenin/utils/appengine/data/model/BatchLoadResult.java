@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.model;
+
+import com.google.common.base.Preconditions;
+import com.googlecode.objectify.Key;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A Class that holds the results of a batch lookup by {@link Key}: the entities that were found, and the keys of the
+ * entities that were not.  Both collections preserve the order in which the keys were requested.
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+public class BatchLoadResult<T>
+{
+	// The found entities, keyed and ordered by requested Key.
+	private final Map<Key<T>, T> found;
+
+	// The requested Keys that do not exist in the Datastore, in requested order.
+	private final Set<Key<T>> missingKeys;
+
+	/**
+	 * Required-args constructor.
+	 *
+	 * @param found       An insertion-ordered {@link Map} of the found entities.
+	 * @param missingKeys An insertion-ordered {@link Set} of the keys that were not found.
+	 */
+	public BatchLoadResult(final Map<Key<T>, T> found, final Set<Key<T>> missingKeys)
+	{
+		this.found = Collections.unmodifiableMap(Preconditions.checkNotNull(found));
+		this.missingKeys = Collections.unmodifiableSet(Preconditions.checkNotNull(missingKeys));
+	}
+
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.model;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * A Class that holds the outcome of a bulk delete: the number of entities deleted, and, if the delete stopped early
+ * because the request deadline was near, what remains to be deleted by a follow-up request or task.
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+public class DeleteResult<T>
+{
+	// The number of keys that were deleted.
+	private final long numDeleted;
+
+	// Present if a query-driven delete stopped early, and positioned after the last deleted key.
+	private final Optional<Cursor> continuationCursor;
+
+	// The keys of a key-driven delete that were not deleted because it stopped early, in requested order.
+	private final List<Key<T>> remainingKeys;
+
+	/**
+	 * Required-args constructor.
+	 *
+	 * @param numDeleted         The number of keys that were deleted.
+	 * @param continuationCursor An optionally present {@link Cursor} from which a query-driven delete can continue.
+	 * @param remainingKeys      A {@link List} of the keys that a key-driven delete did not delete.
+	 */
+	public DeleteResult(final long numDeleted, final Optional<Cursor> continuationCursor,
+			final List<Key<T>> remainingKeys)
+	{
+		Preconditions.checkArgument(numDeleted >= 0, "numDeleted must not be negative!");
+		this.numDeleted = numDeleted;
+		this.continuationCursor = Preconditions.checkNotNull(continuationCursor);
+		this.remainingKeys = ImmutableList.copyOf(Preconditions.checkNotNull(remainingKeys));
+	}
+
+	/**
+	 * @return {@code true} if everything was deleted, or {@code false} if the delete must be continued.
+	 */
+	public boolean isComplete()
+	{
+		return !this.continuationCursor.isPresent() && this.remainingKeys.isEmpty();
+	}
+
+}
@@ -12,12 +12,16 @@
  */
 package com.sappenin.utils.appengine.data.model.base;
 
+import com.googlecode.objectify.annotation.IgnoreSave;
+import com.googlecode.objectify.annotation.OnSave;
+import com.googlecode.objectify.condition.IfNull;
 import com.sappenin.utils.appengine.data.model.GaeEntity;
 import com.sappenin.utils.appengine.data.model.TrackableEntity;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
 import org.joda.time.DateTimeZone;
 
 import java.io.Serializable;
@@ -32,23 +36,105 @@ public abstract class AbstractEntity implements TrackableEntity, GaeEntity, Seri
 {
 	private static final long serialVersionUID = -7325038507483787961L;
 
-	@Getter
+	// The creation and update times are null until they are set, loaded, or defaulted (see #initializeDateTimes), so
+	// that constructing an entity (which Objectify does for every entity it loads) reads no clock and allocates no
+	// DateTime that loading would immediately overwrite.
 	@Setter
 	private DateTime creationDateTime;
 
-	@Getter
 	@Setter
 	private DateTime updateDateTime;
 
 	/**
-	 * Default Constructor (for Date initialization)
+	 * An optional version number for optimistic concurrency control.  Entities are unversioned (and no version is
+	 * stored) while this is {@code null}; to opt in, set it (typically to zero) before the entity is created.  Dao
+	 * writes increment the version of versioned entities, and compare-and-set saves use it to detect conflicting
+	 * writers.
+	 */
+	@Getter
+	@Setter
+	@IgnoreSave(IfNull.class)
+	private Long version;
+
+	/**
+	 * The schema version of this entity, for kinds whose Dao has an {@link
+	 * com.sappenin.utils.appengine.data.dao.EntityMigrationRegistry}.  Entities that were stored before any migration
+	 * was registered have no schema version (and are treated as schema version zero), and entities are upgraded to the
+	 * registry's current schema version as they are loaded through the Dao.
+	 */
+	@Getter
+	@Setter
+	@IgnoreSave(IfNull.class)
+	private Integer schemaVersion;
+
+	/**
+	 * Default Constructor.
 	 */
 	public AbstractEntity()
 	{
-		// Use the Setter in case a particular class wants to override these
-		// values for indexing
-		setCreationDateTime(DateTime.now(DateTimeZone.UTC));
-		setUpdateDateTime(DateTime.now(DateTimeZone.UTC));
+	}
+
+	/**
+	 * @return The creation time of this entity.  If none has been set (or loaded), both the creation and update times
+	 * default to the current time of {@link DateTimeUtils#currentTimeMillis()}.
+	 */
+	@Override
+	public DateTime getCreationDateTime()
+	{
+		if (this.creationDateTime == null)
+		{
+			this.initializeDateTimes(DateTimeUtils.currentTimeMillis());
+		}
+		return this.creationDateTime;
+	}
+
+	/**
+	 * @return The update time of this entity.  If none has been set (or loaded), both the creation and update times
+	 * default to the current time of {@link DateTimeUtils#currentTimeMillis()}.
+	 */
+	@Override
+	public DateTime getUpdateDateTime()
+	{
+		if (this.updateDateTime == null)
+		{
+			this.initializeDateTimes(DateTimeUtils.currentTimeMillis());
+		}
+		return this.updateDateTime;
+	}
+
+	/**
+	 * Sets the creation and update times of this entity to {@code nowMillis}, unless they have already been set (or
+	 * loaded).  Daos call this with their own clock before creating an entity.
+	 *
+	 * @param nowMillis The current time, in milliseconds since the epoch.
+	 */
+	public void initializeDateTimes(final long nowMillis)
+	{
+		if (this.creationDateTime == null || this.updateDateTime == null)
+		{
+			final DateTime now = new DateTime(nowMillis, DateTimeZone.UTC);
+
+			// Use the Setter in case a particular class wants to override these
+			// values for indexing
+			if (this.creationDateTime == null)
+			{
+				this.setCreationDateTime(now);
+			}
+			if (this.updateDateTime == null)
+			{
+				this.setUpdateDateTime(now);
+			}
+		}
+	}
+
+	/**
+	 * Ensures that an entity saved without ever setting (or reading) its creation and update times is not stored
+	 * without them.
+	 */
+	@OnSave
+	private void initializeDateTimesOnSave()
+	{
+		this.initializeDateTimes(DateTimeUtils.currentTimeMillis());
 	}
 
 	/**
@@ -12,8 +12,16 @@
  */
 package com.sappenin.utils.appengine.data.model.base;
 
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityTranslator;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Ignore;
 import com.sappenin.utils.appengine.data.model.GaeTypedEntity;
+import com.sappenin.utils.appengine.data.translate.LifecycleSkippingSaveContext;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
 
@@ -22,13 +30,22 @@ import lombok.ToString;
  *
  * @author David Fuelling
  */
-@ToString(callSuper = true)
+@ToString(callSuper = true, exclude = {"memoizedKey", "cleanStateHash"})
 @NoArgsConstructor
 public abstract class AbstractObjectifyEntity<T extends AbstractEntity> extends AbstractEntity
 		implements GaeTypedEntity<T>
 {
 	private static final long serialVersionUID = 4434758494895022079L;
 
+	// The most recently assembled typed Key of this entity, which is neither persisted (Objectify saves transient fields
+	// unless they are ignored) nor serialized.
+	@Ignore
+	private transient MemoizedKey<T> memoizedKey;
+
+	// A hash of the persistent state of this entity as of #markClean, or null if its changes are not being tracked.
+	@Ignore
+	private transient HashCode cleanStateHash;
+
 	@Override
 	public com.googlecode.objectify.Key<T> getTypedKey()
 	{
@@ -50,4 +67,101 @@ public abstract class AbstractObjectifyEntity<T extends AbstractEntity> extends
 		return null;
 	}
 
+	/**
+	 * Records the current persistent state of this entity (i.e., what Objectify would write for it, not counting the
+	 * effects of any {@link com.googlecode.objectify.annotation.OnSave} methods, which are not run) as clean, so that
+	 * {@link #isDirty()} reports whether it has changed since.  Daos call this after loading or writing an entity.
+	 */
+	public void markClean()
+	{
+		this.cleanStateHash = this.hashPersistentState();
+	}
+
+	/**
+	 * @return {@code true} if {@link #markClean()} has been called on this entity (and so its changes are tracked).
+	 */
+	public boolean isTrackingChanges()
+	{
+		return this.cleanStateHash != null;
+	}
+
+	/**
+	 * Determines if this entity must be written in order for the Datastore to reflect it, by comparing a 128-bit hash
+	 * of its persistent state to the hash taken by {@link #markClean()}.  This costs as much as preparing the entity
+	 * for a put, but no RPC.
+	 *
+	 * @return {@code false} if this entity is known to be unchanged since it was marked clean; {@code true} if it has
+	 * changed, or if its changes are not being tracked.
+	 */
+	public boolean isDirty()
+	{
+		return this.cleanStateHash == null || !this.cleanStateHash.equals(this.hashPersistentState());
+	}
+
+	/**
+	 * Returns the typed Key most recently passed to {@link #memoizeTypedKey}, so that implementations of {@link
+	 * #getTypedKey()} (and of {@link #getKey()}, which {@link #hashCode()} and {@link #equals(Object)} call) need not
+	 * assemble a new Key on every call.
+	 *
+	 * @param id        The current identifier of this entity.
+	 * @param parentKey The current parent Key of this entity, or {@code null} if it has none.
+	 *
+	 * @return The memoized typed Key, or {@code null} if none has been memoized for {@code id} and {@code parentKey}
+	 * (e.g., because either has changed since).
+	 */
+	protected final Key<T> getMemoizedTypedKey(final Object id, final Key<?> parentKey)
+	{
+		final MemoizedKey<T> memoizedKey = this.memoizedKey;
+		if (memoizedKey != null && memoizedKey.id.equals(id) && Objects.equal(memoizedKey.parentKey, parentKey))
+		{
+			return memoizedKey.typedKey;
+		}
+		return null;
+	}
+
+	/**
+	 * Remembers the typed Key of this entity, for as long as its identifier and parent Key are unchanged.
+	 *
+	 * @param id        The identifier that {@code typedKey} was assembled from.
+	 * @param parentKey The parent Key that {@code typedKey} was assembled from, or {@code null}.
+	 * @param typedKey  The typed Key of this entity.
+	 */
+	protected final void memoizeTypedKey(final Object id, final Key<?> parentKey, final Key<T> typedKey)
+	{
+		// Assign a single immutable holder so that a racing reader can never see a Key paired with another id.
+		this.memoizedKey = new MemoizedKey<>(Preconditions.checkNotNull(id), parentKey,
+				Preconditions.checkNotNull(typedKey));
+	}
+
+	/**
+	 * Hashes the protocol buffer that the Datastore would be sent for this entity, which covers its Key and every
+	 * persisted property (including whether it is indexed).  {@link com.googlecode.objectify.annotation.OnSave}
+	 * methods are skipped, since they may modify this entity (e.g., by stamping a time) whenever it is merely loaded,
+	 * and would otherwise make it differ from the state they hash on every call.
+	 */
+	private HashCode hashPersistentState()
+	{
+		final Entity entity = LifecycleSkippingSaveContext.toEntity(this);
+		return Hashing.murmur3_128().hashBytes(EntityTranslator.convertToPb(entity).toByteArray());
+	}
+
+	/**
+	 * A typed Key, along with the identifier and parent Key that it was assembled from.
+	 */
+	private static final class MemoizedKey<T>
+	{
+		private final Object id;
+
+		private final Key<?> parentKey;
+
+		private final Key<T> typedKey;
+
+		private MemoizedKey(final Object id, final Key<?> parentKey, final Key<T> typedKey)
+		{
+			this.id = id;
+			this.parentKey = parentKey;
+			this.typedKey = typedKey;
+		}
+	}
+
 }
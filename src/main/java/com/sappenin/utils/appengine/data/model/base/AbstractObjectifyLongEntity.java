@@ -71,22 +71,49 @@ public abstract class AbstractObjectifyLongEntity<T extends AbstractObjectifyEnt
 		this(entityKey.getId());
 	}
 
+	/**
+	 * Clears the id of this entity, which {@link #setId} does not allow.  Used by Daos to undo the id that they
+	 * allocated for an entity whose creation failed, so that the entity can be created again.
+	 */
+	public void clearId()
+	{
+		this.id = null;
+	}
+
 	/**
 	 * Override to assemble a Key with a long-type. Assembles the Key for this entity. If an Entity has a Parent Key,
-	 * that key will be included in the returned Key hierarchy.
+	 * that key will be included in the returned Key hierarchy.  The Key is memoized until the id or Parent Key of this
+	 * entity changes.
 	 */
 	@Override
-	public Key getKey()
+	public com.googlecode.objectify.Key<T> getTypedKey()
 	{
-
-		if (this.getId() == null)
+		final Long id = this.getId();
+		if (id == null)
 		{
 			return null;
 		}
-		else
+
+		final com.googlecode.objectify.Key<?> parentKey = getParentKey();
+		com.googlecode.objectify.Key<T> typedKey = this.getMemoizedTypedKey(id, parentKey);
+		if (typedKey == null)
 		{
-			return com.googlecode.objectify.Key.create(getParentKey(), this.getClass(), this.getId()).getRaw();
+			@SuppressWarnings("unchecked")
+			final Class<? extends T> kindClass = (Class<? extends T>) this.getClass();
+			typedKey = com.googlecode.objectify.Key.create(parentKey, kindClass, id);
+			this.memoizeTypedKey(id, parentKey, typedKey);
 		}
+		return typedKey;
+	}
+
+	/**
+	 * Returns the raw form of {@link #getTypedKey()}, which is memoized along with it.
+	 */
+	@Override
+	public Key getKey()
+	{
+		final com.googlecode.objectify.Key<T> typedKey = this.getTypedKey();
+		return typedKey == null ? null : typedKey.getRaw();
 	}
 
 }
@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.translate;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a String field of an entity (or the Strings of a Collection field) to be stored compressed, which shrinks large
+ * JSON or text values in the Datastore and in memcache.  Values whose UTF-8 encoding is smaller than {@link
+ * #thresholdBytes()}, or that do not shrink when compressed, are stored as they would be without this annotation, and
+ * values stored before a field was annotated continue to load.  Compressed values are never indexed. <br/> <br/> This
+ * annotation has no effect unless a {@link CompressedStringTranslatorFactory} is registered with the {@link
+ * com.googlecode.objectify.ObjectifyFactory} (before any entity that uses it is registered), e.g.: <br/> <br/> {@code
+ * ObjectifyService.factory().getTranslators().add(new CompressedStringTranslatorFactory());}
+ *
+ * @author David Fuelling
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Compressed
+{
+	/**
+	 * @return The size, in UTF-8 bytes, below which values are stored uncompressed.
+	 */
+	int thresholdBytes() default 1024;
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.translate;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.Text;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.googlecode.objectify.impl.Path;
+import com.googlecode.objectify.impl.translate.CreateContext;
+import com.googlecode.objectify.impl.translate.LoadContext;
+import com.googlecode.objectify.impl.translate.SaveContext;
+import com.googlecode.objectify.impl.translate.SkipException;
+import com.googlecode.objectify.impl.translate.TypeKey;
+import com.googlecode.objectify.impl.translate.ValueTranslator;
+import com.googlecode.objectify.impl.translate.ValueTranslatorFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An Objectify {@link com.googlecode.objectify.impl.translate.TranslatorFactory} that transparently compresses the
+ * String fields annotated with {@link Compressed}. <br/> <br/> A value at or above its field's threshold is stored as a
+ * gzipped {@link Blob} whenever that is smaller than the value itself; any other value is stored as a String (or, if it
+ * is long, as {@link Text}), just as Objectify would store it.  Since a String field is otherwise never stored as a
+ * Blob, values load correctly regardless of how (or whether) they were compressed when they were saved.
+ *
+ * @author David Fuelling
+ */
+public class CompressedStringTranslatorFactory extends ValueTranslatorFactory<String, Object>
+{
+	// Objectify stores Strings whose UTF-8 encoding is longer than this as Text, which is what the Datastore allows.
+	private static final int MAX_STRING_BYTES = 1500;
+
+	/**
+	 * No-args Constructor.
+	 */
+	public CompressedStringTranslatorFactory()
+	{
+		super(String.class);
+	}
+
+	@Override
+	protected ValueTranslator<String, Object> createValueTranslator(final TypeKey<String> tk, final CreateContext ctx,
+			final Path path)
+	{
+		final Compressed compressed = tk.getAnnotation(Compressed.class);
+		if (compressed == null)
+		{
+			// Let the next factory translate this field.
+			return null;
+		}
+
+		final int thresholdBytes = compressed.thresholdBytes();
+		return new ValueTranslator<String, Object>(Object.class)
+		{
+			@Override
+			protected String loadValue(final Object value, final LoadContext ctx, final Path path) throws SkipException
+			{
+				if (value instanceof Blob)
+				{
+					return decompress(((Blob) value).getBytes(), path);
+				}
+				else if (value instanceof Text)
+				{
+					return ((Text) value).getValue();
+				}
+				else
+				{
+					return value.toString();
+				}
+			}
+
+			@Override
+			protected Object saveValue(final String value, final boolean index, final SaveContext ctx,
+					final Path path) throws SkipException
+			{
+				final byte[] bytes = value.getBytes(Charsets.UTF_8);
+				if (bytes.length >= thresholdBytes)
+				{
+					final byte[] compressedBytes = compress(bytes, path);
+					if (compressedBytes.length < bytes.length)
+					{
+						return new Blob(compressedBytes);
+					}
+				}
+
+				return bytes.length > MAX_STRING_BYTES ? new Text(value) : value;
+			}
+		};
+	}
+
+	//////////////////
+	// Private Helpers
+	//////////////////
+
+	private static byte[] compress(final byte[] bytes, final Path path)
+	{
+		final ByteArrayOutputStream compressedBytes = new ByteArrayOutputStream(bytes.length / 4);
+		try (final GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressedBytes))
+		{
+			gzipOutputStream.write(bytes);
+		}
+		catch (IOException e)
+		{
+			// A ByteArrayOutputStream never throws.
+			throw new IllegalStateException("Unable to compress " + path, e);
+		}
+		return compressedBytes.toByteArray();
+	}
+
+	private static String decompress(final byte[] compressedBytes, final Path path)
+	{
+		try (final GZIPInputStream gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(compressedBytes)))
+		{
+			return new String(ByteStreams.toByteArray(gzipInputStream), Charsets.UTF_8);
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException("Unable to decompress the stored value of " + path, e);
+		}
+	}
+
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.data.translate;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.common.base.Preconditions;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.impl.translate.SaveContext;
+
+/**
+ * A {@link SaveContext} that translates an entity without running its lifecycle methods (e.g., {@link
+ * com.googlecode.objectify.annotation.OnSave} methods), for code that needs to inspect what an entity would look like
+ * in the Datastore without the side effects of actually saving it.
+ *
+ * @author David Fuelling
+ */
+public class LifecycleSkippingSaveContext extends SaveContext
+{
+	/**
+	 * Translates {@code pojo} to the low-level {@link Entity} that Objectify would save, without running its lifecycle
+	 * methods.
+	 *
+	 * @param pojo An entity that is registered with Objectify.
+	 *
+	 * @return The low-level {@link Entity} form of {@code pojo}.
+	 */
+	public static Entity toEntity(final Object pojo)
+	{
+		Preconditions.checkNotNull(pojo);
+		return ObjectifyService.factory().getMetadataForEntity(pojo).save(pojo, new LifecycleSkippingSaveContext());
+	}
+
+	@Override
+	public boolean skipLifecycle()
+	{
+		return true;
+	}
+
+}
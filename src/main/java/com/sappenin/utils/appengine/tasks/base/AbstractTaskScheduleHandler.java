@@ -25,6 +25,7 @@ import lombok.Getter;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 /**
@@ -106,6 +107,13 @@ public abstract class AbstractTaskScheduleHandler<P> implements TaskHandler, Tas
 	// TaskHanlder
 	//////////////////////////////
 
+	@Override
+	public void handle(final HttpServletRequest request, final HttpServletResponse response) throws Exception
+	{
+		// Delegate to the Abstract pseudo super-class.
+		this.abstractTaskHandler.handle(request, response);
+	}
+
 	/**
 	 * Implemented by subclasses to actually do something with a payload of type <P>.
 	 *
@@ -146,6 +154,20 @@ public abstract class AbstractTaskScheduleHandler<P> implements TaskHandler, Tas
 		return this.abstractTaskScheduler.schedule(payload, taskName);
 	}
 
+	@Override
+	public Future<TaskHandle> scheduleAsync(P payload)
+	{
+		// Delegate to the Abstract pseudo super-class.
+		return this.abstractTaskScheduler.scheduleAsync(payload);
+	}
+
+	@Override
+	public Future<TaskHandle> scheduleAsync(P payload, final String taskName)
+	{
+		// Delegate to the Abstract pseudo super-class.
+		return this.abstractTaskScheduler.scheduleAsync(payload, taskName);
+	}
+
 	// /////////////////////
 	// Protected Helpers
 	// /////////////////////
@@ -0,0 +1,182 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.tasks.mapper;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Result;
+import com.sappenin.utils.appengine.data.dao.Results;
+import com.sappenin.utils.appengine.data.dao.WriteBehindBuffer.FlushListener;
+import lombok.Getter;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the writes that a {@link MapperTaskHandler} emits while mapping a slice, and issues them as asynchronous
+ * batch puts and deletes of {@code batchSize} entities each, so that mapping a batch of input entities does not cost
+ * one Datastore RPC per output.  A bounded number of batches are left in flight while mapping continues. <br/> <br/>
+ * Writes are made directly through Objectify, so a {@link FlushListener} is notified of the keys of every batch once
+ * it has been written, so that Dao-level caches (e.g., a {@link com.sappenin.utils.appengine.data.dao.NearCache}) can
+ * be invalidated.
+ *
+ * @author David Fuelling
+ */
+public class MapperOutput
+{
+	// The maximum number of batch writes that are left in flight at once.
+	private static final int MAX_PENDING_BATCH_WRITES = 5;
+
+	private final int batchSize;
+
+	private final List<Object> unsavedEntities;
+
+	private final List<Key<?>> undeletedKeys;
+
+	private final FlushListener flushListener;
+
+	// Each pending write yields the keys that it wrote.
+	private final Deque<Result<List<Key<?>>>> pendingWrites = new ArrayDeque<>();
+
+	@Getter
+	private long numSaved;
+
+	@Getter
+	private long numDeleted;
+
+	/**
+	 * Required-args Constructor.
+	 *
+	 * @param batchSize     The number of entities (or keys) per batch write.
+	 * @param flushListener A {@link FlushListener} that is notified of the keys of every batch once it has been
+	 *                      written, such as {@link com.sappenin.utils.appengine.data.dao.base.AbstractObjectifyDao#getCacheInvalidationListener()}.
+	 */
+	public MapperOutput(final int batchSize, final FlushListener flushListener)
+	{
+		Preconditions.checkArgument(batchSize > 0, "batchSize must be positive!");
+		Preconditions.checkNotNull(flushListener);
+		this.batchSize = batchSize;
+		this.flushListener = flushListener;
+		this.unsavedEntities = Lists.newArrayListWithCapacity(batchSize);
+		this.undeletedKeys = Lists.newArrayListWithCapacity(batchSize);
+	}
+
+	/**
+	 * Saves {@code entity} with the next batch put.
+	 *
+	 * @param entity An Objectify entity of any kind.
+	 */
+	public void save(final Object entity)
+	{
+		Preconditions.checkNotNull(entity);
+		this.unsavedEntities.add(entity);
+		if (this.unsavedEntities.size() >= this.batchSize)
+		{
+			this.submitSaves();
+		}
+	}
+
+	/**
+	 * Deletes the entity identified by {@code key} with the next batch delete.
+	 *
+	 * @param key The {@link Key} of an entity of any kind.
+	 */
+	public void delete(final Key<?> key)
+	{
+		Preconditions.checkNotNull(key);
+		this.undeletedKeys.add(key);
+		if (this.undeletedKeys.size() >= this.batchSize)
+		{
+			this.submitDeletes();
+		}
+	}
+
+	/**
+	 * Issues any partial batches, and waits for every batch write to complete.
+	 */
+	public void flush()
+	{
+		this.submitSaves();
+		this.submitDeletes();
+		while (!this.pendingWrites.isEmpty())
+		{
+			this.awaitOldest();
+		}
+	}
+
+	//////////////////
+	// Private Helpers
+	//////////////////
+
+	private void submitSaves()
+	{
+		if (!this.unsavedEntities.isEmpty())
+		{
+			// New entities may not have a complete key until they have been written.
+			this.submit(Results.transform(ObjectifyService.ofy().save().entities(Lists.newArrayList(this.unsavedEntities)),
+					new Function<Map<Key<Object>, Object>, List<Key<?>>>()
+					{
+						@Override
+						public List<Key<?>> apply(final Map<Key<Object>, Object> savedEntities)
+						{
+							return ImmutableList.<Key<?>>copyOf(savedEntities.keySet());
+						}
+					}));
+			this.numSaved += this.unsavedEntities.size();
+			this.unsavedEntities.clear();
+		}
+	}
+
+	private void submitDeletes()
+	{
+		if (!this.undeletedKeys.isEmpty())
+		{
+			final List<Key<?>> keys = ImmutableList.copyOf(this.undeletedKeys);
+			this.submit(Results.transform(ObjectifyService.ofy().delete().keys(keys), new Function<Void, List<Key<?>>>()
+			{
+				@Override
+				public List<Key<?>> apply(final Void deleted)
+				{
+					return keys;
+				}
+			}));
+			this.numDeleted += this.undeletedKeys.size();
+			this.undeletedKeys.clear();
+		}
+	}
+
+	private void submit(final Result<List<Key<?>>> write)
+	{
+		if (this.pendingWrites.size() >= MAX_PENDING_BATCH_WRITES)
+		{
+			this.awaitOldest();
+		}
+		this.pendingWrites.addLast(write);
+	}
+
+	/**
+	 * Waits for the oldest pending write, and notifies the {@link FlushListener} of its keys.  If the write fails, the
+	 * task fails, and the listener is notified when the retried task rewrites them.
+	 */
+	private void awaitOldest()
+	{
+		this.flushListener.onFlushed(this.pendingWrites.removeFirst().now());
+	}
+
+}
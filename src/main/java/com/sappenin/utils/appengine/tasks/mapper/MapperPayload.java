@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.tasks.mapper;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The JSON payload of a single {@link MapperTaskHandler} task, which processes one slice of one shard of a mapper
+ * job.  The payload is the job's checkpoint: each task schedules its successor with a payload that holds the
+ * {@link com.google.appengine.api.datastore.Cursor} at which the previous slice stopped.
+ *
+ * @author David Fuelling
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MapperPayload
+{
+	// Identifies the job, and prefixes the name of every task in the job.
+	private String jobId;
+
+	private int shardIndex;
+
+	private int numShards;
+
+	// The web-safe Key at which this shard starts (inclusive), or null if the shard is unbounded below.
+	private String lowerBoundKey;
+
+	// The web-safe Key at which this shard ends (exclusive), or null if the shard is unbounded above.
+	private String upperBoundKey;
+
+	// The web-safe Cursor at which this slice starts, or null if this is the first slice of the shard.
+	private String cursor;
+
+	// The number of slices of this shard that have already been processed.
+	private int sliceNumber;
+
+	// The number of entities of this shard that have already been mapped.
+	private long numMapped;
+
+	/**
+	 * @param nextCursor   The web-safe Cursor at which the next slice should start.
+	 * @param numMappedNow The number of entities of this shard that have been mapped, including by this slice.
+	 *
+	 * @return A payload for the slice that follows this one.
+	 */
+	public MapperPayload toNextSlice(final String nextCursor, final long numMappedNow)
+	{
+		return new MapperPayload(this.jobId, this.shardIndex, this.numShards, this.lowerBoundKey,
+				this.upperBoundKey, nextCursor, this.sliceNumber + 1, numMappedNow);
+	}
+
+	/**
+	 * @return The name of the task that processes this slice.  Naming every slice prevents a task that is retried
+	 * after scheduling its successor from forking the shard into two chains.
+	 */
+	public String toTaskName()
+	{
+		return String.format("%s-%d-%d", this.jobId, this.shardIndex, this.sliceNumber);
+	}
+
+}
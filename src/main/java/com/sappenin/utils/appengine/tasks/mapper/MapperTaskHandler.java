@@ -0,0 +1,294 @@
+/**
+ * Copyright (C) 2014-2015 Sappenin Inc. (developers@sappenin.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.sappenin.utils.appengine.tasks.mapper;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.cmd.Query;
+import com.sappenin.utils.appengine.data.dao.WriteBehindBuffer.FlushListener;
+import com.sappenin.utils.appengine.data.dao.base.AbstractObjectifyDao;
+import com.sappenin.utils.appengine.data.model.ResultWithCursor;
+import com.sappenin.utils.appengine.data.model.base.AbstractObjectifyEntity;
+import com.sappenin.utils.appengine.tasks.base.AbstractTaskScheduleHandler;
+import com.sappenin.utils.json.JsonUtils;
+import com.sappenin.utils.json.JsonUtilsClassTypeMapper;
+
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+
+/**
+ * A task that applies {@link #map} to every entity of a kind, for jobs that are too large to complete within a
+ * single request. <br/> <br/> {@link #start} divides the kind into {@link #getNumShards()} disjoint key ranges (see
+ * {@link AbstractObjectifyDao#findSplitPoints}) and schedules one task per shard, so shards are processed in
+ * parallel up to the rate limits of the processing queue.  Each task maps batches of {@link #getBatchSize()} entities
+ * for at most {@link #getSliceDurationMillis()}, flushes the writes emitted via {@link MapperOutput}, and then
+ * schedules its successor with the {@link Cursor} at which it stopped.  Since the successor is only scheduled once
+ * the slice's output is durable, a failed task is retried from its own checkpoint, and every entity is mapped at
+ * least once (so {@link #map} must be idempotent). <br/> <br/> Task names are derived from the job id, so a job id
+ * must be unique among the jobs run on the processing queue over the past several days.
+ *
+ * @param <T> The type of entity to map.
+ *
+ * @author David Fuelling
+ */
+public abstract class MapperTaskHandler<T extends AbstractObjectifyEntity<T>>
+		extends AbstractTaskScheduleHandler<MapperPayload>
+{
+	// The number of entities that are loaded and mapped at a time.
+	public static final int DEFAULT_BATCH_SIZE = 50;
+
+	// The number of key ranges that a job is divided into.
+	public static final int DEFAULT_NUM_SHARDS = 8;
+
+	// The number of output entities per batch write, which is the Datastore's limit for a batch put.
+	public static final int DEFAULT_OUTPUT_BATCH_SIZE = 500;
+
+	// How long a single task maps batches before handing the rest of its shard to its successor.
+	public static final long DEFAULT_SLICE_DURATION_MILLIS = 30000L;
+
+	// Task names must match this pattern, and the job id is used as a task name prefix.
+	private static final Pattern JOB_ID_PATTERN = Pattern.compile("[0-9a-zA-Z\\-_]{1,400}");
+
+	private final AbstractObjectifyDao<T> dao;
+
+	/**
+	 * Required Args Constructor.
+	 *
+	 * @param jsonUtils                An instance of {@link JsonUtils} for (de)serializing {@link MapperPayload}s.
+	 * @param jsonUtilsClassTypeMapper An instance of {@link JsonUtilsClassTypeMapper} that maps to {@link
+	 *                                 MapperPayload}.
+	 * @param dao                      The {@link AbstractObjectifyDao} for the kind of entity to map.
+	 */
+	public MapperTaskHandler(final JsonUtils jsonUtils, final JsonUtilsClassTypeMapper jsonUtilsClassTypeMapper,
+			final AbstractObjectifyDao<T> dao)
+	{
+		super(jsonUtils, jsonUtilsClassTypeMapper);
+
+		Preconditions.checkNotNull(dao);
+		this.dao = dao;
+	}
+
+	/**
+	 * Starts a job by scheduling the first task of every shard.  Starting a job whose first tasks still exist has no
+	 * effect.
+	 *
+	 * @param jobId A {@link String} that identifies the job, consisting of at most 400 digits, letters, underscores,
+	 *              and dashes.
+	 *
+	 * @return The number of shards that the job was divided into.
+	 */
+	public int start(final String jobId)
+	{
+		Preconditions.checkNotNull(jobId);
+		Preconditions.checkArgument(JOB_ID_PATTERN.matcher(jobId).matches(), "Invalid jobId: %s", jobId);
+
+		final List<Key<Object>> splitPoints = this.dao.findSplitPoints(this.getNumShards());
+		final int numShards = splitPoints.size() + 1;
+		for (int shardIndex = 0; shardIndex < numShards; shardIndex++)
+		{
+			final String lowerBoundKey = shardIndex == 0 ? null : splitPoints.get(shardIndex - 1).toWebSafeString();
+			final String upperBoundKey = shardIndex == splitPoints.size() ? null :
+					splitPoints.get(shardIndex).toWebSafeString();
+			this.scheduleSlice(new MapperPayload(jobId, shardIndex, numShards, lowerBoundKey, upperBoundKey, null,
+					0, 0L));
+		}
+		return numShards;
+	}
+
+	/**
+	 * Maps one slice of a shard, and schedules the next slice if the shard has more entities.
+	 *
+	 * @param payload A {@link MapperPayload} that identifies the shard, and the checkpoint to resume it from.
+	 */
+	@Override
+	protected void handleHelper(final MapperPayload payload)
+	{
+		Preconditions.checkNotNull(payload);
+
+		final long sliceStartMillis = System.currentTimeMillis();
+		final Query<T> shardQuery = this.toShardQuery(payload);
+		final MapperOutput output = new MapperOutput(this.getOutputBatchSize(), this.getOutputFlushListener());
+
+		Optional<Cursor> cursor = payload.getCursor() == null ? Optional.<Cursor>absent() :
+				Optional.of(Cursor.fromWebSafeString(payload.getCursor()));
+		long numMapped = payload.getNumMapped();
+		do
+		{
+			final ResultWithCursor<List<Key<T>>> batch = this.dao.loadKeysOnlyFromDatastoreWithCursor(shardQuery,
+					cursor.orNull(), this.getBatchSize());
+			final Map<Key<T>, T> entities = ObjectifyService.ofy().load().keys(batch.getResult());
+			for (final Key<T> key : batch.getResult())
+			{
+				// Entities deleted since their key was scanned are skipped.
+				final T entity = entities.get(key);
+				if (entity != null)
+				{
+					this.map(entity, output);
+					numMapped++;
+				}
+			}
+			cursor = batch.getOptCursor();
+
+			// Mapped entities are not needed again, so keep the session cache from growing with the shard.
+			ObjectifyService.ofy().clear();
+		}
+		while (cursor.isPresent() && System.currentTimeMillis() - sliceStartMillis < this.getSliceDurationMillis());
+
+		// The checkpoint must not move past any entity whose output is not yet durable.
+		output.flush();
+
+		if (cursor.isPresent())
+		{
+			this.scheduleSlice(payload.toNextSlice(cursor.get().toWebSafeString(), numMapped));
+		}
+		else
+		{
+			this.onShardComplete(payload.toNextSlice(null, numMapped));
+		}
+	}
+
+	/**
+	 * Implemented by subclasses to process a single entity.  This may be called more than once for the same entity
+	 * if a task is retried.
+	 *
+	 * @param entity An entity of type {@link T}.
+	 * @param output A {@link MapperOutput} for any entities to be saved or deleted as a result.
+	 */
+	protected abstract void map(final T entity, final MapperOutput output);
+
+	/**
+	 * Called once every entity of a shard has been mapped.  Subclasses may override this to, e.g., record the
+	 * completion of a job once all of its shards are complete.
+	 *
+	 * @param payload A {@link MapperPayload} whose {@code numMapped} is the number of entities mapped by the shard.
+	 */
+	protected void onShardComplete(final MapperPayload payload)
+	{
+		this.getLogger().info(String.format("Mapper job '%s' completed shard %s of %s after mapping %s entities",
+				payload.getJobId(), payload.getShardIndex() + 1, payload.getNumShards(), payload.getNumMapped()));
+	}
+
+	/**
+	 * Implemented by subclasses to return a {@link Query} over every entity to map, which is typically every entity
+	 * of the Dao's kind.  Since each shard adds inequality filters on {@code __key__}, this must not contain inequality
+	 * filters on other properties, or sort orders.
+	 *
+	 * @return A {@link Query} of type {@link T}.
+	 */
+	protected abstract Query<T> getQuery();
+
+	/**
+	 * @return The number of entities to load and map at a time.  Batches are limited to the max limit of the Dao's
+	 * {@link com.sappenin.utils.appengine.data.dao.PagingPolicy}.
+	 */
+	protected int getBatchSize()
+	{
+		return DEFAULT_BATCH_SIZE;
+	}
+
+	/**
+	 * @return The number of shards to divide a job into, which is an upper bound on the number of tasks of the job
+	 * that run in parallel.
+	 */
+	protected int getNumShards()
+	{
+		return DEFAULT_NUM_SHARDS;
+	}
+
+	/**
+	 * @return The number of entities per batch write issued by {@link MapperOutput}.
+	 */
+	protected int getOutputBatchSize()
+	{
+		return DEFAULT_OUTPUT_BATCH_SIZE;
+	}
+
+	/**
+	 * @return The {@link FlushListener} that is notified of every batch written by {@link MapperOutput}, which by
+	 * default invalidates the caches of the Dao for this kind.  Subclasses whose {@link #map} writes entities of other
+	 * kinds should override this to also invalidate the caches of those kinds' Daos.
+	 */
+	protected FlushListener getOutputFlushListener()
+	{
+		return this.dao.getCacheInvalidationListener();
+	}
+
+	/**
+	 * @return The number of milliseconds after which a task stops starting new batches.  This must be comfortably
+	 * shorter than the request deadline of the processing queue's tasks, less the time needed to map a single batch.
+	 */
+	protected long getSliceDurationMillis()
+	{
+		return DEFAULT_SLICE_DURATION_MILLIS;
+	}
+
+	/**
+	 * Protected Getter for access by implementing classes.
+	 *
+	 * @return
+	 */
+	protected AbstractObjectifyDao<T> getDao()
+	{
+		return this.dao;
+	}
+
+	//////////////////
+	// Private Helpers
+	//////////////////
+
+	/**
+	 * Schedules the task named by {@code payload}.  If that task already exists, it was scheduled by an earlier
+	 * attempt of the current task, so it is not scheduled again.
+	 */
+	private void scheduleSlice(final MapperPayload payload)
+	{
+		try
+		{
+			this.schedule(payload, payload.toTaskName());
+		}
+		catch (RuntimeException e)
+		{
+			// AbstractTaskScheduler wraps every failure in a RuntimeException.
+			if (e instanceof TaskAlreadyExistsException || e.getCause() instanceof TaskAlreadyExistsException)
+			{
+				this.getLogger().log(Level.WARNING,
+						String.format("Mapper task '%s' was already scheduled", payload.toTaskName()), e);
+			}
+			else
+			{
+				throw e;
+			}
+		}
+	}
+
+	private Query<T> toShardQuery(final MapperPayload payload)
+	{
+		Query<T> shardQuery = this.getQuery();
+		if (payload.getLowerBoundKey() != null)
+		{
+			shardQuery = shardQuery.filterKey(">=", Key.create(payload.getLowerBoundKey()));
+		}
+		if (payload.getUpperBoundKey() != null)
+		{
+			shardQuery = shardQuery.filterKey("<", Key.create(payload.getUpperBoundKey()));
+		}
+		return shardQuery;
+	}
+
+}
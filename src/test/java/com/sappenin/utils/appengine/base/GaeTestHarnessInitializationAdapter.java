@@ -18,6 +18,7 @@ import com.googlecode.objectify.cache.AsyncCacheFilter;
 import com.googlecode.objectify.impl.translate.opt.joda.DateTimeZoneTranslatorFactory;
 import com.googlecode.objectify.impl.translate.opt.joda.ReadableInstantTranslatorFactory;
 import com.googlecode.objectify.util.Closeable;
+import com.sappenin.utils.appengine.data.translate.CompressedStringTranslatorFactory;
 import org.apache.commons.lang3.StringUtils;
 import org.junit.After;
 import org.junit.Before;
@@ -58,6 +59,7 @@ public class GaeTestHarnessInitializationAdapter
 		// New Objectify 5.1 Way. See https://groups.google.com/forum/#!topic/objectify-appengine/O4FHC_i7EGk
 		ObjectifyService.factory().getTranslators().add(new DateTimeZoneTranslatorFactory());
 		ObjectifyService.factory().getTranslators().add(new ReadableInstantTranslatorFactory());
+		ObjectifyService.factory().getTranslators().add(new CompressedStringTranslatorFactory());
 		this.session = ObjectifyService.begin();
 	}
 
@@ -0,0 +1,159 @@
+package com.sappenin.utils.appengine.data.counters;
+
+import com.google.common.base.Optional;
+import com.googlecode.objectify.ObjectifyService;
+import com.sappenin.utils.appengine.base.GaeTestHarnessInitializationAdapter;
+import com.sappenin.utils.appengine.data.dao.TransactionRetryPolicy;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ConcurrentModificationException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * A unit test for {@link ObjectifyShardedCounterDao}.
+ */
+public class ObjectifyShardedCounterDaoTest extends GaeTestHarnessInitializationAdapter
+{
+	private static final String COUNTER_NAME = "testCounter";
+
+	private ObjectifyShardedCounterDao dao;
+
+	@Before
+	public void beforeObjectifyShardedCounterDaoTest()
+	{
+		ObjectifyService.factory().register(ShardedCounter.class);
+		ObjectifyService.factory().register(ShardedCounterShard.class);
+
+		this.dao = new ObjectifyShardedCounterDao();
+	}
+
+	@Test
+	public void testGetCount_NeverIncremented() throws Exception
+	{
+		assertThat(dao.getCount(COUNTER_NAME), is(0L));
+		assertThat(dao.getNumShards(COUNTER_NAME), is(ObjectifyShardedCounterDao.DEFAULT_INITIAL_NUM_SHARDS));
+	}
+
+	@Test
+	public void testIncrementAndDecrement() throws Exception
+	{
+		for (int i = 0; i < 20; i++)
+		{
+			dao.increment(COUNTER_NAME);
+		}
+		dao.decrement(COUNTER_NAME);
+		dao.increment(COUNTER_NAME, 5L);
+		dao.increment("otherCounter", -3L);
+
+		assertThat(dao.getCount(COUNTER_NAME), is(24L));
+		assertThat(dao.getCount("otherCounter"), is(-3L));
+	}
+
+	@Test
+	public void testIncrement_GrowsShardsOnContention() throws Exception
+	{
+		final ContendedShardedCounterDao contendedDao = new ContendedShardedCounterDao(2);
+		contendedDao.increment(COUNTER_NAME);
+
+		// Each contended attempt doubles the shard count.
+		assertThat(contendedDao.getNumShards(COUNTER_NAME), is(16));
+		assertThat(contendedDao.getCount(COUNTER_NAME), is(1L));
+	}
+
+	@Test(expected = ConcurrentModificationException.class)
+	public void testIncrement_GivesUpAfterMaxAttempts() throws Exception
+	{
+		new ContendedShardedCounterDao(Integer.MAX_VALUE).increment(COUNTER_NAME);
+	}
+
+	@Test
+	public void testGrowShards() throws Exception
+	{
+		assertThat(dao.growShards(COUNTER_NAME, 4), is(8));
+
+		// A writer that contended on a stale shard count does not grow the counter again.
+		assertThat(dao.growShards(COUNTER_NAME, 4), is(8));
+		assertThat(dao.getNumShards(COUNTER_NAME), is(8));
+	}
+
+	@Test
+	public void testGrowShards_Max() throws Exception
+	{
+		final ObjectifyShardedCounterDao cappedDao = new ObjectifyShardedCounterDao()
+		{
+			@Override
+			protected int getMaxNumShards()
+			{
+				return 6;
+			}
+		};
+		assertThat(cappedDao.growShards(COUNTER_NAME, 4), is(6));
+		assertThat(cappedDao.growShards(COUNTER_NAME, 6), is(6));
+	}
+
+	@Test
+	public void testGetCount_Cached() throws Exception
+	{
+		final ObjectifyShardedCounterDao cachingDao = new ObjectifyShardedCounterDao()
+		{
+			@Override
+			protected Optional<Integer> getCountCacheExpirationSeconds()
+			{
+				return Optional.of(60);
+			}
+		};
+		cachingDao.increment(COUNTER_NAME);
+		assertThat(cachingDao.getCount(COUNTER_NAME), is(1L));
+
+		// Reads may lag increments until the cached count expires.
+		cachingDao.increment(COUNTER_NAME);
+		assertThat(cachingDao.getCount(COUNTER_NAME), is(1L));
+		assertThat(dao.getCount(COUNTER_NAME), is(2L));
+	}
+
+	@Test
+	public void testDelete() throws Exception
+	{
+		dao.increment(COUNTER_NAME, 7L);
+		dao.growShards(COUNTER_NAME, 4);
+
+		dao.delete(COUNTER_NAME);
+		assertThat(dao.getCount(COUNTER_NAME), is(0L));
+		assertThat(dao.getNumShards(COUNTER_NAME), is(ObjectifyShardedCounterDao.DEFAULT_INITIAL_NUM_SHARDS));
+		assertThat(ObjectifyService.ofy().load().type(ShardedCounterShard.class).count(), is(0));
+	}
+
+	/**
+	 * An extension of {@link ObjectifyShardedCounterDao} whose first shard increments fail with contention, and which
+	 * retries without backing off.
+	 */
+	private static final class ContendedShardedCounterDao extends ObjectifyShardedCounterDao
+	{
+		private int remainingContendedAttempts;
+
+		private ContendedShardedCounterDao(final int numContendedAttempts)
+		{
+			this.remainingContendedAttempts = numContendedAttempts;
+		}
+
+		@Override
+		void incrementShard(final String counterName, final int shardIndex, final long delta)
+		{
+			if (this.remainingContendedAttempts-- > 0)
+			{
+				throw new ConcurrentModificationException();
+			}
+			super.incrementShard(counterName, shardIndex, delta);
+		}
+
+		@Override
+		protected TransactionRetryPolicy getTransactionRetryPolicy()
+		{
+			return new TransactionRetryPolicy(5, 0L, 0L, 0L);
+		}
+	}
+
+}
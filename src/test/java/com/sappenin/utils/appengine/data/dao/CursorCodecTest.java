@@ -0,0 +1,131 @@
+package com.sappenin.utils.appengine.data.dao;
+
+import com.google.appengine.api.NamespaceManager;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.common.collect.ImmutableList;
+import com.sappenin.utils.appengine.base.GaeTestHarnessInitializationAdapter;
+import com.sappenin.utils.appengine.data.dao.exceptions.InvalidCursorTokenException;
+import com.sappenin.utils.appengine.data.model.ResultWithCursor;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Unit tests for {@link CursorCodec}.
+ */
+public class CursorCodecTest extends GaeTestHarnessInitializationAdapter
+{
+	private static final byte[] SECRET_KEY = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+
+	// A cursor that was returned by the local Datastore for a query over kind "K".
+	private static final Cursor CURSOR = Cursor.fromWebSafeString("ChUSD2oEdGVzdHIHCxIBSxgCDBgAIAA");
+
+	private static final String QUERY_SIGNATURE = "K:order=__key__";
+
+	private final CursorCodec codec = new CursorCodec(SECRET_KEY);
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_ShortSecretKey() throws Exception
+	{
+		new CursorCodec(new byte[15]);
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		final String token = codec.encode(CURSOR, QUERY_SIGNATURE);
+
+		assertThat(token.matches("[A-Za-z0-9_-]+"), is(true));
+		assertThat(token.length(), is(CURSOR.toWebSafeString().length() + 12));
+		assertThat(codec.decode(token, QUERY_SIGNATURE), is(CURSOR));
+		assertThat(new CursorCodec(SECRET_KEY).decode(token, QUERY_SIGNATURE), is(CURSOR));
+	}
+
+	@Test
+	public void testRoundTrip_ExplicitNamespace() throws Exception
+	{
+		final String token = codec.encode(CURSOR, QUERY_SIGNATURE, "tenant1");
+		assertThat(codec.decode(token, QUERY_SIGNATURE, "tenant1"), is(CURSOR));
+	}
+
+	@Test(expected = InvalidCursorTokenException.class)
+	public void testDecode_DifferentQuerySignature() throws Exception
+	{
+		codec.decode(codec.encode(CURSOR, QUERY_SIGNATURE), "K:order=-__key__");
+	}
+
+	@Test(expected = InvalidCursorTokenException.class)
+	public void testDecode_DifferentNamespace() throws Exception
+	{
+		final String token = codec.encode(CURSOR, QUERY_SIGNATURE);
+		NamespaceManager.set("tenant1");
+		codec.decode(token, QUERY_SIGNATURE);
+	}
+
+	@Test(expected = InvalidCursorTokenException.class)
+	public void testDecode_AmbiguousSignatureAndNamespace() throws Exception
+	{
+		codec.decode(codec.encode(CURSOR, "ab", "c"), "b", "ca");
+	}
+
+	@Test(expected = InvalidCursorTokenException.class)
+	public void testDecode_DifferentSecretKey() throws Exception
+	{
+		final String token = new CursorCodec("fedcba9876543210fedcba9876543210".getBytes(StandardCharsets.UTF_8))
+				.encode(CURSOR, QUERY_SIGNATURE);
+		codec.decode(token, QUERY_SIGNATURE);
+	}
+
+	@Test
+	public void testDecode_TamperedToken() throws Exception
+	{
+		final String token = codec.encode(CURSOR, QUERY_SIGNATURE);
+		for (int i = 0; i < token.length(); i++)
+		{
+			final char replacement = token.charAt(i) == 'A' ? 'B' : 'A';
+			final String tamperedToken = token.substring(0, i) + replacement + token.substring(i + 1);
+			try
+			{
+				codec.decode(tamperedToken, QUERY_SIGNATURE);
+				throw new AssertionError("Expected an InvalidCursorTokenException for: " + tamperedToken);
+			}
+			catch (InvalidCursorTokenException e)
+			{
+				// Expected.
+			}
+		}
+	}
+
+	@Test
+	public void testDecode_MalformedTokens() throws Exception
+	{
+		final List<String> malformedTokens = ImmutableList.of("", "!!!!", "AQ", "AQIDBAUGBwgJ",
+				CURSOR.toWebSafeString());
+		for (final String malformedToken : malformedTokens)
+		{
+			try
+			{
+				codec.decode(malformedToken, QUERY_SIGNATURE);
+				throw new AssertionError("Expected an InvalidCursorTokenException for: " + malformedToken);
+			}
+			catch (InvalidCursorTokenException e)
+			{
+				// Expected.
+			}
+		}
+	}
+
+	@Test
+	public void testEncodeNext() throws Exception
+	{
+		final ResultWithCursor<String> lastPage = new ResultWithCursor<>("result");
+		assertThat(codec.encodeNext(lastPage, QUERY_SIGNATURE).isPresent(), is(false));
+
+		final ResultWithCursor<String> page = new ResultWithCursor<>("result", CURSOR);
+		assertThat(codec.decode(codec.encodeNext(page, QUERY_SIGNATURE).get(), QUERY_SIGNATURE), is(CURSOR));
+	}
+}
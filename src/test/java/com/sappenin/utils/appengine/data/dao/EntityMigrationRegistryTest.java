@@ -0,0 +1,192 @@
+package com.sappenin.utils.appengine.data.dao;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
+import com.sappenin.utils.appengine.base.GaeTestHarnessInitializationAdapter;
+import com.sappenin.utils.appengine.data.dao.base.TestLongEntity;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Unit tests for {@link EntityMigrationRegistry}.
+ */
+public class EntityMigrationRegistryTest extends GaeTestHarnessInitializationAdapter
+{
+	private EntityMigrationRegistry<TestLongEntity> registry;
+
+	@Before
+	public void registerEntities()
+	{
+		ObjectifyService.factory().register(TestLongEntity.class);
+
+		this.registry = new EntityMigrationRegistry<>(ImmutableList.of(new SuffixMigration("-v1"),
+				new SuffixMigration("-v2")), 2);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_NonPositiveWriteBackBatchSize() throws Exception
+	{
+		new EntityMigrationRegistry<>(ImmutableList.of(new SuffixMigration("-v1")), 0);
+	}
+
+	@Test
+	public void testGetCurrentSchemaVersion() throws Exception
+	{
+		assertThat(this.registry.getCurrentSchemaVersion(), is(2));
+		assertThat(new EntityMigrationRegistry<>(ImmutableList.<SuffixMigration>of()).getCurrentSchemaVersion(), is(0));
+	}
+
+	@Test
+	public void testMigrate() throws Exception
+	{
+		final TestLongEntity unmigratedEntity = this.newEntity("testValue", null);
+		assertThat(this.registry.migrate(unmigratedEntity), is(true));
+		assertThat(unmigratedEntity.getTestValue(), is("testValue-v1-v2"));
+		assertThat(unmigratedEntity.getSchemaVersion(), is(2));
+
+		final TestLongEntity partiallyMigratedEntity = this.newEntity("testValue-v1", 1);
+		assertThat(this.registry.migrate(partiallyMigratedEntity), is(true));
+		assertThat(partiallyMigratedEntity.getTestValue(), is("testValue-v1-v2"));
+
+		assertThat(this.registry.getNumMigrated(), is(2L));
+	}
+
+	@Test
+	public void testMigrate_CurrentAndNewerEntities() throws Exception
+	{
+		final TestLongEntity currentEntity = this.newEntity("testValue", 2);
+		assertThat(this.registry.migrate(currentEntity), is(false));
+		assertThat(currentEntity.getTestValue(), is("testValue"));
+
+		// Written by a newer version of the application during a rolling deploy.
+		final TestLongEntity newerEntity = this.newEntity("testValue", 3);
+		assertThat(this.registry.migrate(newerEntity), is(false));
+		assertThat(newerEntity.getTestValue(), is("testValue"));
+		assertThat(newerEntity.getSchemaVersion(), is(3));
+
+		assertThat(this.registry.getNumMigrated(), is(0L));
+	}
+
+	@Test
+	public void testEnqueueWriteBack_DropsKeysBeyondBatch() throws Exception
+	{
+		assertThat(this.registry.enqueueWriteBack(Key.create(TestLongEntity.class, 1L)), is(true));
+		assertThat(this.registry.enqueueWriteBack(Key.create(TestLongEntity.class, 2L)), is(true));
+		assertThat(this.registry.enqueueWriteBack(Key.create(TestLongEntity.class, 3L)), is(false));
+		assertThat(this.registry.getNumDropped(), is(1L));
+
+		// Flushing empties the queue.
+		this.registry.flushWriteBack();
+		assertThat(this.registry.enqueueWriteBack(Key.create(TestLongEntity.class, 3L)), is(true));
+	}
+
+	@Test
+	public void testFlushWriteBack() throws Exception
+	{
+		final Key<TestLongEntity> key1 = this.saveEntity("testValue1", null);
+		final Key<TestLongEntity> key2 = this.saveEntity("testValue2", 2);
+		final Key<TestLongEntity> missingKey = Key.create(TestLongEntity.class, 12345L);
+		final EntityMigrationRegistry<TestLongEntity> registry = new EntityMigrationRegistry<>(
+				ImmutableList.of(new SuffixMigration("-v1"), new SuffixMigration("-v2")));
+		registry.enqueueWriteBack(key1);
+		registry.enqueueWriteBack(key2);
+		registry.enqueueWriteBack(key1);
+		registry.enqueueWriteBack(missingKey);
+
+		// Entities that were queued more than once are written back once, and current entities are not written.
+		final List<Key<TestLongEntity>> writtenKeys = registry.flushWriteBack();
+		assertThat(writtenKeys, is((List<Key<TestLongEntity>>) ImmutableList.of(key1)));
+		assertThat(this.loadStored(key1).getTestValue(), is("testValue1-v1-v2"));
+		assertThat(this.loadStored(key1).getSchemaVersion(), is(2));
+		assertThat(this.loadStored(key2).getTestValue(), is("testValue2"));
+		assertThat(this.loadStored(missingKey), is(nullValue()));
+		assertThat(registry.getNumWrittenBack(), is(1L));
+		assertThat(registry.getNumMigrated(), is(0L));
+
+		assertThat(registry.flushWriteBack().isEmpty(), is(true));
+	}
+
+	@Test
+	public void testFlushWriteBack_PreservesConcurrentWrites() throws Exception
+	{
+		final Key<TestLongEntity> key = this.saveEntity("testValue", null);
+		this.registry.enqueueWriteBack(key);
+
+		// Another (older) instance of the application writes the entity without migrating it.
+		final TestLongEntity stored = this.loadStored(key);
+		stored.setTestValue("changed");
+		stored.setVersion(5L);
+		ObjectifyService.factory().begin().save().entity(stored).now();
+
+		assertThat(this.registry.flushWriteBack(), is((List<Key<TestLongEntity>>) ImmutableList.of(key)));
+		assertThat(this.loadStored(key).getTestValue(), is("changed-v1-v2"));
+		assertThat(this.loadStored(key).getVersion(), is(5L));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testFlushWriteBack_InTransaction() throws Exception
+	{
+		ObjectifyService.ofy().transact(new VoidWork()
+		{
+			@Override
+			public void vrun()
+			{
+				registry.flushWriteBack();
+			}
+		});
+	}
+
+	private TestLongEntity newEntity(final String testValue, final Integer schemaVersion)
+	{
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setTestValue(testValue);
+		entity.setSchemaVersion(schemaVersion);
+		return entity;
+	}
+
+	/**
+	 * Saves a {@link TestLongEntity} directly through Objectify, as an older version of the application would have.
+	 */
+	private Key<TestLongEntity> saveEntity(final String testValue, final Integer schemaVersion)
+	{
+		final TestLongEntity entity = this.newEntity(testValue, schemaVersion);
+		ObjectifyService.ofy().save().entity(entity).now();
+		ObjectifyService.ofy().clear();
+		return entity.getTypedKey();
+	}
+
+	/**
+	 * Loads the stored copy of an entity, bypassing the current Objectify session.
+	 */
+	private TestLongEntity loadStored(final Key<TestLongEntity> key)
+	{
+		return ObjectifyService.factory().begin().load().key(key).now();
+	}
+
+	/**
+	 * An {@link EntityMigration} that appends a suffix to {@link TestLongEntity#getTestValue()}.
+	 */
+	public static final class SuffixMigration implements EntityMigration<TestLongEntity>
+	{
+		private final String suffix;
+
+		public SuffixMigration(final String suffix)
+		{
+			this.suffix = suffix;
+		}
+
+		@Override
+		public void migrate(final TestLongEntity entity)
+		{
+			entity.setTestValue(entity.getTestValue() + this.suffix);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package com.sappenin.utils.appengine.data.dao;
+
+import com.google.common.base.Strings;
+import com.googlecode.objectify.ObjectifyService;
+import com.sappenin.utils.appengine.base.GaeTestHarnessInitializationAdapter;
+import com.sappenin.utils.appengine.data.dao.base.TestLongEntity;
+import com.sappenin.utils.appengine.data.dao.exceptions.EntityTooLargeException;
+import com.sappenin.utils.appengine.data.model.base.AbstractObjectifyEntityTest.TestSaveHookEntity;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Unit tests for {@link EntitySizeEstimator}.
+ */
+public class EntitySizeEstimatorTest extends GaeTestHarnessInitializationAdapter
+{
+	@Before
+	public void registerEntities()
+	{
+		ObjectifyService.factory().register(TestLongEntity.class);
+		ObjectifyService.factory().register(TestSaveHookEntity.class);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_AboveDatastoreLimit() throws Exception
+	{
+		new EntitySizeEstimator(EntitySizeEstimator.MAX_ENTITY_BYTES + 1);
+	}
+
+	@Test
+	public void testEstimateBytes() throws Exception
+	{
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setTestValue("x");
+		final int smallBytes = EntitySizeEstimator.DEFAULT.estimateBytes(entity);
+
+		entity.setTestValue(Strings.repeat("x", 5000));
+		assertThat(EntitySizeEstimator.DEFAULT.estimateBytes(entity) > smallBytes + 4900, is(true));
+	}
+
+	@Test(expected = EntityTooLargeException.class)
+	public void testCheckSize_TooLarge() throws Exception
+	{
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setTestValue(Strings.repeat("x", 2000));
+		new EntitySizeEstimator(1000).checkSize(entity);
+	}
+
+	@Test
+	public void testCheckSize_DoesNotRunSaveHooks() throws Exception
+	{
+		final TestSaveHookEntity entity = new TestSaveHookEntity();
+		entity.setId(5L);
+
+		EntitySizeEstimator.DEFAULT.checkSize(entity);
+		EntitySizeEstimator.DEFAULT.estimateBytes(entity);
+		assertThat(entity.getNumSaves(), is(0));
+	}
+}
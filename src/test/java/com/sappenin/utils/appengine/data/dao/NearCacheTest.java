@@ -0,0 +1,115 @@
+package com.sappenin.utils.appengine.data.dao;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.sappenin.utils.appengine.base.GaeTestHarnessInitializationAdapter;
+import com.sappenin.utils.appengine.data.dao.base.TestLongEntity;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Unit tests for {@link NearCache}.
+ */
+public class NearCacheTest extends GaeTestHarnessInitializationAdapter
+{
+	private TestLongEntity entity;
+
+	private Key<TestLongEntity> key;
+
+	@Before
+	public void registerEntities()
+	{
+		ObjectifyService.factory().register(TestLongEntity.class);
+
+		this.entity = new TestLongEntity();
+		this.entity.setId(1L);
+		this.entity.setTestValue("testValue");
+		this.key = this.entity.getTypedKey();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_NonPositiveMaximumSize() throws Exception
+	{
+		new NearCache<TestLongEntity>(0, 60000L, 0L);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_NegativeRevalidateAfterMillis() throws Exception
+	{
+		new NearCache<TestLongEntity>(100, 60000L, -1L);
+	}
+
+	@Test
+	public void testPut_ReturnsCopies() throws Exception
+	{
+		final NearCache<TestLongEntity> cache = new NearCache<>(100, 60000L, 60000L);
+		cache.put(this.key, this.entity, cache.getVersion(this.key));
+
+		cache.getIfPresent(this.key).get().setTestValue("mutated");
+		this.entity.setTestValue("mutated");
+		assertThat(cache.getIfPresent(this.key).get().getTestValue(), is("testValue"));
+		assertThat(cache.stats().hitCount(), is(2L));
+	}
+
+	@Test
+	public void testPut_NoVersion() throws Exception
+	{
+		final NearCache<TestLongEntity> cache = new NearCache<>(100, 60000L, 60000L);
+		cache.put(this.key, this.entity, null);
+
+		assertThat(cache.getIfPresent(this.key).isPresent(), is(false));
+	}
+
+	@Test
+	public void testInvalidateAll() throws Exception
+	{
+		final NearCache<TestLongEntity> cache = new NearCache<>(100, 60000L, 60000L);
+		final Long version = cache.getVersion(this.key);
+		cache.put(this.key, this.entity, version);
+
+		cache.invalidateAll(ImmutableList.of(this.key));
+		assertThat(cache.getIfPresent(this.key).isPresent(), is(false));
+		assertThat(cache.getVersion(this.key), is(version + 1));
+	}
+
+	/**
+	 * Simulates two instances, each with its own near cache, and asserts that an invalidation on one instance is only
+	 * noticed by the other once its entity is due to be revalidated.
+	 */
+	@Test
+	public void testGetIfPresent_RevalidatesAfterInvalidationByOtherInstance() throws Exception
+	{
+		final NearCache<TestLongEntity> writer = new NearCache<>(100, 60000L, 60000L);
+		final NearCache<TestLongEntity> trustingReader = new NearCache<>(100, 60000L, 60000L);
+		final NearCache<TestLongEntity> revalidatingReader = new NearCache<>(100, 60000L, 0L);
+		trustingReader.put(this.key, this.entity, trustingReader.getVersion(this.key));
+		revalidatingReader.put(this.key, this.entity, revalidatingReader.getVersion(this.key));
+		assertThat(revalidatingReader.getIfPresent(this.key).isPresent(), is(true));
+
+		writer.invalidateAll(ImmutableList.of(this.key));
+		assertThat(trustingReader.getIfPresent(this.key).isPresent(), is(true));
+		assertThat(revalidatingReader.getIfPresent(this.key).isPresent(), is(false));
+	}
+
+	/**
+	 * Asserts that a version stamp that is evicted from memcache does not restart at a value that a cached entity still
+	 * matches.
+	 */
+	@Test
+	public void testGetIfPresent_VersionEvicted() throws Exception
+	{
+		final NearCache<TestLongEntity> cache = new NearCache<>(100, 60000L, 0L);
+		final Long version = cache.getVersion(this.key);
+		cache.put(this.key, this.entity, version);
+
+		MemcacheServiceFactory.getMemcacheService().clearAll();
+		assertThat(cache.getIfPresent(this.key).isPresent(), is(false));
+		assertThat(cache.getVersion(this.key), is(not(version)));
+	}
+}
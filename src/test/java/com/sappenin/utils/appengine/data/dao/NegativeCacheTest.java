@@ -0,0 +1,74 @@
+package com.sappenin.utils.appengine.data.dao;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.sappenin.utils.appengine.base.GaeTestHarnessInitializationAdapter;
+import com.sappenin.utils.appengine.data.dao.base.TestLongEntity;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Unit tests for {@link NegativeCache}.
+ */
+public class NegativeCacheTest extends GaeTestHarnessInitializationAdapter
+{
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_NonPositiveMaximumSize() throws Exception
+	{
+		new NegativeCache<TestLongEntity>(0, 60000L);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_NonPositiveExpireAfterWriteMillis() throws Exception
+	{
+		new NegativeCache<TestLongEntity>(100, 0L);
+	}
+
+	@Test
+	public void testPutMissing() throws Exception
+	{
+		final NegativeCache<TestLongEntity> cache = new NegativeCache<>(100, 60000L);
+		final Key<TestLongEntity> key = Key.create(TestLongEntity.class, 1L);
+
+		assertThat(cache.isKnownMissing(key), is(false));
+		cache.putMissing(key, cache.getGeneration(key));
+		assertThat(cache.isKnownMissing(key), is(true));
+
+		cache.invalidateAll(ImmutableList.of(key));
+		assertThat(cache.isKnownMissing(key), is(false));
+		assertThat(cache.stats().hitCount(), is(1L));
+		assertThat(cache.stats().missCount(), is(2L));
+	}
+
+	@Test
+	public void testInvalidateAll_OtherKeysStayMissing() throws Exception
+	{
+		final NegativeCache<TestLongEntity> cache = new NegativeCache<>(100, 60000L);
+		final Key<TestLongEntity> key1 = Key.create(TestLongEntity.class, 1L);
+		final Key<TestLongEntity> key2 = Key.create(TestLongEntity.class, 2L);
+		cache.putMissing(key1, cache.getGeneration(key1));
+		cache.putMissing(key2, cache.getGeneration(key2));
+
+		cache.invalidateAll(ImmutableList.of(key1));
+		assertThat(cache.isKnownMissing(key1), is(false));
+		assertThat(cache.isKnownMissing(key2), is(true));
+	}
+
+	@Test
+	public void testPutMissing_InvalidatedDuringLookup() throws Exception
+	{
+		final NegativeCache<TestLongEntity> cache = new NegativeCache<>(100, 60000L);
+		final Key<TestLongEntity> key = Key.create(TestLongEntity.class, 1L);
+
+		final long generation = cache.getGeneration(key);
+		cache.invalidateAll(ImmutableList.of(key));
+		cache.putMissing(key, generation);
+		assertThat(cache.isKnownMissing(key), is(false));
+
+		// A lookup that started after the write may be cached.
+		cache.putMissing(key, cache.getGeneration(key));
+		assertThat(cache.isKnownMissing(key), is(true));
+	}
+}
@@ -0,0 +1,198 @@
+package com.sappenin.utils.appengine.data.dao;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.sappenin.utils.appengine.data.dao.PageSlicer.PageSlice;
+import com.sappenin.utils.appengine.data.dao.base.AbstractDao;
+import com.sappenin.utils.appengine.data.model.base.AbstractEntity;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Unit tests for {@link PageSlicer}.
+ */
+public class PageSlicerTest
+{
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_NonPositivePageSize() throws Exception
+	{
+		new PageSlicer(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSlice_NegativeFirstResult() throws Exception
+	{
+		PageSlicer.DEFAULT.slice(10, -1, 5);
+	}
+
+	@Test
+	public void testSlice_Empty() throws Exception
+	{
+		final PageSlicer slicer = new PageSlicer(10);
+
+		assertThat(slicer.slice(0, 0, 10).isEmpty(), is(true));
+		assertThat(slicer.slice(25, 0, 0).isEmpty(), is(true));
+		assertThat(slicer.slice(25, 25, 10).isEmpty(), is(true));
+		assertThat(slicer.slice(25, 30, 10).isEmpty(), is(true));
+	}
+
+	@Test
+	public void testSlice_ManyPages() throws Exception
+	{
+		final PageSlicer slicer = new PageSlicer(10);
+
+		assertThat(slicer.slice(100, 5, 40), is((List<PageSlice>) ImmutableList
+				.of(new PageSlice(0, 5, 10), new PageSlice(1, 0, 10), new PageSlice(2, 0, 10), new PageSlice(3, 0, 10),
+						new PageSlice(4, 0, 5))));
+		assertThat(slicer.slice(100, 20, 20),
+				is((List<PageSlice>) ImmutableList.of(new PageSlice(2, 0, 10), new PageSlice(3, 0, 10))));
+	}
+
+	@Test
+	public void testSlice_TruncatedAtEndOfCollection() throws Exception
+	{
+		final PageSlicer slicer = new PageSlicer(10);
+
+		assertThat(slicer.slice(23, 15, 100),
+				is((List<PageSlice>) ImmutableList.of(new PageSlice(1, 5, 10), new PageSlice(2, 0, 3))));
+		assertThat(slicer.slice(Integer.MAX_VALUE, Integer.MAX_VALUE - 1, Integer.MAX_VALUE).size(), is(1));
+	}
+
+	@Test
+	public void testView() throws Exception
+	{
+		final PageSlicer slicer = new PageSlicer(3);
+		final List<String> page1 = Lists.newArrayList("d", "e", "f");
+		final List<String> page2 = Lists.newArrayList("g", "h", "i");
+		final List<String> page3 = Lists.newArrayList("j");
+
+		final List<String> view = slicer.view(slicer.slice(10, 4, 100),
+				ImmutableMap.of(1, page1, 2, page2, 3, page3));
+		assertThat(view, is((List<String>) ImmutableList.of("e", "f", "g", "h", "i", "j")));
+
+		// The view is backed by the pages rather than a copy of them.
+		page2.set(0, "G");
+		assertThat(view.get(2), is("G"));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testView_ReadOnly() throws Exception
+	{
+		final PageSlicer slicer = new PageSlicer(3);
+		final Map<Integer, List<String>> pages = ImmutableMap.<Integer, List<String>>of(0,
+				Lists.newArrayList("a", "b", "c"));
+
+		slicer.view(slicer.slice(3, 0, 3), pages).set(0, "z");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testView_MissingPage() throws Exception
+	{
+		final PageSlicer slicer = new PageSlicer(3);
+		final Map<Integer, List<String>> pages = ImmutableMap.<Integer, List<String>>of(0,
+				Lists.newArrayList("a", "b", "c"));
+
+		slicer.view(slicer.slice(6, 1, 4), pages);
+	}
+
+	/**
+	 * Checks the slicer against the deprecated {@link AbstractDao} algorithm for random windows of up to 5000 entries
+	 * that lie within a collection, which is the domain in which that algorithm was defined.
+	 */
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testSlice_MatchesDeprecatedPageIndices() throws Exception
+	{
+		final PageIndicesDao dao = new PageIndicesDao();
+		final Random random = new Random(8675309L);
+
+		for (int i = 0; i < 20000; i++)
+		{
+			final int numTotalEntries = random.nextInt(40000);
+			final int firstResult = random.nextInt(numTotalEntries + 1);
+			// Favor windows that end exactly on (or next to) a page boundary, which are the interesting cases.
+			final int maxResults;
+			if (random.nextBoolean())
+			{
+				maxResults = random.nextInt(Math.min(5000, numTotalEntries - firstResult) + 1);
+			}
+			else
+			{
+				final int boundary = ((firstResult / 5000) + 1) * 5000 + random.nextInt(3) - 1;
+				maxResults = Math.max(0, Math.min(Math.min(5000, numTotalEntries - firstResult), boundary - firstResult));
+			}
+
+			final List<PageSlice> expected = toSlices(dao.determinePageIndices(numTotalEntries, firstResult, maxResults));
+			assertThat(String.format("total=%s, first=%s, max=%s", numTotalEntries, firstResult, maxResults),
+					PageSlicer.DEFAULT.slice(numTotalEntries, firstResult, maxResults), is(expected));
+		}
+	}
+
+	//////////////////
+	// Private Helpers
+	//////////////////
+
+	/**
+	 * Converts the deprecated representation of a window into a List of its non-empty slices.
+	 */
+	@SuppressWarnings("deprecation")
+	private List<PageSlice> toSlices(final AbstractDao<?>.PageIndices pageIndices)
+	{
+		final List<PageSlice> slices = Lists.newArrayList();
+		if (pageIndices.getFirstPage() < 0)
+		{
+			return slices;
+		}
+
+		final PageSlice first = new PageSlice(pageIndices.getFirstPage(), pageIndices.getFirstPageStartIdx(),
+				pageIndices.getFirstPageEndIdx());
+		if (first.size() > 0)
+		{
+			slices.add(first);
+		}
+		if (pageIndices.getSecondPage() != pageIndices.getFirstPage())
+		{
+			final PageSlice second = new PageSlice(pageIndices.getSecondPage(), pageIndices.getSecondPageStartIdx(),
+					pageIndices.getSecondPageEndIdx());
+			if (second.size() > 0)
+			{
+				slices.add(second);
+			}
+		}
+		return slices;
+	}
+
+	/**
+	 * Exposes {@link AbstractDao#determinePageIndices} to this test.
+	 */
+	private static class PageIndicesDao extends AbstractDao<AbstractEntity>
+	{
+		@Override
+		@SuppressWarnings("deprecation")
+		public PageIndices determinePageIndices(final int iNumTotalEntries, final int iFirstResult,
+				final int iMaxResults)
+		{
+			return super.determinePageIndices(iNumTotalEntries, iFirstResult, iMaxResults);
+		}
+
+		@Override
+		public void save(final AbstractEntity entity)
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void save(final AbstractEntity entity, final boolean touchUpdateDateTime)
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+
+}
@@ -0,0 +1,54 @@
+package com.sappenin.utils.appengine.data.dao;
+
+import com.sappenin.utils.appengine.data.dao.PagingPolicy.LookaheadMode;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Unit tests for {@link PagingPolicy}.
+ */
+public class PagingPolicyTest
+{
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_NonPositiveDefault() throws Exception
+	{
+		new PagingPolicy(0, 50, LookaheadMode.EXTRA_ENTITY);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_MaxLessThanDefault() throws Exception
+	{
+		new PagingPolicy(10, 9, LookaheadMode.EXTRA_ENTITY);
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testConstructor_NullLookaheadMode() throws Exception
+	{
+		new PagingPolicy(10, 50, null);
+	}
+
+	@Test
+	public void testAdjustLimit() throws Exception
+	{
+		final PagingPolicy pagingPolicy = new PagingPolicy(20, 500, LookaheadMode.KEYS_ONLY_PROBE);
+
+		assertThat(pagingPolicy.adjustLimit(-1), is(20));
+		assertThat(pagingPolicy.adjustLimit(0), is(20));
+		assertThat(pagingPolicy.adjustLimit(1), is(1));
+		assertThat(pagingPolicy.adjustLimit(499), is(499));
+		assertThat(pagingPolicy.adjustLimit(500), is(500));
+		assertThat(pagingPolicy.adjustLimit(501), is(500));
+		assertThat(pagingPolicy.adjustLimit(Integer.MAX_VALUE), is(500));
+	}
+
+	@Test
+	public void testDefault() throws Exception
+	{
+		assertThat(PagingPolicy.DEFAULT.getDefaultLimit(), is(10));
+		assertThat(PagingPolicy.DEFAULT.getMaxLimit(), is(50));
+		assertThat(PagingPolicy.DEFAULT.getLookaheadMode(), is(LookaheadMode.EXTRA_ENTITY));
+	}
+
+}
@@ -0,0 +1,94 @@
+package com.sappenin.utils.appengine.data.dao;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.util.ResultCache;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Unit tests for {@link Results}.
+ */
+public class ResultsTest
+{
+	@Test(expected = NullPointerException.class)
+	public void testTransform_NullResult() throws Exception
+	{
+		Results.transform(null, new Function<Object, Object>()
+		{
+			@Override
+			public Object apply(final Object input)
+			{
+				return input;
+			}
+		});
+	}
+
+	@Test
+	public void testTransform() throws Exception
+	{
+		final CountingResult<Integer> input = new CountingResult<>(2);
+		final Result<String> transformed = Results.transform(input, new Function<Integer, String>()
+		{
+			@Override
+			public String apply(final Integer value)
+			{
+				return "value" + value;
+			}
+		});
+
+		// Nothing should be resolved until #now is called.
+		assertThat(input.numResolutions, is(0));
+		assertThat(transformed.now(), is("value2"));
+		assertThat(transformed.now(), is("value2"));
+		assertThat(input.numResolutions, is(1));
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testAllAsList_NullInput() throws Exception
+	{
+		Results.allAsList(null);
+	}
+
+	@Test
+	public void testAllAsList() throws Exception
+	{
+		final CountingResult<Integer> first = new CountingResult<>(1);
+		final CountingResult<Integer> second = new CountingResult<>(2);
+		final Result<List<Integer>> joined = Results.allAsList(ImmutableList.of(first, second,
+				Results.immediate(3)));
+
+		assertThat(first.numResolutions, is(0));
+		assertThat(joined.now(), is((List<Integer>) ImmutableList.of(1, 2, 3)));
+		assertThat(joined.now(), is((List<Integer>) ImmutableList.of(1, 2, 3)));
+		assertThat(first.numResolutions, is(1));
+		assertThat(second.numResolutions, is(1));
+	}
+
+	/**
+	 * A {@link Result} that counts the number of times it has been resolved.
+	 */
+	private static class CountingResult<T> extends ResultCache<T>
+	{
+		private final T value;
+
+		private int numResolutions;
+
+		private CountingResult(final T value)
+		{
+			this.value = value;
+		}
+
+		@Override
+		protected T nowUncached()
+		{
+			numResolutions++;
+			return value;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.sappenin.utils.appengine.data.dao;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Unit tests for {@link TransactionRetryPolicy}.
+ */
+public class TransactionRetryPolicyTest
+{
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_NonPositiveMaxAttempts() throws Exception
+	{
+		new TransactionRetryPolicy(0, 20L, 1000L, 0L);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_MaxBackoffLessThanInitial() throws Exception
+	{
+		new TransactionRetryPolicy(5, 20L, 19L, 0L);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_NegativeDeadlineReserve() throws Exception
+	{
+		new TransactionRetryPolicy(5, 20L, 1000L, -1L);
+	}
+
+	@Test
+	public void testComputeBackoffMillis() throws Exception
+	{
+		final TransactionRetryPolicy retryPolicy = new TransactionRetryPolicy(10, 20L, 100L, 0L);
+
+		assertThat(retryPolicy.computeBackoffMillis(1, 0.0), is(0L));
+		assertThat(retryPolicy.computeBackoffMillis(1, 0.5), is(10L));
+		assertThat(retryPolicy.computeBackoffMillis(2, 0.5), is(20L));
+		assertThat(retryPolicy.computeBackoffMillis(3, 0.5), is(40L));
+		// The bound is capped at maxBackoffMillis, and never overflows.
+		assertThat(retryPolicy.computeBackoffMillis(4, 0.5), is(50L));
+		assertThat(retryPolicy.computeBackoffMillis(Integer.MAX_VALUE, 0.5), is(50L));
+		assertThat(retryPolicy.computeBackoffMillis(Integer.MAX_VALUE, 0.999), is(99L));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testComputeBackoffMillis_InvalidRandomFraction() throws Exception
+	{
+		TransactionRetryPolicy.DEFAULT.computeBackoffMillis(1, 1.0);
+	}
+
+	@Test
+	public void testShouldRetry() throws Exception
+	{
+		final TransactionRetryPolicy retryPolicy = new TransactionRetryPolicy(3, 20L, 100L, 1000L);
+
+		assertThat(retryPolicy.shouldRetry(1, 50L, Long.MAX_VALUE), is(true));
+		assertThat(retryPolicy.shouldRetry(2, 50L, Long.MAX_VALUE), is(true));
+		assertThat(retryPolicy.shouldRetry(3, 50L, Long.MAX_VALUE), is(false));
+
+		// Retries must leave the deadline reserve intact after backing off.
+		assertThat(retryPolicy.shouldRetry(1, 50L, 1050L), is(true));
+		assertThat(retryPolicy.shouldRetry(1, 50L, 1049L), is(false));
+	}
+
+	@Test
+	public void testDefault() throws Exception
+	{
+		assertThat(TransactionRetryPolicy.DEFAULT.getMaxAttempts(), is(10));
+		assertThat(TransactionRetryPolicy.DEFAULT.getInitialBackoffMillis(), is(20L));
+		assertThat(TransactionRetryPolicy.DEFAULT.getMaxBackoffMillis(), is(1000L));
+		assertThat(TransactionRetryPolicy.DEFAULT.getDeadlineReserveMillis(), is(2000L));
+	}
+
+}
@@ -0,0 +1,159 @@
+package com.sappenin.utils.appengine.data.dao;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.sappenin.utils.appengine.base.GaeTestHarnessInitializationAdapter;
+import com.sappenin.utils.appengine.data.dao.base.TestLongEntity;
+import com.sappenin.utils.appengine.data.dao.exceptions.WriteBehindException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link WriteBehindBuffer}.
+ */
+public class WriteBehindBufferTest extends GaeTestHarnessInitializationAdapter
+{
+	private final List<Key<?>> flushedKeys = Lists.newArrayList();
+
+	private final WriteBehindBuffer.FlushListener flushListener = new WriteBehindBuffer.FlushListener()
+	{
+		@Override
+		public void onFlushed(final List<Key<?>> keys)
+		{
+			flushedKeys.addAll(keys);
+		}
+	};
+
+	@Before
+	public void registerEntities()
+	{
+		ObjectifyService.factory().register(TestLongEntity.class);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testBegin_AlreadyActive() throws Exception
+	{
+		final WriteBehindBuffer buffer = WriteBehindBuffer.begin();
+		try
+		{
+			WriteBehindBuffer.begin();
+		}
+		finally
+		{
+			buffer.close();
+		}
+	}
+
+	@Test
+	public void testEnqueue_CoalescesUntilClose() throws Exception
+	{
+		final TestLongEntity entity = this.newEntity(12345L, "testValue1");
+		final TestLongEntity laterEntity = this.newEntity(12345L, "testValue2");
+
+		final WriteBehindBuffer buffer = WriteBehindBuffer.begin();
+		try
+		{
+			assertThat(WriteBehindBuffer.current().get(), is(buffer));
+			buffer.enqueue(entity.getTypedKey(), entity, this.flushListener);
+			buffer.enqueue(laterEntity.getTypedKey(), laterEntity, this.flushListener);
+			assertThat(buffer.size(), is(1));
+			assertThat(buffer.getNumCoalescedWrites(), is(1L));
+			assertThat(buffer.getPending(entity.getTypedKey()).get(), is(laterEntity));
+			assertThat(this.loadStored(entity.getTypedKey()), is(nullValue()));
+		}
+		finally
+		{
+			buffer.close();
+		}
+
+		assertThat(WriteBehindBuffer.current().isPresent(), is(false));
+		assertThat(this.loadStored(entity.getTypedKey()).getTestValue(), is("testValue2"));
+		assertThat(this.flushedKeys, is((List<Key<?>>) ImmutableList.<Key<?>>of(entity.getTypedKey())));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testEnqueue_AfterClose() throws Exception
+	{
+		final TestLongEntity entity = this.newEntity(12345L, "testValue");
+		final WriteBehindBuffer buffer = WriteBehindBuffer.begin();
+		buffer.close();
+
+		buffer.enqueue(entity.getTypedKey(), entity, this.flushListener);
+	}
+
+	@Test
+	public void testRunOnClose() throws Exception
+	{
+		final TestLongEntity entity = this.newEntity(12345L, "testValue");
+		final List<Boolean> flushedBeforeAction = Lists.newArrayList();
+		final Runnable action = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				flushedBeforeAction.add(loadStored(entity.getTypedKey()) != null);
+			}
+		};
+
+		final WriteBehindBuffer buffer = WriteBehindBuffer.begin();
+		buffer.enqueue(entity.getTypedKey(), entity, this.flushListener);
+		buffer.runOnClose(action);
+		buffer.runOnClose(action);
+		assertThat(flushedBeforeAction.isEmpty(), is(true));
+
+		buffer.close();
+		assertThat(flushedBeforeAction, is((List<Boolean>) ImmutableList.of(true)));
+	}
+
+	@Test
+	public void testFlush_Failure() throws Exception
+	{
+		final TestLongEntity entity = this.newEntity(12345L, "testValue");
+		final Key<Object> unregisteredKey = Key.<Object>create(TestLongEntity.class, 12346L);
+
+		final WriteBehindBuffer buffer = WriteBehindBuffer.begin();
+		try
+		{
+			buffer.enqueue(entity.getTypedKey(), entity, this.flushListener);
+			// An instance of an unregistered class cannot be written.
+			buffer.enqueue(unregisteredKey, new Object(), this.flushListener);
+			buffer.flush();
+			fail("Expected a WriteBehindException!");
+		}
+		catch (WriteBehindException e)
+		{
+			assertThat(e.getFailedKeys().contains(unregisteredKey), is(true));
+			assertThat(this.flushedKeys.contains(unregisteredKey), is(true));
+			assertThat(buffer.size(), is(0));
+		}
+		finally
+		{
+			buffer.close();
+		}
+	}
+
+	private TestLongEntity newEntity(final Long id, final String testValue)
+	{
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setId(id);
+		entity.setTestValue(testValue);
+		return entity;
+	}
+
+	/**
+	 * Loads the stored copy of an entity, bypassing the current Objectify session.
+	 */
+	private TestLongEntity loadStored(final Key<TestLongEntity> key)
+	{
+		return ObjectifyService.factory().begin().load().key(key).now();
+	}
+}
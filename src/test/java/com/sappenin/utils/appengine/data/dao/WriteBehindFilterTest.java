@@ -0,0 +1,89 @@
+package com.sappenin.utils.appengine.data.dao;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.sappenin.utils.appengine.base.GaeTestHarnessInitializationAdapter;
+import com.sappenin.utils.appengine.data.dao.base.TestLongEntity;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link WriteBehindFilter}.
+ */
+public class WriteBehindFilterTest extends GaeTestHarnessInitializationAdapter
+{
+	private final WriteBehindBuffer.FlushListener flushListener = new WriteBehindBuffer.FlushListener()
+	{
+		@Override
+		public void onFlushed(final List<Key<?>> keys)
+		{
+		}
+	};
+
+	@Before
+	public void registerEntities()
+	{
+		ObjectifyService.factory().register(TestLongEntity.class);
+	}
+
+	@Test
+	public void testDoFilter() throws Exception
+	{
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setId(12345L);
+
+		new WriteBehindFilter().doFilter(null, null, new FilterChain()
+		{
+			@Override
+			public void doFilter(final ServletRequest request, final ServletResponse response)
+			{
+				final WriteBehindBuffer buffer = WriteBehindBuffer.current().get();
+				buffer.enqueue(entity.getTypedKey(), entity, flushListener);
+				assertThat(buffer.size(), is(1));
+			}
+		});
+
+		assertThat(WriteBehindBuffer.current().isPresent(), is(false));
+		assertThat(ObjectifyService.factory().begin().load().key(entity.getTypedKey()).now(), is(notNullValue()));
+	}
+
+	@Test
+	public void testDoFilter_ChainFailureStillFlushes() throws Exception
+	{
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setId(12345L);
+
+		try
+		{
+			new WriteBehindFilter().doFilter(null, null, new FilterChain()
+			{
+				@Override
+				public void doFilter(final ServletRequest request, final ServletResponse response)
+				{
+					WriteBehindBuffer.current().get().enqueue(entity.getTypedKey(), entity, flushListener);
+					throw new IllegalStateException("Expected failure");
+				}
+			});
+			fail("Expected an IllegalStateException!");
+		}
+		catch (IllegalStateException e)
+		{
+			assertThat(e.getMessage(), is("Expected failure"));
+			assertThat(e.getSuppressed().length, is(0));
+		}
+
+		assertThat(WriteBehindBuffer.current().isPresent(), is(false));
+		assertThat(ObjectifyService.factory().begin().load().key(entity.getTypedKey()).now(), is(notNullValue()));
+	}
+}
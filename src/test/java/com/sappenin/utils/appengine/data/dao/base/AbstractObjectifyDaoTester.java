@@ -2,17 +2,28 @@ package com.sappenin.utils.appengine.data.dao.base;
 
 import com.google.appengine.api.datastore.Cursor;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Result;
 import com.googlecode.objectify.cmd.Query;
 import com.sappenin.utils.appengine.base.GaeTestHarnessInitializationAdapter;
 import com.sappenin.utils.appengine.data.dao.Dao;
 import com.sappenin.utils.appengine.data.dao.ObjectifyDao;
+import com.sappenin.utils.appengine.data.dao.Results;
+import com.sappenin.utils.appengine.data.dao.exceptions.MissingEntitiesException;
+import com.sappenin.utils.appengine.data.model.BatchLoadResult;
 import com.sappenin.utils.appengine.data.model.base.AbstractEntity;
 import com.sappenin.utils.appengine.data.model.base.AbstractObjectifyEntity;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsNull.notNullValue;
@@ -107,6 +118,88 @@ public abstract class AbstractObjectifyDaoTester<T extends AbstractObjectifyEnti
 		this.getDao().save(fullyPopulatedEntity);
 	}
 
+	/////////////////////////////
+	// SaveAll
+	/////////////////////////////
+
+	@Test(expected = NullPointerException.class)
+	public void TestSaveAll_NullInput()
+	{
+		this.getObjectifyDao().saveAll(null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void TestSaveAll_NoKey()
+	{
+		this.getObjectifyDao().saveAll(Lists.newArrayList(getEmptyTestEntityWithNoKey()));
+	}
+
+	@Test
+	public void TestSaveAll_Missing()
+	{
+		final T existingEntity = this.getExistingEntityFromDatastore();
+		final T missingEntity1 = this.getExistingEntityFromDatastore();
+		final T missingEntity2 = this.getExistingEntityFromDatastore();
+		ObjectifyService.ofy().delete().entities(missingEntity1, missingEntity2).now();
+
+		try
+		{
+			this.getObjectifyDao().saveAll(Lists.newArrayList(existingEntity, missingEntity1, missingEntity2));
+			fail("A MissingEntitiesException should have been thrown!");
+		}
+		catch (MissingEntitiesException e)
+		{
+			assertThat(e.getMissingKeys(), is((Set<Key<?>>) ImmutableSet.<Key<?>>of(missingEntity1.getTypedKey(),
+					missingEntity2.getTypedKey())));
+		}
+	}
+
+	@Test
+	public void TestSaveAll_SingleTransaction()
+	{
+		final List<T> entities = Lists.newArrayList();
+		for (int i = 0; i < 3; i++)
+		{
+			final T entity = this.getExistingEntityFromDatastore();
+			this.changeSomethingMinorOnSuppliedEntity(entity);
+			entities.add(entity);
+		}
+		final AbstractObjectifyDao<T> impl = (AbstractObjectifyDao) this.getDao();
+		assertThat(impl.countEntityGroups(entities) <= AbstractObjectifyDao.MAX_ENTITY_GROUPS_PER_TRANSACTION,
+				is(true));
+
+		this.getObjectifyDao().saveAll(entities, true);
+
+		for (final T entity : entities)
+		{
+			this.assertThatLoadedEntityWasUpdatedProperly(
+					this.getObjectifyDao().findByTypedKeySafe(entity.getTypedKey()));
+		}
+	}
+
+	@Test
+	public void TestSaveAll_TooManyEntityGroupsForTransaction()
+	{
+		final List<T> entities = Lists.newArrayList();
+		for (int i = 0; i <= AbstractObjectifyDao.MAX_ENTITY_GROUPS_PER_TRANSACTION; i++)
+		{
+			final T entity = this.getExistingEntityFromDatastore();
+			this.changeSomethingMinorOnSuppliedEntity(entity);
+			entities.add(entity);
+		}
+		final AbstractObjectifyDao<T> impl = (AbstractObjectifyDao) this.getDao();
+		assertThat(impl.countEntityGroups(entities) > AbstractObjectifyDao.MAX_ENTITY_GROUPS_PER_TRANSACTION,
+				is(true));
+
+		this.getObjectifyDao().saveAll(entities);
+
+		for (final T entity : entities)
+		{
+			this.assertThatLoadedEntityWasUpdatedProperly(
+					this.getObjectifyDao().findByTypedKeySafe(entity.getTypedKey()));
+		}
+	}
+
 	/**
 	 * Ensure that the Key of the Entity retrieved from the Datastore matches the Key of the Entity that was put there.
 	 */
@@ -128,6 +221,121 @@ public abstract class AbstractObjectifyDaoTester<T extends AbstractObjectifyEnti
 		assertEquals(entity, entityLoadedFromDataStore);
 	}
 
+	/**
+	 * Issue several asynchronous lookups at once, and then join them.
+	 */
+	@Test
+	public void TestFindByTypedKeyAsync()
+	{
+		final T entity1 = this.getExistingEntityFromDatastore();
+		final T entity2 = this.getExistingEntityFromDatastore();
+		final T missingEntity = this.getExistingEntityFromDatastore();
+		ObjectifyService.ofy().delete().entity(missingEntity).now();
+
+		final List<Result<Optional<T>>> pendingLookups = Lists.newArrayList();
+		pendingLookups.add(this.getObjectifyDao().findByTypedKeyAsync(entity1.getTypedKey()));
+		pendingLookups.add(this.getObjectifyDao().findByTypedKeyAsync(entity2.getTypedKey()));
+		pendingLookups.add(this.getObjectifyDao().findByTypedKeyAsync(missingEntity.getTypedKey()));
+
+		final List<Optional<T>> lookups = Results.allAsList(pendingLookups).now();
+		assertThat(lookups.size(), is(3));
+		assertThat(lookups.get(0).get().getTypedKey(), is(entity1.getTypedKey()));
+		assertThat(lookups.get(1).get().getTypedKey(), is(entity2.getTypedKey()));
+		assertThat(lookups.get(2).isPresent(), is(false));
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void TestFindByTypedKeys_NullInput()
+	{
+		this.getObjectifyDao().findByTypedKeys(null);
+	}
+
+	@Test
+	public void TestFindByTypedKeys_Empty()
+	{
+		final BatchLoadResult<T> result = this.getObjectifyDao().findByTypedKeys(Lists.<Key<T>>newArrayList());
+		assertThat(result.getFound().isEmpty(), is(true));
+		assertThat(result.getMissingKeys().isEmpty(), is(true));
+	}
+
+	@Test
+	public void TestFindByTypedKeys()
+	{
+		final T entity1 = this.getExistingEntityFromDatastore();
+		final T entity2 = this.getExistingEntityFromDatastore();
+		final T missingEntity = this.getExistingEntityFromDatastore();
+		ObjectifyService.ofy().delete().entity(missingEntity).now();
+
+		final BatchLoadResult<T> result = this.getObjectifyDao().findByTypedKeys(Lists
+				.newArrayList(entity2.getTypedKey(), missingEntity.getTypedKey(), entity1.getTypedKey(),
+						entity2.getTypedKey()));
+
+		assertThat(Lists.newArrayList(result.getFound().keySet()),
+				is((List<Key<T>>) Lists.newArrayList(entity2.getTypedKey(), entity1.getTypedKey())));
+		assertThat(result.getFound().get(entity1.getTypedKey()).getTypedKey(), is(entity1.getTypedKey()));
+		assertThat(result.getMissingKeys(), is((Set<Key<T>>) ImmutableSet.of(missingEntity.getTypedKey())));
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void TestExistsInDatastoreAsync_NullInput()
+	{
+		this.getObjectifyDao().existsInDatastoreAsync(null);
+	}
+
+	@Test
+	public void TestExistsInDatastoreAsync()
+	{
+		final T entity = this.getExistingEntityFromDatastore();
+		final T missingEntity = this.getExistingEntityFromDatastore();
+		ObjectifyService.ofy().delete().entity(missingEntity).now();
+
+		final Result<Boolean> exists = this.getObjectifyDao().existsInDatastoreAsync(entity.getTypedKey());
+		final Result<Boolean> missing = this.getObjectifyDao().existsInDatastoreAsync(missingEntity.getTypedKey());
+
+		assertThat(exists.now(), is(true));
+		assertThat(missing.now(), is(false));
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void TestExistsInDatastore_Collection_NullInput()
+	{
+		this.getObjectifyDao().existsInDatastore((Collection<Key<T>>) null);
+	}
+
+	@Test
+	public void TestExistsInDatastore_Collection()
+	{
+		final T entity1 = this.getExistingEntityFromDatastore();
+		final T entity2 = this.getExistingEntityFromDatastore();
+		final T missingEntity = this.getExistingEntityFromDatastore();
+		ObjectifyService.ofy().delete().entity(missingEntity).now();
+
+		final Set<Key<T>> existingKeys = this.getObjectifyDao().existsInDatastore(Lists
+				.newArrayList(entity2.getTypedKey(), missingEntity.getTypedKey(), entity1.getTypedKey()));
+		assertThat(Lists.newArrayList(existingKeys),
+				is((List<Key<T>>) Lists.newArrayList(entity2.getTypedKey(), entity1.getTypedKey())));
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void TestExistsInDatastoreConsistent_Collection_NullInput()
+	{
+		this.getObjectifyDao().existsInDatastoreConsistent((Collection<Key<T>>) null);
+	}
+
+	@Test
+	public void TestExistsInDatastoreConsistent_Collection()
+	{
+		final T entity1 = this.getExistingEntityFromDatastore();
+		final T entity2 = this.getExistingEntityFromDatastore();
+		final T missingEntity = this.getExistingEntityFromDatastore();
+		ObjectifyService.ofy().delete().entity(missingEntity).now();
+
+		final Set<Key<T>> existingKeys = this.getObjectifyDao().existsInDatastoreConsistent(Lists
+				.newArrayList(entity1.getTypedKey(), missingEntity.getTypedKey(), entity2.getTypedKey()));
+		assertThat(Lists.newArrayList(existingKeys),
+				is((List<Key<T>>) Lists.newArrayList(entity1.getTypedKey(), entity2.getTypedKey())));
+	}
+
 	@Test
 	public void TestGetDAO()
 	{
@@ -174,6 +382,8 @@ public abstract class AbstractObjectifyDaoTester<T extends AbstractObjectifyEnti
 		assertThat(impl.adjustLimit(5), is(5));
 		assertThat(impl.adjustLimit(10), is(10));
 		assertThat(impl.adjustLimit(15), is(15));
+		assertThat(impl.adjustLimit(50), is(50));
+		assertThat(impl.adjustLimit(51), is(50));
 	}
 
 	// #MassageQuery
@@ -189,6 +399,16 @@ public abstract class AbstractObjectifyDaoTester<T extends AbstractObjectifyEnti
 	// ABSTRACT FUNCTIONS
 	// //////////////////////////////////////////////////////////
 
+	/**
+	 * Returns the {@link Dao} for this tester as an {@link ObjectifyDao}.
+	 *
+	 * @return An instance of {@link ObjectifyDao} of type {@link T}.
+	 */
+	protected ObjectifyDao<T> getObjectifyDao()
+	{
+		return (ObjectifyDao<T>) this.getDao();
+	}
+
 	/**
 	 * Returns the {@link Dao} for this AbstractObjectifyLongDao Testor.
 	 *
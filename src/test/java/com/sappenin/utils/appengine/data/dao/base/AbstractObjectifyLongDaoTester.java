@@ -2,26 +2,61 @@ package com.sappenin.utils.appengine.data.dao.base;
 
 import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.apphosting.api.ApiProxy;
 import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
 import com.googlecode.objectify.cmd.Query;
 import com.googlecode.objectify.impl.translate.opt.joda.DateTimeZoneTranslatorFactory;
 import com.googlecode.objectify.impl.translate.opt.joda.ReadableInstantTranslatorFactory;
+import com.sappenin.utils.appengine.data.dao.DeleteProgressListener;
+import com.sappenin.utils.appengine.data.dao.EntityMigrationRegistry;
+import com.sappenin.utils.appengine.data.dao.EntityMigrationRegistryTest.SuffixMigration;
+import com.sappenin.utils.appengine.data.dao.EntitySizeEstimator;
+import com.sappenin.utils.appengine.data.dao.NearCache;
+import com.sappenin.utils.appengine.data.dao.NegativeCache;
 import com.sappenin.utils.appengine.data.dao.ObjectifyLongDao;
+import com.sappenin.utils.appengine.data.dao.PagingPolicy;
+import com.sappenin.utils.appengine.data.dao.PagingPolicy.LookaheadMode;
+import com.sappenin.utils.appengine.data.dao.ParallelQueryScan;
+import com.sappenin.utils.appengine.data.dao.PrefetchingQueryIterator;
+import com.sappenin.utils.appengine.data.dao.TransactionMetrics;
+import com.sappenin.utils.appengine.data.dao.TransactionRetryPolicy;
+import com.sappenin.utils.appengine.data.dao.WriteBehindBuffer;
 import com.sappenin.utils.appengine.data.dao.base.TestLongEntityTestLong.TestLongEntityDao;
+import com.sappenin.utils.appengine.data.dao.exceptions.EntityTooLargeException;
+import com.sappenin.utils.appengine.data.dao.exceptions.MissingEntitiesException;
+import com.sappenin.utils.appengine.data.dao.exceptions.VersionConflictException;
+import com.sappenin.utils.appengine.data.model.BatchLoadResult;
+import com.sappenin.utils.appengine.data.model.DeleteResult;
 import com.sappenin.utils.appengine.data.model.GaeTypedEntity;
 import com.sappenin.utils.appengine.data.model.ResultWithCursor;
 import com.sappenin.utils.appengine.data.model.base.AbstractObjectifyLongEntity;
 import org.hamcrest.core.Is;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils.MillisProvider;
+import org.joda.time.DateTimeZone;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Mockito;
 
+import java.util.ConcurrentModificationException;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.fail;
 
 /**
  * Provides common functionality for base DAO's, such as create, update, and delete functions.
@@ -106,6 +141,84 @@ public abstract class AbstractObjectifyLongDaoTester<T extends AbstractObjectify
 		this.doFullEntityAssertions(loadedEntity);
 	}
 
+	/////////////////////////////
+	// CreateAll
+	/////////////////////////////
+
+	@Test(expected = NullPointerException.class)
+	public void TestCreateAll_NullInput()
+	{
+		this.getDao().createAll(null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void TestCreateAll_ExistingKey()
+	{
+		final T entity = getEmptyTestEntityWithNoKey();
+		this.getDao().create(entity);
+		this.getDao().createAll(Lists.newArrayList(entity));
+	}
+
+	@Test
+	public void TestCreateAll_Empty()
+	{
+		final List<Key<T>> keys = this.getDao().createAll(Lists.<T>newArrayList());
+		assertThat(keys.isEmpty(), is(true));
+	}
+
+	/**
+	 * Creates more entities than fit into a single batch put, and asserts that every entity was assigned a unique id
+	 * and that the returned keys are in input order.
+	 */
+	@Test
+	public void TestCreateAll()
+	{
+		final List<T> entities = Lists.newArrayList();
+		for (int i = 0; i < AbstractObjectifyDao.MAX_ENTITIES_PER_BATCH_PUT + 10; i++)
+		{
+			entities.add(this.getFullyPopulatedEntity());
+		}
+
+		final List<Key<T>> keys = this.getDao().createAll(entities);
+
+		assertThat(keys.size(), is(entities.size()));
+		assertThat(Sets.newHashSet(keys).size(), is(entities.size()));
+		for (int i = 0; i < entities.size(); i++)
+		{
+			assertThat(keys.get(i), is(entities.get(i).getTypedKey()));
+		}
+		assertThat(this.getDao().existsInDatastoreConsistent(keys.get(0)), is(true));
+		assertThat(this.getDao().existsInDatastoreConsistent(keys.get(keys.size() - 1)), is(true));
+	}
+
+	/////////////////////////////
+	// FindByTypedKeys
+	/////////////////////////////
+
+	/**
+	 * Looks up more keys than fit into a single batch get, and asserts that the chunked results are re-assembled in
+	 * input order.
+	 */
+	@Test
+	public void TestFindByTypedKeys_MultipleChunks()
+	{
+		final List<T> entities = Lists.newArrayList();
+		for (int i = 0; i < AbstractObjectifyDao.MAX_KEYS_PER_BATCH_GET + 10; i++)
+		{
+			entities.add(this.getEmptyTestEntityWithNoKey());
+		}
+		final List<Key<T>> keys = Lists.reverse(this.getDao().createAll(entities));
+
+		final T missingEntity = getEmptyTestEntityWithNoKey();
+		missingEntity.setId(Long.MAX_VALUE);
+		final List<Key<T>> requestedKeys = Lists.newArrayList(keys);
+		requestedKeys.add(AbstractObjectifyDao.MAX_KEYS_PER_BATCH_GET, missingEntity.getTypedKey());
+
+		final BatchLoadResult<T> result = this.getDao().findByTypedKeys(requestedKeys);
+		assertThat(Lists.newArrayList(result.getFound().keySet()), is(keys));
+		assertThat(result.getMissingKeys(), is((Set<Key<T>>) Sets.newHashSet(missingEntity.getTypedKey())));
+	}
+
 	/////////////////////////////
 	// ExistsInDatastore
 	/////////////////////////////
@@ -116,7 +229,7 @@ public abstract class AbstractObjectifyLongDaoTester<T extends AbstractObjectify
 	@Test(expected = NullPointerException.class)
 	public void TestExistsInDatastore_NullInput()
 	{
-		this.getDao().existsInDatastore(null);
+		this.getDao().existsInDatastore((Key<T>) null);
 	}
 
 	@Test
@@ -129,46 +242,1038 @@ public abstract class AbstractObjectifyLongDaoTester<T extends AbstractObjectify
 		assertThat(this.getDao().existsInDatastore(key), is(false));
 	}
 
-	/**
-	 * Tests what happens when a "dao#existsInDatastore" is called and the entity should exist.
-	 */
+	/**
+	 * Tests what happens when a "dao#existsInDatastore" is called and the entity should exist.
+	 */
+	@Test
+	public void TestExistsInDatastore_Exists()
+	{
+		final T entity = getEmptyTestEntityWithNoKey();
+		this.getDao().create(entity);
+		assertThat(this.getDao().existsInDatastore(entity.getTypedKey()), is(true));
+	}
+
+	/////////////////////////////
+	// LoadFromDatastoreWithCursor
+	/////////////////////////////
+
+	@Test
+	public void TestLoadFromDatastoreWithCursor()
+	{
+		// Need to peg this to type "TestLongEntity" in to test properly.
+		final AbstractObjectifyDao<TestLongEntity> impl = new TestLongEntityDao();
+
+		// Add 11 TestLongEntity entities to the Datastore.
+		createLongEntitiesInDatastore(impl, 11);
+
+		final Query<TestLongEntity> finalizedQuery = ObjectifyService.ofy().load().type(TestLongEntity.class);
+		ResultWithCursor<List<TestLongEntity>> actual = impl.loadFromDatastoreWithCursor(finalizedQuery, null, 10);
+
+		assertThat(actual, is(not(nullValue())));
+		assertThat(actual.getOptCursor(), is(not(nullValue())));
+		assertThat(actual.getOptCursor().isPresent(), is(true));
+		assertThat(actual.getResult(), is(not(nullValue())));
+		assertThat(actual.getResult().size(), is(10));
+
+		// Get the remainder...
+		actual = impl.loadFromDatastoreWithCursor(finalizedQuery, actual.getOptCursor().get(), 9);
+		assertThat(actual, is(not(nullValue())));
+		assertThat(actual.getOptCursor(), is(not(nullValue())));
+		assertThat(actual.getOptCursor().isPresent(), is(false));
+		assertThat(actual.getResult(), is(not(nullValue())));
+		assertThat(actual.getResult().size(), is(1));
+	}
+
+	/////////////////////////////
+	// SplitQuery
+	/////////////////////////////
+
+	@Test(expected = IllegalArgumentException.class)
+	public void TestSplitQuery_InvalidNumShards()
+	{
+		final TestLongEntityDao impl = new TestLongEntityDao();
+		impl.splitQuery(ObjectifyService.ofy().load().type(TestLongEntity.class), 0);
+	}
+
+	@Test
+	public void TestSplitQuery()
+	{
+		final TestLongEntityDao impl = new TestLongEntityDao();
+		final Set<Long> expectedIds = createManyLongEntitiesInDatastore(impl, 1000);
+
+		final List<Query<TestLongEntity>> shardQueries = impl
+				.splitQuery(ObjectifyService.ofy().load().type(TestLongEntity.class), 4);
+		assertThat(shardQueries.size() > 1, is(true));
+		assertThat(shardQueries.size() <= 4, is(true));
+
+		// Every entity must be found in exactly one shard.
+		final List<Long> actualIds = Lists.newArrayList();
+		for (final Query<TestLongEntity> shardQuery : shardQueries)
+		{
+			for (final Key<TestLongEntity> key : shardQuery.keys())
+			{
+				actualIds.add(key.getId());
+			}
+		}
+		assertThat(actualIds.size(), is(expectedIds.size()));
+		assertThat(Sets.newHashSet(actualIds), is(expectedIds));
+	}
+
+	@Test
+	public void TestSplitQuery_EmptyKind()
+	{
+		final TestLongEntityDao impl = new TestLongEntityDao();
+		final List<Query<TestLongEntity>> shardQueries = impl
+				.splitQuery(ObjectifyService.ofy().load().type(TestLongEntity.class), 4);
+		assertThat(shardQueries.size(), is(1));
+	}
+
+	@Test
+	public void TestStreamShards()
+	{
+		final TestLongEntityDao impl = new TestLongEntityDao();
+		final Set<Long> expectedIds = createManyLongEntitiesInDatastore(impl, 1000);
+
+		final List<Long> actualIds = Lists.newArrayList();
+		for (final PrefetchingQueryIterator<TestLongEntity> shard : impl
+				.streamShards(ObjectifyService.ofy().load().type(TestLongEntity.class), 4))
+		{
+			while (shard.hasNext())
+			{
+				actualIds.add(shard.next().getId());
+			}
+		}
+		assertThat(actualIds.size(), is(expectedIds.size()));
+		assertThat(Sets.newHashSet(actualIds), is(expectedIds));
+	}
+
+	@Test
+	public void TestScanInParallel()
+	{
+		final TestLongEntityDao impl = new TestLongEntityDao();
+		final Set<Long> expectedIds = createManyLongEntitiesInDatastore(impl, 1000);
+
+		final List<Long> actualIds = Lists.newArrayList();
+		final ParallelQueryScan<TestLongEntity> scan = impl
+				.scanInParallel(ObjectifyService.ofy().load().type(TestLongEntity.class), 4,
+						new ApiProxyEnvironmentThreadFactory());
+		while (scan.hasNext())
+		{
+			actualIds.add(scan.next().getId());
+		}
+		assertThat(actualIds.size(), is(expectedIds.size()));
+		assertThat(Sets.newHashSet(actualIds), is(expectedIds));
+	}
+
+	@Test
+	public void TestScanInParallel_Close()
+	{
+		final TestLongEntityDao impl = new TestLongEntityDao();
+		createManyLongEntitiesInDatastore(impl, 1000);
+
+		final ParallelQueryScan<TestLongEntity> scan = impl
+				.scanInParallel(ObjectifyService.ofy().load().type(TestLongEntity.class), 4,
+						new ApiProxyEnvironmentThreadFactory());
+		assertThat(scan.hasNext(), is(true));
+		scan.next();
+		scan.close();
+		assertThat(scan.hasNext(), is(false));
+	}
+
+	@Test(expected = StackOverflowError.class)
+	public void TestScanInParallel_WorkerError()
+	{
+		@SuppressWarnings("unchecked") final Query<TestLongEntity> failingQuery = Mockito.mock(Query.class);
+		Mockito.when(failingQuery.chunk(Mockito.anyInt())).thenThrow(new StackOverflowError());
+
+		final ParallelQueryScan<TestLongEntity> scan = new ParallelQueryScan<>(
+				ImmutableList.of(ObjectifyService.ofy().load().type(TestLongEntity.class), failingQuery),
+				new ApiProxyEnvironmentThreadFactory(), 10);
+		while (scan.hasNext())
+		{
+			scan.next();
+		}
+	}
+
+	/////////////////////////////
+	// SaveIfVersion
+	/////////////////////////////
+
+	@Test
+	public void TestSaveIfVersion()
+	{
+		final AbstractObjectifyDao<TestLongEntity> impl = new TestLongEntityDao();
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setVersion(0L);
+		entity.setTestValue("testValue");
+		impl.create(entity);
+
+		entity.setTestValue("testValue2");
+		impl.saveIfVersion(entity);
+		assertThat(entity.getVersion(), is(1L));
+
+		ObjectifyService.ofy().clear();
+		final TestLongEntity loadedEntity = impl.findByTypedKey(entity.getTypedKey()).get();
+		assertThat(loadedEntity.getVersion(), is(1L));
+		assertThat(loadedEntity.getTestValue(), is("testValue2"));
+	}
+
+	@Test
+	public void TestSaveIfVersion_Conflict()
+	{
+		final AbstractObjectifyDao<TestLongEntity> impl = new TestLongEntityDao();
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setVersion(0L);
+		entity.setTestValue("testValue");
+		impl.create(entity);
+
+		// Two writers load the same version of the entity.  The first write wins.
+		ObjectifyService.ofy().clear();
+		final TestLongEntity firstWriterEntity = impl.findByTypedKey(entity.getTypedKey()).get();
+		ObjectifyService.ofy().clear();
+		final TestLongEntity secondWriterEntity = impl.findByTypedKey(entity.getTypedKey()).get();
+
+		firstWriterEntity.setTestValue("first");
+		impl.saveIfVersion(firstWriterEntity);
+
+		secondWriterEntity.setTestValue("second");
+		try
+		{
+			impl.saveIfVersion(secondWriterEntity);
+			fail("Expected a VersionConflictException!");
+		}
+		catch (VersionConflictException e)
+		{
+			assertThat(e.getKey(), is((Key) entity.getTypedKey()));
+			assertThat(e.getExpectedVersion(), is(0L));
+			assertThat(e.getActualVersion(), is(1L));
+			assertThat(secondWriterEntity.getVersion(), is(0L));
+		}
+
+		ObjectifyService.ofy().clear();
+		assertThat(impl.findByTypedKey(entity.getTypedKey()).get().getTestValue(), is("first"));
+	}
+
+	@Test(expected = MissingEntitiesException.class)
+	public void TestSaveIfVersion_Missing()
+	{
+		final AbstractObjectifyDao<TestLongEntity> impl = new TestLongEntityDao();
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setId(12345L);
+		entity.setVersion(0L);
+		impl.saveIfVersion(entity);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void TestSaveIfVersion_Unversioned()
+	{
+		final AbstractObjectifyDao<TestLongEntity> impl = new TestLongEntityDao();
+		final TestLongEntity entity = new TestLongEntity();
+		impl.create(entity);
+		impl.saveIfVersion(entity);
+	}
+
+	@Test
+	public void TestSave_IncrementsVersion()
+	{
+		final AbstractObjectifyDao<TestLongEntity> impl = new TestLongEntityDao();
+		final TestLongEntity versionedEntity = new TestLongEntity();
+		versionedEntity.setVersion(0L);
+		impl.create(versionedEntity);
+		final TestLongEntity unversionedEntity = new TestLongEntity();
+		impl.create(unversionedEntity);
+
+		impl.save(versionedEntity);
+		assertThat(versionedEntity.getVersion(), is(1L));
+		impl.saveAll(ImmutableList.of(versionedEntity, unversionedEntity));
+		assertThat(versionedEntity.getVersion(), is(2L));
+		assertThat(unversionedEntity.getVersion(), is(nullValue()));
+
+		ObjectifyService.ofy().clear();
+		assertThat(impl.findByTypedKey(versionedEntity.getTypedKey()).get().getVersion(), is(2L));
+		assertThat(impl.findByTypedKey(unversionedEntity.getTypedKey()).get().getVersion(), is(nullValue()));
+	}
+
+	@Test
+	public void TestUpsert()
+	{
+		final AbstractObjectifyDao<TestLongEntity> impl = new TestLongEntityDao();
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setId(12345L);
+		entity.setTestValue("testValue");
+		impl.upsert(entity);
+		assertThat(impl.findByTypedKey(entity.getTypedKey()).get().getTestValue(), is("testValue"));
+
+		entity.setTestValue("testValue2");
+		final TestLongEntity otherEntity = new TestLongEntity();
+		otherEntity.setId(12346L);
+		impl.upsertAll(ImmutableList.of(entity, otherEntity));
+
+		ObjectifyService.ofy().clear();
+		assertThat(impl.findByTypedKey(entity.getTypedKey()).get().getTestValue(), is("testValue2"));
+		assertThat(impl.existsInDatastoreConsistent(otherEntity.getTypedKey()), is(true));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void TestUpsert_NoKey()
+	{
+		final AbstractObjectifyDao<TestLongEntity> impl = new TestLongEntityDao();
+		impl.upsert(new TestLongEntity());
+	}
+
+	/////////////////////////////
+	// TransactWithRetries
+	/////////////////////////////
+
+	@Test
+	public void TestTransactWithRetries_CountsCommits()
+	{
+		final AbstractObjectifyDao<TestLongEntity> impl = new TestLongEntityDao();
+		final TestLongEntity entity = new TestLongEntity();
+		impl.create(entity);
+
+		final TransactionMetrics.Counters counters = TransactionMetrics.GLOBAL.getCounters(
+				Key.getKind(TestLongEntity.class));
+		final long commits = counters.getCommits();
+		impl.save(entity);
+		assertThat(counters.getCommits(), is(commits + 1));
+	}
+
+	@Test
+	public void TestTransactWithRetries_RetriesConcurrentModification()
+	{
+		final RetryingTestLongEntityDao impl = new RetryingTestLongEntityDao();
+		final int[] attempts = new int[1];
+
+		final String result = impl.transactWithRetries(new Work<String>()
+		{
+			@Override
+			public String run()
+			{
+				if (++attempts[0] < 3)
+				{
+					throw new ConcurrentModificationException();
+				}
+				return "committed";
+			}
+		});
+
+		assertThat(result, is("committed"));
+		final TransactionMetrics.Counters counters = impl.transactionMetrics.getCounters(
+				Key.getKind(TestLongEntity.class));
+		assertThat(counters.getCommits(), is(1L));
+		assertThat(counters.getRetries(), is(2L));
+		assertThat(counters.getConcurrentModifications(), is(2L));
+	}
+
+	@Test
+	public void TestTransactWithRetries_GivesUpAfterMaxAttempts()
+	{
+		final RetryingTestLongEntityDao impl = new RetryingTestLongEntityDao();
+
+		try
+		{
+			impl.transactWithRetries(new Work<String>()
+			{
+				@Override
+				public String run()
+				{
+					throw new ConcurrentModificationException();
+				}
+			});
+			fail("Expected a ConcurrentModificationException!");
+		}
+		catch (ConcurrentModificationException e)
+		{
+			final TransactionMetrics.Counters counters = impl.transactionMetrics.getCounters(
+					Key.getKind(TestLongEntity.class));
+			assertThat(counters.getCommits(), is(0L));
+			assertThat(counters.getRetries(), is(2L));
+			assertThat(counters.getConcurrentModifications(), is(3L));
+		}
+	}
+
+	@Test
+	public void TestTransactWithRetries_JoinsActiveTransaction()
+	{
+		final RetryingTestLongEntityDao impl = new RetryingTestLongEntityDao();
+		final TestLongEntity entity = new TestLongEntity();
+		impl.create(entity);
+
+		ObjectifyService.ofy().transact(new VoidWork()
+		{
+			@Override
+			public void vrun()
+			{
+				impl.save(entity);
+			}
+		});
+
+		// The outer transaction is not the Dao's to count or retry.
+		assertThat(impl.transactionMetrics.getAllCounters().isEmpty(), is(true));
+	}
+
+	/////////////////////////////
+	// SaveBehind
+	/////////////////////////////
+
+	@Test
+	public void TestSaveBehind_CoalescesUntilFlush()
+	{
+		final AbstractObjectifyDao<TestLongEntity> impl = new TestLongEntityDao();
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setTestValue("testValue");
+		impl.create(entity);
+
+		final WriteBehindBuffer buffer = WriteBehindBuffer.begin();
+		try
+		{
+			for (int i = 1; i <= 3; i++)
+			{
+				entity.setTestValue("testValue" + i);
+				impl.saveBehind(entity);
+			}
+			assertThat(buffer.size(), is(1));
+			assertThat(buffer.getNumCoalescedWrites(), is(2L));
+
+			// The Datastore has not been written, but the request can read its own writes.
+			ObjectifyService.ofy().clear();
+			assertThat(ObjectifyService.ofy().load().entity(entity).now().getTestValue(), is("testValue"));
+			assertThat(impl.findByTypedKey(entity.getTypedKey()).get().getTestValue(), is("testValue3"));
+		}
+		finally
+		{
+			buffer.close();
+		}
+
+		assertThat(WriteBehindBuffer.current().isPresent(), is(false));
+		ObjectifyService.ofy().clear();
+		assertThat(ObjectifyService.ofy().load().entity(entity).now().getTestValue(), is("testValue3"));
+	}
+
+	@Test
+	public void TestSaveBehind_BatchReadsSeeBufferedWrites()
+	{
+		final AbstractObjectifyDao<TestLongEntity> impl = new TestLongEntityDao();
+		final TestLongEntity savedEntity = new TestLongEntity();
+		savedEntity.setTestValue("testValue");
+		impl.create(savedEntity);
+		final TestLongEntity unbufferedEntity = new TestLongEntity();
+		unbufferedEntity.setTestValue("unbuffered");
+		impl.create(unbufferedEntity);
+		final TestLongEntity newEntity = new TestLongEntity();
+		newEntity.setId(12345L);
+		newEntity.setTestValue("newValue");
+		final Key<TestLongEntity> missingKey = Key.create(TestLongEntity.class, 54321L);
+		final List<Key<TestLongEntity>> keys = ImmutableList.of(savedEntity.getTypedKey(),
+				unbufferedEntity.getTypedKey(), newEntity.getTypedKey(), missingKey);
+
+		final WriteBehindBuffer buffer = WriteBehindBuffer.begin();
+		try
+		{
+			savedEntity.setTestValue("testValue2");
+			impl.saveBehind(savedEntity);
+			impl.saveBehind(newEntity);
+			ObjectifyService.ofy().clear();
+
+			final BatchLoadResult<TestLongEntity> batchLoadResult = impl.findByTypedKeys(keys);
+			assertThat(batchLoadResult.getFound().get(savedEntity.getTypedKey()).getTestValue(), is("testValue2"));
+			assertThat(batchLoadResult.getFound().get(unbufferedEntity.getTypedKey()).getTestValue(),
+					is("unbuffered"));
+			assertThat(batchLoadResult.getFound().get(newEntity.getTypedKey()).getTestValue(), is("newValue"));
+			assertThat(batchLoadResult.getMissingKeys(), is((Set<Key<TestLongEntity>>) ImmutableSet.of(missingKey)));
+
+			final Set<Key<TestLongEntity>> expectedKeys = ImmutableSet.of(savedEntity.getTypedKey(),
+					unbufferedEntity.getTypedKey(), newEntity.getTypedKey());
+			assertThat(impl.findByTypedKeysAsync(keys).now().getFound().keySet(), is(expectedKeys));
+			assertThat(impl.existsInDatastore(keys), is(expectedKeys));
+			assertThat(impl.existsInDatastoreConsistent(keys), is(expectedKeys));
+		}
+		finally
+		{
+			buffer.close();
+		}
+	}
+
+	@Test
+	public void TestSaveBehind_NoBuffer()
+	{
+		final AbstractObjectifyDao<TestLongEntity> impl = new TestLongEntityDao();
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setId(12345L);
+		impl.saveBehind(entity);
+
+		assertThat(impl.existsInDatastoreConsistent(entity.getTypedKey()), is(true));
+	}
+
+	@Test
+	public void TestSaveBehind_InvalidatesCachesOnFlush()
+	{
+		final NearCachingTestLongEntityDao impl = new NearCachingTestLongEntityDao(60000L);
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setTestValue("testValue");
+		impl.create(entity);
+		impl.findByTypedKey(entity.getTypedKey());
+
+		final WriteBehindBuffer buffer = WriteBehindBuffer.begin();
+		entity.setTestValue("testValue2");
+		impl.saveBehind(entity);
+		buffer.close();
+
+		assertThat(impl.findByTypedKey(entity.getTypedKey()).get().getTestValue(), is("testValue2"));
+	}
+
+	/////////////////////////////
+	// DeleteAll
+	/////////////////////////////
+
+	@Test
+	public void TestDeleteAll_Query()
+	{
+		final TestLongEntityDao impl = new TestLongEntityDao();
+		final Set<Long> ids = this.createManyLongEntitiesInDatastore(impl, 1200);
+		final List<Long> progress = Lists.newArrayList();
+		// Reading every entity by key applies any simulated unapplied writes, so that the query sees all of them.
+		ObjectifyService.ofy().clear();
+		ObjectifyService.ofy().load().type(TestLongEntity.class).ids(ids);
+
+		final DeleteResult<TestLongEntity> deleteResult = impl.deleteAll(
+				ObjectifyService.ofy().load().type(TestLongEntity.class), Optional.<Cursor>absent(),
+				Optional.<DeleteProgressListener>of(new DeleteProgressListener()
+				{
+					@Override
+					public void onProgress(final long numDeleted)
+					{
+						progress.add(numDeleted);
+					}
+				}));
+
+		assertThat(deleteResult.isComplete(), is(true));
+		assertThat(deleteResult.getNumDeleted(), is(1200L));
+		assertThat(progress, is((List<Long>) ImmutableList.of(500L, 1000L, 1200L)));
+		assertThat(ObjectifyService.ofy().load().type(TestLongEntity.class).ids(ids).isEmpty(), is(true));
+	}
+
+	@Test
+	public void TestDeleteAll_QueryContinuesNearDeadline()
+	{
+		final DeadlineTestLongEntityDao impl = new DeadlineTestLongEntityDao(2);
+		final Set<Long> ids = this.createManyLongEntitiesInDatastore(impl, 1200);
+		final Query<TestLongEntity> query = ObjectifyService.ofy().load().type(TestLongEntity.class);
+		// Reading every entity by key applies any simulated unapplied writes, so that the query sees all of them.
+		ObjectifyService.ofy().clear();
+		ObjectifyService.ofy().load().type(TestLongEntity.class).ids(ids);
+
+		// Only two batches fit before the deadline.
+		final DeleteResult<TestLongEntity> deleteResult = impl.deleteAll(query);
+		assertThat(deleteResult.isComplete(), is(false));
+		assertThat(deleteResult.getNumDeleted(), is(1000L));
+		assertThat(deleteResult.getContinuationCursor().isPresent(), is(true));
+
+		final DeleteResult<TestLongEntity> continuedDeleteResult = new TestLongEntityDao().deleteAll(query,
+				deleteResult.getContinuationCursor(), Optional.<DeleteProgressListener>absent());
+		assertThat(continuedDeleteResult.isComplete(), is(true));
+		assertThat(continuedDeleteResult.getNumDeleted(), is(200L));
+		assertThat(ObjectifyService.ofy().load().type(TestLongEntity.class).ids(ids).isEmpty(), is(true));
+	}
+
+	@Test
+	public void TestDeleteAll_Keys()
+	{
+		final DeadlineTestLongEntityDao impl = new DeadlineTestLongEntityDao(1);
+		final List<Key<TestLongEntity>> keys = Lists.newArrayList();
+		for (final Long id : this.createManyLongEntitiesInDatastore(impl, 600))
+		{
+			keys.add(Key.create(TestLongEntity.class, id));
+		}
+
+		final DeleteResult<TestLongEntity> deleteResult = impl.deleteAll(keys);
+		assertThat(deleteResult.isComplete(), is(false));
+		assertThat(deleteResult.getNumDeleted(), is(500L));
+		assertThat(deleteResult.getRemainingKeys(), is(keys.subList(500, 600)));
+		assertThat(impl.existsInDatastoreConsistent(keys.get(0)), is(false));
+		assertThat(impl.existsInDatastoreConsistent(keys.get(500)), is(true));
+
+		final DeleteResult<TestLongEntity> continuedDeleteResult = new TestLongEntityDao().deleteAll(
+				deleteResult.getRemainingKeys());
+		assertThat(continuedDeleteResult.isComplete(), is(true));
+		assertThat(continuedDeleteResult.getNumDeleted(), is(100L));
+		assertThat(impl.existsInDatastoreConsistent(keys).isEmpty(), is(true));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void TestDeleteAll_InTransaction()
+	{
+		ObjectifyService.ofy().transact(new VoidWork()
+		{
+			@Override
+			public void vrun()
+			{
+				new TestLongEntityDao().deleteAll(ImmutableList.<Key<TestLongEntity>>of());
+			}
+		});
+	}
+
+	/////////////////////////////
+	// NearCache
+	/////////////////////////////
+
+	@Test
+	public void TestNearCache_WarmReadSkipsDatastore()
+	{
+		final NearCachingTestLongEntityDao impl = new NearCachingTestLongEntityDao(60000L);
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setTestValue("testValue");
+		impl.create(entity);
+
+		assertThat(impl.findByTypedKey(entity.getTypedKey()).get().getTestValue(), is("testValue"));
+
+		// Remove the entity behind the Dao's back.  The warm read must not notice.
+		ObjectifyService.ofy().delete().entity(entity).now();
+		ObjectifyService.ofy().clear();
+		assertThat(impl.findByTypedKey(entity.getTypedKey()).get().getTestValue(), is("testValue"));
+		assertThat(impl.nearCache.stats().hitCount(), is(1L));
+	}
+
+	@Test
+	public void TestNearCache_SaveInvalidatesLocally()
+	{
+		final NearCachingTestLongEntityDao impl = new NearCachingTestLongEntityDao(60000L);
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setTestValue("testValue");
+		impl.create(entity);
+		impl.findByTypedKey(entity.getTypedKey());
+
+		entity.setTestValue("testValue2");
+		impl.save(entity);
+		assertThat(impl.findByTypedKey(entity.getTypedKey()).get().getTestValue(), is("testValue2"));
+
+		entity.setTestValue("testValue3");
+		impl.saveAll(ImmutableList.of(entity));
+		assertThat(impl.findByTypedKey(entity.getTypedKey()).get().getTestValue(), is("testValue3"));
+	}
+
+	/**
+	 * Simulates two instances, each with its own near cache, and asserts that a write on one instance is detected by
+	 * the other on revalidation.
+	 */
+	@Test
+	public void TestNearCache_SaveInvalidatesOtherInstances()
+	{
+		final NearCachingTestLongEntityDao writer = new NearCachingTestLongEntityDao(60000L);
+		final NearCachingTestLongEntityDao reader = new NearCachingTestLongEntityDao(0L);
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setTestValue("testValue");
+		writer.create(entity);
+
+		assertThat(reader.findByTypedKey(entity.getTypedKey()).get().getTestValue(), is("testValue"));
+		assertThat(reader.findByTypedKey(entity.getTypedKey()).get().getTestValue(), is("testValue"));
+		assertThat(reader.nearCache.stats().hitCount(), is(1L));
+
+		entity.setTestValue("testValue2");
+		writer.save(entity);
+		ObjectifyService.ofy().clear();
+		assertThat(reader.findByTypedKey(entity.getTypedKey()).get().getTestValue(), is("testValue2"));
+	}
+
+	/**
+	 * Asserts that a write made in a caller's transaction does not change the version stamp until the transaction
+	 * commits, so that no instance can cache the pre-commit entity under the new stamp.
+	 */
+	@Test
+	public void TestNearCache_SaveInTransactionInvalidatesAfterCommit()
+	{
+		final NearCachingTestLongEntityDao writer = new NearCachingTestLongEntityDao(60000L);
+		final NearCachingTestLongEntityDao reader = new NearCachingTestLongEntityDao(0L);
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setTestValue("testValue");
+		writer.create(entity);
+		assertThat(reader.findByTypedKey(entity.getTypedKey()).get().getTestValue(), is("testValue"));
+		final Long version = reader.nearCache.getVersion(entity.getTypedKey());
+
+		ObjectifyService.ofy().transact(new VoidWork()
+		{
+			@Override
+			public void vrun()
+			{
+				entity.setTestValue("testValue2");
+				writer.save(entity);
+				assertThat(reader.nearCache.getVersion(entity.getTypedKey()), is(version));
+			}
+		});
+		assertThat(reader.nearCache.getVersion(entity.getTypedKey()), is(not(version)));
+
+		ObjectifyService.ofy().clear();
+		assertThat(reader.findByTypedKey(entity.getTypedKey()).get().getTestValue(), is("testValue2"));
+	}
+
+	/////////////////////////////
+	// NegativeCache
+	/////////////////////////////
+
+	@Test
+	public void TestNegativeCache_RepeatedMissSkipsDatastore()
+	{
+		final NegativeCachingTestLongEntityDao impl = new NegativeCachingTestLongEntityDao();
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setId(12345L);
+		entity.setTestValue("testValue");
+
+		assertThat(impl.findByTypedKey(entity.getTypedKey()).isPresent(), is(false));
+
+		// Create the entity behind the Dao's back.  Lookups must not notice until the key is invalidated.
+		ObjectifyService.ofy().save().entity(entity).now();
+		ObjectifyService.ofy().clear();
+		assertThat(impl.findByTypedKey(entity.getTypedKey()).isPresent(), is(false));
+		assertThat(impl.existsInDatastore(entity.getTypedKey()), is(false));
+		assertThat(impl.negativeCache.stats().missCount(), is(1L));
+		assertThat(impl.negativeCache.stats().hitCount(), is(2L));
+
+		// Transactional reads always go to the Datastore.
+		assertThat(ObjectifyService.ofy().transact(new Work<Boolean>()
+		{
+			@Override
+			public Boolean run()
+			{
+				return impl.findByTypedKey(entity.getTypedKey()).isPresent();
+			}
+		}), is(true));
+	}
+
+	/**
+	 * Asserts that a miss from the eventually consistent {@link AbstractObjectifyDao#existsInDatastore(Key)} query is
+	 * not trusted by later (strongly consistent) lookups.
+	 */
+	@Test
+	public void TestNegativeCache_ExistsQueryMissIsNotCached()
+	{
+		final NegativeCachingTestLongEntityDao impl = new NegativeCachingTestLongEntityDao();
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setId(12345L);
+		entity.setTestValue("testValue");
+
+		assertThat(impl.existsInDatastore(entity.getTypedKey()), is(false));
+
+		ObjectifyService.ofy().save().entity(entity).now();
+		ObjectifyService.ofy().clear();
+		assertThat(impl.findByTypedKey(entity.getTypedKey()).isPresent(), is(true));
+		assertThat(impl.negativeCache.stats().hitCount(), is(0L));
+	}
+
+	@Test
+	public void TestNegativeCache_SaveInvalidates()
+	{
+		final NegativeCachingTestLongEntityDao impl = new NegativeCachingTestLongEntityDao();
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setTestValue("testValue");
+		impl.create(entity);
+
+		ObjectifyService.ofy().delete().entity(entity).now();
+		assertThat(impl.findByTypedKey(entity.getTypedKey()).isPresent(), is(false));
+		assertThat(impl.existsInDatastore(entity.getTypedKey()), is(false));
+		assertThat(impl.negativeCache.stats().hitCount(), is(1L));
+
+		// Restore the entity behind the Dao's back, then save it through the Dao.
+		ObjectifyService.ofy().save().entity(entity).now();
+		ObjectifyService.ofy().clear();
+		entity.setTestValue("testValue2");
+		impl.save(entity);
+		assertThat(impl.findByTypedKey(entity.getTypedKey()).get().getTestValue(), is("testValue2"));
+	}
+
+	/////////////////////////////
+	// EntityMigrationRegistry
+	/////////////////////////////
+
+	@Test
+	public void TestMigration_UpgradesOnLoad()
+	{
+		final MigratingTestLongEntityDao impl = new MigratingTestLongEntityDao(10);
+		final Key<TestLongEntity> key = this.saveUnmigratedEntity("testValue", null);
+
+		final TestLongEntity loaded = impl.findByTypedKey(key).get();
+		assertThat(loaded.getTestValue(), is("testValue-v1-v2"));
+		assertThat(loaded.getSchemaVersion(), is(2));
+		assertThat(impl.findByTypedKeySafe(key).getTestValue(), is("testValue-v1-v2"));
+		assertThat(impl.registry.getNumMigrated(), is(1L));
+
+		// Without a WriteBehindBuffer, the upgrade is not written back.
+		assertThat(this.loadStored(key).getSchemaVersion(), is(nullValue()));
+		assertThat(impl.registry.getNumWrittenBack(), is(0L));
+	}
+
+	@Test
+	public void TestMigration_WritesBackOnClose()
+	{
+		final MigratingTestLongEntityDao impl = new MigratingTestLongEntityDao(10);
+		final List<Key<TestLongEntity>> keys = Lists.newArrayList();
+		for (int i = 0; i < 3; i++)
+		{
+			keys.add(this.saveUnmigratedEntity("testValue" + i, null));
+		}
+
+		final WriteBehindBuffer buffer = WriteBehindBuffer.begin();
+		impl.findByTypedKey(keys.get(0));
+		impl.findByTypedKey(keys.get(1));
+		impl.loadFromDatastoreWithCursor(ObjectifyService.ofy().load().type(TestLongEntity.class)
+				.filterKey(keys.get(2)), null, 10);
+		assertThat(impl.registry.getNumWrittenBack(), is(0L));
+
+		// The partial batch is written back together once the request ends.
+		buffer.close();
+		assertThat(impl.registry.getNumWrittenBack(), is(3L));
+		assertThat(this.loadStored(keys.get(2)).getSchemaVersion(), is(2));
+	}
+
+	@Test
+	public void TestMigration_DropsKeysBeyondBatch()
+	{
+		final MigratingTestLongEntityDao impl = new MigratingTestLongEntityDao(2);
+		final List<Key<TestLongEntity>> keys = Lists.newArrayList();
+		for (int i = 0; i < 3; i++)
+		{
+			keys.add(this.saveUnmigratedEntity("testValue" + i, null));
+		}
+
+		final WriteBehindBuffer buffer = WriteBehindBuffer.begin();
+		impl.findByTypedKeys(keys);
+		assertThat(impl.registry.getNumMigrated(), is(3L));
+		assertThat(impl.registry.getNumDropped(), is(1L));
+
+		buffer.close();
+		assertThat(impl.registry.getNumWrittenBack(), is(2L));
+		assertThat(this.loadStored(keys.get(1)).getSchemaVersion(), is(2));
+		assertThat(this.loadStored(keys.get(2)).getSchemaVersion(), is(nullValue()));
+	}
+
+	@Test
+	public void TestMigration_NoWriteBackWithoutBuffer()
+	{
+		final MigratingTestLongEntityDao impl = new MigratingTestLongEntityDao(2);
+		final List<Key<TestLongEntity>> keys = Lists.newArrayList();
+		for (int i = 0; i < 3; i++)
+		{
+			keys.add(this.saveUnmigratedEntity("testValue" + i, null));
+		}
+
+		impl.findByTypedKeys(keys);
+		assertThat(impl.registry.getNumMigrated(), is(3L));
+
+		// Nothing is queued, since no request-scoped buffer would ever write it back.
+		assertThat(impl.registry.flushWriteBack().isEmpty(), is(true));
+		assertThat(impl.registry.getNumWrittenBack(), is(0L));
+	}
+
+	@Test
+	public void TestMigration_WriteBackSkipsSavedEntities()
+	{
+		final MigratingTestLongEntityDao impl = new MigratingTestLongEntityDao(10);
+		final Key<TestLongEntity> key = this.saveUnmigratedEntity("testValue", null);
+
+		final WriteBehindBuffer buffer = WriteBehindBuffer.begin();
+		final TestLongEntity loaded = impl.findByTypedKey(key).get();
+		loaded.setTestValue("changed");
+		impl.save(loaded);
+
+		// The write-back must not overwrite the save with the copy that was upgraded on load.
+		buffer.close();
+		assertThat(impl.registry.getNumWrittenBack(), is(0L));
+		assertThat(this.loadStored(key).getTestValue(), is("changed"));
+		assertThat(this.loadStored(key).getSchemaVersion(), is(2));
+	}
+
+	@Test
+	public void TestMigration_CreateStampsSchemaVersion()
+	{
+		final MigratingTestLongEntityDao impl = new MigratingTestLongEntityDao(10);
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setTestValue("testValue");
+		impl.create(entity);
+		final List<Key<TestLongEntity>> createdKeys = impl.createAll(ImmutableList.of(new TestLongEntity()));
+
+		ObjectifyService.ofy().clear();
+		assertThat(impl.findByTypedKey(entity.getTypedKey()).get().getTestValue(), is("testValue"));
+		assertThat(this.loadStored(createdKeys.get(0)).getSchemaVersion(), is(2));
+		assertThat(impl.registry.getNumMigrated(), is(0L));
+	}
+
+	/////////////////////////////
+	// LoadProjectionWithCursor
+	/////////////////////////////
+
+	@Test(expected = IllegalArgumentException.class)
+	public void TestLoadProjectionWithCursor_NoProperties()
+	{
+		final AbstractObjectifyDao<TestLongEntity> impl = new TestLongEntityDao();
+		impl.loadProjectionWithCursor(ObjectifyService.ofy().load().type(TestLongEntity.class), null, 10);
+	}
+
+	@Test
+	public void TestLoadProjectionWithCursor()
+	{
+		final AbstractObjectifyDao<TestLongEntity> impl = new TestLongEntityDao();
+		final DateTime creationDateTime = new DateTime(2015, 1, 1, 0, 0, DateTimeZone.UTC);
+		for (int i = 0; i < 11; i++)
+		{
+			final TestLongEntity testLongEntity = new TestLongEntity();
+			testLongEntity.setTestValue("testValue" + i);
+			testLongEntity.setCreationDateTime(creationDateTime);
+			impl.create(testLongEntity);
+		}
+		ObjectifyService.ofy().clear();
+
+		final Query<TestLongEntity> finalizedQuery = ObjectifyService.ofy().load().type(TestLongEntity.class);
+		ResultWithCursor<List<TestLongEntity>> actual = impl
+				.loadProjectionWithCursor(finalizedQuery, null, 10, "testValue");
+		assertThat(actual.getResult().size(), is(10));
+		assertThat(actual.getOptCursor().isPresent(), is(true));
+		for (final TestLongEntity projectedEntity : actual.getResult())
+		{
+			assertThat(projectedEntity.getId(), is(not(nullValue())));
+			assertThat(projectedEntity.getTestValue().startsWith("testValue"), is(true));
+			assertThat(projectedEntity.getCreationDateTime().isEqual(creationDateTime), is(false));
+		}
+
+		// Get the remainder...
+		actual = impl.loadProjectionWithCursor(finalizedQuery, actual.getOptCursor().get(), 10, "testValue");
+		assertThat(actual.getResult().size(), is(1));
+		assertThat(actual.getOptCursor().isPresent(), is(false));
+
+		// Partial entities must not be served to later loads of the full entity.
+		final TestLongEntity fullEntity = impl.findByTypedKey(actual.getResult().get(0).getTypedKey()).get();
+		assertThat(fullEntity.getCreationDateTime().isEqual(creationDateTime), is(true));
+	}
+
+	@Test
+	public void TestLoadFromDatastoreWithCursor_LimitAboveMax()
+	{
+		final AbstractObjectifyDao<TestLongEntity> impl = new TestLongEntityDao();
+		createLongEntitiesInDatastore(impl, 55);
+
+		final Query<TestLongEntity> finalizedQuery = ObjectifyService.ofy().load().type(TestLongEntity.class);
+		final ResultWithCursor<List<TestLongEntity>> actual = impl
+				.loadFromDatastoreWithCursor(finalizedQuery, null, 100);
+		assertThat(actual.getResult().size(), is(50));
+		assertThat(actual.getOptCursor().isPresent(), is(true));
+	}
+
+	@Test
+	public void TestLoadFromDatastoreWithCursor_KeysOnlyProbe()
+	{
+		final AbstractObjectifyDao<TestLongEntity> impl = new ProbingTestLongEntityDao();
+		createLongEntitiesInDatastore(impl, 11);
+
+		final Query<TestLongEntity> finalizedQuery = ObjectifyService.ofy().load().type(TestLongEntity.class);
+		ResultWithCursor<List<TestLongEntity>> actual = impl.loadFromDatastoreWithCursor(finalizedQuery, null, 10);
+		assertThat(actual.getResult().size(), is(10));
+		assertThat(actual.getOptCursor().isPresent(), is(true));
+
+		// Get the remainder...
+		actual = impl.loadFromDatastoreWithCursor(finalizedQuery, actual.getOptCursor().get(), 10);
+		assertThat(actual.getResult().size(), is(1));
+		assertThat(actual.getOptCursor().isPresent(), is(false));
+
+		// A page that exactly exhausts the results has no cursor.
+		actual = impl.loadFromDatastoreWithCursor(finalizedQuery, null, 11);
+		assertThat(actual.getResult().size(), is(11));
+		assertThat(actual.getOptCursor().isPresent(), is(false));
+
+		// Limits above the default maximum are honored by this policy.
+		actual = impl.loadFromDatastoreWithCursor(finalizedQuery, null, 100);
+		assertThat(actual.getResult().size(), is(11));
+		assertThat(actual.getOptCursor().isPresent(), is(false));
+	}
+
+	@Test
+	public void TestLoadFromDatastoreWithCursorAsync()
+	{
+		// Need to peg this to type "TestLongEntity" in to test properly.
+		final AbstractObjectifyDao<TestLongEntity> impl = new TestLongEntityDao();
+
+		// Add 11 TestLongEntity entities to the Datastore.
+		createLongEntitiesInDatastore(impl, 11);
+
+		final Query<TestLongEntity> finalizedQuery = ObjectifyService.ofy().load().type(TestLongEntity.class);
+		final Result<ResultWithCursor<List<TestLongEntity>>> pendingEntities = impl
+				.loadFromDatastoreWithCursorAsync(finalizedQuery, null, 10);
+		final Result<ResultWithCursor<List<Key<TestLongEntity>>>> pendingKeys = impl
+				.loadKeysOnlyFromDatastoreWithCursorAsync(finalizedQuery, null, 5);
+
+		assertThat(pendingEntities.now().getResult().size(), is(10));
+		assertThat(pendingEntities.now().getOptCursor().isPresent(), is(true));
+		assertThat(pendingKeys.now().getResult().size(), is(5));
+		assertThat(pendingKeys.now().getOptCursor().isPresent(), is(true));
+	}
+
+	/////////////////////////////
+	// StreamAll
+	/////////////////////////////
+
+	@Test(expected = NullPointerException.class)
+	public void TestStreamAll_NullInput()
+	{
+		this.getDao().streamAll(null);
+	}
+
 	@Test
-	public void TestExistsInDatastore_Exists()
+	public void TestStreamAll_Empty()
 	{
-		final T entity = getEmptyTestEntityWithNoKey();
-		this.getDao().create(entity);
-		assertThat(this.getDao().existsInDatastore(entity.getTypedKey()), is(true));
-	}
+		final AbstractObjectifyDao<TestLongEntity> impl = new TestLongEntityDao();
 
-	/////////////////////////////
-	// LoadFromDatastoreWithCursor
-	/////////////////////////////
+		final PrefetchingQueryIterator<TestLongEntity> stream = impl
+				.streamAll(ObjectifyService.ofy().load().type(TestLongEntity.class));
+		assertThat(stream.hasNext(), is(false));
+		assertThat(stream.getCursor().isPresent(), is(false));
+	}
 
 	@Test
-	public void TestLoadFromDatastoreWithCursor()
+	public void TestStreamAll_MultiplePages()
 	{
-		// Need to peg this to type "TestLongEntity" in to test properly.
 		final AbstractObjectifyDao<TestLongEntity> impl = new TestLongEntityDao();
+		createLongEntitiesInDatastore(impl, 25);
 
-		// Add 11 TestLongEntity entities to the Datastore.
-		createLongEntitiesInDatastore(impl, 11);
+		// Exactly-full final pages must terminate as well as short ones.
+		for (final int prefetchSize : new int[]{5, 7, 25, 100})
+		{
+			final PrefetchingQueryIterator<TestLongEntity> stream = impl
+					.streamAll(ObjectifyService.ofy().load().type(TestLongEntity.class), Optional.<Cursor>absent(), 3,
+							prefetchSize);
+			final Set<Long> ids = Sets.newHashSet();
+			while (stream.hasNext())
+			{
+				ids.add(stream.next().getId());
+			}
+			assertThat(ids.size(), is(25));
+			assertThat(stream.getCursor().isPresent(), is(true));
+		}
+	}
 
-		final Query<TestLongEntity> finalizedQuery = ObjectifyService.ofy().load().type(TestLongEntity.class);
-		ResultWithCursor<List<TestLongEntity>> actual = impl.loadFromDatastoreWithCursor(finalizedQuery, null, 10);
+	@Test
+	public void TestStreamAll_ResumeFromCheckpoint()
+	{
+		final AbstractObjectifyDao<TestLongEntity> impl = new TestLongEntityDao();
+		createLongEntitiesInDatastore(impl, 25);
+		final Query<TestLongEntity> query = ObjectifyService.ofy().load().type(TestLongEntity.class);
 
-		assertThat(actual, is(not(nullValue())));
-		assertThat(actual.getOptCursor(), is(not(nullValue())));
-		assertThat(actual.getOptCursor().isPresent(), is(true));
-		assertThat(actual.getResult(), is(not(nullValue())));
-		assertThat(actual.getResult().size(), is(10));
+		// Checkpoint both in the middle of a page and on a page boundary.
+		for (final int numConsumed : new int[]{13, 10})
+		{
+			final PrefetchingQueryIterator<TestLongEntity> stream = impl
+					.streamAll(query, Optional.<Cursor>absent(), 5, 5);
+			final List<Long> ids = Lists.newArrayList();
+			for (int i = 0; i < numConsumed; i++)
+			{
+				ids.add(stream.next().getId());
+			}
 
-		// Get the remainder...
-		actual = impl.loadFromDatastoreWithCursor(finalizedQuery, actual.getOptCursor().get(), 9);
-		assertThat(actual, is(not(nullValue())));
-		assertThat(actual.getOptCursor(), is(not(nullValue())));
-		assertThat(actual.getOptCursor().isPresent(), is(false));
-		assertThat(actual.getResult(), is(not(nullValue())));
-		assertThat(actual.getResult().size(), is(1));
+			final PrefetchingQueryIterator<TestLongEntity> resumed = impl.streamAll(query, stream.getCursor(), 5, 5);
+			while (resumed.hasNext())
+			{
+				ids.add(resumed.next().getId());
+			}
+			assertThat(ids.size(), is(25));
+			assertThat(Sets.newHashSet(ids).size(), is(25));
+		}
 	}
 
 	/////////////////////////////
@@ -284,7 +1389,7 @@ public abstract class AbstractObjectifyLongDaoTester<T extends AbstractObjectify
 	{
 		// Need to peg this to type "TestLongEntity" in to test properly.
 		final AbstractObjectifyDao<TestLongEntity> impl = new TestLongEntityDao();
-		impl.existsInDatastoreConsistent(null);
+		impl.existsInDatastoreConsistent((Key<TestLongEntity>) null);
 	}
 
 	@Test
@@ -303,6 +1408,276 @@ public abstract class AbstractObjectifyLongDaoTester<T extends AbstractObjectify
 		assertThat(impl.existsInDatastoreConsistent(notFoundKey), is(false));
 	}
 
+	/////////////////////////////
+	// Clock
+	/////////////////////////////
+
+	@Test
+	public void TestCreate_StampsDateTimesWithDaoClock()
+	{
+		final ClockedTestLongEntityDao dao = new ClockedTestLongEntityDao(1000000L);
+		final TestLongEntity entity = new TestLongEntity();
+		dao.create(entity);
+
+		ObjectifyService.ofy().clear();
+		final TestLongEntity loaded = ObjectifyService.ofy().load().key(entity.getTypedKey()).now();
+		assertThat(loaded.getCreationDateTime().getMillis(), is(1000000L));
+		assertThat(loaded.getUpdateDateTime().getMillis(), is(1000000L));
+	}
+
+	@Test
+	public void TestCreate_KeepsDateTimesSetByCaller()
+	{
+		final DateTime creationDateTime = new DateTime(2015, 1, 1, 0, 0, DateTimeZone.UTC);
+		final ClockedTestLongEntityDao dao = new ClockedTestLongEntityDao(1000000L);
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setCreationDateTime(creationDateTime);
+		dao.createAll(ImmutableList.of(entity));
+
+		ObjectifyService.ofy().clear();
+		final TestLongEntity loaded = ObjectifyService.ofy().load().key(entity.getTypedKey()).now();
+		assertThat(loaded.getCreationDateTime().isEqual(creationDateTime), is(true));
+		assertThat(loaded.getUpdateDateTime().getMillis(), is(1000000L));
+	}
+
+	@Test
+	public void TestSave_TouchesUpdateDateTimeWithDaoClock()
+	{
+		final ClockedTestLongEntityDao dao = new ClockedTestLongEntityDao(1000000L);
+		final TestLongEntity entity = new TestLongEntity();
+		dao.create(entity);
+
+		dao.nowMillis = 2000000L;
+		dao.save(entity, true);
+		dao.nowMillis = 3000000L;
+		dao.saveAll(ImmutableList.of(entity), false);
+
+		ObjectifyService.ofy().clear();
+		TestLongEntity loaded = ObjectifyService.ofy().load().key(entity.getTypedKey()).now();
+		assertThat(loaded.getCreationDateTime().getMillis(), is(1000000L));
+		assertThat(loaded.getUpdateDateTime().getMillis(), is(2000000L));
+
+		dao.saveAll(ImmutableList.of(entity), true);
+		ObjectifyService.ofy().clear();
+		loaded = ObjectifyService.ofy().load().key(entity.getTypedKey()).now();
+		assertThat(loaded.getUpdateDateTime().getMillis(), is(3000000L));
+	}
+
+	/////////////////////////////
+	// Skipping Unchanged Saves
+	/////////////////////////////
+
+	@Test
+	public void TestSave_UnchangedEntitiesAreSavedByDefault()
+	{
+		final TestLongEntityDao dao = new TestLongEntityDao();
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setVersion(0L);
+		dao.create(entity);
+
+		ObjectifyService.ofy().clear();
+		final TestLongEntity loaded = dao.findByTypedKey(entity.getTypedKey()).get();
+		dao.save(loaded);
+
+		assertThat(dao.getNumSkippedSaves(), is(0L));
+		assertThat(loadStored(entity.getTypedKey()).getVersion(), is(1L));
+	}
+
+	@Test
+	public void TestSave_SkipsUnchangedEntity()
+	{
+		final SkippingTestLongEntityDao dao = new SkippingTestLongEntityDao();
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setVersion(0L);
+		entity.setTestValue("created");
+		dao.create(entity);
+
+		// An entity is clean once it has been created.
+		dao.save(entity);
+		assertThat(dao.getNumSkippedSaves(), is(1L));
+
+		ObjectifyService.ofy().clear();
+		final TestLongEntity loaded = dao.findByTypedKey(entity.getTypedKey()).get();
+		dao.save(loaded);
+		assertThat(dao.getNumSkippedSaves(), is(2L));
+		assertThat(loadStored(entity.getTypedKey()).getVersion(), is(0L));
+
+		loaded.setTestValue("changed");
+		dao.save(loaded);
+		assertThat(dao.getNumSkippedSaves(), is(2L));
+		assertThat(loadStored(entity.getTypedKey()).getTestValue(), is("changed"));
+		assertThat(loadStored(entity.getTypedKey()).getVersion(), is(1L));
+
+		// The entity is clean again once it has been saved.
+		dao.save(loaded);
+		assertThat(dao.getNumSkippedSaves(), is(3L));
+	}
+
+	@Test
+	public void TestSave_TouchingUpdateDateTimeIsNeverSkipped()
+	{
+		final SkippingTestLongEntityDao dao = new SkippingTestLongEntityDao();
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setVersion(0L);
+		dao.create(entity);
+		final TestLongEntity otherEntity = new TestLongEntity();
+		otherEntity.setVersion(0L);
+		dao.create(otherEntity);
+
+		dao.save(entity, true);
+		dao.saveAll(ImmutableList.of(entity, otherEntity), true);
+
+		assertThat(dao.getNumSkippedSaves(), is(0L));
+		assertThat(loadStored(entity.getTypedKey()).getVersion(), is(2L));
+		assertThat(loadStored(otherEntity.getTypedKey()).getVersion(), is(1L));
+	}
+
+	@Test
+	public void TestSaveIfVersion_MarksEntityClean()
+	{
+		final SkippingTestLongEntityDao dao = new SkippingTestLongEntityDao();
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setVersion(0L);
+		dao.create(entity);
+
+		entity.setTestValue("changed");
+		dao.saveIfVersion(entity);
+		dao.save(entity);
+
+		assertThat(dao.getNumSkippedSaves(), is(1L));
+		assertThat(loadStored(entity.getTypedKey()).getVersion(), is(1L));
+	}
+
+	@Test
+	public void TestSave_ReloadedEntityKeepsChanges()
+	{
+		final SkippingTestLongEntityDao dao = new SkippingTestLongEntityDao();
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setTestValue("created");
+		dao.create(entity);
+
+		ObjectifyService.ofy().clear();
+		final TestLongEntity loaded = dao.findByTypedKey(entity.getTypedKey()).get();
+		loaded.setTestValue("changed");
+
+		// The session cache returns the same (changed) instance, which must not be marked clean again.
+		assertThat(dao.findByTypedKey(entity.getTypedKey()).get(), is(sameInstance(loaded)));
+		dao.save(loaded);
+
+		assertThat(dao.getNumSkippedSaves(), is(0L));
+		assertThat(loadStored(entity.getTypedKey()).getTestValue(), is("changed"));
+	}
+
+	@Test
+	public void TestSave_UntrackedEntityIsSaved()
+	{
+		final SkippingTestLongEntityDao dao = new SkippingTestLongEntityDao();
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setTestValue("created");
+		dao.create(entity);
+
+		final TestLongEntity copy = new TestLongEntity(entity.getTypedKey());
+		copy.setTestValue("created");
+		dao.save(copy);
+
+		assertThat(dao.getNumSkippedSaves(), is(0L));
+	}
+
+	@Test
+	public void TestSaveAll_SkipsUnchangedEntities()
+	{
+		final SkippingTestLongEntityDao dao = new SkippingTestLongEntityDao();
+		final List<TestLongEntity> entities = ImmutableList.of(new TestLongEntity(), new TestLongEntity(),
+				new TestLongEntity());
+		final List<Key<TestLongEntity>> typedKeys = dao.createAll(entities);
+
+		ObjectifyService.ofy().clear();
+		final List<TestLongEntity> loaded = Lists.newArrayList(dao.findByTypedKeys(typedKeys).getFound().values());
+		loaded.get(1).setTestValue("changed");
+		dao.saveAll(loaded);
+
+		assertThat(dao.getNumSkippedSaves(), is(2L));
+		assertThat(loadStored(loaded.get(1).getTypedKey()).getTestValue(), is("changed"));
+	}
+
+	/////////////////////////////
+	// Entity Size
+	/////////////////////////////
+
+	@Test
+	public void TestCreate_OversizedEntityFailsFast()
+	{
+		final SizeCheckingTestLongEntityDao dao = new SizeCheckingTestLongEntityDao();
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setTestValue(Strings.repeat("x", 2000));
+		dao.create(entity);
+
+		entity.setTestValue(Strings.repeat("x", 20000));
+		try
+		{
+			dao.save(entity);
+			fail();
+		}
+		catch (EntityTooLargeException e)
+		{
+			assertThat(e.getKey(), is((Object) entity.getTypedKey()));
+		}
+
+		ObjectifyService.ofy().clear();
+		assertThat(loadStored(entity.getTypedKey()).getTestValue().length(), is(2000));
+
+		final TestLongEntity oversizedEntity = new TestLongEntity();
+		oversizedEntity.setTestValue(Strings.repeat("x", 20000));
+		try
+		{
+			dao.create(oversizedEntity);
+			fail();
+		}
+		catch (EntityTooLargeException e)
+		{
+			assertThat(oversizedEntity.getId(), is(nullValue()));
+		}
+
+		final TestLongEntity newEntity = new TestLongEntity();
+		try
+		{
+			dao.createAll(ImmutableList.of(newEntity, oversizedEntity));
+			fail();
+		}
+		catch (EntityTooLargeException e)
+		{
+			assertThat(e.getEstimatedBytes() > 20000, is(true));
+		}
+
+		// Neither entity was changed, so both can be created once the oversized entity has been fixed.
+		assertThat(newEntity.getId(), is(nullValue()));
+		assertThat(oversizedEntity.getId(), is(nullValue()));
+		oversizedEntity.setTestValue("x");
+		assertThat(dao.createAll(ImmutableList.of(newEntity, oversizedEntity)).size(), is(2));
+	}
+
+	@Test
+	public void TestCreateAll_FailedPutClearsIds()
+	{
+		final TestLongEntityDao dao = new TestLongEntityDao();
+		final TestLongEntity entity = new TestLongEntity();
+		final TestLongEntity oversizedEntity = new TestLongEntity();
+		oversizedEntity.setTestValue(Strings.repeat("x", EntitySizeEstimator.MAX_ENTITY_BYTES + 1));
+		try
+		{
+			dao.createAll(ImmutableList.of(entity, oversizedEntity));
+			fail();
+		}
+		catch (RuntimeException e)
+		{
+			assertThat(entity.getId(), is(nullValue()));
+			assertThat(oversizedEntity.getId(), is(nullValue()));
+		}
+
+		oversizedEntity.setTestValue("x");
+		assertThat(dao.createAll(ImmutableList.of(entity, oversizedEntity)).size(), is(2));
+	}
+
 	/////////////////////////////
 	// Helper Methods
 	/////////////////////////////
@@ -316,4 +1691,225 @@ public abstract class AbstractObjectifyLongDaoTester<T extends AbstractObjectify
 			impl.create(testLongEntity);
 		}
 	}
+
+	private Set<Long> createManyLongEntitiesInDatastore(final AbstractObjectifyLongDao<TestLongEntity> impl,
+			final int numToCreate)
+	{
+		final List<TestLongEntity> entities = Lists.newArrayList();
+		for (int i = 0; i < numToCreate; i++)
+		{
+			entities.add(new TestLongEntity());
+		}
+
+		final Set<Long> ids = Sets.newHashSet();
+		for (final Key<TestLongEntity> key : impl.createAll(entities))
+		{
+			ids.add(key.getId());
+		}
+		return ids;
+	}
+
+	/**
+	 * A {@link ThreadFactory} whose threads can make App Engine API calls, which is what {@link
+	 * com.google.appengine.api.ThreadManager} provides in production.
+	 */
+	private static final class ApiProxyEnvironmentThreadFactory implements ThreadFactory
+	{
+		private final ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+
+		@Override
+		public Thread newThread(final Runnable runnable)
+		{
+			return new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					ApiProxy.setEnvironmentForCurrentThread(environment);
+					runnable.run();
+				}
+			});
+		}
+	}
+
+	/**
+	 * An extension of {@link AbstractObjectifyLongDao} with a {@link NearCache}.
+	 */
+	private static final class NearCachingTestLongEntityDao extends AbstractObjectifyLongDao<TestLongEntity>
+	{
+		private final NearCache<TestLongEntity> nearCache;
+
+		private NearCachingTestLongEntityDao(final long revalidateAfterMillis)
+		{
+			this.nearCache = new NearCache<>(100, 60000L, revalidateAfterMillis);
+		}
+
+		@Override
+		protected Optional<NearCache<TestLongEntity>> getNearCache()
+		{
+			return Optional.of(this.nearCache);
+		}
+	}
+
+	/**
+	 * Saves a {@link TestLongEntity} directly through Objectify, as an older version of the application would have.
+	 */
+	private Key<TestLongEntity> saveUnmigratedEntity(final String testValue, final Integer schemaVersion)
+	{
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setTestValue(testValue);
+		entity.setSchemaVersion(schemaVersion);
+		ObjectifyService.ofy().save().entity(entity).now();
+		ObjectifyService.ofy().clear();
+
+		// Loading the entity by key applies its write, so that queries see it.
+		this.loadStored(entity.getTypedKey());
+		return entity.getTypedKey();
+	}
+
+	/**
+	 * Loads the stored copy of an entity, bypassing both the Dao and the current Objectify session.
+	 */
+	private TestLongEntity loadStored(final Key<TestLongEntity> key)
+	{
+		return ObjectifyService.factory().begin().load().key(key).now();
+	}
+
+	/**
+	 * An extension of {@link AbstractObjectifyLongDao} with a {@link NegativeCache}.
+	 */
+	private static final class NegativeCachingTestLongEntityDao extends AbstractObjectifyLongDao<TestLongEntity>
+	{
+		private final NegativeCache<TestLongEntity> negativeCache = new NegativeCache<>(100, 60000L);
+
+		@Override
+		protected Optional<NegativeCache<TestLongEntity>> getNegativeCache()
+		{
+			return Optional.of(this.negativeCache);
+		}
+	}
+
+	/**
+	 * An extension of {@link AbstractObjectifyLongDao} whose entities have two schema migrations, each of which appends
+	 * a suffix to {@link TestLongEntity#getTestValue()}.
+	 */
+	private static final class MigratingTestLongEntityDao extends AbstractObjectifyLongDao<TestLongEntity>
+	{
+		private final EntityMigrationRegistry<TestLongEntity> registry;
+
+		private MigratingTestLongEntityDao(final int writeBackBatchSize)
+		{
+			this.registry = new EntityMigrationRegistry<>(ImmutableList.of(new SuffixMigration("-v1"),
+					new SuffixMigration("-v2")), writeBackBatchSize);
+		}
+
+		@Override
+		protected Optional<EntityMigrationRegistry<TestLongEntity>> getMigrationRegistry()
+		{
+			return Optional.of(this.registry);
+		}
+	}
+
+	/**
+	 * An extension of {@link AbstractObjectifyLongDao} that retries transactions without backing off, and that counts
+	 * them in its own {@link TransactionMetrics}.
+	 */
+	private static final class RetryingTestLongEntityDao extends AbstractObjectifyLongDao<TestLongEntity>
+	{
+		private final TransactionMetrics transactionMetrics = new TransactionMetrics();
+
+		@Override
+		protected TransactionRetryPolicy getTransactionRetryPolicy()
+		{
+			return new TransactionRetryPolicy(3, 0L, 0L, 0L);
+		}
+
+		@Override
+		protected TransactionMetrics getTransactionMetrics()
+		{
+			return this.transactionMetrics;
+		}
+	}
+
+	/**
+	 * An extension of {@link AbstractObjectifyLongDao} whose request deadline arrives after a fixed number of deadline
+	 * checks.
+	 */
+	private static final class DeadlineTestLongEntityDao extends AbstractObjectifyLongDao<TestLongEntity>
+	{
+		private int remainingChecksBeforeDeadline;
+
+		private DeadlineTestLongEntityDao(final int numChecksBeforeDeadline)
+		{
+			this.remainingChecksBeforeDeadline = numChecksBeforeDeadline;
+		}
+
+		@Override
+		protected long getRemainingMillis()
+		{
+			return this.remainingChecksBeforeDeadline-- > 0 ? Long.MAX_VALUE : 0L;
+		}
+	}
+
+	/**
+	 * An extension of {@link AbstractObjectifyLongDao} whose clock is set by the test.
+	 */
+	private static final class ClockedTestLongEntityDao extends AbstractObjectifyLongDao<TestLongEntity>
+	{
+		private volatile long nowMillis;
+
+		private ClockedTestLongEntityDao(final long nowMillis)
+		{
+			this.nowMillis = nowMillis;
+		}
+
+		@Override
+		protected MillisProvider getMillisProvider()
+		{
+			return new MillisProvider()
+			{
+				@Override
+				public long getMillis()
+				{
+					return nowMillis;
+				}
+			};
+		}
+	}
+
+	/**
+	 * An extension of {@link AbstractObjectifyLongDao} that skips unchanged saves.
+	 */
+	private static final class SkippingTestLongEntityDao extends AbstractObjectifyLongDao<TestLongEntity>
+	{
+		@Override
+		protected boolean isSkippingUnchangedSaves()
+		{
+			return true;
+		}
+	}
+
+	/**
+	 * An extension of {@link AbstractObjectifyLongDao} that rejects entities larger than 10000 bytes.
+	 */
+	private static final class SizeCheckingTestLongEntityDao extends AbstractObjectifyLongDao<TestLongEntity>
+	{
+		@Override
+		protected Optional<EntitySizeEstimator> getEntitySizeEstimator()
+		{
+			return Optional.of(new EntitySizeEstimator(10000));
+		}
+	}
+
+	/**
+	 * An extension of {@link AbstractObjectifyLongDao} that pages with a keys-only probe.
+	 */
+	private static final class ProbingTestLongEntityDao extends AbstractObjectifyLongDao<TestLongEntity>
+	{
+		@Override
+		protected PagingPolicy getPagingPolicy()
+		{
+			return new PagingPolicy(10, 500, LookaheadMode.KEYS_ONLY_PROBE);
+		}
+	}
 }
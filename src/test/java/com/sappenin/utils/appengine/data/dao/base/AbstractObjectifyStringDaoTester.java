@@ -8,6 +8,7 @@ import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.cmd.Query;
 import com.googlecode.objectify.impl.translate.opt.joda.DateTimeZoneTranslatorFactory;
 import com.googlecode.objectify.impl.translate.opt.joda.ReadableInstantTranslatorFactory;
+import com.sappenin.utils.appengine.data.dao.NegativeCache;
 import com.sappenin.utils.appengine.data.dao.ObjectifyLongDao;
 import com.sappenin.utils.appengine.data.dao.ObjectifyStringDao;
 import com.sappenin.utils.appengine.data.dao.base.TestLongEntityTestLong.TestLongEntityDao;
@@ -123,7 +124,7 @@ public abstract class AbstractObjectifyStringDaoTester<T extends AbstractObjecti
 	@Test(expected = NullPointerException.class)
 	public void TestExistsInDatastore_NullInput()
 	{
-		this.getDao().existsInDatastore(null);
+		this.getDao().existsInDatastore((Key<T>) null);
 	}
 
 	/**
@@ -284,7 +285,7 @@ public abstract class AbstractObjectifyStringDaoTester<T extends AbstractObjecti
 	{
 		// Need to peg this to type "TestLongEntity" in to test properly.
 		final AbstractObjectifyDao<TestLongEntity> impl = new TestLongEntityDao();
-		impl.existsInDatastoreConsistent(null);
+		impl.existsInDatastoreConsistent((Key<TestLongEntity>) null);
 	}
 
 	@Test
@@ -302,6 +303,48 @@ public abstract class AbstractObjectifyStringDaoTester<T extends AbstractObjecti
 		assertThat(impl.existsInDatastoreConsistent(notFoundKey), is(false));
 	}
 
+	/////////////////////////////
+	// NegativeCache
+	/////////////////////////////
+
+	@Test
+	public void TestNegativeCache_CreateInvalidates()
+	{
+		final NegativeCachingTestStringEntityDao impl = new NegativeCachingTestStringEntityDao();
+		final Key<TestStringEntity> key = Key.create(TestStringEntity.class, UUID.randomUUID().toString());
+
+		assertThat(impl.findByTypedKey(key).isPresent(), is(false));
+		assertThat(impl.existsInDatastore(key), is(false));
+		assertThat(impl.negativeCache.stats().hitCount(), is(1L));
+
+		impl.create(new TestStringEntity(key));
+		assertThat(impl.findByTypedKey(key).isPresent(), is(true));
+	}
+
+	/**
+	 * Asserts that a miss is not cached if the entity is created after it was looked up, but before the miss is put.
+	 */
+	@Test
+	public void TestNegativeCache_CreateDuringLoadInvalidatesMiss()
+	{
+		final NegativeCachingTestStringEntityDao impl = new NegativeCachingTestStringEntityDao();
+		final Key<TestStringEntity> key = Key.create(TestStringEntity.class, UUID.randomUUID().toString());
+		impl.beforePutMissing = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				impl.beforePutMissing = null;
+				impl.create(new TestStringEntity(key));
+				ObjectifyService.ofy().clear();
+			}
+		};
+
+		assertThat(impl.findByTypedKey(key).isPresent(), is(false));
+		assertThat(impl.findByTypedKey(key).isPresent(), is(true));
+		assertThat(impl.negativeCache.stats().hitCount(), is(0L));
+	}
+
 	private void createTestStringEntitiesInDatastore(final AbstractObjectifyDao<TestStringEntity> impl,
 			final int numToCreate)
 	{
@@ -314,4 +357,32 @@ public abstract class AbstractObjectifyStringDaoTester<T extends AbstractObjecti
 		}
 	}
 
+	/**
+	 * An extension of {@link AbstractObjectifyStringDao} with a {@link NegativeCache}.
+	 */
+	private static final class NegativeCachingTestStringEntityDao extends AbstractObjectifyStringDao<TestStringEntity>
+	{
+		// Run when a miss is about to be cached, to simulate a create that races with a lookup.
+		private Runnable beforePutMissing;
+
+		private final NegativeCache<TestStringEntity> negativeCache = new NegativeCache<TestStringEntity>(100, 60000L)
+		{
+			@Override
+			public void putMissing(final Key<TestStringEntity> key, final long generation)
+			{
+				if (beforePutMissing != null)
+				{
+					beforePutMissing.run();
+				}
+				super.putMissing(key, generation);
+			}
+		};
+
+		@Override
+		protected Optional<NegativeCache<TestStringEntity>> getNegativeCache()
+		{
+			return Optional.of(this.negativeCache);
+		}
+	}
+
 }
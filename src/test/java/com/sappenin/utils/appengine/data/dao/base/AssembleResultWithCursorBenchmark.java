@@ -0,0 +1,156 @@
+package com.sappenin.utils.appengine.data.dao.base;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.common.collect.Lists;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.cmd.Query;
+import com.sappenin.utils.appengine.base.GaeTestHarnessInitializationAdapter;
+import com.sappenin.utils.appengine.data.dao.base.TestLongEntityTestLong.TestLongEntityDao;
+import com.sappenin.utils.appengine.data.model.ResultWithCursor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Compares the per-page cost of {@link AbstractObjectifyDao#assembleResultWithCursor} against the previous
+ * implementation, which materialized a cursor for every returned item and collected into a linked list.  Pages are
+ * walked end-to-end over the local Datastore stub, so timings include the query work that each cursor costs. <br/>
+ * <br/> This class is not matched by the default surefire includes, so it does not run as part of the build.  Run it
+ * explicitly with {@code mvn test -Dtest=AssembleResultWithCursorBenchmark}.
+ *
+ * @author David Fuelling
+ */
+public class AssembleResultWithCursorBenchmark extends GaeTestHarnessInitializationAdapter
+{
+	private static final int NUM_ENTITIES = 500;
+
+	private static final int NUM_WARMUP_ITERATIONS = 3;
+
+	private static final int NUM_MEASURED_ITERATIONS = 10;
+
+	private TestLongEntityDao dao;
+
+	@Before
+	public void setUpBenchmark()
+	{
+		ObjectifyService.factory().register(TestLongEntity.class);
+		this.dao = new TestLongEntityDao();
+
+		final List<TestLongEntity> entities = Lists.newArrayList();
+		for (int i = 0; i < NUM_ENTITIES; i++)
+		{
+			entities.add(new TestLongEntity());
+		}
+		this.dao.createAll(entities);
+	}
+
+	@Test
+	public void benchmarkPageSize10()
+	{
+		this.benchmark(10);
+	}
+
+	@Test
+	public void benchmarkPageSize50()
+	{
+		this.benchmark(50);
+	}
+
+	//////////////////
+	// Private Helpers
+	//////////////////
+
+	private void benchmark(final int pageSize)
+	{
+		for (int i = 0; i < NUM_WARMUP_ITERATIONS; i++)
+		{
+			this.walkAllPages(pageSize, true);
+			this.walkAllPages(pageSize, false);
+		}
+
+		long legacyNanos = 0;
+		long currentNanos = 0;
+		for (int i = 0; i < NUM_MEASURED_ITERATIONS; i++)
+		{
+			long start = System.nanoTime();
+			assertThat(this.walkAllPages(pageSize, true), is(NUM_ENTITIES));
+			legacyNanos += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			assertThat(this.walkAllPages(pageSize, false), is(NUM_ENTITIES));
+			currentNanos += System.nanoTime() - start;
+		}
+
+		final int numPages = NUM_MEASURED_ITERATIONS * ((NUM_ENTITIES + pageSize - 1) / pageSize);
+		System.out.println(String.format(
+				"assembleResultWithCursor (pageSize=%d): legacy %.1f us/page, current %.1f us/page (%.2fx)", pageSize,
+				TimeUnit.NANOSECONDS.toMicros(legacyNanos) / (double) numPages,
+				TimeUnit.NANOSECONDS.toMicros(currentNanos) / (double) numPages, legacyNanos / (double) currentNanos));
+	}
+
+	/**
+	 * Pages through every entity in the Datastore, following cursors, and returns the number of entities seen.
+	 */
+	private int walkAllPages(final int pageSize, final boolean useLegacyAssembly)
+	{
+		final Query<TestLongEntity> query = ObjectifyService.ofy().load().type(TestLongEntity.class);
+
+		int numEntities = 0;
+		Cursor cursor = null;
+		do
+		{
+			final QueryResultIterator<TestLongEntity> iterator = query.limit(pageSize + 1).startAt(cursor).iterator();
+			final ResultWithCursor<List<TestLongEntity>> page = useLegacyAssembly ? legacyAssembleResultWithCursor(
+					iterator, pageSize) : this.dao.assembleResultWithCursor(iterator, pageSize);
+			numEntities += page.getResult().size();
+			cursor = page.getOptCursor().orNull();
+		}
+		while (cursor != null);
+
+		return numEntities;
+	}
+
+	/**
+	 * The implementation of {@link AbstractObjectifyDao#assembleResultWithCursor} as of version 1.2.1.
+	 */
+	private static <Z> ResultWithCursor<List<Z>> legacyAssembleResultWithCursor(
+			final QueryResultIterator<Z> entitiesIterator, final int limit)
+	{
+		Cursor lastRetrievedResultCursor = null;
+
+		final List<Z> resultCollection = Lists.newLinkedList();
+		final ResultWithCursor<List<Z>> resultWithCursor = new ResultWithCursor<>(resultCollection);
+
+		boolean returnCursor = false;
+		int numProcessedEntities = 0;
+		while (entitiesIterator.hasNext())
+		{
+			final Z entity = entitiesIterator.next();
+			if (numProcessedEntities < limit)
+			{
+				lastRetrievedResultCursor = entitiesIterator.getCursor();
+				resultWithCursor.getResult().add(entity);
+			}
+			else
+			{
+				returnCursor = true;
+				break;
+			}
+			numProcessedEntities++;
+		}
+
+		if (returnCursor)
+		{
+			resultWithCursor.setCursor(lastRetrievedResultCursor);
+		}
+
+		return resultWithCursor;
+	}
+
+}
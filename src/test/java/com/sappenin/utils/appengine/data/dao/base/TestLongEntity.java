@@ -2,6 +2,7 @@ package com.sappenin.utils.appengine.data.dao.base;
 
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Index;
 import com.sappenin.utils.appengine.data.model.base.AbstractObjectifyLongEntity;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -16,6 +17,7 @@ import lombok.NoArgsConstructor;
 @EqualsAndHashCode(callSuper = true)
 public class TestLongEntity extends AbstractObjectifyLongEntity<TestLongEntity>
 {
+	@Index
 	private String testValue;
 
 	public TestLongEntity(final Key<TestLongEntity> key)
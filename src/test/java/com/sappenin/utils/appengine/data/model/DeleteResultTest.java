@@ -0,0 +1,73 @@
+package com.sappenin.utils.appengine.data.model;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.sappenin.utils.appengine.base.GaeTestHarnessInitializationAdapter;
+import com.sappenin.utils.appengine.data.dao.base.TestLongEntity;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Unit tests for {@link DeleteResult}.
+ */
+public class DeleteResultTest extends GaeTestHarnessInitializationAdapter
+{
+	@Before
+	public void registerEntities()
+	{
+		ObjectifyService.factory().register(TestLongEntity.class);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_NegativeNumDeleted() throws Exception
+	{
+		new DeleteResult<>(-1L, Optional.<Cursor>absent(), ImmutableList.<Key<TestLongEntity>>of());
+	}
+
+	@Test
+	public void testIsComplete() throws Exception
+	{
+		final DeleteResult<TestLongEntity> deleteResult = new DeleteResult<>(10L, Optional.<Cursor>absent(),
+				ImmutableList.<Key<TestLongEntity>>of());
+
+		assertThat(deleteResult.isComplete(), is(true));
+		assertThat(deleteResult.getNumDeleted(), is(10L));
+	}
+
+	@Test
+	public void testIsComplete_ContinuationCursor() throws Exception
+	{
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setId(1L);
+		ObjectifyService.ofy().save().entity(entity).now();
+		final Cursor cursor = ObjectifyService.ofy().load().type(TestLongEntity.class).limit(1).keys().iterator()
+				.getCursor();
+
+		final DeleteResult<TestLongEntity> deleteResult = new DeleteResult<>(500L, Optional.of(cursor),
+				ImmutableList.<Key<TestLongEntity>>of());
+		assertThat(deleteResult.isComplete(), is(false));
+	}
+
+	@Test
+	public void testIsComplete_RemainingKeys() throws Exception
+	{
+		final List<Key<TestLongEntity>> remainingKeys = Lists.newArrayList(Key.create(TestLongEntity.class, 1L));
+		final DeleteResult<TestLongEntity> deleteResult = new DeleteResult<>(500L, Optional.<Cursor>absent(),
+				remainingKeys);
+
+		// The remaining keys are copied, so that a caller cannot change them.
+		remainingKeys.clear();
+		assertThat(deleteResult.isComplete(), is(false));
+		assertThat(deleteResult.getRemainingKeys(),
+				is((List<Key<TestLongEntity>>) ImmutableList.of(Key.create(TestLongEntity.class, 1L))));
+	}
+}
@@ -0,0 +1,218 @@
+package com.sappenin.utils.appengine.data.model.base;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.OnSave;
+import com.googlecode.objectify.annotation.Parent;
+import com.sappenin.utils.appengine.base.GaeTestHarnessInitializationAdapter;
+import com.sappenin.utils.appengine.data.dao.base.TestLongEntity;
+import com.sappenin.utils.appengine.data.dao.base.TestStringEntity;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+
+/**
+ * Unit tests for the Key memoization and change tracking of {@link AbstractObjectifyEntity}, and for the creation and
+ * update times of {@link AbstractEntity}.
+ */
+public class AbstractObjectifyEntityTest extends GaeTestHarnessInitializationAdapter
+{
+	@Before
+	public void registerEntities()
+	{
+		ObjectifyService.factory().register(TestLongEntity.class);
+		ObjectifyService.factory().register(TestChildEntity.class);
+		ObjectifyService.factory().register(TestSaveHookEntity.class);
+	}
+
+	@Test
+	public void testGetTypedKey_NullId() throws Exception
+	{
+		final TestLongEntity entity = new TestLongEntity();
+
+		assertThat(entity.getTypedKey(), is(nullValue()));
+		assertThat(entity.getKey(), is(nullValue()));
+
+		entity.setId(5L);
+		assertThat(entity.getTypedKey(), is(Key.create(TestLongEntity.class, 5L)));
+	}
+
+	@Test
+	public void testGetTypedKey_Memoized() throws Exception
+	{
+		final TestLongEntity entity = new TestLongEntity(Key.create(TestLongEntity.class, 5L));
+		final Key<TestLongEntity> typedKey = entity.getTypedKey();
+
+		assertThat(typedKey, is(Key.create(TestLongEntity.class, 5L)));
+		assertThat(entity.getTypedKey(), is(sameInstance(typedKey)));
+		assertThat(entity.getKey(), is(sameInstance(typedKey.getRaw())));
+
+		final TestStringEntity stringEntity = new TestStringEntity(Key.create(TestStringEntity.class, "foo"));
+		assertThat(stringEntity.getTypedKey(), is(Key.create(TestStringEntity.class, "foo")));
+		assertThat(stringEntity.getTypedKey(), is(sameInstance(stringEntity.getTypedKey())));
+	}
+
+	@Test
+	public void testGetTypedKey_IdChanged() throws Exception
+	{
+		final TestLongEntity entity = new TestLongEntity(Key.create(TestLongEntity.class, 5L));
+		final int hashCode = entity.hashCode();
+
+		entity.setId(6L);
+		assertThat(entity.getTypedKey(), is(Key.create(TestLongEntity.class, 6L)));
+		assertThat(entity.hashCode(), is(not(hashCode)));
+	}
+
+	@Test
+	public void testGetTypedKey_ParentChanged() throws Exception
+	{
+		final TestChildEntity entity = new TestChildEntity();
+		entity.setId(1L);
+		assertThat(entity.getTypedKey(), is(Key.create(TestChildEntity.class, 1L)));
+
+		entity.setParent(Key.create(TestLongEntity.class, 5L));
+		assertThat(entity.getTypedKey(), is(Key.create(Key.create(TestLongEntity.class, 5L), TestChildEntity.class, 1L)));
+
+		entity.setParent(Key.create(TestLongEntity.class, 6L));
+		assertThat(entity.getTypedKey(), is(Key.create(Key.create(TestLongEntity.class, 6L), TestChildEntity.class, 1L)));
+	}
+
+	@Test
+	public void testMemoizedKeyIsNotSaved() throws Exception
+	{
+		final TestLongEntity entity = new TestLongEntity(Key.create(TestLongEntity.class, 5L));
+		entity.getTypedKey();
+
+		assertThat(ObjectifyService.ofy().save().toEntity(entity).hasProperty("memoizedKey"), is(false));
+	}
+
+	@Test
+	public void testDateTimes_DefaultedOnFirstAccess() throws Exception
+	{
+		try
+		{
+			DateTimeUtils.setCurrentMillisFixed(1000L);
+			final TestLongEntity entity = new TestLongEntity();
+
+			// Constructing the entity does not read the clock.
+			DateTimeUtils.setCurrentMillisFixed(2000L);
+			assertThat(entity.getUpdateDateTime().getMillis(), is(2000L));
+
+			DateTimeUtils.setCurrentMillisFixed(3000L);
+			assertThat(entity.getCreationDateTime().getMillis(), is(2000L));
+		}
+		finally
+		{
+			DateTimeUtils.setCurrentMillisSystem();
+		}
+	}
+
+	@Test
+	public void testDateTimes_InitializedOnSave() throws Exception
+	{
+		final TestLongEntity entity = new TestLongEntity(Key.create(TestLongEntity.class, 5L));
+		entity.setUpdateDateTime(new DateTime(1000L, DateTimeZone.UTC));
+
+		final com.google.appengine.api.datastore.Entity saved = ObjectifyService.ofy().save().toEntity(entity);
+		assertThat(saved.getProperty("creationDateTime"), is(not(nullValue())));
+		assertThat(((Date) saved.getProperty("updateDateTime")).getTime(), is(1000L));
+	}
+
+	@Test
+	public void testInitializeDateTimes() throws Exception
+	{
+		final TestLongEntity entity = new TestLongEntity();
+		entity.setCreationDateTime(new DateTime(1000L, DateTimeZone.UTC));
+		entity.initializeDateTimes(2000L);
+
+		assertThat(entity.getCreationDateTime().getMillis(), is(1000L));
+		assertThat(entity.getUpdateDateTime().getMillis(), is(2000L));
+	}
+
+	@Test
+	public void testIsDirty() throws Exception
+	{
+		final TestLongEntity entity = new TestLongEntity(Key.create(TestLongEntity.class, 5L));
+		entity.setTestValue("foo");
+		assertThat(entity.isTrackingChanges(), is(false));
+		assertThat(entity.isDirty(), is(true));
+
+		entity.markClean();
+		assertThat(entity.isTrackingChanges(), is(true));
+		assertThat(entity.isDirty(), is(false));
+
+		entity.setTestValue("bar");
+		assertThat(entity.isDirty(), is(true));
+		entity.setTestValue("foo");
+		assertThat(entity.isDirty(), is(false));
+
+		entity.setId(6L);
+		assertThat(entity.isDirty(), is(true));
+	}
+
+	@Test
+	public void testIsDirty_DoesNotRunSaveHooks() throws Exception
+	{
+		final TestSaveHookEntity entity = new TestSaveHookEntity();
+		entity.setId(5L);
+
+		entity.markClean();
+		assertThat(entity.isDirty(), is(false));
+		assertThat(entity.getNumSaves(), is(0));
+
+		ObjectifyService.ofy().save().toEntity(entity);
+		assertThat(entity.getNumSaves(), is(1));
+		assertThat(entity.isDirty(), is(true));
+	}
+
+	/**
+	 * An entity with an {@link OnSave} method that changes its persistent state on every save.
+	 */
+	@Entity
+	@NoArgsConstructor
+	public static class TestSaveHookEntity extends AbstractObjectifyLongEntity<TestSaveHookEntity>
+	{
+		@Getter
+		private int numSaves;
+
+		@OnSave
+		private void countSave()
+		{
+			this.numSaves++;
+		}
+	}
+
+	/**
+	 * An entity with an {@link Parent}.
+	 */
+	@Entity
+	@NoArgsConstructor
+	public static class TestChildEntity extends AbstractObjectifyLongEntity<TestChildEntity>
+	{
+		@Parent
+		@Getter
+		@Setter
+		private Key<TestLongEntity> parent;
+
+		@Override
+		public Key<?> getParentKey()
+		{
+			return this.parent;
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+package com.sappenin.utils.appengine.data.model.base;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.annotation.Entity;
+import com.sappenin.utils.appengine.base.GaeTestHarnessInitializationAdapter;
+import com.sappenin.utils.appengine.data.dao.base.TestLongEntity;
+import lombok.NoArgsConstructor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Compares the cost of hashing and comparing entities (which call {@link AbstractEntity#getKey()}) with memoized Keys
+ * against the previous implementation, which assembled a new Key on every call.  Each iteration adds a large
+ * collection of entities to a {@link Set}, probes it with equal copies of every entity, and compares each pair of
+ * neighbouring entities. <br/> <br/> This class is not matched by the default surefire includes, so it does not run
+ * as part of the build.  Run it explicitly with {@code mvn test -Dtest=EntityKeyBenchmark}.
+ *
+ * @author David Fuelling
+ */
+public class EntityKeyBenchmark extends GaeTestHarnessInitializationAdapter
+{
+	private static final int NUM_ENTITIES = 100000;
+
+	private static final int NUM_WARMUP_ITERATIONS = 5;
+
+	private static final int NUM_MEASURED_ITERATIONS = 20;
+
+	@Before
+	public void setUpBenchmark()
+	{
+		ObjectifyService.factory().register(TestLongEntity.class);
+		ObjectifyService.factory().register(LegacyKeyEntity.class);
+	}
+
+	@Test
+	public void benchmarkHashingAndEquality()
+	{
+		final List<AbstractEntity> legacyEntities = Lists.newArrayList();
+		final List<AbstractEntity> legacyProbes = Lists.newArrayList();
+		final List<AbstractEntity> currentEntities = Lists.newArrayList();
+		final List<AbstractEntity> currentProbes = Lists.newArrayList();
+		for (long id = 1; id <= NUM_ENTITIES; id++)
+		{
+			legacyEntities.add(new LegacyKeyEntity(id));
+			legacyProbes.add(new LegacyKeyEntity(id));
+			currentEntities.add(new TestLongEntity(com.googlecode.objectify.Key.create(TestLongEntity.class, id)));
+			currentProbes.add(new TestLongEntity(com.googlecode.objectify.Key.create(TestLongEntity.class, id)));
+		}
+
+		for (int i = 0; i < NUM_WARMUP_ITERATIONS; i++)
+		{
+			this.hashAndCompare(legacyEntities, legacyProbes);
+			this.hashAndCompare(currentEntities, currentProbes);
+		}
+
+		long legacyNanos = 0;
+		long currentNanos = 0;
+		for (int i = 0; i < NUM_MEASURED_ITERATIONS; i++)
+		{
+			long start = System.nanoTime();
+			assertThat(this.hashAndCompare(legacyEntities, legacyProbes), is(NUM_ENTITIES));
+			legacyNanos += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			assertThat(this.hashAndCompare(currentEntities, currentProbes), is(NUM_ENTITIES));
+			currentNanos += System.nanoTime() - start;
+		}
+
+		System.out.println(String.format(
+				"Entity hashing and equality (%d entities): legacy %.1f ms/iteration, current %.1f ms/iteration "
+						+ "(%.2fx)", NUM_ENTITIES,
+				TimeUnit.NANOSECONDS.toMicros(legacyNanos) / 1000.0 / NUM_MEASURED_ITERATIONS,
+				TimeUnit.NANOSECONDS.toMicros(currentNanos) / 1000.0 / NUM_MEASURED_ITERATIONS,
+				legacyNanos / (double) currentNanos));
+	}
+
+	//////////////////
+	// Private Helpers
+	//////////////////
+
+	/**
+	 * Hashes {@code entities} into a Set, probes it with {@code probes}, and compares neighbouring entities, returning
+	 * the number of probes that were found.
+	 */
+	private int hashAndCompare(final List<AbstractEntity> entities, final List<AbstractEntity> probes)
+	{
+		final Set<AbstractEntity> set = Sets.newHashSet(entities);
+
+		int numFound = 0;
+		for (final AbstractEntity probe : probes)
+		{
+			if (set.contains(probe))
+			{
+				numFound++;
+			}
+		}
+
+		for (int i = 1; i < entities.size(); i++)
+		{
+			assertThat(entities.get(i).equals(entities.get(i - 1)), is(false));
+		}
+
+		return numFound;
+	}
+
+	/**
+	 * An entity that assembles its Keys as {@link AbstractObjectifyLongEntity} did as of version 1.2.1.
+	 */
+	@Entity
+	@NoArgsConstructor
+	public static class LegacyKeyEntity extends AbstractObjectifyLongEntity<LegacyKeyEntity>
+	{
+		public LegacyKeyEntity(final Long id)
+		{
+			super(id);
+		}
+
+		@Override
+		public com.googlecode.objectify.Key<LegacyKeyEntity> getTypedKey()
+		{
+			final Key rawKey = getKey();
+			if (rawKey == null)
+			{
+				return null;
+			}
+
+			return com.googlecode.objectify.Key.create(rawKey);
+		}
+
+		@Override
+		public Key getKey()
+		{
+			if (this.getId() == null)
+			{
+				return null;
+			}
+			else
+			{
+				return com.googlecode.objectify.Key.create(getParentKey(), this.getClass(), this.getId()).getRaw();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,172 @@
+package com.sappenin.utils.appengine.data.translate;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Text;
+import com.google.common.base.Strings;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.sappenin.utils.appengine.base.GaeTestHarnessInitializationAdapter;
+import com.sappenin.utils.appengine.data.dao.EntitySizeEstimator;
+import com.sappenin.utils.appengine.data.dao.exceptions.EntityTooLargeException;
+import com.sappenin.utils.appengine.data.model.base.AbstractObjectifyLongEntity;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link CompressedStringTranslatorFactory} and {@link EntitySizeEstimator}.
+ */
+public class CompressedStringTranslatorFactoryTest extends GaeTestHarnessInitializationAdapter
+{
+	// About 16KB of repetitive JSON.
+	private static final String LARGE_JSON = "[" + Strings.repeat("{\"name\":\"value\",\"count\":12345},", 500) + "]";
+
+	@Before
+	public void registerEntities()
+	{
+		ObjectifyService.factory().register(CompressedEntity.class);
+	}
+
+	@Test
+	public void testSave_SmallValueIsNotCompressed() throws Exception
+	{
+		final CompressedEntity entity = new CompressedEntity(1L);
+		entity.setJson("{}");
+
+		assertThat(ObjectifyService.ofy().save().toEntity(entity).getProperty("json"), is((Object) "{}"));
+	}
+
+	@Test
+	public void testSave_LargeValueIsCompressed() throws Exception
+	{
+		final CompressedEntity entity = new CompressedEntity(1L);
+		entity.setJson(LARGE_JSON);
+		entity.setPlain(LARGE_JSON);
+
+		final Entity saved = ObjectifyService.ofy().save().toEntity(entity);
+		assertThat(saved.getProperty("json"), is(instanceOf(Blob.class)));
+		assertThat(((Blob) saved.getProperty("json")).getBytes().length < LARGE_JSON.length() / 10, is(true));
+		assertThat(saved.getProperty("plain"), is(instanceOf(Text.class)));
+	}
+
+	@Test
+	public void testSave_ValueBelowCustomThresholdIsNotCompressed() throws Exception
+	{
+		final CompressedEntity entity = new CompressedEntity(1L);
+		entity.setLargeThresholdJson(LARGE_JSON);
+
+		assertThat(ObjectifyService.ofy().save().toEntity(entity).getProperty("largeThresholdJson"),
+				is(instanceOf(Text.class)));
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		final CompressedEntity entity = new CompressedEntity(1L);
+		entity.setJson(LARGE_JSON);
+		entity.setLargeThresholdJson("small");
+		ObjectifyService.ofy().save().entity(entity).now();
+
+		ObjectifyService.ofy().clear();
+		final CompressedEntity loaded = ObjectifyService.ofy().load().key(entity.getTypedKey()).now();
+		assertThat(loaded.getJson(), is(LARGE_JSON));
+		assertThat(loaded.getLargeThresholdJson(), is("small"));
+		assertThat(loaded.getPlain(), is(nullValue()));
+	}
+
+	@Test
+	public void testLoad_UncompressedValues() throws Exception
+	{
+		// Simulate values that were stored before their fields were annotated.
+		final Entity stored = new Entity(Key.create(CompressedEntity.class, 1L).getRaw());
+		stored.setUnindexedProperty("json", new Text(LARGE_JSON));
+		stored.setUnindexedProperty("largeThresholdJson", "small");
+		DatastoreServiceFactory.getDatastoreService().put(stored);
+
+		final CompressedEntity loaded = ObjectifyService.ofy().load().key(Key.create(CompressedEntity.class, 1L))
+				.now();
+		assertThat(loaded.getJson(), is(LARGE_JSON));
+		assertThat(loaded.getLargeThresholdJson(), is("small"));
+	}
+
+	@Test
+	public void testCheckSize_CompressedEntityFits() throws Exception
+	{
+		final CompressedEntity entity = new CompressedEntity(1L);
+		entity.setJson(Strings.repeat(LARGE_JSON, 100));
+
+		EntitySizeEstimator.DEFAULT.checkSize(entity);
+		assertThat(EntitySizeEstimator.DEFAULT.estimateBytes(entity) < 100000, is(true));
+	}
+
+	@Test
+	public void testCheckSize_OversizedEntity() throws Exception
+	{
+		final CompressedEntity entity = new CompressedEntity(1L);
+		entity.setPlain(Strings.repeat(LARGE_JSON, 100));
+
+		try
+		{
+			EntitySizeEstimator.DEFAULT.checkSize(entity);
+			fail();
+		}
+		catch (EntityTooLargeException e)
+		{
+			assertThat(e.getKey(), is((Object) entity.getTypedKey()));
+			assertThat(e.getEstimatedBytes() > EntitySizeEstimator.MAX_ENTITY_BYTES, is(true));
+			assertThat(e.getMaxBytes(), is(EntitySizeEstimator.MAX_ENTITY_BYTES));
+		}
+	}
+
+	@Test
+	public void testCheckSize_CustomLimit() throws Exception
+	{
+		final CompressedEntity entity = new CompressedEntity(1L);
+		entity.setPlain(LARGE_JSON);
+
+		EntitySizeEstimator.DEFAULT.checkSize(entity);
+		try
+		{
+			new EntitySizeEstimator(10000).checkSize(entity);
+			fail();
+		}
+		catch (EntityTooLargeException e)
+		{
+			assertThat(e.getMaxBytes(), is(10000));
+		}
+	}
+
+	/**
+	 * An entity with {@link Compressed} fields.
+	 */
+	@com.googlecode.objectify.annotation.Entity
+	@NoArgsConstructor
+	@Getter
+	@Setter
+	public static class CompressedEntity extends AbstractObjectifyLongEntity<CompressedEntity>
+	{
+		@Compressed
+		private String json;
+
+		@Compressed(thresholdBytes = 1000000)
+		private String largeThresholdJson;
+
+		private String plain;
+
+		public CompressedEntity(final Long id)
+		{
+			super(id);
+		}
+	}
+
+}
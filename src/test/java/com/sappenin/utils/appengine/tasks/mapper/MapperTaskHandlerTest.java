@@ -0,0 +1,314 @@
+package com.sappenin.utils.appengine.tasks.mapper;
+
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.cmd.Query;
+import com.sappenin.utils.appengine.base.GaeTestHarnessInitializationAdapter;
+import com.sappenin.utils.appengine.data.dao.NearCache;
+import com.sappenin.utils.appengine.data.dao.base.AbstractObjectifyLongDao;
+import com.sappenin.utils.appengine.data.dao.base.TestLongEntity;
+import com.sappenin.utils.appengine.data.dao.base.TestLongEntityTestLong.TestLongEntityDao;
+import com.sappenin.utils.json.JsonUtils;
+import com.sappenin.utils.json.JsonUtilsClassTypeMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * A unit test for {@link MapperTaskHandler}.
+ */
+public class MapperTaskHandlerTest extends GaeTestHarnessInitializationAdapter
+{
+	private static final String JOB_ID = "testJob";
+
+	private static final String MAPPED = "mapped";
+
+	@Mock
+	private JsonUtils jsonUtilsMock;
+
+	@Mock
+	private JsonUtilsClassTypeMapper jsonUtilsClassTypeMapperMock;
+
+	private AbstractObjectifyLongDao<TestLongEntity> dao;
+
+	@Before
+	public void beforeMapperTaskHandlerTest()
+	{
+		MockitoAnnotations.initMocks(this);
+		ObjectifyService.factory().register(TestLongEntity.class);
+
+		this.dao = new TestLongEntityDao();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testStart_InvalidJobId()
+	{
+		new TestMapperTaskHandler(1, 10, Long.MAX_VALUE).start("test job");
+	}
+
+	@Test
+	public void testMapAll_OneSlicePerBatch()
+	{
+		final Set<Long> expectedIds = this.createEntities(35);
+		final TestMapperTaskHandler handler = new TestMapperTaskHandler(1, 10, 0L);
+
+		assertThat(handler.start(JOB_ID), is(1));
+		handler.runAll();
+
+		assertThat(handler.taskNames,
+				is((List<String>) Lists.newArrayList("testJob-0-0", "testJob-0-1", "testJob-0-2", "testJob-0-3")));
+		assertThat(handler.completedShards.size(), is(1));
+		assertThat(handler.completedShards.get(0).getNumMapped(), is(35L));
+		this.assertAllMapped(expectedIds);
+	}
+
+	@Test
+	public void testMapAll_MultipleShards()
+	{
+		final Set<Long> expectedIds = this.createEntities(1000);
+		final TestMapperTaskHandler handler = new TestMapperTaskHandler(4, 50, Long.MAX_VALUE);
+
+		final int numShards = handler.start(JOB_ID);
+		assertThat(numShards > 1, is(true));
+		assertThat(numShards <= 4, is(true));
+		handler.runAll();
+
+		// Each shard fits in a single slice.
+		assertThat(handler.taskNames.size(), is(numShards));
+		assertThat(handler.completedShards.size(), is(numShards));
+		long numMapped = 0;
+		for (final MapperPayload completedShard : handler.completedShards)
+		{
+			numMapped += completedShard.getNumMapped();
+		}
+		assertThat(numMapped, is(1000L));
+		this.assertAllMapped(expectedIds);
+	}
+
+	@Test
+	public void testMapAll_RetriedSliceDoesNotFork()
+	{
+		final Set<Long> expectedIds = this.createEntities(20);
+		final TestMapperTaskHandler handler = new TestMapperTaskHandler(1, 10, 0L);
+		handler.start(JOB_ID);
+
+		// Simulate the task queue retrying the first slice after it scheduled its successor.
+		final MapperPayload firstSlice = handler.scheduledPayloads.removeFirst();
+		handler.handleHelper(firstSlice);
+		handler.handleHelper(firstSlice);
+		assertThat(handler.scheduledPayloads.size(), is(1));
+
+		handler.runAll();
+		assertThat(handler.completedShards.size(), is(1));
+		this.assertAllMapped(expectedIds);
+	}
+
+	@Test
+	public void testMapAll_EmptyKind()
+	{
+		final TestMapperTaskHandler handler = new TestMapperTaskHandler(4, 10, 0L);
+
+		assertThat(handler.start(JOB_ID), is(1));
+		handler.runAll();
+
+		assertThat(handler.completedShards.size(), is(1));
+		assertThat(handler.completedShards.get(0).getNumMapped(), is(0L));
+	}
+
+	@Test
+	public void testMapAll_InvalidatesDaoCaches()
+	{
+		this.dao = new NearCachingTestLongEntityDao();
+		final Set<Long> expectedIds = this.createEntities(25);
+		for (final Long id : expectedIds)
+		{
+			assertThat(this.dao.findByTypedKey(Key.create(TestLongEntity.class, id)).get().getTestValue(), is((String) null));
+		}
+
+		final TestMapperTaskHandler handler = new TestMapperTaskHandler(1, 10, Long.MAX_VALUE);
+		handler.start(JOB_ID);
+		handler.runAll();
+
+		ObjectifyService.ofy().clear();
+		for (final Long id : expectedIds)
+		{
+			assertThat(this.dao.findByTypedKey(Key.create(TestLongEntity.class, id)).get().getTestValue(), is(MAPPED));
+		}
+	}
+
+	////////////////////
+	// Private Helpers
+	////////////////////
+
+	private Set<Long> createEntities(final int numToCreate)
+	{
+		final List<TestLongEntity> entities = Lists.newArrayList();
+		for (int i = 0; i < numToCreate; i++)
+		{
+			entities.add(new TestLongEntity());
+		}
+
+		final Set<Long> ids = Sets.newHashSet();
+		for (final Key<TestLongEntity> key : this.dao.createAll(entities))
+		{
+			ids.add(key.getId());
+		}
+
+		// Loading the new entities by key applies their writes, so that queries see them.
+		ObjectifyService.ofy().clear();
+		ObjectifyService.ofy().load().type(TestLongEntity.class).ids(ids);
+		return ids;
+	}
+
+	private void assertAllMapped(final Set<Long> expectedIds)
+	{
+		ObjectifyService.ofy().clear();
+		final Collection<TestLongEntity> entities = ObjectifyService.ofy().load().type(TestLongEntity.class)
+				.ids(expectedIds).values();
+		assertThat(entities.size(), is(expectedIds.size()));
+		for (final TestLongEntity entity : entities)
+		{
+			assertThat(entity.getTestValue(), is(MAPPED));
+		}
+	}
+
+	/**
+	 * A {@link TestLongEntityDao} with a {@link NearCache} that is not revalidated while a test runs.
+	 */
+	private static final class NearCachingTestLongEntityDao extends AbstractObjectifyLongDao<TestLongEntity>
+	{
+		private final NearCache<TestLongEntity> nearCache = new NearCache<>(100, 60000L, 60000L);
+
+		@Override
+		protected Optional<NearCache<TestLongEntity>> getNearCache()
+		{
+			return Optional.of(this.nearCache);
+		}
+	}
+
+	/**
+	 * A {@link MapperTaskHandler} that marks every entity as mapped, and that keeps scheduled tasks in memory instead
+	 * of adding them to a queue.
+	 */
+	private final class TestMapperTaskHandler extends MapperTaskHandler<TestLongEntity>
+	{
+		private final int numShards;
+
+		private final int batchSize;
+
+		private final long sliceDurationMillis;
+
+		private final LinkedList<MapperPayload> scheduledPayloads = Lists.newLinkedList();
+
+		private final List<String> taskNames = Lists.newArrayList();
+
+		private final List<MapperPayload> completedShards = Lists.newArrayList();
+
+		private final Map<String, MapperPayload> tasksByName = Maps.newHashMap();
+
+		private TestMapperTaskHandler(final int numShards, final int batchSize, final long sliceDurationMillis)
+		{
+			super(jsonUtilsMock, jsonUtilsClassTypeMapperMock, dao);
+			this.numShards = numShards;
+			this.batchSize = batchSize;
+			this.sliceDurationMillis = sliceDurationMillis;
+		}
+
+		/**
+		 * Runs every scheduled task, including the tasks that they schedule, until every shard is complete.
+		 */
+		private void runAll()
+		{
+			while (!this.scheduledPayloads.isEmpty())
+			{
+				this.handleHelper(this.scheduledPayloads.removeFirst());
+			}
+		}
+
+		@Override
+		public TaskHandle schedule(final MapperPayload payload, final String taskName)
+		{
+			if (this.tasksByName.containsKey(taskName))
+			{
+				throw new RuntimeException(new TaskAlreadyExistsException(taskName));
+			}
+			this.tasksByName.put(taskName, payload);
+			this.taskNames.add(taskName);
+			this.scheduledPayloads.addLast(payload);
+			return null;
+		}
+
+		@Override
+		protected void map(final TestLongEntity entity, final MapperOutput output)
+		{
+			entity.setTestValue(MAPPED);
+			output.save(entity);
+		}
+
+		@Override
+		protected void onShardComplete(final MapperPayload payload)
+		{
+			super.onShardComplete(payload);
+			this.completedShards.add(payload);
+		}
+
+		@Override
+		protected Query<TestLongEntity> getQuery()
+		{
+			return ObjectifyService.ofy().load().type(TestLongEntity.class);
+		}
+
+		@Override
+		protected int getBatchSize()
+		{
+			return this.batchSize;
+		}
+
+		@Override
+		protected int getNumShards()
+		{
+			return this.numShards;
+		}
+
+		@Override
+		protected long getSliceDurationMillis()
+		{
+			return this.sliceDurationMillis;
+		}
+
+		@Override
+		protected Logger getLogger()
+		{
+			return Logger.getLogger(MapperTaskHandlerTest.class.getName());
+		}
+
+		@Override
+		protected String getProcessingQueueName()
+		{
+			return "default";
+		}
+
+		@Override
+		protected String getProcessingQueueUrlPath()
+		{
+			return "/tasks/mapper";
+		}
+	}
+}